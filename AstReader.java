@@ -0,0 +1,269 @@
+/**
+ * Author: Ben Comer
+ * File: AstReader.java
+ *
+ * Reads an AST written by AstWriter. Name tokens are interned again
+ * as they are read, so their symbol ids (and canonical lexemes) are
+ * those of the current run. The AST is decoded straight from a byte
+ * array (in DataOutputStream's big-endian form), which is much cheaper
+ * than a DataInputStream while the JVM is still cold. Malformed data
+ * raises an IOException (or a RuntimeException, such as a
+ * ClassCastException for a node of the wrong kind).
+ */
+
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+
+public class AstReader {
+
+  private static final TokenType[] TYPES = TokenType.values();
+
+  private byte[] data;
+  private int pos;              // next byte to read
+  private List<String> strings = new ArrayList<>();
+
+
+  // reads the AST starting at offset in data
+  public AstReader(byte[] data, int offset) {
+    this.data = data;
+    this.pos = offset;
+  }
+
+
+  /**
+   * Reads a statement list.
+   */
+  public StmtList read() throws IOException {
+    return (StmtList)node();
+  }
+
+
+  // helper functions
+
+  // reads a tagged node (or null)
+  private ASTNode node() throws IOException {
+    int tag = readByte();
+    switch (tag) {
+    case AstWriter.NULL:
+      return null;
+    case AstWriter.STMT_LIST: {
+      StmtList node = new StmtList();
+      int n = readInt();
+      node.stmts.ensureCapacity(n);
+      for (int i = 0; i < n; ++i)
+        node.stmts.add((Stmt)node());
+      return node;
+    }
+    case AstWriter.VAR_DECL: {
+      VarDeclStmt node = new VarDeclStmt();
+      node.varId = token();
+      node.varType = token();
+      node.varExpr = (Expr)node();
+      return node;
+    }
+    case AstWriter.ARRAY_DECL: {
+      ArrayDeclStmt node = new ArrayDeclStmt();
+      node.arrayId = token();
+      node.arrayType = token();
+      tokens(node.elements);
+      return node;
+    }
+    case AstWriter.ASSIGN: {
+      AssignStmt node = new AssignStmt();
+      node.lhs = (LValue)node();
+      node.rhs = (Expr)node();
+      return node;
+    }
+    case AstWriter.RETURN: {
+      ReturnStmt node = new ReturnStmt();
+      node.returnToken = token();
+      node.returnExpr = (Expr)node();
+      return node;
+    }
+    case AstWriter.IF: {
+      IfStmt node = new IfStmt();
+      node.ifPart = basicIf();
+      int n = readInt();
+      for (int i = 0; i < n; ++i)
+        node.elsifs.add(basicIf());
+      node.hasElse = readBoolean();
+      node.elseStmtList = (StmtList)node();
+      return node;
+    }
+    case AstWriter.WHILE: {
+      WhileStmt node = new WhileStmt();
+      node.boolExpr = (Expr)node();
+      node.stmtList = (StmtList)node();
+      return node;
+    }
+    case AstWriter.FOR: {
+      ForStmt node = new ForStmt();
+      node.var = token();
+      node.startExpr = (Expr)node();
+      node.endExpr = (Expr)node();
+      node.stmtList = (StmtList)node();
+      return node;
+    }
+    case AstWriter.TYPE_DECL: {
+      TypeDeclStmt node = new TypeDeclStmt();
+      node.typeId = token();
+      int n = readInt();
+      for (int i = 0; i < n; ++i)
+        node.fields.add((VarDeclStmt)node());
+      return node;
+    }
+    case AstWriter.FUN_DECL: {
+      FunDeclStmt node = new FunDeclStmt();
+      node.returnType = token();
+      node.funName = token();
+      int n = readInt();
+      for (int i = 0; i < n; ++i) {
+        FunParam param = new FunParam();
+        param.paramType = token();
+        param.paramName = token();
+        node.params.add(param);
+      }
+      node.stmtList = (StmtList)node();
+      return node;
+    }
+    case AstWriter.EXPR:
+      return expr();
+    case AstWriter.LVALUE: {
+      LValue node = new LValue();
+      tokens(node.path);
+      return node;
+    }
+    case AstWriter.SIMPLE_TERM: {
+      SimpleTerm node = new SimpleTerm();
+      node.rvalue = (RValue)node();
+      return node;
+    }
+    case AstWriter.COMPLEX_TERM: {
+      ComplexTerm node = new ComplexTerm();
+      node.expr = (Expr)node();
+      return node;
+    }
+    case AstWriter.SIMPLE_RVALUE: {
+      SimpleRValue node = new SimpleRValue();
+      node.val = token();
+      return node;
+    }
+    case AstWriter.NEW_RVALUE: {
+      NewRValue node = new NewRValue();
+      node.typeId = token();
+      return node;
+    }
+    case AstWriter.CALL_RVALUE: {
+      CallRValue node = new CallRValue();
+      node.funName = token();
+      int n = readInt();
+      for (int i = 0; i < n; ++i)
+        node.argList.add((Expr)node());
+      return node;
+    }
+    case AstWriter.ID_RVALUE: {
+      IDRValue node = new IDRValue();
+      tokens(node.path);
+      return node;
+    }
+    case AstWriter.NEGATED_RVALUE: {
+      NegatedRValue node = new NegatedRValue();
+      node.expr = (Expr)node();
+      return node;
+    }
+    default:
+      throw new IOException("bad node tag " + tag);
+    }
+  }
+
+  // an expression, rebuilding its chain of left operands from the
+  // innermost one out
+  private Expr expr() throws IOException {
+    int links = readInt();
+    Expr node = new Expr();
+    node.negated = readBoolean();
+    node.first = (ExprTerm)node();
+    node.operator = token();
+    node.opcode = opcode();
+    node.rest = (Expr)node();
+    for (int i = 0; i < links; ++i) {
+      ComplexTerm left = new ComplexTerm();
+      left.expr = node;
+      node = new Expr();
+      node.first = left;
+      node.negated = readBoolean();
+      node.operator = token();
+      node.opcode = opcode();
+      node.rest = (Expr)node();
+    }
+    return node;
+  }
+
+  private BasicIf basicIf() throws IOException {
+    BasicIf node = new BasicIf();
+    node.boolExpr = (Expr)node();
+    node.stmtList = (StmtList)node();
+    return node;
+  }
+
+  private int opcode() throws IOException {
+    int opcode = readByte();
+    if (opcode < 0 || opcode >= Opcode.COUNT)
+      throw new IOException("bad opcode " + opcode);
+    return opcode;
+  }
+
+  private Token token() throws IOException {
+    int type = readByte();
+    if (type < 0)
+      return null;
+    if (type >= TYPES.length)
+      throw new IOException("bad token type " + type);
+    String lexeme = string();
+    int symbol = -1;
+    if (readBoolean()) {
+      symbol = Symbols.intern(lexeme);
+      lexeme = Symbols.name(symbol);
+    }
+    int row = readInt();
+    int column = readInt();
+    return new Token(TYPES[type], lexeme, row, column, symbol);
+  }
+
+  private void tokens(List<Token> tokens) throws IOException {
+    int n = readInt();
+    for (int i = 0; i < n; ++i)
+      tokens.add(token());
+  }
+
+  private String string() throws IOException {
+    int index = readInt();
+    if (index >= 0)
+      return strings.get(index);
+    int length = readInt();
+    String s = new String(data, pos, length, StandardCharsets.UTF_8);
+    pos += length;
+    strings.add(s);
+    return s;
+  }
+
+  private int readByte() {
+    return data[pos++];
+  }
+
+  private boolean readBoolean() {
+    return data[pos++] != 0;
+  }
+
+  private int readInt() {
+    int i = ((data[pos] & 0xff) << 24) | ((data[pos + 1] & 0xff) << 16)
+      | ((data[pos + 2] & 0xff) << 8) | (data[pos + 3] & 0xff);
+    pos += 4;
+    return i;
+  }
+
+}
@@ -0,0 +1,307 @@
+/**
+ * Author: Ben Comer
+ * File: AstWriter.java
+ *
+ * Writes a (type checked) AST in the binary form read back by
+ * AstReader, for the compiled program cache. Each node is written as
+ * a tag followed by its fields in declaration order, with a NULL tag
+ * for missing nodes. Tokens keep their type, row and column, and
+ * their lexemes go through a string table (each distinct lexeme is
+ * written once and then referred to by index). Operators keep the
+ * opcodes the type checker lowered them to. Symbol ids are not
+ * written, since they depend on the order names were interned in a
+ * run; the reader interns the names again.
+ *
+ * Left-deep chains of binary operators are written with a loop (the
+ * innermost operand first, then each operator and right operand), so
+ * long chains do not nest the writer or the reader.
+ */
+
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+public class AstWriter implements Visitor {
+
+  // node tags
+  public static final int NULL = 0;
+  public static final int STMT_LIST = 1;
+  public static final int VAR_DECL = 2;
+  public static final int ASSIGN = 3;
+  public static final int RETURN = 4;
+  public static final int IF = 5;
+  public static final int WHILE = 6;
+  public static final int FOR = 7;
+  public static final int TYPE_DECL = 8;
+  public static final int FUN_DECL = 9;
+  public static final int ARRAY_DECL = 10;
+  public static final int EXPR = 11;
+  public static final int LVALUE = 12;
+  public static final int SIMPLE_TERM = 13;
+  public static final int COMPLEX_TERM = 14;
+  public static final int SIMPLE_RVALUE = 15;
+  public static final int NEW_RVALUE = 16;
+  public static final int CALL_RVALUE = 17;
+  public static final int ID_RVALUE = 18;
+  public static final int NEGATED_RVALUE = 19;
+
+  private DataOutputStream out;
+  private Map<String, Integer> strings = new HashMap<>();
+
+
+  public AstWriter(DataOutputStream out) {
+    this.out = out;
+  }
+
+
+  /**
+   * Writes the given statement list.
+   */
+  public void write(StmtList stmtList) throws IOException {
+    try {
+      stmtList.accept(this);
+    } catch (MyPLException e) {
+      throw new IOException(e.getMessage());    // from a deferred body
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+
+  // visitor functions
+
+  public void visit(StmtList node) throws MyPLException {
+    tag(STMT_LIST);
+    writeInt(node.stmts.size());
+    for (Stmt s : node.stmts)
+      node(s);
+  }
+
+  public void visit(VarDeclStmt node) throws MyPLException {
+    tag(VAR_DECL);
+    token(node.varId);
+    token(node.varType);
+    node(node.varExpr);
+  }
+
+  public void visit(ArrayDeclStmt node) throws MyPLException {
+    tag(ARRAY_DECL);
+    token(node.arrayId);
+    token(node.arrayType);
+    tokens(node.elements);
+  }
+
+  public void visit(AssignStmt node) throws MyPLException {
+    tag(ASSIGN);
+    node(node.lhs);
+    node(node.rhs);
+  }
+
+  public void visit(ReturnStmt node) throws MyPLException {
+    tag(RETURN);
+    token(node.returnToken);
+    node(node.returnExpr);
+  }
+
+  public void visit(IfStmt node) throws MyPLException {
+    tag(IF);
+    basicIf(node.ifPart);
+    writeInt(node.elsifs.size());
+    for (BasicIf elif : node.elsifs)
+      basicIf(elif);
+    writeBoolean(node.hasElse);
+    node(node.elseStmtList);
+  }
+
+  public void visit(WhileStmt node) throws MyPLException {
+    tag(WHILE);
+    node(node.boolExpr);
+    node(node.stmtList);
+  }
+
+  public void visit(ForStmt node) throws MyPLException {
+    tag(FOR);
+    token(node.var);
+    node(node.startExpr);
+    node(node.endExpr);
+    node(node.stmtList);
+  }
+
+  public void visit(TypeDeclStmt node) throws MyPLException {
+    tag(TYPE_DECL);
+    token(node.typeId);
+    writeInt(node.fields.size());
+    for (VarDeclStmt field : node.fields)
+      node(field);
+  }
+
+  public void visit(FunDeclStmt node) throws MyPLException {
+    tag(FUN_DECL);
+    token(node.returnType);
+    token(node.funName);
+    writeInt(node.params.size());
+    for (FunParam param : node.params) {
+      token(param.paramType);
+      token(param.paramName);
+    }
+    node(node.body());
+  }
+
+  public void visit(Expr node) throws MyPLException {
+    tag(EXPR);
+    // the chain of left operands, outermost first
+    List<Expr> chain = new ArrayList<>();
+    for (Expr e = node; e != null; e = e.leftChain())
+      chain.add(e);
+    writeInt(chain.size() - 1);
+    Expr inner = chain.get(chain.size() - 1);
+    writeBoolean(inner.negated);
+    node(inner.first);
+    token(inner.operator);
+    writeByte(inner.opcode);
+    node(inner.rest);
+    for (int i = chain.size() - 2; i >= 0; --i) {
+      Expr e = chain.get(i);
+      writeBoolean(e.negated);
+      token(e.operator);
+      writeByte(e.opcode);
+      node(e.rest);
+    }
+  }
+
+  public void visit(LValue node) throws MyPLException {
+    tag(LVALUE);
+    tokens(node.path);
+  }
+
+  public void visit(SimpleTerm node) throws MyPLException {
+    tag(SIMPLE_TERM);
+    node(node.rvalue);
+  }
+
+  public void visit(ComplexTerm node) throws MyPLException {
+    tag(COMPLEX_TERM);
+    node(node.expr);
+  }
+
+  public void visit(SimpleRValue node) throws MyPLException {
+    tag(SIMPLE_RVALUE);
+    token(node.val);
+  }
+
+  public void visit(NewRValue node) throws MyPLException {
+    tag(NEW_RVALUE);
+    token(node.typeId);
+  }
+
+  public void visit(CallRValue node) throws MyPLException {
+    tag(CALL_RVALUE);
+    token(node.funName);
+    writeInt(node.argList.size());
+    for (Expr arg : node.argList)
+      node(arg);
+  }
+
+  public void visit(IDRValue node) throws MyPLException {
+    tag(ID_RVALUE);
+    tokens(node.path);
+  }
+
+  public void visit(NegatedRValue node) throws MyPLException {
+    tag(NEGATED_RVALUE);
+    node(node.expr);
+  }
+
+
+  // helper functions
+
+  private void node(ASTNode node) throws MyPLException {
+    if (node == null)
+      tag(NULL);
+    else
+      node.accept(this);
+  }
+
+  private void basicIf(BasicIf node) throws MyPLException {
+    node(node.boolExpr);
+    node(node.stmtList);
+  }
+
+  // a token as its type ordinal (-1 for null), lexeme, whether it is
+  // a name, row and column
+  private void token(Token token) {
+    if (token == null) {
+      writeByte(-1);
+      return;
+    }
+    writeByte(token.type().ordinal());
+    string(token.lexeme());
+    writeBoolean(token.symbol() >= 0);
+    writeInt(token.row());
+    writeInt(token.column());
+  }
+
+  private void tokens(List<Token> tokens) {
+    writeInt(tokens.size());
+    for (Token token : tokens)
+      token(token);
+  }
+
+  // a string as its table index, followed by its UTF-8 bytes the
+  // first time it is written
+  private void string(String s) {
+    Integer index = strings.get(s);
+    if (index != null) {
+      writeInt(index);
+      return;
+    }
+    strings.put(s, strings.size());
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    writeInt(-1);
+    writeInt(bytes.length);
+    try {
+      out.write(bytes);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void tag(int tag) {
+    writeByte(tag);
+  }
+
+  // the visitor functions can only throw MyPLExceptions, so write
+  // errors are passed up unchecked to write()
+
+  private void writeByte(int b) {
+    try {
+      out.writeByte(b);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void writeBoolean(boolean b) {
+    try {
+      out.writeBoolean(b);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void writeInt(int i) {
+    try {
+      out.writeInt(i);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+}
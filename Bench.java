@@ -0,0 +1,421 @@
+/**
+ * Author: Ben Comer
+ * File: Bench.java
+ *
+ * Benchmark driver for the MyPL pipeline. Each phase (lexing,
+ * parsing, type checking, interpreting) is measured on its own over
+ * the given programs, along with the full pipeline as run by HW7.
+ * For each program and phase the driver reports throughput, average
+ * time per operation, bytes allocated per operation, and the GC
+ * activity seen while measuring. The plex and pparse phases measure
+ * lexing into a packed token buffer and parsing from it, and the
+ * piped phase lexes and parses with the lexer on its own thread. The
+ * par phase lexes into a packed token buffer in parallel chunks. The
+ * flat phase converts the checked AST to its flat form and walks it
+ * with a cursor. The edit phase times a one-character edit (and its
+ * undo) in the middle of the program through IncrementalProgram,
+ * after checking once that the edits give the same errors as a fresh
+ * build. The frames phase interprets with variables in array frames,
+ * the nodes phase compiles the program to executable nodes and runs
+ * it (the jit phase also compiling functions to JVM bytecode), the
+ * java phase runs it translated to Java (compiled once, see
+ * JavaBackend), and the vm phase compiles it to bytecode and runs it
+ * on the VM.
+ *
+ * Usage: java Bench [-w warmupMs] [-t measureMs] [-p phase]
+ *          [-g bytes] ... [file ...]
+ *        java Bench --scale [maxKB]
+ *
+ * With no files or generated programs (-g) given, p1.mypl through
+ * p19.mypl in the current directory are used. The --scale mode times
+ * the front end (lex, parse, check) over generated programs doubling
+ * in size from 64KB up to maxKB (default 4096), to check that compile
+ * time grows linearly.
+ */
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+
+public class Bench {
+
+  // the phases that can be measured, in pipeline order
+  private static final String[] PHASES = {"lex", "parse", "plex", "pparse",
+                                          "par", "piped", "check", "flat",
+                                          "edit", "run", "frames", "nodes",
+                                          "jit", "java", "vm", "all"};
+
+  private long warmupMs = 500;
+  private long measureMs = 1000;
+  private String onlyPhase = null;
+  private long sink = 0;        // keeps results live across iterations
+
+  private PrintStream realOut = System.out;
+  private InputStream realIn = System.in;
+  private PrintStream nullOut = new PrintStream(OutputStream.nullOutputStream());
+
+  private com.sun.management.ThreadMXBean threadBean =
+    (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+
+  // a single benchmarked operation over one program
+  private interface Op {
+    long run() throws MyPLException;
+  }
+
+
+  // replays a pre-lexed token list so the parser can be timed alone
+  private static class TokenReplay extends Lexer {
+    private List<Token> tokens;
+    private int index = 0;
+
+    public TokenReplay(List<Token> tokens) {
+      super(InputStream.nullInputStream());
+      this.tokens = tokens;
+    }
+
+    @Override
+    public Token nextToken() {
+      // the parser may ask again after the final EOS token
+      if (index == tokens.size())
+        return tokens.get(index - 1);
+      return tokens.get(index++);
+    }
+  }
+
+
+  public static void main(String[] args) {
+    Bench bench = new Bench();
+    List<String> files = new ArrayList<>();
+    List<Long> generated = new ArrayList<>();
+    for (int i = 0; i < args.length; ++i) {
+      if (args[i].equals("--scale")) {
+        long maxKB = 4096;
+        if (i + 1 < args.length)
+          maxKB = Long.parseLong(args[++i]);
+        scale(maxKB);
+        return;
+      }
+      else if (args[i].equals("-g") && i + 1 < args.length)
+        generated.add(Long.parseLong(args[++i]));
+      else if (args[i].equals("-w") && i + 1 < args.length)
+        bench.warmupMs = Long.parseLong(args[++i]);
+      else if (args[i].equals("-t") && i + 1 < args.length)
+        bench.measureMs = Long.parseLong(args[++i]);
+      else if (args[i].equals("-p") && i + 1 < args.length)
+        bench.onlyPhase = args[++i];
+      else
+        files.add(args[i]);
+    }
+    if (files.size() == 0 && generated.size() == 0)
+      for (int i = 1; i <= 19; ++i)
+        files.add("p" + i + ".mypl");
+
+    System.out.printf("%-24s %-6s %14s %12s %14s %6s %8s%n", "program",
+                      "phase", "ops/s", "us/op", "bytes/op", "gcs", "gc ms");
+    for (String file : files) {
+      try {
+        bench.benchFile(file, Files.readAllBytes(Paths.get(file)));
+      } catch (IOException e) {
+        System.out.println("Unable to open file '" + file + "'");
+      }
+    }
+    for (long size : generated) {
+      ProgramGenerator gen = new ProgramGenerator();
+      gen.size = size;
+      bench.benchFile("gen-" + size, gen.generate().getBytes());
+    }
+  }
+
+
+  // times the front end over generated programs of doubling size
+  private static void scale(long maxKB) {
+    System.out.printf("%10s %10s %12s %12s %12s %10s%n", "bytes", "tokens",
+                      "lex ms", "parse ms", "check ms", "ns/byte");
+    for (long kb = 64; kb <= maxKB; kb *= 2) {
+      ProgramGenerator gen = new ProgramGenerator();
+      gen.size = kb * 1024;
+      byte[] source = gen.generate().getBytes();
+      // best lex, parse, check and total times over the timed runs
+      long[] best = {Long.MAX_VALUE, 0, 0, Long.MAX_VALUE};
+      long[] tokenCount = new long[1];
+      // deep programs need more stack than the main thread has
+      Thread worker = new Thread(null, () -> {
+        try {
+          for (int run = 0; run < 4; ++run) {
+            long start = System.nanoTime();
+            List<Token> tokens = lex(source);
+            long lexed = System.nanoTime();
+            StmtList stmtList = new Parser(new TokenReplay(tokens)).parse();
+            long parsed = System.nanoTime();
+            stmtList.accept(new TypeChecker());
+            long checked = System.nanoTime();
+            tokenCount[0] = tokens.size();
+            // the first run is warmup
+            if (run > 0 && checked - start < best[3]) {
+              best[0] = lexed - start;
+              best[1] = parsed - lexed;
+              best[2] = checked - parsed;
+              best[3] = checked - start;
+            }
+          }
+        } catch (MyPLException e) {
+          System.out.println(e);
+        }
+      }, "scale", 1L << 30);
+      worker.start();
+      try {
+        worker.join();
+      } catch (InterruptedException e) {
+        return;
+      }
+      System.out.printf("%10d %10d %12.3f %12.3f %12.3f %10.1f%n", source.length,
+                        tokenCount[0], best[0] / 1e6, best[1] / 1e6, best[2] / 1e6,
+                        (double) best[3] / source.length);
+    }
+  }
+
+
+  // runs every (selected) phase over the given program source
+  public void benchFile(String name, byte[] source) {
+    List<Token> tokens;
+    TokenBuffer packed;
+    StmtList stmtList;
+    char[] chars = new String(source).toCharArray();
+    try {
+      tokens = lex(source);
+      packed = new Lexer(chars).tokenize();
+      stmtList = new Parser(new TokenReplay(tokens)).parse();
+      stmtList.accept(new TypeChecker());
+    } catch (MyPLException e) {
+      realOut.printf("%-24s %s%n", name, "skipped: " + e);
+      return;
+    }
+    // programs with runtime errors (or that need input) are only
+    // measured through the front end
+    boolean runs = true;
+    try {
+      quietly(() -> new Interpreter().run(stmtList));
+    } catch (MyPLException e) {
+      runs = false;
+    }
+
+    for (String phase : PHASES) {
+      if (onlyPhase != null && !onlyPhase.equals(phase))
+        continue;
+      if (!runs && (phase.equals("run") || phase.equals("frames") ||
+                    phase.equals("nodes") || phase.equals("jit") ||
+                    phase.equals("java") || phase.equals("vm") ||
+                    phase.equals("all"))) {
+        realOut.printf("%-24s %-6s %s%n", name, phase, "skipped: runtime error");
+        continue;
+      }
+      Op op = null;
+      if (phase.equals("lex"))
+        op = () -> lex(source).size();
+      else if (phase.equals("parse"))
+        op = () -> new Parser(new TokenReplay(tokens)).parse().stmts.size();
+      else if (phase.equals("plex"))
+        op = () -> new Lexer(chars).tokenize().size();
+      else if (phase.equals("pparse"))
+        op = () -> new Parser(packed).parse().stmts.size();
+      else if (phase.equals("par"))
+        op = () -> ParallelLexer.tokenize(chars).size();
+      else if (phase.equals("piped"))
+        op = () -> piped(source);
+      else if (phase.equals("check"))
+        op = () -> { stmtList.accept(new TypeChecker()); return 1; };
+      else if (phase.equals("flat"))
+        op = () -> flat(stmtList);
+      else if (phase.equals("edit"))
+        op = edit(new IncrementalProgram(new String(source)));
+      else if (phase.equals("run"))
+        op = () -> new Interpreter().run(stmtList);
+      else if (phase.equals("frames"))
+        op = () -> framed(stmtList);
+      else if (phase.equals("nodes"))
+        op = () -> new NodeEngine().run(stmtList);
+      else if (phase.equals("jit"))
+        op = () -> jitted(stmtList);
+      else if (phase.equals("java"))
+        op = () -> translated(stmtList);
+      else if (phase.equals("vm"))
+        op = () -> new VM().run(stmtList, false);
+      else
+        op = () -> pipeline(source);
+      try {
+        measure(name, phase, op);
+      } catch (MyPLException e) {
+        realOut.printf("%-24s %-6s %s%n", name, phase, "failed: " + e);
+      }
+    }
+  }
+
+
+  // warms up and then measures the given operation, printing a row
+  private void measure(String name, String phase, Op op) throws MyPLException {
+    long end = System.nanoTime() + warmupMs * 1000000L;
+    while (System.nanoTime() < end)
+      sink += quietly(op);
+
+    long gcCount = gcCount();
+    long gcTime = gcTime();
+    long bytes = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    long ops = 0;
+    long start = System.nanoTime();
+    end = start + measureMs * 1000000L;
+    long now = start;
+    while (now < end) {
+      sink += quietly(op);
+      ++ops;
+      now = System.nanoTime();
+    }
+    bytes = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes;
+    double secs = (now - start) / 1e9;
+    realOut.printf("%-24s %-6s %14.1f %12.3f %14d %6d %8d%n", name, phase,
+                   ops / secs, secs * 1e6 / ops, bytes / ops,
+                   gcCount() - gcCount, gcTime() - gcTime);
+  }
+
+
+  // runs the operation with program output discarded and no input
+  private long quietly(Op op) throws MyPLException {
+    System.setOut(nullOut);
+    System.setIn(InputStream.nullInputStream());
+    try {
+      return op.run();
+    } finally {
+      System.setOut(realOut);
+      System.setIn(realIn);
+    }
+  }
+
+
+  // lexes the source into a token list (including the EOS token)
+  private static List<Token> lex(byte[] source) throws MyPLException {
+    Lexer lexer = new Lexer(new ByteArrayInputStream(source));
+    List<Token> tokens = new ArrayList<>();
+    Token t = lexer.nextToken();
+    tokens.add(t);
+    while (t.type() != TokenType.EOS) {
+      t = lexer.nextToken();
+      tokens.add(t);
+    }
+    return tokens;
+  }
+
+
+  // lexes and parses the source with a pipelined lexer
+  private static long piped(byte[] source) throws MyPLException {
+    Lexer lexer = new Lexer(new ByteArrayInputStream(source));
+    try (PipelinedLexer pipelined = new PipelinedLexer(lexer)) {
+      return new Parser(pipelined).parse().stmts.size();
+    }
+  }
+
+
+  // builds the flat form of the AST and scans it, counting names
+  private static long flat(StmtList stmtList) throws MyPLException {
+    FlatAst ast = FlatAst.from(stmtList);
+    FlatAst.Cursor cursor = ast.cursor();
+    long names = 0;
+    while (cursor.next())
+      if (cursor.kind() == FlatAst.ID_RVALUE)
+        names += cursor.field(0);
+    return names;
+  }
+
+
+  // inserts a space at the start of a line in the middle of the
+  // program and removes it again (checking the errors after each edit
+  // against a fresh build, the first time)
+  private static Op edit(IncrementalProgram program) {
+    String source = program.source();
+    int offset = source.indexOf('\n', source.length() / 2) + 1;
+    boolean[] verified = {false};
+    return () -> {
+      program.edit(offset, 0, " ");
+      if (!verified[0])
+        sameErrors(program);
+      program.edit(offset, 1, "");
+      if (!verified[0])
+        sameErrors(program);
+      verified[0] = true;
+      return program.checked();
+    };
+  }
+
+
+  // fails if the program's errors differ from those of its source
+  // parsed and checked from scratch
+  private static void sameErrors(IncrementalProgram program) throws MyPLException {
+    List<MyPLException> fresh = new IncrementalProgram(program.source()).errors();
+    if (!program.errors().toString().equals(fresh.toString()))
+      throw new MyPLException("Bench", "edit gave errors " + program.errors() +
+                              " rather than " + fresh, 0, 0);
+  }
+
+
+  // interprets the program with array frames
+  private static long framed(StmtList stmtList) throws MyPLException {
+    Interpreter interpreter = new Interpreter();
+    interpreter.setFrames(true);
+    return interpreter.run(stmtList);
+  }
+
+
+  // runs the program on the node engine, with functions compiled to
+  // JVM bytecode where possible
+  private static long jitted(StmtList stmtList) throws MyPLException {
+    NodeEngine engine = new NodeEngine();
+    engine.setJit(true);
+    return engine.run(stmtList);
+  }
+
+
+  // runs the program as a Java class (translated and compiled on the
+  // first run)
+  private static long translated(StmtList stmtList) throws MyPLException {
+    JavaBackend.Program program = JavaBackend.compile(stmtList);
+    if (program == null)
+      throw new MyPLException("Java", "no Java compiler", 0, 0);
+    return program.run();
+  }
+
+
+  // the full HW7 flow over the given source
+  private static long pipeline(byte[] source) throws MyPLException {
+    Lexer lexer = new Lexer(new ByteArrayInputStream(source));
+    Parser parser = new Parser(lexer);
+    StmtList stmtList = parser.parse();
+    stmtList.accept(new TypeChecker());
+    return new Interpreter().run(stmtList);
+  }
+
+
+  private static long gcCount() {
+    long count = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+      count += Math.max(0, gc.getCollectionCount());
+    return count;
+  }
+
+
+  private static long gcTime() {
+    long time = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+      time += Math.max(0, gc.getCollectionTime());
+    return time;
+  }
+
+}
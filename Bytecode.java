@@ -0,0 +1,244 @@
+/**
+ * Author: Ben Comer
+ * File: Bytecode.java
+ *
+ * A program compiled to bytecode (see BytecodeCompiler), run by the
+ * VM. The code is an int array of instructions, each an opcode
+ * followed by its operands. Values used by the code (string and char
+ * literals, doubles, field and function names, and the tokens errors
+ * are reported at) are in a constant pool, and functions and struct
+ * types are entries in tables, with the code of each starting at its
+ * entry. The top-level program starts at 0.
+ *
+ * The binary operator instructions are numbered as their opcodes
+ * (see Opcode), the int and double ones falling back to the generic
+ * operator when an operand has another type. Each takes the constant
+ * index of a pair of tokens, the first tokens of its operands, which
+ * its errors are reported at.
+ *
+ * Function bodies are compiled on their first call, so the code grows
+ * as the program runs.
+ */
+
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+public class Bytecode {
+
+  // instructions (and their operands) past the binary operators
+  public static final int NIL = Opcode.COUNT;         // push nil
+  public static final int CONST = NIL + 1;            // k: push constant k
+  public static final int INT = NIL + 2;              // n: push the int n
+  public static final int PARSE_INT = NIL + 3;        // k: parse constant k
+  public static final int DOUBLE = NIL + 4;           // k: push a new double
+  public static final int LOAD = NIL + 5;             // slot: push a local
+  public static final int STORE = NIL + 6;            // slot: pop to a local
+  public static final int GLOAD = NIL + 7;            // slot: push a global
+  public static final int GSTORE = NIL + 8;           // slot: pop to a global
+  public static final int GET_FIELD = NIL + 9;        // k: object -> field
+  public static final int SET_FIELD = NIL + 10;       // k: value, object ->
+  public static final int NOT = NIL + 11;
+  public static final int NEG = NIL + 12;
+  public static final int POP = NIL + 13;
+  public static final int JUMP = NIL + 14;            // pc
+  public static final int JUMP_FALSE = NIL + 15;      // pc: pop a bool
+  public static final int FOR_INIT = NIL + 16;        // var, end, pc: pop start
+  public static final int FOR_NEXT = NIL + 17;        // var, end, pc
+  public static final int CHECK_NIL = NIL + 18;       // k: error if nil on top
+  public static final int BUILTIN = NIL + 19;         // k, argc
+  public static final int CALL = NIL + 20;            // function, argc
+  public static final int NEW = NIL + 21;             // type
+  public static final int MAKE = NIL + 22;            // type: push new object
+  public static final int RETURN = NIL + 23;          // pop the result
+
+  public static final int COUNT = NIL + 24;
+
+  private static final String[] NAMES = {
+    "nil", "const", "int", "parse_int", "double", "load", "store", "gload",
+    "gstore", "get_field", "set_field", "not", "neg", "pop", "jump",
+    "jump_false", "for_init", "for_next", "check_nil", "builtin", "call",
+    "new", "make", "return"
+  };
+
+  // the number of operands of each instruction
+  private static final int[] OPERANDS = {
+    0, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 1, 1, 3, 3, 1, 2, 2, 1, 1, 0
+  };
+
+
+  /**
+   * A function: its code's entry (-1 until it is compiled), its arity,
+   * how many slots its frame needs, and how deep its operand stack
+   * (above the frame) gets.
+   */
+  public static class Function {
+    public final FunDeclStmt decl;
+    public int entry = -1;
+    public int frameSize = 0;
+    public int maxStack = 0;
+
+    Function(FunDeclStmt decl) {
+      this.decl = decl;
+    }
+
+    public String name() {
+      return decl.funName.lexeme();
+    }
+
+    public int arity() {
+      return decl.params.size();
+    }
+  }
+
+  /**
+   * A struct type: its field names and the entry of the code that
+   * runs its field initializers, in a frame of frameSize slots, and
+   * makes the object.
+   */
+  public static class Struct {
+    public final TypeDeclStmt decl;
+    public int entry = -1;
+    public int frameSize = 0;
+    public int maxStack = 0;
+    public String[] names;
+    public int[] slots;         // of each field's variable
+
+    Struct(TypeDeclStmt decl) {
+      this.decl = decl;
+    }
+
+    public String name() {
+      return decl.typeId.lexeme();
+    }
+  }
+
+
+  int[] code = new int[256];
+  int size = 0;
+  Object[] constants = new Object[64];
+  int constantCount = 0;
+  List<Function> functions = new ArrayList<>();
+  List<Struct> types = new ArrayList<>();
+  int globals = 0;              // slots of the top-level frame
+  int maxStack = 0;             // and the depth of its operand stack
+
+  // constants by identity (string literals are compared by reference)
+  private Map<Object, Integer> constantIndex = new IdentityHashMap<>();
+
+
+  // adds an instruction, returning its address
+  int emit(int opcode, int... operands) {
+    int at = size;
+    if (size + 1 + operands.length > code.length)
+      code = Arrays.copyOf(code, Math.max(code.length * 2, size + 1 + operands.length));
+    code[size++] = opcode;
+    for (int operand : operands)
+      code[size++] = operand;
+    return at;
+  }
+
+  // sets an operand of an instruction already emitted
+  void patch(int at, int value) {
+    code[at] = value;
+  }
+
+  // the index of the given constant, adding it if it is new
+  int constant(Object value) {
+    Integer index = constantIndex.get(value);
+    if (index == null) {
+      index = constantCount;
+      if (constantCount == constants.length)
+        constants = Arrays.copyOf(constants, constantCount * 2);
+      constants[constantCount++] = value;
+      constantIndex.put(value, index);
+    }
+    return index;
+  }
+
+
+  public static String name(int opcode) {
+    if (opcode < Opcode.COUNT)
+      return Opcode.name(opcode);
+    return NAMES[opcode - NIL];
+  }
+
+  public static int operands(int opcode) {
+    if (opcode < Opcode.COUNT)
+      return 1;
+    return OPERANDS[opcode - NIL];
+  }
+
+
+  /**
+   * Writes a listing of the code compiled so far.
+   */
+  public void disassemble(PrintStream out) {
+    // the label of each entry
+    Map<Integer, String> labels = new HashMap<>();
+    labels.put(0, "program (" + globals + " slots)");
+    for (Function f : functions)
+      if (f.entry >= 0)
+        labels.put(f.entry, "fun " + f.name() + " (" + f.arity() + " params, " +
+                   f.frameSize + " slots)");
+    for (Struct t : types)
+      if (t.entry >= 0)
+        labels.put(t.entry, "type " + t.name() + " (" + t.frameSize + " slots)");
+    int pc = 0;
+    while (pc < size) {
+      if (labels.containsKey(pc))
+        out.println(labels.get(pc) + ":");
+      int opcode = code[pc];
+      StringBuilder line = new StringBuilder(String.format("  %04d  %-10s", pc, name(opcode)));
+      int n = operands(opcode);
+      for (int i = 1; i <= n; ++i)
+        line.append(' ').append(code[pc + i]);
+      String comment = comment(opcode, pc);
+      if (comment != null) {
+        while (line.length() < 32)
+          line.append(' ');
+        line.append("; ").append(comment);
+      }
+      out.println(line);
+      pc += 1 + n;
+    }
+  }
+
+  // what an instruction's operand refers to, if anything
+  private String comment(int opcode, int pc) {
+    int operand = pc + 1 < size ? code[pc + 1] : 0;
+    switch (opcode) {
+    case CONST:
+      Object value = constants[operand];
+      if (value instanceof String)
+        return "\"" + value + "\"";
+      return String.valueOf(value);
+    case PARSE_INT:
+    case DOUBLE:
+    case GET_FIELD:
+    case SET_FIELD:
+      return String.valueOf(constants[operand]);
+    case CHECK_NIL:
+    case BUILTIN:
+      return ((Token)constants[operand]).lexeme();
+    case CALL:
+      return functions.get(operand).name();
+    case NEW:
+    case MAKE:
+      return types.get(operand).name();
+    default:
+      if (opcode < Opcode.COUNT) {
+        Token token = ((Token[])constants[operand])[0];
+        return "line " + token.row();
+      }
+      return null;
+    }
+  }
+
+}
@@ -0,0 +1,379 @@
+/**
+ * Author: Ben Comer
+ * File: BytecodeCompiler.java
+ *
+ * Compiles a type checked program to bytecode (see Bytecode) for the
+ * VM. The program is resolved first (see Resolver), so variables are
+ * frame slots: globals are read and written with gload and gstore,
+ * and the variables of the current frame (including the top-level
+ * program's, whose frame is the global one) with load and store. A
+ * for loop keeps its end value in a slot past the frame's variables.
+ *
+ * Each expression visit leaves code that pushes its value, and each
+ * statement visit code that leaves the stack as it found it. The
+ * deepest the operand stack gets in a frame is tracked as the code is
+ * emitted, so the VM can make room for it when it enters the frame
+ * (expressions have no jumps, so the depth is known at each point).
+ *
+ * The top-level program is compiled first, then each struct type it
+ * creates. Function bodies are compiled when the VM first calls them
+ * (or by compileAll), and appended to the code.
+ */
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+public class BytecodeCompiler implements Visitor {
+
+  private Bytecode out = new Bytecode();
+  private boolean stackSafe = false;
+  private Map<FunDeclStmt, Integer> functionIndex = new HashMap<>();
+  private Map<TypeDeclStmt, Integer> typeIndex = new HashMap<>();
+  private List<Bytecode.Struct> pending = new ArrayList<>();    // types to compile
+  private int nextTemp = 0;       // next free slot past the frame's variables
+  private int frameSize = 0;      // slots used by the current frame
+  private int depth = 0;          // of the operand stack, at this point
+  private int maxDepth = 0;       // of the operand stack in the frame
+
+
+  public BytecodeCompiler(boolean stackSafe) {
+    this.stackSafe = stackSafe;
+  }
+
+
+  /**
+   * Compiles the given (type checked) program.
+   */
+  public Bytecode compile(StmtList program) throws MyPLException {
+    int globals = new Resolver(stackSafe).resolve(program);
+    startFrame(globals);
+    for (Stmt s : program.stmts)
+      stmt(s);
+    emit(Bytecode.NIL);
+    emit(Bytecode.RETURN);
+    out.globals = frameSize;
+    out.maxStack = maxDepth;
+    compilePending();
+    return out;
+  }
+
+
+  /**
+   * Compiles the body of the given function (of this compiler's
+   * program), appending it to the code.
+   */
+  public void compileFunction(Bytecode.Function f) throws MyPLException {
+    StmtList body = f.decl.body();
+    f.entry = out.size;
+    startFrame(f.decl.frameSize);
+    for (Stmt s : body.stmts)
+      stmt(s);
+    emit(Bytecode.NIL);
+    emit(Bytecode.RETURN);
+    f.frameSize = frameSize;
+    f.maxStack = maxDepth;
+    compilePending();
+  }
+
+
+  /**
+   * Compiles every function the code calls that is not compiled yet
+   * (for listings).
+   */
+  public void compileAll() throws MyPLException {
+    for (int i = 0; i < out.functions.size(); ++i)
+      if (out.functions.get(i).entry < 0)
+        compileFunction(out.functions.get(i));
+  }
+
+
+  // visitor functions
+
+  public void visit(StmtList node) throws MyPLException {
+    for (Stmt s : node.stmts)
+      stmt(s);
+  }
+
+  public void visit(VarDeclStmt node) throws MyPLException {
+    node.varExpr.accept(this);
+    store(node.depth, node.slot);
+  }
+
+  public void visit(ArrayDeclStmt node) {
+    // arrays are not interpreted
+  }
+
+  public void visit(AssignStmt node) throws MyPLException {
+    node.rhs.accept(this);
+    LValue lhs = node.lhs;
+    if (lhs.path.size() == 1) {
+      store(lhs.depth, lhs.slot);
+      return;
+    }
+    // the object holding the field, under the value
+    load(lhs.depth, lhs.slot);
+    int last = lhs.path.size() - 1;
+    for (int i = 1; i < last; ++i)
+      emit(Bytecode.GET_FIELD, out.constant(lhs.path.get(i).lexeme()));
+    emit(Bytecode.SET_FIELD, out.constant(lhs.path.get(last).lexeme()));
+  }
+
+  public void visit(ReturnStmt node) throws MyPLException {
+    if (node.returnExpr != null)
+      node.returnExpr.accept(this);
+    else
+      emit(Bytecode.NIL);
+    emit(Bytecode.RETURN);
+  }
+
+  public void visit(IfStmt node) throws MyPLException {
+    List<Integer> ends = new ArrayList<>();
+    List<BasicIf> parts = new ArrayList<>();
+    parts.add(node.ifPart);
+    parts.addAll(node.elsifs);
+    for (BasicIf part : parts) {
+      part.boolExpr.accept(this);
+      int next = emit(Bytecode.JUMP_FALSE, 0);
+      part.stmtList.accept(this);
+      ends.add(emit(Bytecode.JUMP, 0));
+      out.patch(next + 1, out.size);
+    }
+    if (node.hasElse)
+      node.elseStmtList.accept(this);
+    for (int end : ends)
+      out.patch(end + 1, out.size);
+  }
+
+  public void visit(WhileStmt node) throws MyPLException {
+    int top = out.size;
+    node.boolExpr.accept(this);
+    int exit = emit(Bytecode.JUMP_FALSE, 0);
+    node.stmtList.accept(this);
+    emit(Bytecode.JUMP, top);
+    out.patch(exit + 1, out.size);
+  }
+
+  public void visit(ForStmt node) throws MyPLException {
+    // the end value is found first, and kept in a temporary slot
+    int end = nextTemp++;
+    frameSize = Math.max(frameSize, nextTemp);
+    node.endExpr.accept(this);
+    emit(Bytecode.STORE, end);
+    node.startExpr.accept(this);
+    int init = emit(Bytecode.FOR_INIT, node.slot, end, 0);
+    int body = out.size;
+    node.stmtList.accept(this);
+    emit(Bytecode.FOR_NEXT, node.slot, end, body);
+    out.patch(init + 3, out.size);
+    --nextTemp;
+  }
+
+  public void visit(TypeDeclStmt node) throws MyPLException {
+    // compiled when it is first created
+  }
+
+  public void visit(FunDeclStmt node) throws MyPLException {
+    // compiled when it is first called
+  }
+
+  public void visit(Expr node) throws MyPLException {
+    // the chain of left operands, outermost first
+    List<Expr> chain = new ArrayList<>();
+    for (Expr e = node; e != null; e = e.leftChain())
+      chain.add(e);
+    chain.get(chain.size() - 1).first.accept(this);
+    for (int i = chain.size() - 1; i >= 0; --i) {
+      Expr e = chain.get(i);
+      if (e.operator == null)
+        continue;
+      e.rest.accept(this);
+      int opcode = e.opcode;
+      if (opcode == Opcode.NONE)
+        opcode = Opcode.of(e.operator.type());
+      Token[] tokens = {Interpreter.getTermToken(e.first),
+                        Interpreter.getFirstToken(e.rest)};
+      emit(opcode, out.constant(tokens));
+    }
+    if (node.negated)
+      emit(Bytecode.NOT);
+  }
+
+  public void visit(LValue node) throws MyPLException {
+    // compiled by visit(AssignStmt)
+  }
+
+  public void visit(SimpleTerm node) throws MyPLException {
+    node.rvalue.accept(this);
+  }
+
+  public void visit(ComplexTerm node) throws MyPLException {
+    if (stackSafe)
+      StackSafe.accept(node.expr, this);
+    else
+      node.expr.accept(this);
+  }
+
+  public void visit(SimpleRValue node) throws MyPLException {
+    String lexeme = node.val.lexeme();
+    TokenType type = node.val.type();
+    if (type == TokenType.INT_VAL) {
+      try {
+        emit(Bytecode.INT, Integer.parseInt(lexeme));
+      } catch (NumberFormatException e) {
+        // fails when it is run, as in the interpreter
+        emit(Bytecode.PARSE_INT, out.constant(lexeme));
+      }
+    }
+    else if (type == TokenType.DOUBLE_VAL)
+      emit(Bytecode.DOUBLE, out.constant(Double.valueOf(lexeme)));
+    else if (type == TokenType.BOOL_VAL)
+      emit(Bytecode.CONST, out.constant(Boolean.parseBoolean(lexeme)));
+    else if (type == TokenType.CHAR_VAL || type == TokenType.STRING_VAL)
+      emit(Bytecode.CONST, out.constant(lexeme));
+    else
+      emit(Bytecode.NIL);
+  }
+
+  public void visit(NewRValue node) throws MyPLException {
+    emit(Bytecode.NEW, type(node.decl));
+  }
+
+  public void visit(CallRValue node) throws MyPLException {
+    int argc = node.argList.size();
+    if (node.decl == null) {
+      // each argument is checked for nil before the next is evaluated
+      for (Expr arg : node.argList) {
+        arg.accept(this);
+        emit(Bytecode.CHECK_NIL, out.constant(Interpreter.getFirstToken(arg)));
+      }
+      emit(Bytecode.BUILTIN, out.constant(node.funName), argc);
+      return;
+    }
+    for (Expr arg : node.argList)
+      arg.accept(this);
+    emit(Bytecode.CALL, function(node.decl), argc);
+  }
+
+  public void visit(IDRValue node) throws MyPLException {
+    load(node.depth, node.slot);
+    for (int i = 1; i < node.path.size(); ++i)
+      emit(Bytecode.GET_FIELD, out.constant(node.path.get(i).lexeme()));
+  }
+
+  public void visit(NegatedRValue node) throws MyPLException {
+    node.expr.accept(this);
+    emit(Bytecode.NEG);
+  }
+
+
+  // helper functions
+
+  private void stmt(Stmt s) throws MyPLException {
+    if (stackSafe)
+      StackSafe.accept(s, this);
+    else
+      s.accept(this);
+    // an expression statement's value is dropped
+    if (s instanceof Expr)
+      emit(Bytecode.POP);
+  }
+
+  // starts compiling a frame with the given number of variable slots
+  private void startFrame(int variables) {
+    nextTemp = variables;
+    frameSize = variables;
+    depth = 0;
+    maxDepth = 0;
+  }
+
+  // adds an instruction, tracking the operand stack depth
+  private int emit(int opcode, int... operands) {
+    depth += effect(opcode, operands);
+    maxDepth = Math.max(maxDepth, depth);
+    return out.emit(opcode, operands);
+  }
+
+  // how many values an instruction pushes, less those it pops
+  private static int effect(int opcode, int[] operands) {
+    if (opcode < Opcode.COUNT)
+      return -1;
+    switch (opcode) {
+    case Bytecode.NIL: case Bytecode.CONST: case Bytecode.INT:
+    case Bytecode.PARSE_INT: case Bytecode.DOUBLE: case Bytecode.LOAD:
+    case Bytecode.GLOAD: case Bytecode.NEW: case Bytecode.MAKE:
+      return 1;
+    case Bytecode.STORE: case Bytecode.GSTORE: case Bytecode.POP:
+    case Bytecode.JUMP_FALSE: case Bytecode.FOR_INIT: case Bytecode.RETURN:
+      return -1;
+    case Bytecode.SET_FIELD:
+      return -2;
+    case Bytecode.BUILTIN: case Bytecode.CALL:
+      return 1 - operands[1];
+    default:
+      return 0;
+    }
+  }
+
+  private void load(int depth, int slot) {
+    emit(depth == 0 ? Bytecode.GLOAD : Bytecode.LOAD, slot);
+  }
+
+  private void store(int depth, int slot) {
+    emit(depth == 0 ? Bytecode.GSTORE : Bytecode.STORE, slot);
+  }
+
+  // the index of the function's table entry, adding it if it is new
+  private int function(FunDeclStmt decl) {
+    Integer index = functionIndex.get(decl);
+    if (index == null) {
+      index = out.functions.size();
+      out.functions.add(new Bytecode.Function(decl));
+      functionIndex.put(decl, index);
+    }
+    return index;
+  }
+
+  // the index of the type's table entry, adding it (to be compiled) if
+  // it is new
+  private int type(TypeDeclStmt decl) {
+    Integer index = typeIndex.get(decl);
+    if (index == null) {
+      index = out.types.size();
+      Bytecode.Struct type = new Bytecode.Struct(decl);
+      out.types.add(type);
+      typeIndex.put(decl, index);
+      pending.add(type);
+    }
+    return index;
+  }
+
+  // compiles the types created by the code just compiled: the field
+  // initializers, then the object is made
+  private void compilePending() throws MyPLException {
+    while (!pending.isEmpty()) {
+      Bytecode.Struct type = pending.remove(0);
+      TypeDeclStmt decl = type.decl;
+      int n = decl.fields.size();
+      type.names = new String[n];
+      type.slots = new int[n];
+      type.entry = out.size;
+      startFrame(decl.frameSize);
+      for (int i = 0; i < n; ++i) {
+        VarDeclStmt field = decl.fields.get(i);
+        type.names[i] = field.varId.lexeme();
+        type.slots[i] = field.slot;
+        field.varExpr.accept(this);
+        emit(Bytecode.STORE, field.slot);
+      }
+      emit(Bytecode.MAKE, typeIndex.get(decl));
+      emit(Bytecode.RETURN);
+      type.frameSize = frameSize;
+      type.maxStack = maxDepth;
+    }
+  }
+
+}
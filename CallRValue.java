@@ -5,6 +5,7 @@ public class CallRValue implements RValue {
 
   public Token funName = null;
   public ArrayList<Expr> argList = new ArrayList<>();
+  public FunDeclStmt decl = null;    // set by Resolver (null for built-ins)
 
   public void accept(Visitor visitor) throws MyPLException {
     visitor.visit(this);
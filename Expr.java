@@ -5,9 +5,21 @@ public class Expr implements Stmt {
   public ExprTerm first = null;
   public Token operator = null;
   public Expr rest = null;
+  public int opcode = Opcode.NONE;   // of operator, set by TypeChecker
 
   public void accept(Visitor visitor) throws MyPLException {
     visitor.visit(this);
   }
 
+  // the left operand when it continues a chain of binary operators
+  // (a non-negated binary expression), otherwise null
+  public Expr leftChain() {
+    if (operator == null || !(first instanceof ComplexTerm))
+      return null;
+    Expr left = ((ComplexTerm)first).expr;
+    if (left.operator == null || left.negated)
+      return null;
+    return left;
+  }
+
 }
@@ -0,0 +1,614 @@
+/**
+ * Author: Ben Comer
+ * File: FlatAst.java
+ *
+ * Flat (arena) form of a MyPL AST. Rather than a graph of small
+ * objects, every node is a run of ints in one array: its kind
+ * followed by its fields, where a field is a child node (the index of
+ * its first int, or -1), a token (an index into a shared token pool,
+ * or -1), a flag, or a list length followed by the list's entries.
+ * Nodes are laid out in document (pre-)order, each directly followed
+ * by its children, so a Cursor walks the whole tree as one forward
+ * scan of the array.
+ *
+ * Fields, after the kind:
+ *
+ *   STMT_LIST       n, stmt*n
+ *   VAR_DECL        varId token, varType token, varExpr
+ *   ASSIGN          lhs, rhs
+ *   RETURN          returnToken token, returnExpr
+ *   IF              boolExpr, stmtList, n, (boolExpr, stmtList)*n,
+ *                   hasElse, elseStmtList
+ *   WHILE           boolExpr, stmtList
+ *   FOR             var token, startExpr, endExpr, stmtList
+ *   TYPE_DECL       typeId token, n, field*n
+ *   FUN_DECL        returnType token, funName token, n,
+ *                   (paramType token, paramName token)*n, stmtList
+ *   ARRAY_DECL      arrayId token, arrayType token, n, token*n
+ *   EXPR            negated, first, operator token, rest
+ *   LVALUE          n, token*n
+ *   SIMPLE_TERM     rvalue
+ *   COMPLEX_TERM    expr
+ *   SIMPLE_RVALUE   val token
+ *   NEW_RVALUE      typeId token
+ *   CALL_RVALUE     funName token, n, arg*n
+ *   ID_RVALUE       n, token*n
+ *   NEGATED_RVALUE  expr
+ *
+ * from() builds the flat form of a node tree (sharing its tokens) and
+ * toNodes() rebuilds an equal node tree. Left-deep operator chains
+ * are converted with loops both ways, as in AstWriter.
+ */
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+public class FlatAst {
+
+  // node kinds
+  public static final int STMT_LIST = 1;
+  public static final int VAR_DECL = 2;
+  public static final int ASSIGN = 3;
+  public static final int RETURN = 4;
+  public static final int IF = 5;
+  public static final int WHILE = 6;
+  public static final int FOR = 7;
+  public static final int TYPE_DECL = 8;
+  public static final int FUN_DECL = 9;
+  public static final int ARRAY_DECL = 10;
+  public static final int EXPR = 11;
+  public static final int LVALUE = 12;
+  public static final int SIMPLE_TERM = 13;
+  public static final int COMPLEX_TERM = 14;
+  public static final int SIMPLE_RVALUE = 15;
+  public static final int NEW_RVALUE = 16;
+  public static final int CALL_RVALUE = 17;
+  public static final int ID_RVALUE = 18;
+  public static final int NEGATED_RVALUE = 19;
+
+  private int[] data;
+  private int size = 0;         // ints used
+  private Token[] tokens;
+  private int tokenCount = 0;
+  private int nodes = 0;
+
+
+  private FlatAst() {
+    data = new int[1024];
+    tokens = new Token[256];
+  }
+
+
+  /**
+   * Builds the flat form of the given statement list (the root node,
+   * at index 0). Deferred function bodies are completed first.
+   */
+  public static FlatAst from(StmtList stmtList) throws MyPLException {
+    FlatAst ast = new FlatAst();
+    stmtList.accept(ast.new Builder());
+    // trimmed, since the arrays are kept as long as the tree
+    ast.data = Arrays.copyOf(ast.data, ast.size);
+    ast.tokens = Arrays.copyOf(ast.tokens, ast.tokenCount);
+    return ast;
+  }
+
+
+  /**
+   * Rebuilds the node tree.
+   */
+  public StmtList toNodes() {
+    return (StmtList)node(0);
+  }
+
+
+  // the kind of the node at the given index
+  public int kind(int node) {
+    return data[node];
+  }
+
+  // the i-th field (from 0) of the node
+  public int field(int node, int i) {
+    return data[node + 1 + i];
+  }
+
+  // the token in the i-th field of the node, or null
+  public Token token(int node, int i) {
+    int index = data[node + 1 + i];
+    return index < 0 ? null : tokens[index];
+  }
+
+  // the number of nodes
+  public int nodeCount() {
+    return nodes;
+  }
+
+  // the memory used by the arrays, in bytes (not counting the tokens
+  // themselves, which are shared with the node tree)
+  public long bytes() {
+    return 4L * data.length + 4L * tokens.length;
+  }
+
+
+  // the number of ints taken by the node at the given index
+  public int length(int node) {
+    switch (data[node]) {
+    case STMT_LIST:
+    case LVALUE:
+    case ID_RVALUE:
+      return 2 + data[node + 1];
+    case VAR_DECL:
+      return 4;
+    case ASSIGN:
+    case RETURN:
+    case WHILE:
+      return 3;
+    case IF:
+      return 6 + 2 * data[node + 3];
+    case FOR:
+      return 5;
+    case TYPE_DECL:
+    case CALL_RVALUE:
+      return 3 + data[node + 2];
+    case FUN_DECL:
+      return 5 + 2 * data[node + 3];
+    case ARRAY_DECL:
+      return 4 + data[node + 3];
+    case EXPR:
+      return 5;
+    default:
+      return 2;
+    }
+  }
+
+
+  /**
+   * Returns a cursor before the first (root) node.
+   */
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+
+  /**
+   * Moves over the nodes in document order, without recursion.
+   */
+  public class Cursor {
+    private int node = -1;
+    private int next = 0;
+
+    // moves to the next node, returning false after the last one
+    public boolean next() {
+      if (next >= size)
+        return false;
+      node = next;
+      next += length(node);
+      return true;
+    }
+
+    public int node() {
+      return node;
+    }
+
+    public int kind() {
+      return data[node];
+    }
+
+    public int field(int i) {
+      return data[node + 1 + i];
+    }
+
+    public Token token(int i) {
+      return FlatAst.this.token(node, i);
+    }
+  }
+
+
+  // helper functions
+
+  // reserves a node of the given kind and number of fields
+  private int alloc(int kind, int fields) {
+    if (size + 1 + fields > data.length)
+      data = Arrays.copyOf(data, Math.max(size + 1 + fields, data.length * 2));
+    int node = size;
+    data[node] = kind;
+    size += 1 + fields;
+    ++nodes;
+    return node;
+  }
+
+  // sets an int (taking the array after any growth by a child)
+  private void set(int index, int value) {
+    data[index] = value;
+  }
+
+  // adds a token to the pool, returning its index
+  private int token(Token token) {
+    if (token == null)
+      return -1;
+    if (tokenCount == tokens.length)
+      tokens = Arrays.copyOf(tokens, tokenCount * 2);
+    tokens[tokenCount] = token;
+    return tokenCount++;
+  }
+
+
+  // builds the arena from a node tree, each visit adding its node
+  // (and then its children) and leaving the node's index in added
+  private class Builder implements Visitor {
+    private int added = -1;
+
+    private int add(ASTNode node) throws MyPLException {
+      if (node == null)
+        return -1;
+      node.accept(this);
+      return added;
+    }
+
+    private void addTokens(int at, List<Token> list) {
+      set(at, list.size());
+      for (int i = 0; i < list.size(); ++i)
+        set(at + 1 + i, token(list.get(i)));
+    }
+
+    public void visit(StmtList node) throws MyPLException {
+      int n = node.stmts.size();
+      int at = alloc(STMT_LIST, 1 + n);
+      set(at + 1, n);
+      for (int i = 0; i < n; ++i)
+        set(at + 2 + i, add(node.stmts.get(i)));
+      added = at;
+    }
+
+    public void visit(VarDeclStmt node) throws MyPLException {
+      int at = alloc(VAR_DECL, 3);
+      set(at + 1, token(node.varId));
+      set(at + 2, token(node.varType));
+      set(at + 3, add(node.varExpr));
+      added = at;
+    }
+
+    public void visit(ArrayDeclStmt node) {
+      int at = alloc(ARRAY_DECL, 3 + node.elements.size());
+      set(at + 1, token(node.arrayId));
+      set(at + 2, token(node.arrayType));
+      addTokens(at + 3, node.elements);
+      added = at;
+    }
+
+    public void visit(AssignStmt node) throws MyPLException {
+      int at = alloc(ASSIGN, 2);
+      set(at + 1, add(node.lhs));
+      set(at + 2, add(node.rhs));
+      added = at;
+    }
+
+    public void visit(ReturnStmt node) throws MyPLException {
+      int at = alloc(RETURN, 2);
+      set(at + 1, token(node.returnToken));
+      set(at + 2, add(node.returnExpr));
+      added = at;
+    }
+
+    public void visit(IfStmt node) throws MyPLException {
+      int n = node.elsifs.size();
+      int at = alloc(IF, 5 + 2 * n);
+      set(at + 1, add(node.ifPart.boolExpr));
+      set(at + 2, add(node.ifPart.stmtList));
+      set(at + 3, n);
+      for (int i = 0; i < n; ++i) {
+        set(at + 4 + 2 * i, add(node.elsifs.get(i).boolExpr));
+        set(at + 5 + 2 * i, add(node.elsifs.get(i).stmtList));
+      }
+      set(at + 4 + 2 * n, node.hasElse ? 1 : 0);
+      set(at + 5 + 2 * n, add(node.elseStmtList));
+      added = at;
+    }
+
+    public void visit(WhileStmt node) throws MyPLException {
+      int at = alloc(WHILE, 2);
+      set(at + 1, add(node.boolExpr));
+      set(at + 2, add(node.stmtList));
+      added = at;
+    }
+
+    public void visit(ForStmt node) throws MyPLException {
+      int at = alloc(FOR, 4);
+      set(at + 1, token(node.var));
+      set(at + 2, add(node.startExpr));
+      set(at + 3, add(node.endExpr));
+      set(at + 4, add(node.stmtList));
+      added = at;
+    }
+
+    public void visit(TypeDeclStmt node) throws MyPLException {
+      int n = node.fields.size();
+      int at = alloc(TYPE_DECL, 2 + n);
+      set(at + 1, token(node.typeId));
+      set(at + 2, n);
+      for (int i = 0; i < n; ++i)
+        set(at + 3 + i, add(node.fields.get(i)));
+      added = at;
+    }
+
+    public void visit(FunDeclStmt node) throws MyPLException {
+      int n = node.params.size();
+      StmtList body = node.body();
+      int at = alloc(FUN_DECL, 4 + 2 * n);
+      set(at + 1, token(node.returnType));
+      set(at + 2, token(node.funName));
+      set(at + 3, n);
+      for (int i = 0; i < n; ++i) {
+        set(at + 4 + 2 * i, token(node.params.get(i).paramType));
+        set(at + 5 + 2 * i, token(node.params.get(i).paramName));
+      }
+      set(at + 4 + 2 * n, add(body));
+      added = at;
+    }
+
+    // a chain of left operands is added outermost first, each Expr
+    // followed by the ComplexTerm holding the next one (document
+    // order), and the right operands from the innermost out
+    public void visit(Expr node) throws MyPLException {
+      List<Expr> chain = new ArrayList<>();
+      for (Expr e = node; e != null; e = e.leftChain())
+        chain.add(e);
+      int[] at = new int[chain.size()];
+      for (int i = 0; i < chain.size() - 1; ++i) {
+        Expr e = chain.get(i);
+        at[i] = alloc(EXPR, 4);
+        set(at[i] + 1, e.negated ? 1 : 0);
+        int term = alloc(COMPLEX_TERM, 1);
+        set(at[i] + 2, term);
+        set(at[i] + 3, token(e.operator));
+        set(term + 1, size);    // the next Expr in the chain
+      }
+      int last = chain.size() - 1;
+      Expr inner = chain.get(last);
+      at[last] = alloc(EXPR, 4);
+      set(at[last] + 1, inner.negated ? 1 : 0);
+      set(at[last] + 2, add(inner.first));
+      set(at[last] + 3, token(inner.operator));
+      set(at[last] + 4, add(inner.rest));
+      for (int i = last - 1; i >= 0; --i)
+        set(at[i] + 4, add(chain.get(i).rest));
+      added = at[0];
+    }
+
+    public void visit(LValue node) throws MyPLException {
+      int at = alloc(LVALUE, 1 + node.path.size());
+      addTokens(at + 1, node.path);
+      added = at;
+    }
+
+    public void visit(SimpleTerm node) throws MyPLException {
+      int at = alloc(SIMPLE_TERM, 1);
+      set(at + 1, add(node.rvalue));
+      added = at;
+    }
+
+    public void visit(ComplexTerm node) throws MyPLException {
+      int at = alloc(COMPLEX_TERM, 1);
+      set(at + 1, add(node.expr));
+      added = at;
+    }
+
+    public void visit(SimpleRValue node) throws MyPLException {
+      int at = alloc(SIMPLE_RVALUE, 1);
+      set(at + 1, token(node.val));
+      added = at;
+    }
+
+    public void visit(NewRValue node) throws MyPLException {
+      int at = alloc(NEW_RVALUE, 1);
+      set(at + 1, token(node.typeId));
+      added = at;
+    }
+
+    public void visit(CallRValue node) throws MyPLException {
+      int n = node.argList.size();
+      int at = alloc(CALL_RVALUE, 2 + n);
+      set(at + 1, token(node.funName));
+      set(at + 2, n);
+      for (int i = 0; i < n; ++i)
+        set(at + 3 + i, add(node.argList.get(i)));
+      added = at;
+    }
+
+    public void visit(IDRValue node) throws MyPLException {
+      int at = alloc(ID_RVALUE, 1 + node.path.size());
+      addTokens(at + 1, node.path);
+      added = at;
+    }
+
+    public void visit(NegatedRValue node) throws MyPLException {
+      int at = alloc(NEGATED_RVALUE, 1);
+      set(at + 1, add(node.expr));
+      added = at;
+    }
+  }
+
+
+  // rebuilds the node at the given index (null for -1)
+  private ASTNode node(int at) {
+    if (at < 0)
+      return null;
+    switch (data[at]) {
+    case STMT_LIST: {
+      StmtList node = new StmtList();
+      int n = data[at + 1];
+      node.stmts.ensureCapacity(n);
+      for (int i = 0; i < n; ++i)
+        node.stmts.add((Stmt)node(data[at + 2 + i]));
+      return node;
+    }
+    case VAR_DECL: {
+      VarDeclStmt node = new VarDeclStmt();
+      node.varId = token(at, 0);
+      node.varType = token(at, 1);
+      node.varExpr = (Expr)node(data[at + 3]);
+      return node;
+    }
+    case ARRAY_DECL: {
+      ArrayDeclStmt node = new ArrayDeclStmt();
+      node.arrayId = token(at, 0);
+      node.arrayType = token(at, 1);
+      tokens(at + 3, node.elements);
+      return node;
+    }
+    case ASSIGN: {
+      AssignStmt node = new AssignStmt();
+      node.lhs = (LValue)node(data[at + 1]);
+      node.rhs = (Expr)node(data[at + 2]);
+      return node;
+    }
+    case RETURN: {
+      ReturnStmt node = new ReturnStmt();
+      node.returnToken = token(at, 0);
+      node.returnExpr = (Expr)node(data[at + 2]);
+      return node;
+    }
+    case IF: {
+      IfStmt node = new IfStmt();
+      node.ifPart.boolExpr = (Expr)node(data[at + 1]);
+      node.ifPart.stmtList = (StmtList)node(data[at + 2]);
+      int n = data[at + 3];
+      for (int i = 0; i < n; ++i) {
+        BasicIf elif = new BasicIf();
+        elif.boolExpr = (Expr)node(data[at + 4 + 2 * i]);
+        elif.stmtList = (StmtList)node(data[at + 5 + 2 * i]);
+        node.elsifs.add(elif);
+      }
+      node.hasElse = data[at + 4 + 2 * n] != 0;
+      node.elseStmtList = (StmtList)node(data[at + 5 + 2 * n]);
+      return node;
+    }
+    case WHILE: {
+      WhileStmt node = new WhileStmt();
+      node.boolExpr = (Expr)node(data[at + 1]);
+      node.stmtList = (StmtList)node(data[at + 2]);
+      return node;
+    }
+    case FOR: {
+      ForStmt node = new ForStmt();
+      node.var = token(at, 0);
+      node.startExpr = (Expr)node(data[at + 2]);
+      node.endExpr = (Expr)node(data[at + 3]);
+      node.stmtList = (StmtList)node(data[at + 4]);
+      return node;
+    }
+    case TYPE_DECL: {
+      TypeDeclStmt node = new TypeDeclStmt();
+      node.typeId = token(at, 0);
+      int n = data[at + 2];
+      for (int i = 0; i < n; ++i)
+        node.fields.add((VarDeclStmt)node(data[at + 3 + i]));
+      return node;
+    }
+    case FUN_DECL: {
+      FunDeclStmt node = new FunDeclStmt();
+      node.returnType = token(at, 0);
+      node.funName = token(at, 1);
+      int n = data[at + 3];
+      for (int i = 0; i < n; ++i) {
+        FunParam param = new FunParam();
+        param.paramType = token(at, 3 + 2 * i);
+        param.paramName = token(at, 4 + 2 * i);
+        node.params.add(param);
+      }
+      node.stmtList = (StmtList)node(data[at + 4 + 2 * n]);
+      return node;
+    }
+    case EXPR:
+      return expr(at);
+    case LVALUE: {
+      LValue node = new LValue();
+      tokens(at + 1, node.path);
+      return node;
+    }
+    case SIMPLE_TERM: {
+      SimpleTerm node = new SimpleTerm();
+      node.rvalue = (RValue)node(data[at + 1]);
+      return node;
+    }
+    case COMPLEX_TERM: {
+      ComplexTerm node = new ComplexTerm();
+      node.expr = (Expr)node(data[at + 1]);
+      return node;
+    }
+    case SIMPLE_RVALUE: {
+      SimpleRValue node = new SimpleRValue();
+      node.val = token(at, 0);
+      return node;
+    }
+    case NEW_RVALUE: {
+      NewRValue node = new NewRValue();
+      node.typeId = token(at, 0);
+      return node;
+    }
+    case CALL_RVALUE: {
+      CallRValue node = new CallRValue();
+      node.funName = token(at, 0);
+      int n = data[at + 2];
+      for (int i = 0; i < n; ++i)
+        node.argList.add((Expr)node(data[at + 3 + i]));
+      return node;
+    }
+    case ID_RVALUE: {
+      IDRValue node = new IDRValue();
+      tokens(at + 1, node.path);
+      return node;
+    }
+    default: {
+      NegatedRValue node = new NegatedRValue();
+      node.expr = (Expr)node(data[at + 1]);
+      return node;
+    }
+    }
+  }
+
+  // rebuilds an expression, following its chain of left operands
+  // (as Expr.leftChain does) with a loop
+  private Expr expr(int at) {
+    List<Integer> chain = new ArrayList<>();
+    chain.add(at);
+    while (true) {
+      int e = chain.get(chain.size() - 1);
+      int first = data[e + 2];
+      if (data[e + 3] < 0 || data[first] != COMPLEX_TERM)
+        break;
+      int left = data[first + 1];
+      if (data[left + 3] < 0 || data[left + 1] != 0)
+        break;
+      chain.add(left);
+    }
+    int last = chain.get(chain.size() - 1);
+    Expr node = new Expr();
+    node.negated = data[last + 1] != 0;
+    node.first = (ExprTerm)node(data[last + 2]);
+    node.operator = token(last, 2);
+    node.rest = (Expr)node(data[last + 4]);
+    for (int i = chain.size() - 2; i >= 0; --i) {
+      int e = chain.get(i);
+      ComplexTerm left = new ComplexTerm();
+      left.expr = node;
+      node = new Expr();
+      node.negated = data[e + 1] != 0;
+      node.first = left;
+      node.operator = token(e, 2);
+      node.rest = (Expr)node(data[e + 4]);
+    }
+    return node;
+  }
+
+  private void tokens(int at, List<Token> list) {
+    int n = data[at];
+    for (int i = 0; i < n; ++i) {
+      int index = data[at + 1 + i];
+      list.add(index < 0 ? null : tokens[index]);
+    }
+  }
+
+}
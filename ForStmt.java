@@ -5,6 +5,8 @@ public class ForStmt implements Stmt {
   public Expr startExpr = null;
   public Expr endExpr = null;
   public StmtList stmtList = new StmtList();
+  public int depth = -1;             // address of var,
+  public int slot = -1;              // set by Resolver
   
   public void accept(Visitor visitor) throws MyPLException {
     visitor.visit(this);
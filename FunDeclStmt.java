@@ -7,10 +7,21 @@ public class FunDeclStmt implements Stmt {
   public Token funName = null;
   public ArrayList<FunParam> params = new ArrayList<>();
   public StmtList stmtList = new StmtList();
+  public LazyBody lazyBody = null;   // until a deferred body is done
+  public int frameSize = 0;          // slots for params and locals, set by Resolver
   
   public void accept(Visitor visitor) throws MyPLException {
     visitor.visit(this);
   }
 
+  // the body, first parsed and checked if it was deferred
+  public StmtList body() throws MyPLException {
+    if (lazyBody != null) {
+      stmtList = lazyBody.complete(this);
+      lazyBody = null;
+    }
+    return stmtList;
+  }
+
 }
 
@@ -4,5 +4,7 @@ public class FunParam {
 
   public Token paramType = null;
   public Token paramName = null;
+  public int depth = -1;             // address of the variable,
+  public int slot = -1;              // set by Resolver
 
 }
@@ -16,26 +16,46 @@ import java.io.FileNotFoundException;
 public class HW5 {
 
   public static void main(String[] args) {
+    // a file name, the --stats flag and/or the --stack-safe flag (for
+    // deeply nested programs) may be given
+    String fileName = null;
+    boolean stackSafe = false;
+    for (String arg : args) {
+      if (arg.equals("--stats"))
+        Stats.enabled = true;
+      else if (arg.equals("--stack-safe"))
+        stackSafe = true;
+      else
+        fileName = arg;
+    }
     try {
       // determine if file or standard in
       InputStream istream = System.in;
-      if (args.length == 1) {
-        istream = new FileInputStream(new File(args[0]));
+      if (fileName != null) {
+        istream = new FileInputStream(new File(fileName));
       }
       // create the lexer
       Lexer lexer = new Lexer(istream);
       // create the parser
       Parser parser = new Parser(lexer);
+      parser.setStackSafe(stackSafe);
+      long start = System.nanoTime();
       StmtList stmtList = parser.parse();
+      Stats.parseTime = System.nanoTime() - start;
       TypeChecker typeChecker = new TypeChecker();
+      typeChecker.setStackSafe(stackSafe);
+      start = System.nanoTime();
       stmtList.accept(typeChecker);
+      Stats.checkTime = System.nanoTime() - start;
+      Stats.print(System.err);
     }
     catch (MyPLException e) {
       System.out.println(e);
+      Stats.print(System.err);
       System.exit(1);
     }
     catch (FileNotFoundException e) {
-      System.out.println("Unable to open file '" + args[0] + "'");
+      System.out.println("Unable to open file '" + fileName + "'");
       System.exit(1);
     }
      
@@ -8,40 +8,228 @@
  */
 
 
-import java.io.InputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
 
 public class HW7 {
 
+  // files of at least this many bytes are lexed into a token buffer
+  private static final long PACKED_SIZE = 1 << 20;
+
   public static void main(String[] args) {
+    // a file name, the --stats flag, the --lines flag, the --pipeline
+    // flag (lex on a separate thread), the --parallel flag (lex the
+    // file in chunks on a thread pool), the --stack-safe flag (for
+    // deeply nested programs), the --cache[=dir] flag (reuse the
+    // compiled program, and with --java its classes, kept next to the
+    // file or in dir), the --lazy flag (parse and check function
+    // bodies on their first call), the --frames flag (keep variables
+    // in array frames), the --nodes flag (compile to executable nodes,
+    // see NodeEngine), the --jit flag (as --nodes, with functions on
+    // ints, doubles and bools compiled to JVM bytecode, see
+    // JvmBackend), the --java flag (translate
+    // to Java source and run it compiled, see JavaBackend), the
+    // --emit-java flag (as --java, listing the source), the --bytecode
+    // flag (compile to bytecode and run it on the VM), the
+    // --disassemble flag (list the bytecode) and/or the
+    // --profile[=file] flag (file receives collapsed stacks) may be
+    // given
+    String fileName = null;
+    Profiler profiler = null;
+    String profileOut = null;
+    LineProfiler lineProfiler = null;
+    boolean pipeline = false;
+    boolean parallel = false;
+    boolean stackSafe = false;
+    boolean useCache = false;
+    boolean lazy = false;
+    boolean frames = false;
+    boolean nodes = false;
+    boolean jit = false;
+    boolean java = false;
+    boolean emitJava = false;
+    boolean bytecode = false;
+    boolean disassemble = false;
+    Path cacheDir = null;
+    for (String arg : args) {
+      if (arg.equals("--stats"))
+        Stats.enabled = true;
+      else if (arg.equals("--pipeline"))
+        pipeline = true;
+      else if (arg.equals("--parallel"))
+        parallel = true;
+      else if (arg.equals("--stack-safe"))
+        stackSafe = true;
+      else if (arg.startsWith("--cache")) {
+        useCache = true;
+        if (arg.startsWith("--cache="))
+          cacheDir = Paths.get(arg.substring("--cache=".length()));
+      }
+      else if (arg.equals("--lazy"))
+        lazy = true;
+      else if (arg.equals("--frames"))
+        frames = true;
+      else if (arg.equals("--nodes"))
+        nodes = true;
+      else if (arg.equals("--jit"))
+        jit = true;
+      else if (arg.equals("--java"))
+        java = true;
+      else if (arg.equals("--emit-java"))
+        emitJava = true;
+      else if (arg.equals("--bytecode"))
+        bytecode = true;
+      else if (arg.equals("--disassemble"))
+        disassemble = true;
+      else if (arg.equals("--lines"))
+        lineProfiler = new LineProfiler();
+      else if (arg.startsWith("--profile")) {
+        profiler = new Profiler();
+        if (arg.startsWith("--profile="))
+          profileOut = arg.substring("--profile=".length());
+      }
+      else
+        fileName = arg;
+    }
     try {
-      // determine if file or standard in
-      InputStream istream = System.in;
-      if (args.length == 1) {
-        istream = new FileInputStream(new File(args[0]));
-      }
-      // create the lexer
-      Lexer lexer = new Lexer(istream);
-      // create and run the parser
-      Parser parser = new Parser(lexer);
-      StmtList stmtList = parser.parse();
-      // create and run the type checker
-      TypeChecker typeChecker = new TypeChecker();
-      stmtList.accept(typeChecker);
-      // create and run the interpreter
-      Interpreter interpreter = new Interpreter();
-      int result = interpreter.run(stmtList);
+      // load the program from the cache if it has not changed (deeply
+      // nested programs are not cached, since the cache reader and
+      // writer recurse)
+      ProgramCache cache = null;
+      StmtList stmtList = null;
+      if (useCache && fileName != null && !stackSafe) {
+        long loadStart = System.nanoTime();
+        cache = new ProgramCache(Paths.get(fileName), cacheDir);
+        stmtList = cache.load();
+        Stats.cacheTime = System.nanoTime() - loadStart;
+        Stats.cached = stmtList != null;
+      }
+      // (a cached program must be completely checked, so is not lazy)
+      if (stmtList == null) {
+        stmtList = compile(fileName, pipeline, parallel, stackSafe,
+                           lazy && cache == null);
+        if (cache != null)
+          cache.store(stmtList);
+      }
+      // create and run the interpreter (profiling is only supported by
+      // the interpreter, and deeply nested programs by it and the VM;
+      // without a Java compiler, --java runs on the node engine)
+      boolean profiling = profiler != null || lineProfiler != null;
+      long start = System.nanoTime();
+      int result = 0;
+      JavaBackend.Program javaProgram = null;
+      if ((java || emitJava) && !profiling && !stackSafe)
+        javaProgram = JavaBackend.compile(stmtList, cache);
+      if (javaProgram != null) {
+        if (emitJava)
+          System.err.print(javaProgram.source());
+        start = System.nanoTime();
+        result = javaProgram.run();
+      }
+      else if ((bytecode || disassemble) && !profiling) {
+        BytecodeCompiler compiler = new BytecodeCompiler(stackSafe);
+        Bytecode program = compiler.compile(stmtList);
+        if (disassemble) {
+          compiler.compileAll();
+          program.disassemble(System.err);
+        }
+        start = System.nanoTime();
+        result = new VM().run(program, compiler);
+      }
+      else if ((nodes || jit || java || emitJava) && !profiling && !stackSafe) {
+        NodeEngine engine = new NodeEngine();
+        engine.setJit(jit);
+        result = engine.run(stmtList);
+      }
+      else {
+        Interpreter interpreter = new Interpreter();
+        interpreter.setProfiler(profiler);
+        interpreter.setLineProfiler(lineProfiler);
+        interpreter.setStackSafe(stackSafe);
+        interpreter.setFrames(frames);
+        result = interpreter.run(stmtList);
+      }
+      Stats.runTime = System.nanoTime() - start;
+      Stats.print(System.err);
+      if (profiler != null) {
+        profiler.printTable(System.err);
+        if (profileOut != null)
+          profiler.writeCollapsed(profileOut);
+      }
+      if (lineProfiler != null) {
+        List<String> source = null;
+        if (fileName != null)
+          source = Files.readAllLines(Paths.get(fileName));
+        lineProfiler.printListing(System.err, source);
+      }
       System.exit(result);
     } catch (MyPLException e) {
       System.out.println(e);
+      Stats.print(System.err);
+      System.exit(1);
+    } catch (FileSystemException e) {
+      // opening the program file failed
+      System.out.println("Unable to open file '" + fileName + "'");
       System.exit(1);
-    } catch (FileNotFoundException e) {
-      System.out.println("Unable to open file '" + args[0] + "'");
+    } catch (IOException e) {
+      System.out.println("Unable to write profile: " + e.getMessage());
       System.exit(1);
     }
      
   }
-  
+
+
+  // lexes, parses and type checks the program in the given file (or
+  // standard in)
+  private static StmtList compile(String fileName, boolean pipeline,
+                                  boolean parallel, boolean stackSafe,
+                                  boolean lazy)
+    throws IOException, MyPLException
+  {
+    // create the lexer over the (memory-mapped) file or standard in
+    Lexer lexer = null;
+    if (fileName != null)
+      lexer = new Lexer(Paths.get(fileName));
+    else
+      lexer = new Lexer(System.in);
+    // create and run the parser, over packed tokens for large files
+    // (unless pipelined)
+    long start = System.nanoTime();
+    Parser parser = null;
+    PipelinedLexer pipelined = null;
+    if (parallel && fileName != null) {
+      byte[] bytes = Files.readAllBytes(Paths.get(fileName));
+      parser = new Parser(ParallelLexer.tokenize(new String(bytes).toCharArray()));
+    }
+    else if (pipeline) {
+      pipelined = new PipelinedLexer(lexer);
+      parser = new Parser(pipelined);
+    }
+    else if (fileName != null && Files.size(Paths.get(fileName)) >= PACKED_SIZE)
+      parser = new Parser(lexer.tokenize());
+    else
+      parser = new Parser(lexer);
+    parser.setStackSafe(stackSafe);
+    parser.setLazyBodies(lazy);
+    StmtList stmtList = null;
+    try {
+      stmtList = parser.parse();
+    } finally {
+      if (pipelined != null)
+        pipelined.close();
+    }
+    Stats.parseTime = System.nanoTime() - start;
+    // create and run the type checker
+    TypeChecker typeChecker = new TypeChecker();
+    typeChecker.setStackSafe(stackSafe);
+    start = System.nanoTime();
+    stmtList.accept(typeChecker);
+    Stats.checkTime = System.nanoTime() - start;
+    return stmtList;
+  }
+
 }
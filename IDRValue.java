@@ -4,6 +4,8 @@ import java.util.ArrayList;
 public class IDRValue implements RValue {
 
   public ArrayList<Token> path = new ArrayList<>();
+  public int depth = -1;             // address of the first name in
+  public int slot = -1;              // the path, set by Resolver
 
   public void accept(Visitor visitor) throws MyPLException {
     visitor.visit(this);
@@ -0,0 +1,792 @@
+/**
+ * Author: Ben Comer
+ * File: IncrementalProgram.java
+ *
+ * A program that is lexed, parsed and type checked as it is edited,
+ * for live editing. The source is split into units: the top-level
+ * statements starting on a line, up to the next unit (so a unit
+ * starts at the beginning of a line and owns the comments and blank
+ * lines after it). Each unit keeps its statements, the names it uses,
+ * and the global declarations it made when last checked.
+ *
+ * An edit only lexes and parses the units it touches, again as one
+ * region. The region grows when the code around it could change how
+ * it parses: when a neighbouring statement could go on into it (an
+ * operator, '(' or, after a bare return, an expression), or when a
+ * syntax error is found at its end (e.g., a block not yet closed).
+ * After a syntax error, parsing picks up again at the next line that
+ * starts with fun or type (which can only start a top-level
+ * statement), so an error only takes in the code up to there.
+ *
+ * Type checking runs over the units in order, but only checks the
+ * edited units and the units using a name whose global declaration
+ * was added, removed or changed type (or a field of a changed struct
+ * type); the declarations of other units
+ * are added to the checker as they were. Editing a function body
+ * therefore only checks that function, unless its signature changes.
+ *
+ * So the work of an edit is that of lexing, parsing and checking the
+ * code it affects, plus a walk over the list of units (adding their
+ * global declarations to the checker). Units after an
+ * edit that adds or removes lines keep their old line numbers until
+ * they are needed: units with syntax errors are parsed again straight
+ * away (so errors are reported at the right lines), and the tokens of
+ * the others are moved to their new lines when checked again or when
+ * program() is called.
+ */
+
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+
+public class IncrementalProgram {
+
+  // tokens that start top-level statements other than expressions
+  private static final Set<TokenType> STATEMENTS =
+    EnumSet.of(TokenType.TYPE, TokenType.FUN, TokenType.VAR, TokenType.SET,
+               TokenType.IF, TokenType.WHILE, TokenType.FOR, TokenType.RETURN);
+
+  // tokens that start expressions
+  private static final Set<TokenType> EXPRESSIONS =
+    EnumSet.of(TokenType.INT_VAL, TokenType.DOUBLE_VAL, TokenType.BOOL_VAL,
+               TokenType.CHAR_VAL, TokenType.STRING_VAL, TokenType.NIL,
+               TokenType.NEW, TokenType.ID, TokenType.NEG, TokenType.NOT,
+               TokenType.LPAREN);
+
+  // top-level statements, starting on the same line
+  private static class Unit {
+    int length = 0;             // characters of source
+    int lines = 0;              // newlines in its source
+    int line = 1;               // line its tokens were lexed at
+    TokenType first = null;     // type of its first token (if any)
+    boolean colon = false;      // if that token is a lone ':'
+    boolean lexError = false;   // if it starts with a lexical error
+    List<Stmt> stmts = new ArrayList<>();
+    Set<String> names = new HashSet<>();    // identifiers it uses
+    MyPLException syntaxError = null;
+    boolean open = false;       // if the syntax error is at its end
+                                // (or at the next declaration)
+    MyPLException typeError = null;
+    // the global declarations it made when last checked
+    List<String> declNames = new ArrayList<>();
+    List<Object> declInfos = new ArrayList<>();
+    boolean fresh = true;       // parsed but not yet checked
+  }
+
+  private StringBuilder source;
+  private List<Unit> units = new ArrayList<>();
+  private boolean stackSafe = false;
+  // the global declarations of units that were parsed again
+  private Map<String, Object> dropped = new HashMap<>();
+  private int parsed = 0;       // statements parsed by the last update
+  private int checked = 0;      // statements checked by the last update
+
+
+  /**
+   * Parses and checks the given source.
+   */
+  public IncrementalProgram(String source) {
+    this(source, false);
+  }
+
+  /**
+   * Parses and checks the given source, in stack-safe mode if asked
+   * (see Parser.setStackSafe).
+   */
+  public IncrementalProgram(String source, boolean stackSafe) {
+    this.source = new StringBuilder(source);
+    this.stackSafe = stackSafe;
+    Unit all = new Unit();
+    all.length = source.length();
+    units.add(all);
+    parsed = 0;
+    reparse(0, 0);
+    check();
+  }
+
+
+  /**
+   * Replaces the given number of characters at offset with text, and
+   * brings the statements and errors up to date.
+   */
+  public void edit(int offset, int removed, String text) {
+    if (offset < 0 || removed < 0 || offset + removed > source.length())
+      throw new IndexOutOfBoundsException("edit of " + removed + " at " +
+                                          offset + " past " + source.length());
+    int first = unitAt(offset);
+    int last = unitAt(offset + removed);
+    source.replace(offset, offset + removed, text);
+    units.get(last).length += text.length() - removed;
+    parsed = 0;
+    reparse(first, last);
+    refreshErrors();
+    check();
+  }
+
+
+  /**
+   * The current source.
+   */
+  public String source() {
+    return source.toString();
+  }
+
+
+  /**
+   * The syntax and type errors, in source order. Each unit reports at
+   * most its first error.
+   */
+  public List<MyPLException> errors() {
+    List<MyPLException> errors = new ArrayList<>();
+    for (Unit unit : units) {
+      if (unit.syntaxError != null)
+        errors.add(unit.syntaxError);
+      else if (unit.typeError != null)
+        errors.add(unit.typeError);
+    }
+    return errors;
+  }
+
+
+  /**
+   * The program's statements (only those that parsed, if there are
+   * syntax errors), e.g., for running it once errors() is empty.
+   */
+  public StmtList program() {
+    StmtList program = new StmtList();
+    int line = 1;
+    for (Unit unit : units) {
+      if (unit.syntaxError == null && unit.line != line)
+        renumber(unit, line);
+      program.stmts.addAll(unit.stmts);
+      line += unit.lines;
+    }
+    return program;
+  }
+
+
+  // the number of statements parsed and checked by the last update
+  public int parsed() {
+    return parsed;
+  }
+
+  public int checked() {
+    return checked;
+  }
+
+
+  // helper functions
+
+  // the index of the unit holding the given offset (the last unit
+  // for the end of the source)
+  private int unitAt(int offset) {
+    int begin = 0;
+    for (int i = 0; i < units.size() - 1; ++i) {
+      begin += units.get(i).length;
+      if (offset < begin)
+        return i;
+    }
+    return units.size() - 1;
+  }
+
+  // parses units first through last again (as one region), growing
+  // the region as needed, and returns the index of the last new unit
+  private int reparse(int first, int last) {
+    while (true) {
+      int begin = 0;
+      int line = 1;
+      for (int i = 0; i < first; ++i) {
+        begin += units.get(i).length;
+        line += units.get(i).lines;
+      }
+      int end = begin;
+      for (int i = first; i <= last; ++i)
+        end += units.get(i).length;
+      List<Unit> made = parseRegion(begin, end, line);
+      Unit head = made.get(0);
+      Unit tail = made.get(made.size() - 1);
+      // a region without statements joins a neighbour
+      if (made.size() == 1 && head.stmts.isEmpty() && head.syntaxError == null &&
+          units.size() > last - first + 1) {
+        if (first > 0)
+          --first;
+        else
+          ++last;
+        continue;
+      }
+      if (first > 0 && continues(units.get(first - 1), head)) {
+        --first;
+        continue;
+      }
+      if (last + 1 < units.size() && continues(tail, units.get(last + 1))) {
+        // a syntax error at the end takes in as many more units again
+        // (up to a declaration), so a long unclosed block is parsed a
+        // logarithmic number of times
+        int more = tail.syntaxError != null ? last - first : 0;
+        ++last;
+        while (more-- > 0 && last + 1 < units.size() &&
+               !declares(units.get(last + 1)) &&
+               continues(tail, units.get(last + 1)))
+          ++last;
+        continue;
+      }
+      for (int i = first; i <= last; ++i) {
+        Unit old = units.get(i);
+        for (int j = 0; j < old.declNames.size(); ++j)
+          dropped.put(old.declNames.get(j), old.declInfos.get(j));
+      }
+      units.subList(first, last + 1).clear();
+      units.addAll(first, made);
+      for (Unit unit : made)
+        parsed += unit.stmts.size();
+      return first + made.size() - 1;
+    }
+  }
+
+  // if the last statement of the given unit could go on into the next
+  // unit (if so, the two are parsed together). A lone ':' starting the
+  // next unit is placed where the whitespace before it starts, in the
+  // given unit, so it is parsed together with it as well, and a
+  // lexical error starting it is found by the parser while still in
+  // the given unit's last statement.
+  private static boolean continues(Unit unit, Unit following) {
+    if (following.colon || following.lexError)
+      return true;
+    TokenType next = following.first;
+    if (next == null)
+      return false;
+    // the code after a syntax error is skipped up to a declaration,
+    // unless the error is found at that declaration
+    if (unit.syntaxError != null)
+      return unit.open || !declares(following);
+    if (unit.stmts.isEmpty())
+      return false;
+    Stmt last = unit.stmts.get(unit.stmts.size() - 1);
+    if (last instanceof ReturnStmt && ((ReturnStmt)last).returnExpr == null &&
+        EXPRESSIONS.contains(next))
+      return true;
+    return next == TokenType.LPAREN ||
+      (!STATEMENTS.contains(next) && !EXPRESSIONS.contains(next));
+  }
+
+  // if the unit starts with fun or type (which can only start a
+  // top-level statement)
+  private static boolean declares(Unit unit) {
+    return unit.first == TokenType.FUN || unit.first == TokenType.TYPE;
+  }
+
+  // lexes and parses the source from begin to end (starting at the
+  // given line) into units
+  private List<Unit> parseRegion(int begin, int end, int line) {
+    char[] chars = new char[end - begin];
+    source.getChars(begin, end, chars, 0);
+    List<Unit> made = new ArrayList<>();
+    List<Integer> starts = new ArrayList<>();   // of the units made
+    int from = 0;
+    while (true) {
+      TokenBuffer tokens = new Lexer(chars, from, chars.length, line).scanAll();
+      Parser parser = new Parser(tokens);
+      parser.setStackSafe(stackSafe);
+      StmtList stmtList = new StmtList();
+      List<Integer> firsts = new ArrayList<>();
+      MyPLException error = null;
+      try {
+        parser.parse(stmtList, firsts);
+      } catch (MyPLException e) {
+        error = e;
+      }
+      // the statements that parsed, split into units by line
+      int good = stmtList.stmts.size();
+      int failedLine = from;    // start of the failed statement's line
+      int errorStart = from;    // and of the first line it shares
+      if (error != null && firsts.size() > good) {
+        failedLine = lineStart(chars, tokens.start(firsts.get(good)));
+        errorStart = failedLine;
+        // statements ending on that line go with it
+        while (good > 0 && tokens.start(firsts.get(good) - 1) >= errorStart) {
+          --good;
+          errorStart = lineStart(chars, tokens.start(firsts.get(good)));
+        }
+      }
+      Unit unit = null;
+      for (int i = 0; i < good; ++i) {
+        int index = firsts.get(i);
+        int start = lineStart(chars, tokens.start(index));
+        if (i == 0 || tokens.start(index - 1) < start) {
+          int line0 = i == 0 ? line :
+            lineOf(chars, tokens, index, starts.get(starts.size() - 1), unit.line);
+          unit = new Unit();
+          starts.add(i == 0 ? from : start);
+          unit.line = line0;
+          unit.first = tokens.type(index);
+          unit.colon = loneColon(tokens, index);
+          made.add(unit);
+        }
+        unit.stmts.add(stmtList.stmts.get(i));
+        int next = i + 1 < firsts.size() ? firsts.get(i + 1) : tokens.size();
+        for (int j = index; j < next; ++j)
+          if (tokens.type(j) == TokenType.ID)
+            unit.names.add(tokens.lexeme(j));
+      }
+      if (error == null) {
+        if (unit == null) {
+          // only comments and blank lines
+          starts.add(from);
+          unit = new Unit();
+          unit.line = line;
+          made.add(unit);
+        }
+        measure(made, starts, chars.length, tokens.row(tokens.size() - 1));
+        return made;
+      }
+      // the failed statement up to the next line starting a declaration
+      Unit broken = new Unit();
+      if (unit == null)
+        errorStart = from;
+      broken.line = unit == null ? line :
+        lineOf(chars, tokens, firsts.get(good), starts.get(starts.size() - 1), unit.line);
+      starts.add(errorStart);
+      broken.syntaxError = error;
+      int resume = resync(chars, failedLine);
+      if (parser.atEnd())
+        broken.open = true;
+      else if (resume < chars.length && parser.position() >= 0 &&
+               tokens.start(parser.position()) == firstChar(chars, resume))
+        broken.open = true;     // the error is at the declaration
+      broken.lexError = tokens.error() != null;
+      for (int j = 0; j < tokens.size(); ++j) {
+        if (tokens.start(j) >= errorStart) {
+          if (tokens.type(j) != TokenType.EOS) {
+            broken.first = tokens.type(j);
+            broken.colon = loneColon(tokens, j);
+          }
+          broken.lexError = false;
+          break;
+        }
+      }
+      made.add(broken);
+      line = endLine(chars, errorStart, resume, broken.line);
+      if (resume == chars.length) {
+        measure(made, starts, chars.length, line);
+        return made;
+      }
+      from = resume;
+    }
+  }
+
+  // sets the lengths and line counts of the units made from the
+  // region, given where they start and the line at the region's end
+  private static void measure(List<Unit> made, List<Integer> starts,
+                              int end, int endLine)
+  {
+    for (int i = 0; i < made.size(); ++i) {
+      Unit unit = made.get(i);
+      boolean last = i == made.size() - 1;
+      unit.length = (last ? end : starts.get(i + 1)) - starts.get(i);
+      unit.lines = (last ? endLine : made.get(i + 1).line) - unit.line;
+    }
+  }
+
+  // the lexer's line at the start of the line holding the given token
+  // (the first on its line), given the line at an earlier line start.
+  // The lexer counts each tab as four lines, and a lone carriage
+  // return (which also takes the next character) as one, so this is
+  // not simply the number of newlines before it.
+  private static int lineOf(char[] chars, TokenBuffer tokens, int index,
+                            int base, int baseLine)
+  {
+    // a lone ':' has the row where the whitespace before it starts,
+    // which can be on an earlier line
+    if (loneColon(tokens, index))
+      return endLine(chars, base, lineStart(chars, tokens.start(index)), baseLine);
+    int line = tokens.row(index);
+    int i = lineStart(chars, tokens.start(index));
+    while (i < tokens.start(index)) {
+      if (chars[i] == '\t') {
+        line -= 4;
+        ++i;
+      }
+      else if (chars[i] == '\r') {
+        --line;
+        i += 2;
+      }
+      else if (chars[i] == '#') {
+        while (chars[i] != '\r')
+          ++i;
+      }
+      else
+        ++i;
+    }
+    return line;
+  }
+
+  // the lexer's line at end, lexing from start at the given line
+  private static int endLine(char[] chars, int start, int end, int line) {
+    TokenBuffer tokens = new Lexer(chars, start, end, line).scanAll();
+    if (tokens.error() == null)
+      return tokens.row(tokens.size() - 1);
+    // after a lexical error, only newlines can be counted
+    if (tokens.size() > 0) {
+      line = tokens.row(tokens.size() - 1);
+      start = tokens.start(tokens.size() - 1);
+    }
+    for (int i = start; i < end; ++i)
+      if (chars[i] == '\n')
+        ++line;
+    return line;
+  }
+
+  // if the token is the (BAD) token of a lone ':', not nil
+  private static boolean loneColon(TokenBuffer tokens, int index) {
+    return tokens.type(index) == TokenType.NIL && tokens.symbol(index) < 0;
+  }
+
+  // the start of the line holding the given offset
+  private static int lineStart(char[] chars, int offset) {
+    while (offset > 0 && chars[offset - 1] != '\n')
+      --offset;
+    return offset;
+  }
+
+  // the offset of the first non-blank character of the line at offset
+  private static int firstChar(char[] chars, int offset) {
+    while (offset < chars.length && (chars[offset] == ' ' || chars[offset] == '\t'))
+      ++offset;
+    return offset;
+  }
+
+  // the start of the first line after the one at offset that starts
+  // with fun or type (or the end of chars). Comments and strings end
+  // at a newline, so such a line always starts a declaration.
+  private static int resync(char[] chars, int offset) {
+    while (true) {
+      while (offset < chars.length && chars[offset] != '\n')
+        ++offset;
+      if (offset == chars.length)
+        return offset;
+      int start = ++offset;
+      int word = firstChar(chars, start);
+      if (startsWith(chars, word, "fun") || startsWith(chars, word, "type"))
+        return start;
+    }
+  }
+
+  // if the word at offset is the given keyword
+  private static boolean startsWith(char[] chars, int offset, String keyword) {
+    int end = offset + keyword.length();
+    if (end > chars.length)
+      return false;
+    for (int i = 0; i < keyword.length(); ++i)
+      if (chars[offset + i] != keyword.charAt(i))
+        return false;
+    return end == chars.length ||
+      !(Character.isLetterOrDigit(chars[end]) || chars[end] == '_');
+  }
+
+  // parses units with syntax errors again if their lines have moved,
+  // so the errors report their new lines
+  private void refreshErrors() {
+    int line = 1;
+    for (int i = 0; i < units.size(); ++i) {
+      Unit unit = units.get(i);
+      if (unit.syntaxError != null && unit.line != line) {
+        reparse(i, i);
+        i = -1;                 // the units before may have joined it
+        line = 1;
+        continue;
+      }
+      line += unit.lines;
+    }
+  }
+
+  // moves the tokens of a unit (whose text has not changed) to the
+  // line it has moved to. A unit starts a line, so lexing it again
+  // would only add the same number to each row; its statements (and
+  // what the checker recorded in them) are kept.
+  private void renumber(Unit unit, int line) {
+    Renumberer renumberer = new Renumberer(line - unit.line, stackSafe);
+    try {
+      for (Stmt stmt : unit.stmts)
+        renumberer.stmt(stmt);
+    } catch (MyPLException e) {
+      throw new IllegalStateException(e);     // not thrown
+    }
+    unit.line = line;
+  }
+
+  // checks the new units and those using changed global declarations
+  private void check() {
+    checked = 0;
+    TypeChecker checker = newChecker(null);
+    Set<String> changed = new HashSet<>();
+    boolean inFresh = false;
+    int line = 1;
+    for (Unit unit : units) {
+      if (inFresh && !unit.fresh) {
+        // declarations of the old units not made again
+        for (Map.Entry<String, Object> e : dropped.entrySet())
+          change(changed, e.getKey(), e.getValue());
+        dropped.clear();
+      }
+      inFresh = unit.fresh;
+      if (unit.syntaxError != null) {
+        for (int i = 0; i < unit.declNames.size(); ++i)
+          change(changed, unit.declNames.get(i), unit.declInfos.get(i));
+        unit.declNames = new ArrayList<>();
+        unit.declInfos = new ArrayList<>();
+      }
+      else if (unit.fresh || uses(unit, changed) ||
+               (unit.typeError != null && unit.line != line)) {
+        if (unit.line != line)
+          renumber(unit, line);
+        int before = checker.globalCount();
+        unit.typeError = null;
+        try {
+          for (Stmt stmt : unit.stmts) {
+            ++checked;
+            checker.check(stmt);
+          }
+        } catch (MyPLException e) {
+          unit.typeError = e;
+          checker = newChecker(checker);
+        } catch (RuntimeException e) {
+          // the checker can fail on some ill-typed code
+          unit.typeError = new MyPLException("Type", "cannot check statement (" +
+                                             e + ")", line, 1);
+          checker = newChecker(checker);
+        }
+        List<String> names = new ArrayList<>();
+        List<Object> infos = new ArrayList<>();
+        for (int i = before; i < checker.globalCount(); ++i) {
+          names.add(checker.globalName(i));
+          infos.add(checker.globalInfo(i));
+        }
+        declared(unit, names, infos, changed);
+      }
+      else {
+        for (int i = 0; i < unit.declNames.size(); ++i)
+          checker.declare(unit.declNames.get(i), unit.declInfos.get(i));
+      }
+      unit.fresh = false;
+      line += unit.lines;
+    }
+    dropped.clear();
+  }
+
+  // records the declarations a unit made, adding those that differ
+  // from before to changed
+  private void declared(Unit unit, List<String> names, List<Object> infos,
+                        Set<String> changed)
+  {
+    Map<String, Object> old = new HashMap<>();
+    for (int i = 0; i < unit.declNames.size(); ++i)
+      old.put(unit.declNames.get(i), unit.declInfos.get(i));
+    for (int i = 0; i < names.size(); ++i) {
+      String name = names.get(i);
+      Object info = infos.get(i);
+      if (old.containsKey(name)) {
+        Object before = old.remove(name);
+        if (Objects.equals(before, info))
+          continue;
+        change(changed, name, before);
+      }
+      // a declaration moved from a unit that was parsed again
+      if (dropped.containsKey(name)) {
+        Object before = dropped.remove(name);
+        if (Objects.equals(before, info))
+          continue;
+        change(changed, name, before);
+      }
+      change(changed, name, info);
+    }
+    for (Map.Entry<String, Object> e : old.entrySet())
+      change(changed, e.getKey(), e.getValue());
+    unit.declNames = names;
+    unit.declInfos = infos;
+  }
+
+  // adds a changed global declaration to changed, along with the
+  // fields of a changed type (which paths use without naming the type)
+  private static void change(Set<String> changed, String name, Object info) {
+    changed.add(name);
+    if (info instanceof Type.Struct)
+      changed.addAll(((Type.Struct)info).fieldNames());
+  }
+
+  // if the unit uses one of the names
+  private static boolean uses(Unit unit, Set<String> names) {
+    if (names.isEmpty())
+      return false;
+    for (String name : names)
+      if (unit.names.contains(name))
+        return true;
+    return false;
+  }
+
+  // a checker with the global scope open, holding the global
+  // declarations of the given checker (after an error, which can
+  // leave a checker in a nested scope)
+  private TypeChecker newChecker(TypeChecker from) {
+    TypeChecker checker = new TypeChecker();
+    checker.setStackSafe(stackSafe);
+    checker.beginGlobal();
+    if (from != null)
+      for (int i = 0; i < from.globalCount(); ++i)
+        checker.declare(from.globalName(i), from.globalInfo(i));
+    return checker;
+  }
+
+
+
+  // replaces each token of the statements visited with a copy moved
+  // by the given number of rows
+  private static class Renumberer implements Visitor {
+    private final int rows;
+    private final boolean stackSafe;
+
+    Renumberer(int rows, boolean stackSafe) {
+      this.rows = rows;
+      this.stackSafe = stackSafe;
+    }
+
+    private Token moved(Token token) {
+      if (token == null)
+        return null;
+      return new Token(token.type(), token.lexeme(), token.row() + rows,
+                       token.column(), token.symbol());
+    }
+
+    private void moved(List<Token> tokens) {
+      for (int i = 0; i < tokens.size(); ++i)
+        tokens.set(i, moved(tokens.get(i)));
+    }
+
+    void stmt(Stmt stmt) throws MyPLException {
+      if (stackSafe)
+        StackSafe.accept(stmt, this);
+      else
+        stmt.accept(this);
+    }
+
+    private void expr(Expr expr) throws MyPLException {
+      if (expr != null)
+        expr.accept(this);
+    }
+
+    public void visit(StmtList node) throws MyPLException {
+      for (Stmt stmt : node.stmts)
+        stmt(stmt);
+    }
+
+    public void visit(VarDeclStmt node) throws MyPLException {
+      node.varId = moved(node.varId);
+      node.varType = moved(node.varType);
+      expr(node.varExpr);
+    }
+
+    public void visit(AssignStmt node) throws MyPLException {
+      node.lhs.accept(this);
+      expr(node.rhs);
+    }
+
+    public void visit(ReturnStmt node) throws MyPLException {
+      node.returnToken = moved(node.returnToken);
+      expr(node.returnExpr);
+    }
+
+    public void visit(IfStmt node) throws MyPLException {
+      expr(node.ifPart.boolExpr);
+      node.ifPart.stmtList.accept(this);
+      for (BasicIf elsif : node.elsifs) {
+        expr(elsif.boolExpr);
+        elsif.stmtList.accept(this);
+      }
+      node.elseStmtList.accept(this);
+    }
+
+    public void visit(WhileStmt node) throws MyPLException {
+      expr(node.boolExpr);
+      node.stmtList.accept(this);
+    }
+
+    public void visit(ForStmt node) throws MyPLException {
+      node.var = moved(node.var);
+      expr(node.startExpr);
+      expr(node.endExpr);
+      node.stmtList.accept(this);
+    }
+
+    public void visit(TypeDeclStmt node) throws MyPLException {
+      node.typeId = moved(node.typeId);
+      for (VarDeclStmt field : node.fields)
+        field.accept(this);
+    }
+
+    public void visit(FunDeclStmt node) throws MyPLException {
+      node.returnType = moved(node.returnType);
+      node.funName = moved(node.funName);
+      for (FunParam param : node.params) {
+        param.paramType = moved(param.paramType);
+        param.paramName = moved(param.paramName);
+      }
+      node.stmtList.accept(this);
+    }
+
+    public void visit(ArrayDeclStmt node) {
+      node.arrayId = moved(node.arrayId);
+      node.arrayType = moved(node.arrayType);
+      moved(node.elements);
+    }
+
+    public void visit(Expr node) throws MyPLException {
+      node.first.accept(this);
+      node.operator = moved(node.operator);
+      expr(node.rest);
+    }
+
+    public void visit(LValue node) {
+      moved(node.path);
+    }
+
+    public void visit(SimpleTerm node) throws MyPLException {
+      node.rvalue.accept(this);
+    }
+
+    public void visit(ComplexTerm node) throws MyPLException {
+      if (stackSafe)
+        StackSafe.accept(node.expr, this);
+      else
+        node.expr.accept(this);
+    }
+
+    public void visit(SimpleRValue node) {
+      node.val = moved(node.val);
+    }
+
+    public void visit(NewRValue node) {
+      node.typeId = moved(node.typeId);
+    }
+
+    public void visit(CallRValue node) throws MyPLException {
+      node.funName = moved(node.funName);
+      for (Expr arg : node.argList)
+        arg.accept(this);
+    }
+
+    public void visit(IDRValue node) {
+      moved(node.path);
+    }
+
+    public void visit(NegatedRValue node) throws MyPLException {
+      node.expr.accept(this);
+    }
+  }
+
+}
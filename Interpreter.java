@@ -4,6 +4,15 @@
  * File: Interpreter.java
  *
  * Visitor implementation of a basic "Pure AST" Interpreter for MyPL. 
+ *
+ * By default variables live in symbol table environments. With
+ * frames (see setFrames), the program is resolved first and each
+ * variable is a slot in an Object[] frame (see Resolver). Frames are
+ * windows of one stack array shared by all calls: a call's arguments
+ * are pushed as the first slots of its frame, and the frame is
+ * popped (and cleared) when the call returns. Returns then unwind
+ * with a flag instead of an exception. Slots hold the same boxed
+ * values as environments do, since = and != compare references.
  */
 
 // DEBUG
@@ -11,6 +20,7 @@ import java.util.Set;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.HashMap;
 import java.io.BufferedReader;
@@ -21,10 +31,33 @@ public class Interpreter implements Visitor {
   private SymbolTable symbolTable = new SymbolTable();
   private Object currVal = null;
   private Map<Integer, Map<String, Object>> heap = new HashMap<>();
+  private Profiler profiler = null;   // function profiler, if attached
+  private LineProfiler lineProfiler = null; // line profiler, if attached
+  private boolean stackSafe = false;
+  private boolean frames = false;     // variables in array frames
+  private Object[] stack = null;      // the frames, the global one first
+  private int fp = 0;                 // base of the current call's frame
+  private int sp = 0;                 // top of the stack
+  private boolean returning = false;  // a return is unwinding (frames)
   
   public Integer run(StmtList stmtList) throws MyPLException {
+    if (frames) {
+      int globals = new Resolver(stackSafe).resolve(stmtList);
+      stack = new Object[globals + 64];
+      fp = 0;
+      sp = globals;
+      returning = false;
+    }
+    if (profiler != null)
+      profiler.start();
     try {
 		stmtList.accept(this);
+		if (returning) {
+			returning = false;
+			if (currVal == null)
+				return 0;
+			return (Integer)currVal;
+		}
 		return 0;
 	} catch (MyPLException e) {
 		if (!e.isReturnException())
@@ -33,25 +66,86 @@ public class Interpreter implements Visitor {
 		if (returnVal == null)
 			return 0;
 		return (Integer)returnVal;
+	} finally {
+		if (profiler != null)
+			profiler.finish();
 	}
   }
 
+
+  // attach a profiler to record function calls (null to detach)
+  public void setProfiler(Profiler profiler) {
+    this.profiler = profiler;
+  }
+
+
+  // attach a profiler to record statements per line (null to detach)
+  public void setLineProfiler(LineProfiler lineProfiler) {
+    this.lineProfiler = lineProfiler;
+  }
+
+
+  /**
+   * In stack-safe mode, statements and parenthesized expressions are
+   * visited through StackSafe, so deep nesting cannot overflow the
+   * thread stack.
+   */
+  public void setStackSafe(boolean stackSafe) {
+    this.stackSafe = stackSafe;
+  }
+
+
+  /**
+   * With frames, run() resolves the program and keeps variables in
+   * array frames instead of symbol table environments.
+   */
+  public void setFrames(boolean frames) {
+    this.frames = frames;
+  }
+
   
   // visitor functions
 
   
   public void visit(StmtList node) throws MyPLException {
-    symbolTable.pushEnvironment();
+    // (block variables have slots in the enclosing frame)
+    if (!frames)
+      symbolTable.pushEnvironment();
     for (Stmt s : node.stmts) {
-      s.accept(this);
+      if (lineProfiler == null)
+        visitStmt(s);
+      else {
+        lineProfiler.enter(getStmtToken(s).row());
+        try {
+          visitStmt(s);
+        } finally {
+          lineProfiler.exit();
+        }
+      }
+      if (returning)
+        break;
     }
-    symbolTable.popEnvironment();    
+    if (!frames)
+      symbolTable.popEnvironment();    
+  }
+
+
+  private void visitStmt(Stmt s) throws MyPLException {
+    if (stackSafe)
+      StackSafe.accept(s, this);
+    else
+      s.accept(this);
   }
 
   
   public void visit(VarDeclStmt node) throws MyPLException {  
     // TODO: HW6 XXX
 	
+	if (frames) {
+		node.varExpr.accept(this);
+		setSlot(node.depth, node.slot, currVal);
+		return;
+	}
 	// Already typechecked, gonna add to symbolTable
 	symbolTable.addName(node.varId.lexeme());
 	node.varExpr.accept(this);
@@ -59,6 +153,11 @@ public class Interpreter implements Visitor {
   }
 
   
+  public void visit(ArrayDeclStmt node) throws MyPLException {
+    error("arrays are not supported", node.arrayId);
+  }
+
+  
   public void visit(AssignStmt node) throws MyPLException {
     // evaluate rhs
     node.rhs.accept(this);
@@ -70,8 +169,15 @@ public class Interpreter implements Visitor {
   public void visit(ReturnStmt node) throws MyPLException {
     // TODO: HW7 XXX
 	
-	node.returnExpr.accept(this);
+	if (node.returnExpr != null)
+		node.returnExpr.accept(this);
+	else
+		currVal = null;
 	Object returnVal = currVal;
+	if (frames) {
+		returning = true;
+		return;
+	}
 	throw new MyPLException(returnVal);
   }
 
@@ -107,6 +213,8 @@ public class Interpreter implements Visitor {
 	node.boolExpr.accept(this);
 	while ((Boolean)currVal) {
 		node.stmtList.accept(this);
+		if (returning)
+			return;
 		node.boolExpr.accept(this);
 	}
   }
@@ -117,11 +225,24 @@ public class Interpreter implements Visitor {
 	
 	node.endExpr.accept(this);
 	Integer end_val = (Integer)currVal;
+	if (frames) {
+		node.startExpr.accept(this);
+		if ((Integer)currVal > end_val)
+			return;
+		setSlot(node.depth, node.slot, (Integer)currVal);
+		do {
+			node.stmtList.accept(this);
+			if (returning)
+				return;
+			setSlot(node.depth, node.slot, (Integer)getSlot(node.depth, node.slot) + 1);
+		} while ((Integer)getSlot(node.depth, node.slot) <= end_val);
+		return;
+	}
 	symbolTable.pushEnvironment();
 	
 		symbolTable.addName(node.var.lexeme());
 		node.startExpr.accept(this);
-		if ((Integer)currVal > (Integer)end_val) {
+		if ((Integer)currVal > end_val) {
 			symbolTable.popEnvironment();
 			return;
 		}
@@ -138,9 +259,12 @@ public class Interpreter implements Visitor {
   public void visit(TypeDeclStmt node) throws MyPLException {
     // TODO: HW7 XXX
 	
+	// (with frames, new is bound to the declaration by the resolver)
+	if (frames)
+		return;
 	symbolTable.addName(node.typeId.lexeme());
-	int envId = symbolTable.getEnvironmentId();
-	List<Object> typeInfo = List.of(envId, node);
+	SymbolTable.Environment env = symbolTable.getEnvironment();
+	List<Object> typeInfo = List.of(env, node);
 	symbolTable.setInfo(node.typeId.lexeme(), typeInfo);
   }
 
@@ -148,9 +272,12 @@ public class Interpreter implements Visitor {
   public void visit(FunDeclStmt node) throws MyPLException {
     // TODO: HW7 XXX
 	
+	// (with frames, calls are bound to the declaration by the resolver)
+	if (frames)
+		return;
 	symbolTable.addName(node.funName.lexeme());
-	int envId = symbolTable.getEnvironmentId();
-	List<Object> typeInfo = List.of(envId, node);
+	SymbolTable.Environment env = symbolTable.getEnvironment();
+	List<Object> typeInfo = List.of(env, node);
 	symbolTable.setInfo(node.funName.lexeme(), typeInfo);
   }
 
@@ -158,171 +285,318 @@ public class Interpreter implements Visitor {
   // expressions
   
   public void visit(Expr node) throws MyPLException {
-    // TODO: HW6 XXX
-    //
-    // The following is a basic sketch of what you need to
-    // implement. You will need to fill in the remaining code to get
-    // Expr working.
-
-    node.first.accept(this);
-    Object firstVal = currVal;
-    
+    Expr left = node.leftChain();
+    if (left == null)
+      node.first.accept(this);
+    else
+      visitChain(left);
     if (node.operator != null) {
+      Object firstVal = currVal;
       node.rest.accept(this);
-      Object restVal = currVal;
-      String op = node.operator.lexeme();
+      applyOperator(node, firstVal, currVal);
+    }
+    // deal with not operator
+    if (node.negated) {
+      currVal = !(Boolean)currVal;
+    }
+  }
+
+
+  // evaluates a chain of left-associative operators, which nests as a
+  // left-deep tree, walking its left operands with a loop instead of
+  // recursion
+  private void visitChain(Expr node) throws MyPLException {
+    List<Expr> chain = new ArrayList<>();
+    for (Expr e = node; e != null; e = e.leftChain())
+      chain.add(e);
+    chain.get(chain.size() - 1).first.accept(this);
+    for (int i = chain.size() - 1; i >= 0; --i) {
+      Expr e = chain.get(i);
+      Object firstVal = currVal;
+      e.rest.accept(this);
+      applyOperator(e, firstVal, currVal);
+    }
+  }
 
-      // Check for null values (all except == and !=)
-      // if you find a null value report an error
 
-      // basic math ops (+, -, *, /, %)
-      if (op.equals("+")) {
+  // sets currVal to the result of the node's operator on the values
+  // of its operands, dispatching on the node's opcode (lowered by the
+  // type checker, or here from the operator token)
+  private void applyOperator(Expr node, Object firstVal, Object restVal)
+    throws MyPLException
+  {
+    int opcode = node.opcode;
+    if (opcode == Opcode.NONE)
+      opcode = node.opcode = Opcode.of(node.operator.type());
+
+    // operators specialized to their operand type, which fall back to
+    // the generic case for other operands (such as nil)
+    switch (opcode) {
+    case Opcode.ADD_INT:
+      if (firstVal instanceof Integer && restVal instanceof Integer) {
+        currVal = (Integer)firstVal + (Integer)restVal;
+        return;
+      }
+      break;
+    case Opcode.SUB_INT:
+      if (firstVal instanceof Integer && restVal instanceof Integer) {
+        currVal = (Integer)firstVal - (Integer)restVal;
+        return;
+      }
+      break;
+    case Opcode.MUL_INT:
+      if (firstVal instanceof Integer && restVal instanceof Integer) {
+        currVal = (Integer)firstVal * (Integer)restVal;
+        return;
+      }
+      break;
+    case Opcode.DIV_INT:
+      if (firstVal instanceof Integer && restVal instanceof Integer) {
+        currVal = (Integer)firstVal / (Integer)restVal;
+        return;
+      }
+      break;
+    case Opcode.MOD_INT:
+      if (firstVal instanceof Integer && restVal instanceof Integer) {
+        currVal = (Integer)firstVal % (Integer)restVal;
+        return;
+      }
+      break;
+    case Opcode.LT_INT:
+      if (firstVal instanceof Integer && restVal instanceof Integer) {
+        currVal = (Integer)firstVal < (Integer)restVal;
+        return;
+      }
+      break;
+    case Opcode.LE_INT:
+      if (firstVal instanceof Integer && restVal instanceof Integer) {
+        currVal = (Integer)firstVal <= (Integer)restVal;
+        return;
+      }
+      break;
+    case Opcode.GT_INT:
+      if (firstVal instanceof Integer && restVal instanceof Integer) {
+        currVal = (Integer)firstVal > (Integer)restVal;
+        return;
+      }
+      break;
+    case Opcode.GE_INT:
+      if (firstVal instanceof Integer && restVal instanceof Integer) {
+        currVal = (Integer)firstVal >= (Integer)restVal;
+        return;
+      }
+      break;
+    case Opcode.ADD_DOUBLE:
+      if (firstVal instanceof Double && restVal instanceof Double) {
+        currVal = (Double)firstVal + (Double)restVal;
+        return;
+      }
+      break;
+    case Opcode.SUB_DOUBLE:
+      if (firstVal instanceof Double && restVal instanceof Double) {
+        currVal = (Double)firstVal - (Double)restVal;
+        return;
+      }
+      break;
+    case Opcode.MUL_DOUBLE:
+      if (firstVal instanceof Double && restVal instanceof Double) {
+        currVal = (Double)firstVal * (Double)restVal;
+        return;
+      }
+      break;
+    case Opcode.DIV_DOUBLE:
+      if (firstVal instanceof Double && restVal instanceof Double) {
+        currVal = (Double)firstVal / (Double)restVal;
+        return;
+      }
+      break;
+    case Opcode.MOD_DOUBLE:
+      if (firstVal instanceof Double && restVal instanceof Double) {
+        currVal = (Double)firstVal % (Double)restVal;
+        return;
+      }
+      break;
+    case Opcode.LT_DOUBLE:
+      if (firstVal instanceof Double && restVal instanceof Double) {
+        currVal = (Double)firstVal < (Double)restVal;
+        return;
+      }
+      break;
+    case Opcode.LE_DOUBLE:
+      if (firstVal instanceof Double && restVal instanceof Double) {
+        currVal = (Double)firstVal <= (Double)restVal;
+        return;
+      }
+      break;
+    case Opcode.GT_DOUBLE:
+      if (firstVal instanceof Double && restVal instanceof Double) {
+        currVal = (Double)firstVal > (Double)restVal;
+        return;
+      }
+      break;
+    case Opcode.GE_DOUBLE:
+      if (firstVal instanceof Double && restVal instanceof Double) {
+        currVal = (Double)firstVal >= (Double)restVal;
+        return;
+      }
+      break;
+    }
+    applyGeneric(node, Opcode.generic(opcode), firstVal, restVal);
+  }
+
+
+  // applies a generic operator, finding the operand types at run time
+  private void applyGeneric(Expr node, int op, Object firstVal, Object restVal)
+    throws MyPLException
+  {
+    // Check for null values (all except == and !=)
+    // if you find a null value report an error
+    switch (op) {
+
+    // basic math ops (+, -, *, /, %)
+    case Opcode.ADD:
 		if (firstVal == null)
-		  error("cannot operate with nil", getFirstToken(node.first));
+		  error("cannot operate with nil", getTermToken(node.first));
 	    if (restVal == null)
 		  error("cannot operate with nil", getFirstToken(node.rest));
-		
-        if (firstVal instanceof Integer)
-          currVal = (Integer)firstVal + (Integer)restVal;
-        else 
-          currVal = (Double)firstVal + (Double)restVal;
-      }
-      else if (op.equals("-")) {
+
+      if (firstVal instanceof Integer)
+        currVal = (Integer)firstVal + (Integer)restVal;
+      else 
+        currVal = (Double)firstVal + (Double)restVal;
+      break;
+    case Opcode.SUB:
 		if (firstVal == null)
-		  error("cannot operate with nil", getFirstToken(node.first));
+		  error("cannot operate with nil", getTermToken(node.first));
 	    if (restVal == null)
 		  error("cannot operate with nil", getFirstToken(node.rest));
-	  
-        if (firstVal instanceof Integer)
-          currVal = (Integer)firstVal - (Integer)restVal;
-        else 
-          currVal = (Double)firstVal - (Double)restVal;
-      }
-      else if (op.equals("*")) {
+
+      if (firstVal instanceof Integer)
+        currVal = (Integer)firstVal - (Integer)restVal;
+      else 
+        currVal = (Double)firstVal - (Double)restVal;
+      break;
+    case Opcode.MUL:
 		if (firstVal == null)
-		  error("cannot operate with nil", getFirstToken(node.first));
+		  error("cannot operate with nil", getTermToken(node.first));
 	    if (restVal == null)
 		  error("cannot operate with nil", getFirstToken(node.rest));
-	
-        if (firstVal instanceof Integer)
-          currVal = (Integer)firstVal * (Integer)restVal;
-        else 
-          currVal = (Double)firstVal * (Double)restVal;
-      }
-      else if (op.equals("/")) {
+
+      if (firstVal instanceof Integer)
+        currVal = (Integer)firstVal * (Integer)restVal;
+      else 
+        currVal = (Double)firstVal * (Double)restVal;
+      break;
+    case Opcode.DIV:
 		if (firstVal == null)
-		  error("cannot operate with nil", getFirstToken(node.first));
+		  error("cannot operate with nil", getTermToken(node.first));
 	    if (restVal == null)
 		  error("cannot operate with nil", getFirstToken(node.rest));
-	  
-        if (firstVal instanceof Integer)
-          currVal = (Integer)firstVal / (Integer)restVal;
-        else 
-          currVal = (Double)firstVal / (Double)restVal;
-      }
-      else if (op.equals("%")) {
+
+      if (firstVal instanceof Integer)
+        currVal = (Integer)firstVal / (Integer)restVal;
+      else 
+        currVal = (Double)firstVal / (Double)restVal;
+      break;
+    case Opcode.MOD:
 		if (firstVal == null)
-		  error("cannot operate with nil", getFirstToken(node.first));
+		  error("cannot operate with nil", getTermToken(node.first));
 	    if (restVal == null)
 		  error("cannot operate with nil", getFirstToken(node.rest));
-	  
-        if (firstVal instanceof Integer)
-          currVal = (Integer)firstVal % (Integer)restVal;
-        else 
-          currVal = (Double)firstVal % (Double)restVal;
-      }
 
-      // boolean operators (and, or)
-      else if (op.equals("and")) {
+      if (firstVal instanceof Integer)
+        currVal = (Integer)firstVal % (Integer)restVal;
+      else 
+        currVal = (Double)firstVal % (Double)restVal;
+      break;
+
+    // boolean operators (and, or)
+    case Opcode.AND:
 		if (firstVal == null)
-		  error("cannot operate with nil", getFirstToken(node.first));
+		  error("cannot operate with nil", getTermToken(node.first));
 	    if (restVal == null)
 		  error("cannot operate with nil", getFirstToken(node.rest));
-	  
-        currVal = (Boolean)firstVal && (Boolean)restVal;
-      }
-      else if (op.equals("or")) {
+
+      currVal = (Boolean)firstVal && (Boolean)restVal;
+      break;
+    case Opcode.OR:
 		if (firstVal == null)
-		  error("cannot operate with nil", getFirstToken(node.first));
+		  error("cannot operate with nil", getTermToken(node.first));
 	    if (restVal == null)
 		  error("cannot operate with nil", getFirstToken(node.rest));
-	  
-        currVal = (Boolean)firstVal || (Boolean)restVal;
-      }
-        
-      // relational comparators (=, !=, <, >, <=, >=)
-      else if (op.equals("=")) {
-        if (firstVal == null ^ restVal == null)
+
+      currVal = (Boolean)firstVal || (Boolean)restVal;
+      break;
+      
+    // relational comparators (=, !=, <, >, <=, >=)
+    case Opcode.EQ:
+      if (firstVal == null ^ restVal == null)
 			currVal = false;
 	    else if (firstVal == null && restVal == null)
 			currVal = true;
 		else
 			currVal = firstVal == restVal;
-      }
-      else if (op.equals("!=")) {
-        if (firstVal == null ^ restVal == null)
+      break;
+    case Opcode.NE:
+      if (firstVal == null ^ restVal == null)
 			currVal = true;
 	    else if (firstVal == null && restVal == null)
 			currVal = false;
 		else
 			currVal = firstVal != restVal;
-      }
-      else if (op.equals("<")) {
+      break;
+    case Opcode.LT:
 		if (firstVal == null)
-		  error("cannot compare with nil", getFirstToken(node.first));
+		  error("cannot compare with nil", getTermToken(node.first));
 	    if (restVal == null)
 		  error("cannot compare with nil", getFirstToken(node.rest));
-	  
-        if (firstVal instanceof Integer)
-          currVal = (Integer)firstVal < (Integer)restVal;
-        else if (firstVal instanceof Double)
-          currVal = (Double)firstVal < (Double)restVal;
-        else
-          currVal = ((String)firstVal).compareTo((String)restVal) < 0;
-      }
-      else if (op.equals("<=")) {
+
+      if (firstVal instanceof Integer)
+        currVal = (Integer)firstVal < (Integer)restVal;
+      else if (firstVal instanceof Double)
+        currVal = (Double)firstVal < (Double)restVal;
+      else
+        currVal = ((String)firstVal).compareTo((String)restVal) < 0;
+      break;
+    case Opcode.LE:
 		if (firstVal == null)
-		  error("cannot compare with nil", getFirstToken(node.first));
+		  error("cannot compare with nil", getTermToken(node.first));
 	    if (restVal == null)
 		  error("cannot compare with nil", getFirstToken(node.rest));
-	  
-        if (firstVal instanceof Integer)
-          currVal = (Integer)firstVal <= (Integer)restVal;
-        else if (firstVal instanceof Double)
-          currVal = (Double)firstVal <= (Double)restVal;
-        else
-          currVal = ((String)firstVal).compareTo((String)restVal) <= 0;
-      }
-      else if (op.equals(">")) {
+
+      if (firstVal instanceof Integer)
+        currVal = (Integer)firstVal <= (Integer)restVal;
+      else if (firstVal instanceof Double)
+        currVal = (Double)firstVal <= (Double)restVal;
+      else
+        currVal = ((String)firstVal).compareTo((String)restVal) <= 0;
+      break;
+    case Opcode.GT:
 		if (firstVal == null)
-		  error("cannot compare with nil", getFirstToken(node.first));
+		  error("cannot compare with nil", getTermToken(node.first));
 	    if (restVal == null)
 		  error("cannot compare with nil", getFirstToken(node.rest));
-	  
-        if (firstVal instanceof Integer)
-          currVal = (Integer)firstVal > (Integer)restVal;
-        else if (firstVal instanceof Double)
-          currVal = (Double)firstVal > (Double)restVal;
-        else
-          currVal = ((String)firstVal).compareTo((String)restVal) > 0;
-      }
-      else if (op.equals(">=")) {
+
+      if (firstVal instanceof Integer)
+        currVal = (Integer)firstVal > (Integer)restVal;
+      else if (firstVal instanceof Double)
+        currVal = (Double)firstVal > (Double)restVal;
+      else
+        currVal = ((String)firstVal).compareTo((String)restVal) > 0;
+      break;
+    case Opcode.GE:
 		if (firstVal == null)
-		  error("cannot compare with nil", getFirstToken(node.first));
+		  error("cannot compare with nil", getTermToken(node.first));
 	    if (restVal == null)
 		  error("cannot compare with nil", getFirstToken(node.rest));
-	  
-        if (firstVal instanceof Integer)
-          currVal = (Integer)firstVal >= (Integer)restVal;
-        else if (firstVal instanceof Double)
-          currVal = (Double)firstVal >= (Double)restVal;
-        else
-          currVal = ((String)firstVal).compareTo((String)restVal) >= 0;
-      }
-    }
-    // deal with not operator
-    if (node.negated) {
-      currVal = !(Boolean)currVal;
+
+      if (firstVal instanceof Integer)
+        currVal = (Integer)firstVal >= (Integer)restVal;
+      else if (firstVal instanceof Double)
+        currVal = (Double)firstVal >= (Double)restVal;
+      else
+        currVal = ((String)firstVal).compareTo((String)restVal) >= 0;
+      break;
     }
   }
 
@@ -330,12 +604,17 @@ public class Interpreter implements Visitor {
   public void visit(LValue node) throws MyPLException {
     // TODO: HW7 XXX
 	
-	if (node.path.size() == 1)
-		symbolTable.setInfo(node.path.get(0).lexeme(), currVal);
+	if (node.path.size() == 1) {
+		if (frames)
+			setSlot(node.depth, node.slot, currVal);
+		else
+			symbolTable.setInfo(node.path.get(0).lexeme(), currVal);
+	}
 	else {
 		// path catching
 		String varName = node.path.get(0).lexeme();
-		Map<String, Object> obj = (Map<String, Object>)heap.get(symbolTable.getInfo(varName));
+		Object first = frames ? getSlot(node.depth, node.slot) : symbolTable.getInfo(varName);
+		Map<String, Object> obj = (Map<String, Object>)heap.get(first);
 
 		for (int i = 1; i < node.path.size(); ++i) {
 			varName = node.path.get(i).lexeme();
@@ -354,7 +633,10 @@ public class Interpreter implements Visitor {
 
   
   public void visit(ComplexTerm node) throws MyPLException {
-    node.expr.accept(this);
+    if (stackSafe)
+      StackSafe.accept(node.expr, this);
+    else
+      node.expr.accept(this);
   }
 
   
@@ -377,9 +659,13 @@ public class Interpreter implements Visitor {
   public void visit(NewRValue node) throws MyPLException {
     // TODO: HW7 XXX
 	
+	if (frames) {
+		newWithFrame(node);
+		return;
+	}
 	List<Object> typeInfo = (List<Object>)symbolTable.getInfo(node.typeId.lexeme());
-	int currEnv = symbolTable.getEnvironmentId();
-	symbolTable.setEnvironmentId((int)typeInfo.get(0));
+	SymbolTable.Environment currEnv = symbolTable.getEnvironment();
+	symbolTable.setEnvironment((SymbolTable.Environment)typeInfo.get(0));
 	
 	Map<String, Object> obj = new HashMap<>();
 	int objectId = System.identityHashCode(obj);
@@ -392,33 +678,33 @@ public class Interpreter implements Visitor {
 		((VarDeclStmt)((TypeDeclStmt)typeInfo.get(1)).fields.get(i)).varExpr.accept(this);
 		// Puts it in the obj Map
 		obj.put(memberId, currVal);
+		// Later fields can use it (as the type checker allows)
+		symbolTable.addName(memberId);
+		symbolTable.setInfo(memberId, currVal);
 		// Repeat for all varDecls
 	}
 	
 	symbolTable.popEnvironment();
-	symbolTable.setEnvironmentId(currEnv);
+	symbolTable.setEnvironment(currEnv);
 	
 	heap.put(objectId, obj);
+	++Stats.heapObjects;
 	/*symbolTable.addName(node.typeId.lexeme());
 	symbolTable.setInfo(node.typeId.lexeme(), objectId);*/
 	currVal = objectId;
   }
 
   public void visit(CallRValue node) throws MyPLException {
-    List<String> builtIns = List.of("print", "read", "length", "get",
-                                    "concat", "append", "itos", "stoi",
-                                    "dtos", "stod");
     String funName = node.funName.lexeme();
-    if (builtIns.contains(funName)) {
+    if (Symbols.isBuiltIn(node.funName.symbol())) {
+      ++Stats.builtInCalls;
       try {
 		callBuiltInFun(node);
 	  } catch (MyPLException e) {
 		if (e.isReturnException())
 			currVal = e.getReturnValue();
-		else {
-			System.out.println(e);
-			System.exit(1);
-		}
+		else
+			throw e;
 	  }
 	  return;
 	}
@@ -426,8 +712,13 @@ public class Interpreter implements Visitor {
 	// If it's a user-defined function...
 	// TODO: HW7 XX
 	
+	++Stats.userCalls;
+	if (frames) {
+		callWithFrame(node);
+		return;
+	}
 	List<Object> funInfo = (List<Object>)symbolTable.getInfo(node.funName.lexeme());
-	int currEnv = symbolTable.getEnvironmentId();
+	SymbolTable.Environment currEnv = symbolTable.getEnvironment();
 	
 	// Storing parameters
 	List<Object> args = new ArrayList<Object>();
@@ -436,7 +727,9 @@ public class Interpreter implements Visitor {
 		args.add(currVal);
 	}
 	
-	symbolTable.setEnvironmentId((int)funInfo.get(0));
+	if (profiler != null)
+		profiler.enter(funName);
+	symbolTable.setEnvironment((SymbolTable.Environment)funInfo.get(0));
 	symbolTable.pushEnvironment();
 	
 	// Initializing the new parameters
@@ -447,19 +740,19 @@ public class Interpreter implements Visitor {
 		symbolTable.setInfo(paramId, args.get(i));
 	}
 	try {
-		((FunDeclStmt)funInfo.get(1)).stmtList.accept(this);
+		((FunDeclStmt)funInfo.get(1)).body().accept(this);
 		currVal = null; // if no return is found
 	} catch (MyPLException e) {
 		if (e.isReturnException())
 			currVal = e.getReturnValue();
-		else {
-			System.out.println(e);
-			System.exit(1);
-		}
+		else
+			throw e;
 	}
+	if (profiler != null)
+		profiler.exit();
 	
 	symbolTable.popEnvironment();
-	symbolTable.setEnvironmentId(currEnv);
+	symbolTable.setEnvironment(currEnv);
   }
 
   
@@ -470,7 +763,8 @@ public class Interpreter implements Visitor {
 	
 	// path catching
 	if (node.path.size() > 1) {
-		Map<String, Object> obj = (Map<String, Object>)heap.get(symbolTable.getInfo(varName));
+		Object first = frames ? getSlot(node.depth, node.slot) : symbolTable.getInfo(varName);
+		Map<String, Object> obj = (Map<String, Object>)heap.get(first);
 		for (int i = 1; i < node.path.size(); ++i) {
 			varName = node.path.get(i).lexeme();
 			
@@ -481,6 +775,9 @@ public class Interpreter implements Visitor {
 		}
 	}
 	// or single-path
+	else if (frames) {
+		currVal = getSlot(node.depth, node.slot);
+	}
 	else {
 		currVal = symbolTable.getInfo(varName);
 	}
@@ -497,6 +794,79 @@ public class Interpreter implements Visitor {
 
   
   // helper functions
+
+  // the value in the slot at the given depth (0 for globals, else the
+  // current call's frame)
+  private Object getSlot(int depth, int slot) {
+    return stack[(depth == 0 ? 0 : fp) + slot];
+  }
+
+  private void setSlot(int depth, int slot, Object val) {
+    stack[(depth == 0 ? 0 : fp) + slot] = val;
+  }
+
+  // makes room for the stack to hold size slots
+  private void ensureStack(int size) {
+    if (size > stack.length)
+      stack = Arrays.copyOf(stack, Math.max(size, stack.length * 2));
+  }
+
+
+  // calls a user-defined function with a frame on the stack, its
+  // arguments pushed as the first slots
+  private void callWithFrame(CallRValue node) throws MyPLException {
+    int base = sp;
+    for (Expr arg : node.argList) {
+      arg.accept(this);
+      ensureStack(sp + 1);
+      stack[sp++] = currVal;
+    }
+    StmtList body = node.decl.body();
+    int top = base + node.decl.frameSize;
+    ensureStack(top);
+    sp = top;
+    int callerFp = fp;
+    fp = base;
+    if (profiler != null)
+      profiler.enter(node.funName.lexeme());
+    body.accept(this);
+    if (returning)
+      returning = false;
+    else
+      currVal = null;           // if no return is found
+    if (profiler != null)
+      profiler.exit();
+    Arrays.fill(stack, base, top, null);
+    sp = base;
+    fp = callerFp;
+  }
+
+
+  // creates an object of the given type, running its field
+  // initializers in a frame of their own
+  private void newWithFrame(NewRValue node) throws MyPLException {
+    TypeDeclStmt type = node.decl;
+    Map<String, Object> obj = new HashMap<>();
+    int base = sp;
+    int top = base + type.frameSize;
+    ensureStack(top);
+    sp = top;
+    int callerFp = fp;
+    fp = base;
+    for (VarDeclStmt field : type.fields) {
+      field.varExpr.accept(this);
+      setSlot(field.depth, field.slot, currVal);
+      obj.put(field.varId.lexeme(), currVal);
+    }
+    Arrays.fill(stack, base, top, null);
+    sp = base;
+    fp = callerFp;
+    int objectId = System.identityHashCode(obj);
+    heap.put(objectId, obj);
+    ++Stats.heapObjects;
+    currVal = objectId;
+  }
+
   
   private void callBuiltInFun(CallRValue node) throws MyPLException {
     // TODO: HW6 XXX
@@ -512,6 +882,24 @@ public class Interpreter implements Visitor {
         error("nil value", getFirstToken(arg));
       argVals.add(currVal);
     }
+    if (profiler == null) {
+      applyBuiltInFun(node, argVals);
+      return;
+    }
+    profiler.enter(funName);
+    try {
+      applyBuiltInFun(node, argVals);
+    } finally {
+      profiler.exit();
+    }
+  }
+
+
+  // runs the built-in function on the already evaluated arguments
+  private void applyBuiltInFun(CallRValue node, List<Object> argVals)
+    throws MyPLException
+  {
+    String funName = node.funName.lexeme();
     if (funName.equals("print")) {
       // Fix '\' 'n' issue
       String msg = (String)argVals.get(0);
@@ -570,20 +958,51 @@ public class Interpreter implements Visitor {
   }
 
   
-  private Token getFirstToken(Expr node) {
-    return getFirstToken(node.first);
+  // the first tokens of expressions, terms, rvalues and statements,
+  // where errors are reported (shared by the other engines, so they
+  // all report an error at the same position)
+
+  static Token getFirstToken(Expr node) {
+    // follows left operands with a loop, since chains nest to the left
+    while (node.first instanceof ComplexTerm)
+      node = ((ComplexTerm)node.first).expr;
+    return getTermToken(node.first);
+  }
+
+
+  static Token getStmtToken(Stmt node) {
+    if (node instanceof VarDeclStmt)
+      return ((VarDeclStmt)node).varId;
+    else if (node instanceof AssignStmt)
+      return ((AssignStmt)node).lhs.path.get(0);
+    else if (node instanceof ReturnStmt)
+      return ((ReturnStmt)node).returnToken;
+    else if (node instanceof IfStmt)
+      return getFirstToken(((IfStmt)node).ifPart.boolExpr);
+    else if (node instanceof WhileStmt)
+      return getFirstToken(((WhileStmt)node).boolExpr);
+    else if (node instanceof ForStmt)
+      return ((ForStmt)node).var;
+    else if (node instanceof TypeDeclStmt)
+      return ((TypeDeclStmt)node).typeId;
+    else if (node instanceof FunDeclStmt)
+      return ((FunDeclStmt)node).funName;
+    else if (node instanceof ArrayDeclStmt)
+      return ((ArrayDeclStmt)node).arrayId;
+    else
+      return getFirstToken((Expr)node);
   }
 
   
-  private Token getFirstToken(ExprTerm node) {
+  static Token getTermToken(ExprTerm node) {
     if (node instanceof SimpleTerm)
-      return getFirstToken(((SimpleTerm)node).rvalue);
+      return getRValueToken(((SimpleTerm)node).rvalue);
     else
       return getFirstToken(((ComplexTerm)node).expr);      
   }
 
   
-  private Token getFirstToken(RValue node) {
+  static Token getRValueToken(RValue node) {
     if (node instanceof SimpleRValue)
       return ((SimpleRValue)node).val;
     else if (node instanceof CallRValue)
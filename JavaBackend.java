@@ -0,0 +1,242 @@
+/**
+ * Author: Ben Comer
+ * File: JavaBackend.java
+ *
+ * Runs MyPL programs as Java: a program is translated to the source
+ * of a Java class (see JavaVisitor), compiled in memory with the
+ * system Java compiler (javax.tools), loaded in a class loader of its
+ * own, and run through its static run method. Hot code is then
+ * compiled by the JVM's JIT like any other Java method.
+ *
+ * Running javac takes far longer than running a short script, so the
+ * compiled classes are cached per script, by their source: a script
+ * parsed again (or loaded from the ProgramCache) reuses its class,
+ * and running the same parsed program again skips the translation as
+ * well. The CACHED most recently used classes are kept. Given a
+ * ProgramCache, the class files are also kept with its entry, so a
+ * later run of an unchanged script loads them rather than running
+ * javac.
+ *
+ * A generated class keeps the program's globals in static fields, so
+ * its run method is synchronized: runs of one program take turns.
+ * Calls and objects made by generated code are not counted in Stats.
+ */
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+
+public class JavaBackend {
+
+  private static final String CLASS = "MyPLProgram";
+  private static final int CACHED = 64;
+
+  // the compiled classes by source, most recently used last (null if
+  // the source did not compile)
+  private static final Map<String, Class<?>> classes =
+    new LinkedHashMap<>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<String, Class<?>> eldest) {
+        return size() > CACHED;
+      }
+    };
+  // the translation of each program run, and the statements it was
+  // translated from (the statements of a program can be replaced, see
+  // IncrementalProgram)
+  private static final Map<StmtList, Program> programs = new WeakHashMap<>();
+  private static final Map<StmtList, List<Stmt>> sources = new WeakHashMap<>();
+
+
+  /**
+   * A program compiled to a Java class.
+   */
+  public static class Program {
+    private final MethodHandle run;       // (Object[])Object
+    private final Object[] literals;
+    private final String source;
+
+    Program(MethodHandle run, Object[] literals, String source) {
+      this.run = run;
+      this.literals = literals;
+      this.source = source;
+    }
+
+    /**
+     * Runs the program, returning its exit code as Interpreter.run()
+     * does.
+     */
+    public Integer run() throws MyPLException {
+      Object value = null;
+      try {
+        value = (Object)run.invokeExact(literals);
+      } catch (MyPLException | RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable t) {
+        throw new IllegalStateException(t);
+      }
+      if (value == null)
+        return 0;
+      return (Integer)value;
+    }
+
+    // the Java source of the program's class
+    public String source() {
+      return source;
+    }
+  }
+
+
+  /**
+   * Translates and compiles the given (type checked) program, returning
+   * null if there is no Java compiler or the translation does not
+   * compile (a method over the class file's size limit, say).
+   */
+  public static Program compile(StmtList stmtList) throws MyPLException {
+    return compile(stmtList, null);
+  }
+
+  /**
+   * As compile(stmtList), with the class files loaded from (or stored
+   * in) the given cache entry if it is not null.
+   */
+  public static synchronized Program compile(StmtList stmtList, ProgramCache cache)
+    throws MyPLException
+  {
+    List<Stmt> stmts = new ArrayList<>(stmtList.stmts);
+    Program program = programs.get(stmtList);
+    if (program != null && stmts.equals(sources.get(stmtList)))
+      return program;
+    int globals = new Resolver(false).resolve(stmtList);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(bytes, false, StandardCharsets.UTF_8);
+    JavaVisitor visitor = new JavaVisitor(out, CLASS);
+    visitor.visit(stmtList, globals);
+    out.flush();
+    String source = bytes.toString(StandardCharsets.UTF_8);
+    Class<?> cls = null;
+    if (classes.containsKey(source))
+      cls = classes.get(source);
+    else {
+      Map<String, byte[]> classFiles = cache != null ? cache.loadClasses(source) : null;
+      if (classFiles != null)
+        cls = load(classFiles);
+      if (cls == null) {
+        classFiles = classFiles(source);
+        if (classFiles != null)
+          cls = load(classFiles);
+        if (cls != null && cache != null)
+          cache.storeClasses(source, classFiles);
+      }
+      classes.put(source, cls);
+    }
+    if (cls == null)
+      return null;
+    MethodHandle run = null;
+    try {
+      run = MethodHandles.lookup().findStatic(cls, "run",
+        MethodType.methodType(Object.class, Object[].class));
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+    program = new Program(run, visitor.literals(), source);
+    programs.put(stmtList, program);
+    sources.put(stmtList, stmts);
+    return program;
+  }
+
+
+  // helper functions
+
+  // compiles the source, returning its class files by class name (or
+  // null)
+  private static Map<String, byte[]> classFiles(String source) {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    if (compiler == null)
+      return null;
+    Map<String, ByteArrayOutputStream> output = new HashMap<>();
+    StandardJavaFileManager standard = compiler.getStandardFileManager(null, null, null);
+    // class files are written to memory
+    JavaFileManager manager = new ForwardingJavaFileManager<>(standard) {
+      public JavaFileObject getJavaFileForOutput(Location location, String name,
+                                                 JavaFileObject.Kind kind,
+                                                 FileObject sibling) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        output.put(name, bytes);
+        return new SimpleJavaFileObject(URI.create("mem:///" + name + kind.extension), kind) {
+          public OutputStream openOutputStream() {
+            return bytes;
+          }
+        };
+      }
+    };
+    JavaFileObject file = new SimpleJavaFileObject(
+      URI.create("string:///" + CLASS + ".java"), JavaFileObject.Kind.SOURCE) {
+      public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+        return source;
+      }
+    };
+    // (the generated code refers to JavaRuntime and MyPLException)
+    List<String> options = List.of("-classpath", System.getProperty("java.class.path"),
+                                   "-g:none", "-nowarn");
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+    try {
+      if (!compiler.getTask(null, manager, diagnostics, options, null, List.of(file)).call())
+        return null;
+    } catch (RuntimeException | StackOverflowError e) {
+      return null;              // (deeply nested expressions)
+    }
+    Map<String, byte[]> classFiles = new HashMap<>();
+    for (Map.Entry<String, ByteArrayOutputStream> entry : output.entrySet())
+      classFiles.put(entry.getKey(), entry.getValue().toByteArray());
+    return classFiles;
+  }
+
+  // loads the program class from its class files, or returns null if
+  // they do not load (e.g., a damaged cache entry)
+  private static Class<?> load(Map<String, byte[]> classFiles) {
+    try {
+      return new Loader(classFiles).loadClass(CLASS);
+    } catch (ClassNotFoundException | LinkageError e) {
+      return null;
+    }
+  }
+
+  // loads the classes of one compiled program
+  private static class Loader extends ClassLoader {
+    private final Map<String, byte[]> classFiles;
+
+    Loader(Map<String, byte[]> classFiles) {
+      super(JavaBackend.class.getClassLoader());
+      this.classFiles = classFiles;
+    }
+
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+      byte[] bytes = classFiles.get(name);
+      if (bytes == null)
+        throw new ClassNotFoundException(name);
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+  }
+
+}
@@ -0,0 +1,401 @@
+/**
+ * Author: Ben Comer
+ * File: JavaRuntime.java
+ *
+ * The runtime library of MyPL programs translated to Java source (see
+ * JavaVisitor): the operators and the built-in functions, on the same
+ * boxed values the interpreter uses. Every operation returns a boxed
+ * value (or nil), since = and != compare references, and reports the
+ * interpreter's runtime errors at the line and column given with it.
+ * The int and double operators fall back to the generic operator when
+ * an operand has another type, as Interpreter.applyOperator does.
+ */
+
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+
+
+public class JavaRuntime {
+
+  private JavaRuntime() {
+  }
+
+
+  // ------------------------------
+  // generic operators
+  // ------------------------------
+
+  public static Object add(Object a, Object b, int r1, int c1, int r2, int c2)
+    throws MyPLException
+  {
+    operands(a, b, "cannot operate with nil", r1, c1, r2, c2);
+    if (a instanceof Integer)
+      return (Integer)a + (Integer)b;
+    return (Double)a + (Double)b;
+  }
+
+  public static Object sub(Object a, Object b, int r1, int c1, int r2, int c2)
+    throws MyPLException
+  {
+    operands(a, b, "cannot operate with nil", r1, c1, r2, c2);
+    if (a instanceof Integer)
+      return (Integer)a - (Integer)b;
+    return (Double)a - (Double)b;
+  }
+
+  public static Object mul(Object a, Object b, int r1, int c1, int r2, int c2)
+    throws MyPLException
+  {
+    operands(a, b, "cannot operate with nil", r1, c1, r2, c2);
+    if (a instanceof Integer)
+      return (Integer)a * (Integer)b;
+    return (Double)a * (Double)b;
+  }
+
+  public static Object div(Object a, Object b, int r1, int c1, int r2, int c2)
+    throws MyPLException
+  {
+    operands(a, b, "cannot operate with nil", r1, c1, r2, c2);
+    if (a instanceof Integer)
+      return (Integer)a / (Integer)b;
+    return (Double)a / (Double)b;
+  }
+
+  public static Object mod(Object a, Object b, int r1, int c1, int r2, int c2)
+    throws MyPLException
+  {
+    operands(a, b, "cannot operate with nil", r1, c1, r2, c2);
+    if (a instanceof Integer)
+      return (Integer)a % (Integer)b;
+    return (Double)a % (Double)b;
+  }
+
+  public static Object and(Object a, Object b, int r1, int c1, int r2, int c2)
+    throws MyPLException
+  {
+    operands(a, b, "cannot operate with nil", r1, c1, r2, c2);
+    return (Boolean)a && (Boolean)b;
+  }
+
+  public static Object or(Object a, Object b, int r1, int c1, int r2, int c2)
+    throws MyPLException
+  {
+    operands(a, b, "cannot operate with nil", r1, c1, r2, c2);
+    return (Boolean)a || (Boolean)b;
+  }
+
+  public static Object eq(Object a, Object b) {
+    return a == b;
+  }
+
+  public static Object ne(Object a, Object b) {
+    return a != b;
+  }
+
+  public static Object lt(Object a, Object b, int r1, int c1, int r2, int c2)
+    throws MyPLException
+  {
+    operands(a, b, "cannot compare with nil", r1, c1, r2, c2);
+    if (a instanceof Integer)
+      return (Integer)a < (Integer)b;
+    if (a instanceof Double)
+      return (Double)a < (Double)b;
+    return ((String)a).compareTo((String)b) < 0;
+  }
+
+  public static Object le(Object a, Object b, int r1, int c1, int r2, int c2)
+    throws MyPLException
+  {
+    operands(a, b, "cannot compare with nil", r1, c1, r2, c2);
+    if (a instanceof Integer)
+      return (Integer)a <= (Integer)b;
+    if (a instanceof Double)
+      return (Double)a <= (Double)b;
+    return ((String)a).compareTo((String)b) <= 0;
+  }
+
+  public static Object gt(Object a, Object b, int r1, int c1, int r2, int c2)
+    throws MyPLException
+  {
+    operands(a, b, "cannot compare with nil", r1, c1, r2, c2);
+    if (a instanceof Integer)
+      return (Integer)a > (Integer)b;
+    if (a instanceof Double)
+      return (Double)a > (Double)b;
+    return ((String)a).compareTo((String)b) > 0;
+  }
+
+  public static Object ge(Object a, Object b, int r1, int c1, int r2, int c2)
+    throws MyPLException
+  {
+    operands(a, b, "cannot compare with nil", r1, c1, r2, c2);
+    if (a instanceof Integer)
+      return (Integer)a >= (Integer)b;
+    if (a instanceof Double)
+      return (Double)a >= (Double)b;
+    return ((String)a).compareTo((String)b) >= 0;
+  }
+
+
+  // ------------------------------
+  // operators on ints
+  // ------------------------------
+
+  public static Object addInt(Object a, Object b, int r1, int c1, int r2, int c2)
+    throws MyPLException
+  {
+    if (a instanceof Integer && b instanceof Integer)
+      return (Integer)a + (Integer)b;
+    return add(a, b, r1, c1, r2, c2);
+  }
+
+  public static Object subInt(Object a, Object b, int r1, int c1, int r2, int c2)
+    throws MyPLException
+  {
+    if (a instanceof Integer && b instanceof Integer)
+      return (Integer)a - (Integer)b;
+    return sub(a, b, r1, c1, r2, c2);
+  }
+
+  public static Object mulInt(Object a, Object b, int r1, int c1, int r2, int c2)
+    throws MyPLException
+  {
+    if (a instanceof Integer && b instanceof Integer)
+      return (Integer)a * (Integer)b;
+    return mul(a, b, r1, c1, r2, c2);
+  }
+
+  public static Object divInt(Object a, Object b, int r1, int c1, int r2, int c2)
+    throws MyPLException
+  {
+    if (a instanceof Integer && b instanceof Integer)
+      return (Integer)a / (Integer)b;
+    return div(a, b, r1, c1, r2, c2);
+  }
+
+  public static Object modInt(Object a, Object b, int r1, int c1, int r2, int c2)
+    throws MyPLException
+  {
+    if (a instanceof Integer && b instanceof Integer)
+      return (Integer)a % (Integer)b;
+    return mod(a, b, r1, c1, r2, c2);
+  }
+
+  public static Object ltInt(Object a, Object b, int r1, int c1, int r2, int c2)
+    throws MyPLException
+  {
+    if (a instanceof Integer && b instanceof Integer)
+      return (Integer)a < (Integer)b;
+    return lt(a, b, r1, c1, r2, c2);
+  }
+
+  public static Object leInt(Object a, Object b, int r1, int c1, int r2, int c2)
+    throws MyPLException
+  {
+    if (a instanceof Integer && b instanceof Integer)
+      return (Integer)a <= (Integer)b;
+    return le(a, b, r1, c1, r2, c2);
+  }
+
+  public static Object gtInt(Object a, Object b, int r1, int c1, int r2, int c2)
+    throws MyPLException
+  {
+    if (a instanceof Integer && b instanceof Integer)
+      return (Integer)a > (Integer)b;
+    return gt(a, b, r1, c1, r2, c2);
+  }
+
+  public static Object geInt(Object a, Object b, int r1, int c1, int r2, int c2)
+    throws MyPLException
+  {
+    if (a instanceof Integer && b instanceof Integer)
+      return (Integer)a >= (Integer)b;
+    return ge(a, b, r1, c1, r2, c2);
+  }
+
+
+  // ------------------------------
+  // operators on doubles
+  // ------------------------------
+
+  public static Object addDouble(Object a, Object b, int r1, int c1, int r2, int c2)
+    throws MyPLException
+  {
+    if (a instanceof Double && b instanceof Double)
+      return (Double)a + (Double)b;
+    return add(a, b, r1, c1, r2, c2);
+  }
+
+  public static Object subDouble(Object a, Object b, int r1, int c1, int r2, int c2)
+    throws MyPLException
+  {
+    if (a instanceof Double && b instanceof Double)
+      return (Double)a - (Double)b;
+    return sub(a, b, r1, c1, r2, c2);
+  }
+
+  public static Object mulDouble(Object a, Object b, int r1, int c1, int r2, int c2)
+    throws MyPLException
+  {
+    if (a instanceof Double && b instanceof Double)
+      return (Double)a * (Double)b;
+    return mul(a, b, r1, c1, r2, c2);
+  }
+
+  public static Object divDouble(Object a, Object b, int r1, int c1, int r2, int c2)
+    throws MyPLException
+  {
+    if (a instanceof Double && b instanceof Double)
+      return (Double)a / (Double)b;
+    return div(a, b, r1, c1, r2, c2);
+  }
+
+  public static Object modDouble(Object a, Object b, int r1, int c1, int r2, int c2)
+    throws MyPLException
+  {
+    if (a instanceof Double && b instanceof Double)
+      return (Double)a % (Double)b;
+    return mod(a, b, r1, c1, r2, c2);
+  }
+
+  public static Object ltDouble(Object a, Object b, int r1, int c1, int r2, int c2)
+    throws MyPLException
+  {
+    if (a instanceof Double && b instanceof Double)
+      return (Double)a < (Double)b;
+    return lt(a, b, r1, c1, r2, c2);
+  }
+
+  public static Object leDouble(Object a, Object b, int r1, int c1, int r2, int c2)
+    throws MyPLException
+  {
+    if (a instanceof Double && b instanceof Double)
+      return (Double)a <= (Double)b;
+    return le(a, b, r1, c1, r2, c2);
+  }
+
+  public static Object gtDouble(Object a, Object b, int r1, int c1, int r2, int c2)
+    throws MyPLException
+  {
+    if (a instanceof Double && b instanceof Double)
+      return (Double)a > (Double)b;
+    return gt(a, b, r1, c1, r2, c2);
+  }
+
+  public static Object geDouble(Object a, Object b, int r1, int c1, int r2, int c2)
+    throws MyPLException
+  {
+    if (a instanceof Double && b instanceof Double)
+      return (Double)a >= (Double)b;
+    return ge(a, b, r1, c1, r2, c2);
+  }
+
+
+  // ------------------------------
+  // unary operators
+  // ------------------------------
+
+  public static Object not(Object a) {
+    return !(Boolean)a;
+  }
+
+  public static Object neg(Object a) {
+    if (a instanceof Integer)
+      return -(Integer)a;
+    return -(Double)a;
+  }
+
+  // the value of an expression statement, which is dropped
+  public static void discard(Object a) {
+  }
+
+
+  // ------------------------------
+  // built-in functions
+  // ------------------------------
+
+  // an argument of a built-in function, which must not be nil
+  public static Object arg(Object a, int row, int col) throws MyPLException {
+    if (a == null)
+      error("nil value", row, col);
+    return a;
+  }
+
+  public static Object print(Object s) {
+    // Fix '\' 'n' issue
+    String msg = (String)s;
+    msg = msg.replace("\\n", "\n");
+    msg = msg.replace("\\t", "\t");
+    System.out.print(msg);
+    return null;
+  }
+
+  public static Object read() {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+    try {
+      return reader.readLine();
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  public static Object get(Object i, Object s, int row, int col) throws MyPLException {
+    int index = (Integer)i;
+    String str = (String)s;
+    if (index >= str.length())
+      error("index selected out of range", row, col);
+    return (Character)str.charAt(index);
+  }
+
+  public static Object concat(Object a, Object b) {
+    return (String)a + (String)b;
+  }
+
+  public static Object append(Object a, Object b) {
+    if (b instanceof Character)
+      return (String)a + (Character)b;
+    return (String)a + (String)b;
+  }
+
+  public static Object length(Object s) {
+    return (Integer)((String)s).length();
+  }
+
+  public static Object itos(Object a) {
+    return a.toString();
+  }
+
+  public static Object stoi(Object s) {
+    return Integer.parseInt((String)s);
+  }
+
+  public static Object dtos(Object a) {
+    return a.toString();
+  }
+
+  public static Object stod(Object s) {
+    return Double.parseDouble((String)s);
+  }
+
+
+  // ------------------------------
+  // helper functions
+  // ------------------------------
+
+  // reports a nil operand
+  private static void operands(Object a, Object b, String msg,
+                               int r1, int c1, int r2, int c2)
+    throws MyPLException
+  {
+    if (a == null)
+      error(msg, r1, c1);
+    if (b == null)
+      error(msg, r2, c2);
+  }
+
+  private static void error(String msg, int row, int col) throws MyPLException {
+    throw new MyPLException("\nRuntime", msg, row, col);
+  }
+
+}
@@ -0,0 +1,606 @@
+/**
+ * Author: Ben Comer
+ * File: JavaVisitor.java
+ *
+ * Visitor that translates a type checked, resolved (see Resolver)
+ * MyPL program to the source of an equivalent Java class, compiled
+ * and run by JavaBackend. Structs become nested classes with a make()
+ * method that runs their field initializers, functions become static
+ * methods, and the top-level statements become the program() method.
+ * Operators and built-in functions are calls into JavaRuntime.
+ *
+ * Values are the interpreter's boxed values, held in Object
+ * variables, since = and != compare references: each int literal is
+ * boxed when it is evaluated, arithmetic boxes its result, and string
+ * and char literals are the program's own lexemes, passed to run() in
+ * the order literals() lists them. A struct value is a reference to
+ * an object of its class (as the interpreter's heap ids, each object
+ * is only equal to itself).
+ *
+ * Variables are named by their frame slot: the global-scope variables
+ * are static fields (g0, g1, ...), and all others are locals (l0, l1,
+ * ...) of their method. Statements after a return in the same block
+ * are never run, so they are left out (javac rejects unreachable
+ * code).
+ */
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+public class JavaVisitor implements Visitor {
+  private PrintStream out;      // the output stream for printing
+  private int indent = 0;       // the current indent level (num spaces)
+  private String className;
+
+  // the classes of the structs, the functions, and the top-level
+  // statements, printed to their own buffers as they are visited
+  private ByteArrayOutputStream types = new ByteArrayOutputStream();
+  private ByteArrayOutputStream functions = new ByteArrayOutputStream();
+  private ByteArrayOutputStream program = new ByteArrayOutputStream();
+
+  private List<Object> literals = new ArrayList<>();
+  private boolean[] globalScope;        // slots of global-scope variables
+  private boolean[] programLocals;      // and of the top-level locals
+  private String[] globalTypes;         // type names of the global slots
+  private String[] frameTypes;          // and of the current frame's
+  private Map<String, Map<String, String>> fieldTypes = new HashMap<>();
+  private int nesting = 0;              // blocks open in the current method
+  private boolean inProgram = false;    // in the top-level statements
+  private int temps = 0;                // temporaries named so far
+
+  // the JavaRuntime method of each opcode
+  private static final String[] OPERATORS = {
+    null, "add", "sub", "mul", "div", "mod", "and", "or", "eq", "ne",
+    "lt", "le", "gt", "ge", "addInt", "subInt", "mulInt", "divInt",
+    "modInt", "ltInt", "leInt", "gtInt", "geInt", "addDouble",
+    "subDouble", "mulDouble", "divDouble", "modDouble", "ltDouble",
+    "leDouble", "gtDouble", "geDouble"
+  };
+
+  // indent helper functions
+
+  // to get a string with the current indentation level (in spaces)
+  private String getIndent() {
+    return " ".repeat(indent);
+  }
+
+  // to increment the indent level
+  private void incIndent() {
+    indent += 2;
+  }
+
+  // to decrement the indent level
+  private void decIndent() {
+    indent -= 2;
+  }
+
+  // visitor functions
+
+  public JavaVisitor(PrintStream printStream, String className) {
+    this.out = printStream;
+    this.className = className;
+  }
+
+  /**
+   * Prints the class for the given program, which has been resolved
+   * and has the given number of global slots. Deferred function
+   * bodies (see LazyBody) are completed first.
+   */
+  public void visit(StmtList node, int globals) throws MyPLException {
+    for (Stmt s : node.stmts)
+      if (s instanceof FunDeclStmt)
+        ((FunDeclStmt)s).body();
+    globalScope = new boolean[globals];
+    programLocals = new boolean[globals];
+    globalTypes = new String[globals];
+    frameTypes = globalTypes;
+    PrintStream file = out;
+    out = new PrintStream(program);
+    indent = 4;
+    inProgram = true;
+    block(node);
+    if (completes(node))
+      out.println(getIndent() + "return null;");
+    inProgram = false;
+    out.flush();
+    out = file;
+
+    out.println("// translated from MyPL by JavaVisitor");
+    out.println("public final class " + className + " {");
+    out.println();
+    for (int i = 0; i < literals.size(); ++i)
+      out.println("  static Object k" + i + ";");
+    for (int i = 0; i < globals; ++i)
+      if (globalScope[i])
+        out.println("  static Object g" + i + ";");
+    out.println();
+    out.print(types);
+    out.print(functions);
+    out.println("  static Object program() throws MyPLException {");
+    indent = 4;
+    declareLocals(programLocals);
+    out.print(program);
+    out.println("  }");
+    out.println();
+    out.println("  public static synchronized Object run(Object[] literals)");
+    out.println("    throws MyPLException");
+    out.println("  {");
+    for (int i = 0; i < literals.size(); ++i)
+      out.println("    k" + i + " = literals[" + i + "];");
+    out.println("    try {");
+    out.println("      return program();");
+    out.println("    } finally {");
+    for (int i = 0; i < globals; ++i)
+      if (globalScope[i])
+        out.println("      g" + i + " = null;");
+    out.println("    }");
+    out.println("  }");
+    out.println();
+    out.println("}");
+  }
+
+  // the string and char literals, in the order run() takes them
+  public Object[] literals() {
+    return literals.toArray();
+  }
+
+  public void visit(StmtList node) throws MyPLException {
+    out.println("{");
+    incIndent();
+    block(node);
+    decIndent();
+    out.print(getIndent() + "}");
+  }
+
+  public void visit(VarDeclStmt node) throws MyPLException {
+    // (the slot is free, so the initializer cannot use it)
+    boolean global = inProgram && nesting == 1;
+    if (global)
+      globalScope[node.slot] = true;
+    out.print(variable(node.depth, node.slot) + " = ");
+    node.varExpr.accept(this);
+    out.print(";");
+    if (global)
+      out.print("    // " + node.varId.lexeme());
+    frameTypes[node.slot] = node.varType != null ? node.varType.lexeme() : typeOf(node.varExpr);
+  }
+
+  public void visit(ArrayDeclStmt node) throws MyPLException {
+    error("arrays are not supported", node.arrayId);
+  }
+
+  public void visit(AssignStmt node) throws MyPLException {
+    LValue lhs = node.lhs;
+    if (lhs.path.size() == 1) {
+      lhs.accept(this);
+      out.print(" = ");
+      node.rhs.accept(this);
+      out.print(";");
+      return;
+    }
+    // the value first, then the path to the field
+    String temp = "t" + temps++;
+    out.print("{ Object " + temp + " = ");
+    node.rhs.accept(this);
+    out.print("; ");
+    lhs.accept(this);
+    out.print(" = " + temp + "; }");
+  }
+
+  public void visit(ReturnStmt node) throws MyPLException {
+    out.print("return ");
+    if (node.returnExpr != null)
+      node.returnExpr.accept(this);
+    else
+      out.print("null");
+    out.print(";");
+  }
+
+  public void visit(IfStmt node) throws MyPLException {
+    out.print("if ((Boolean)");
+    node.ifPart.boolExpr.accept(this);
+    out.print(") ");
+    visit(node.ifPart.stmtList);
+    for (BasicIf elif : node.elsifs) {
+      out.print("\n" + getIndent() + "else if ((Boolean)");
+      elif.boolExpr.accept(this);
+      out.print(") ");
+      visit(elif.stmtList);
+    }
+    if (node.hasElse) {
+      out.print("\n" + getIndent() + "else ");
+      visit(node.elseStmtList);
+    }
+  }
+
+  public void visit(WhileStmt node) throws MyPLException {
+    out.print("while ((Boolean)");
+    node.boolExpr.accept(this);
+    out.print(") ");
+    visit(node.stmtList);
+  }
+
+  public void visit(ForStmt node) throws MyPLException {
+    // the end is evaluated first, and the start only if it is not past
+    // the end
+    String var = variable(node.depth, node.slot);
+    String end = "e" + temps++;
+    String start = "s" + temps++;
+    frameTypes[node.slot] = "int";
+    out.print("{\n");
+    incIndent();
+    out.print(getIndent() + "Integer " + end + " = (Integer)");
+    node.endExpr.accept(this);
+    out.print(";\n" + getIndent() + "Object " + start + " = ");
+    node.startExpr.accept(this);
+    out.print(";\n" + getIndent() + "if ((Integer)" + start + " <= " + end + ") {\n");
+    incIndent();
+    out.print(getIndent() + var + " = " + start + ";\n");
+    out.print(getIndent() + "do {\n");
+    incIndent();
+    block(node.stmtList);
+    if (completes(node.stmtList))
+      out.print(getIndent() + var + " = (Integer)" + var + " + 1;\n");
+    decIndent();
+    out.print(getIndent() + "} while ((Integer)" + var + " <= " + end + ");\n");
+    decIndent();
+    out.print(getIndent() + "}\n");
+    decIndent();
+    out.print(getIndent() + "}");
+  }
+
+  public void visit(TypeDeclStmt node) throws MyPLException {
+    String name = node.typeId.lexeme();
+    Map<String, String> fields = new HashMap<>();
+    fieldTypes.put(name, fields);
+    PrintStream saved = enter(types, node.frameSize);
+    out.println("  static final class T_" + name + " {");
+    for (VarDeclStmt field : node.fields)
+      out.println("    Object v_" + field.varId.lexeme() + ";");
+    out.println();
+    out.println("    static T_" + name + " make() throws MyPLException {");
+    indent = 6;
+    declareLocals(0, node.frameSize);
+    out.println(getIndent() + "T_" + name + " obj = new T_" + name + "();");
+    // each initializer sees the fields before it as variables
+    for (VarDeclStmt field : node.fields) {
+      out.print(getIndent());
+      visit(field);
+      out.println();
+      out.println(getIndent() + "obj.v_" + field.varId.lexeme() + " = " +
+                  variable(field.depth, field.slot) + ";");
+      fields.put(field.varId.lexeme(), frameTypes[field.slot]);
+    }
+    out.println(getIndent() + "return obj;");
+    out.println("    }");
+    out.println("  }");
+    out.println();
+    exit(saved);
+  }
+
+  public void visit(FunDeclStmt node) throws MyPLException {
+    StmtList body = node.body();
+    PrintStream saved = enter(functions, node.frameSize);
+    out.print("  static Object f_" + node.funName.lexeme() + "(");
+    for (int i = 0; i < node.params.size(); ++i) {
+      FunParam param = node.params.get(i);
+      if (i > 0)
+        out.print(", ");
+      out.print("Object l" + param.slot);
+      frameTypes[param.slot] = param.paramType.lexeme();
+    }
+    out.println(") throws MyPLException {");
+    indent = 4;
+    declareLocals(node.params.size(), node.frameSize);
+    block(body);
+    if (completes(body))
+      out.println(getIndent() + "return null;");
+    out.println("  }");
+    out.println();
+    exit(saved);
+  }
+
+  public void visit(Expr node) throws MyPLException {
+    if (node.negated)
+      out.print("JavaRuntime.not(");
+    // the chain of left operands, outermost first (so each operator's
+    // call is opened before its left operand is printed)
+    List<Expr> chain = new ArrayList<>();
+    for (Expr e = node; e != null; e = e.leftChain())
+      chain.add(e);
+    for (Expr e : chain)
+      if (e.operator != null)
+        out.print("JavaRuntime." + OPERATORS[opcode(e)] + "(");
+    chain.get(chain.size() - 1).first.accept(this);
+    for (int i = chain.size() - 1; i >= 0; --i) {
+      Expr e = chain.get(i);
+      if (e.operator == null)
+        continue;
+      out.print(", ");
+      e.rest.accept(this);
+      int op = opcode(e);
+      if (op != Opcode.EQ && op != Opcode.NE) {
+        Token first = Interpreter.getTermToken(e.first);
+        Token rest = Interpreter.getFirstToken(e.rest);
+        out.print(", " + first.row() + ", " + first.column() + ", " +
+                  rest.row() + ", " + rest.column());
+      }
+      out.print(")");
+    }
+    if (node.negated)
+      out.print(")");
+  }
+
+  public void visit(LValue node) throws MyPLException {
+    out.print(path(node.depth, node.slot, node.path));
+  }
+
+  public void visit(SimpleTerm node) throws MyPLException {
+    node.rvalue.accept(this);
+  }
+
+  public void visit(ComplexTerm node) throws MyPLException {
+    node.expr.accept(this);
+  }
+
+  public void visit(SimpleRValue node) throws MyPLException {
+    String lexeme = node.val.lexeme();
+    TokenType type = node.val.type();
+    if (type == TokenType.INT_VAL) {
+      try {
+        out.print("Integer.valueOf(" + Integer.parseInt(lexeme) + ")");
+      } catch (NumberFormatException e) {
+        // out of range, an error only when it is run
+        out.print("Integer.valueOf(\"" + lexeme + "\")");
+      }
+    }
+    else if (type == TokenType.DOUBLE_VAL) {
+      double value = Double.parseDouble(lexeme);
+      if (Double.isInfinite(value))
+        out.print("Double.valueOf(\"" + lexeme + "\")");
+      else
+        out.print("Double.valueOf(" + value + ")");
+    }
+    else if (type == TokenType.BOOL_VAL)
+      out.print(Boolean.parseBoolean(lexeme) ? "Boolean.TRUE" : "Boolean.FALSE");
+    else if (type == TokenType.CHAR_VAL || type == TokenType.STRING_VAL) {
+      out.print("k" + literals.size());
+      literals.add(lexeme);
+    }
+    else
+      out.print("null");
+  }
+
+  public void visit(NewRValue node) throws MyPLException {
+    out.print("T_" + node.typeId.lexeme() + ".make()");
+  }
+
+  public void visit(CallRValue node) throws MyPLException {
+    if (node.decl != null) {
+      out.print("f_" + node.funName.lexeme() + "(");
+      for (int i = 0; i < node.argList.size(); ++i) {
+        if (i > 0)
+          out.print(", ");
+        node.argList.get(i).accept(this);
+      }
+      out.print(")");
+      return;
+    }
+    // built-in functions check each argument for nil as it is evaluated
+    out.print("JavaRuntime." + node.funName.lexeme() + "(");
+    for (int i = 0; i < node.argList.size(); ++i) {
+      Expr arg = node.argList.get(i);
+      Token token = Interpreter.getFirstToken(arg);
+      if (i > 0)
+        out.print(", ");
+      out.print("JavaRuntime.arg(");
+      arg.accept(this);
+      out.print(", " + token.row() + ", " + token.column() + ")");
+    }
+    if (node.funName.lexeme().equals("get"))
+      out.print(", " + node.funName.row() + ", " + node.funName.column());
+    out.print(")");
+  }
+
+  public void visit(IDRValue node) throws MyPLException {
+    out.print(path(node.depth, node.slot, node.path));
+  }
+
+  public void visit(NegatedRValue node) throws MyPLException {
+    out.print("JavaRuntime.neg(");
+    node.expr.accept(this);
+    out.print(")");
+  }
+
+
+  // helper functions
+
+  // prints the statements of a block, one per line, up to the first
+  // that cannot complete
+  private void block(StmtList node) throws MyPLException {
+    ++nesting;
+    for (Stmt s : node.stmts) {
+      if (s instanceof TypeDeclStmt || s instanceof FunDeclStmt) {
+        s.accept(this);
+        continue;
+      }
+      out.print(getIndent());
+      if (s instanceof Expr)
+        exprStmt((Expr)s);
+      else
+        s.accept(this);
+      out.println();
+      if (!completes(s))
+        break;
+    }
+    --nesting;
+  }
+
+  // an expression statement, whose value is dropped (only calls are
+  // statements in Java)
+  private void exprStmt(Expr node) throws MyPLException {
+    boolean call = node.negated || node.operator != null;
+    if (node.first instanceof SimpleTerm) {
+      RValue rvalue = ((SimpleTerm)node.first).rvalue;
+      call = call || rvalue instanceof CallRValue || rvalue instanceof NewRValue ||
+        rvalue instanceof NegatedRValue;
+    }
+    if (!call)
+      out.print("JavaRuntime.discard(");
+    node.accept(this);
+    if (!call)
+      out.print(")");
+    out.print(";");
+  }
+
+  // whether control can reach the end of the statement (as javac sees
+  // it: a return cannot, nor an if whose branches all cannot)
+  private boolean completes(Stmt s) {
+    if (s instanceof ReturnStmt)
+      return false;
+    if (s instanceof IfStmt) {
+      IfStmt node = (IfStmt)s;
+      if (!node.hasElse || completes(node.ifPart.stmtList) ||
+          completes(node.elseStmtList))
+        return true;
+      for (BasicIf elif : node.elsifs)
+        if (completes(elif.stmtList))
+          return true;
+      return false;
+    }
+    return true;
+  }
+
+  private boolean completes(StmtList node) {
+    for (Stmt s : node.stmts)
+      if (!completes(s))
+        return false;
+    return true;
+  }
+
+  // starts printing a method (of a function or struct) to the given
+  // buffer, with a frame of the given size, returning the stream to
+  // go back to
+  private PrintStream enter(ByteArrayOutputStream buffer, int frameSize) {
+    PrintStream saved = out;
+    out = new PrintStream(buffer);
+    frameTypes = new String[frameSize];
+    inProgram = false;
+    return saved;
+  }
+
+  // goes back to printing the top-level statements
+  private void exit(PrintStream saved) {
+    out.flush();
+    out = saved;
+    frameTypes = globalTypes;
+    inProgram = true;
+    indent = 4;
+  }
+
+  // declares the locals of a method in the given slots
+  private void declareLocals(boolean[] slots) {
+    StringBuilder line = new StringBuilder();
+    for (int i = 0; i < slots.length; ++i)
+      if (slots[i])
+        line.append(line.length() == 0 ? "Object l" : ", l").append(i).append(" = null");
+    if (line.length() > 0)
+      out.println(getIndent() + line + ";");
+  }
+
+  // declares the locals of a method from the given slot on (the
+  // parameters come first)
+  private void declareLocals(int from, int frameSize) {
+    boolean[] slots = new boolean[frameSize];
+    for (int i = from; i < frameSize; ++i)
+      slots[i] = true;
+    declareLocals(slots);
+  }
+
+  // the name of the variable at the address
+  private String variable(int depth, int slot) {
+    if (depth == 0 && globalScope[slot])
+      return "g" + slot;
+    if (depth == 0)
+      programLocals[slot] = true;
+    return "l" + slot;
+  }
+
+  // a variable, or a field at the end of a path of struct fields (each
+  // object cast to its struct's class)
+  private String path(int depth, int slot, List<Token> path) {
+    String code = variable(depth, slot);
+    String type = depth == 0 ? globalTypes[slot] : frameTypes[slot];
+    for (int i = 1; i < path.size(); ++i) {
+      String field = path.get(i).lexeme();
+      code = "((T_" + type + ")" + code + ").v_" + field;
+      type = fieldTypes.get(type).get(field);
+    }
+    return code;
+  }
+
+  // the operator's opcode, lowered here if the checker did not
+  private static int opcode(Expr node) {
+    if (node.opcode == Opcode.NONE)
+      return Opcode.of(node.operator.type());
+    return node.opcode;
+  }
+
+  // the name of an expression's type (only struct types matter, for
+  // paths through their fields)
+  private String typeOf(Expr node) {
+    while (true) {
+      if (node.negated)
+        return "bool";
+      if (node.operator != null) {
+        int op = Opcode.generic(opcode(node));
+        if (op >= Opcode.AND)
+          return "bool";
+      }
+      if (node.first instanceof SimpleTerm)
+        return typeOf(((SimpleTerm)node.first).rvalue);
+      node = ((ComplexTerm)node.first).expr;
+    }
+  }
+
+  private String typeOf(RValue node) {
+    if (node instanceof SimpleRValue) {
+      TokenType type = ((SimpleRValue)node).val.type();
+      if (type == TokenType.INT_VAL)
+        return "int";
+      else if (type == TokenType.DOUBLE_VAL)
+        return "double";
+      else if (type == TokenType.BOOL_VAL)
+        return "bool";
+      else if (type == TokenType.CHAR_VAL)
+        return "char";
+      else if (type == TokenType.STRING_VAL)
+        return "string";
+      return "nil";
+    }
+    else if (node instanceof NewRValue)
+      return ((NewRValue)node).typeId.lexeme();
+    else if (node instanceof CallRValue) {
+      FunDeclStmt decl = ((CallRValue)node).decl;
+      return decl == null ? null : decl.returnType.lexeme();
+    }
+    else if (node instanceof NegatedRValue)
+      return typeOf(((NegatedRValue)node).expr);
+    IDRValue id = (IDRValue)node;
+    String type = id.depth == 0 ? globalTypes[id.slot] : frameTypes[id.slot];
+    for (int i = 1; i < id.path.size(); ++i)
+      type = fieldTypes.get(type).get(id.path.get(i).lexeme());
+    return type;
+  }
+
+  private void error(String msg, Token token) throws MyPLException {
+    throw new MyPLException("\nRuntime", msg, token.row(), token.column());
+  }
+
+}
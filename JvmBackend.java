@@ -0,0 +1,951 @@
+/**
+ * Author: Ben Comer
+ * File: JvmBackend.java
+ *
+ * Compiles MyPL functions to JVM bytecode, so they run as JIT-compiled
+ * Java methods on unboxed values. All the functions that can be
+ * compiled go into one class, written by a small class file writer and
+ * loaded as a hidden class (see MethodHandles.Lookup.defineHiddenClass).
+ * The class is written at version 49 so it needs no stack map frames.
+ * NodeEngine calls compiled functions through Compiled.invoke.
+ *
+ * A function can be compiled if its parameters, variables and result
+ * are ints, doubles and bools, it only uses its own variables (no
+ * globals, structs, strings, nil or built-ins), and it only calls
+ * functions that can be compiled. Such functions have no side effects,
+ * so a call can always be run again by the interpreter. A compiled call
+ * deoptimizes (see Deopt) instead of returning nil: when it is given a
+ * nil argument, or reaches a return without a value or the end of the
+ * body.
+ *
+ * The interpreter compares ints and doubles with = and != by
+ * reference. Its ints are all boxed by Integer.valueOf, which shares
+ * the boxes of -128 to 127, and its doubles are never shared. So when
+ * one side is computed (not a variable or a call, which may hold a
+ * value from elsewhere), = is true just for equal ints in that range,
+ * and never for doubles. Compiled functions only compare ints and
+ * doubles in that case. A compiled function's caller could still see
+ * a reference, since the interpreter returns the argument object
+ * itself when a parameter (or a copy of one) is returned. So each int and double variable has
+ * a tag holding the index of the parameter its value came from (or
+ * -1 if it was computed). Before returning, a function stores the tag
+ * of its result in the class's origin field, and Compiled.invoke
+ * returns the matching argument object when the tag is set. (So one
+ * program's compiled functions must not run on two threads at once.)
+ */
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+
+public class JvmBackend {
+
+  // returned by Compiled.invoke when the interpreter must run the call
+  public static final Object FALLBACK = new Object();
+
+  private static final String CLASS = "MyPLFunctions";
+
+  // the compiled functions of each program compiled, so that running a
+  // program again reuses its (JIT-compiled) class, and the function
+  // declarations they were compiled from (the statements of a program
+  // can be replaced, see IncrementalProgram)
+  private static final Map<StmtList, Map<FunDeclStmt, Compiled>> programs =
+    new WeakHashMap<>();
+  private static final Map<StmtList, List<FunDeclStmt>> sources =
+    new WeakHashMap<>();
+  private static final String DEOPT = "JvmBackend$Deopt";
+
+  /**
+   * Thrown by compiled code when a call must be run by the interpreter.
+   */
+  public static class Deopt extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    public static final Deopt INSTANCE = new Deopt();
+
+    private Deopt() {
+      super(null, null, false, false);
+    }
+  }
+
+
+  /**
+   * A compiled function.
+   */
+  public static class Compiled {
+    private final MethodHandle handle;    // (Object[])Object
+    private final MethodHandle origin;    // ()int
+
+    Compiled(MethodHandle handle, MethodHandle origin) {
+      this.handle = handle;
+      this.origin = origin;
+    }
+
+    /**
+     * Calls the function on the given arguments, returning its result
+     * or FALLBACK if the interpreter must run the call.
+     */
+    public Object invoke(Object[] args) {
+      try {
+        Object result = (Object)handle.invokeExact(args);
+        int from = (int)origin.invokeExact();
+        return from >= 0 ? args[from] : result;
+      } catch (NullPointerException | ClassCastException | Deopt e) {
+        // a nil (or unboxable) argument, or a call that returns nil
+        return FALLBACK;
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable t) {
+        throw new IllegalStateException(t);
+      }
+    }
+  }
+
+
+  /**
+   * Compiles the functions of the given (type checked) program that can
+   * be compiled, returning them by declaration. Functions whose bodies
+   * are still deferred (see LazyBody) are not compiled. The program
+   * must have been resolved (see Resolver).
+   */
+  public static synchronized Map<FunDeclStmt, Compiled> compile(StmtList program) {
+    List<FunDeclStmt> decls = new ArrayList<>();
+    for (Stmt s : program.stmts)
+      if (s instanceof FunDeclStmt)
+        decls.add((FunDeclStmt)s);
+    Map<FunDeclStmt, Compiled> compiled = programs.get(program);
+    if (compiled == null || !sameDecls(decls, sources.get(program))) {
+      compiled = define(program);
+      programs.put(program, compiled);
+      sources.put(program, decls);
+    }
+    return compiled;
+  }
+
+  // whether the lists hold the same declarations
+  private static boolean sameDecls(List<FunDeclStmt> a, List<FunDeclStmt> b) {
+    if (a.size() != b.size())
+      return false;
+    for (int i = 0; i < a.size(); ++i)
+      if (a.get(i) != b.get(i))
+        return false;
+    return true;
+  }
+
+  private static Map<FunDeclStmt, Compiled> define(StmtList program) {
+    // the candidates, dropping those that fail to compile until the
+    // rest compile (a function may call one that was dropped)
+    Map<String, FunDeclStmt> candidates = new LinkedHashMap<>();
+    for (Stmt s : program.stmts) {
+      if (s instanceof FunDeclStmt) {
+        FunDeclStmt decl = (FunDeclStmt)s;
+        candidates.remove(decl.funName.lexeme());     // redeclared
+        if (decl.lazyBody == null && signature(decl) != null)
+          candidates.put(decl.funName.lexeme(), decl);
+      }
+    }
+    Map<FunDeclStmt, byte[]> methods = new LinkedHashMap<>();
+    ClassWriter writer = null;
+    boolean changed = true;
+    while (changed && !candidates.isEmpty()) {
+      changed = false;
+      writer = new ClassWriter();
+      methods.clear();
+      for (FunDeclStmt decl : new ArrayList<>(candidates.values())) {
+        try {
+          methods.put(decl, new FunctionWriter(writer, candidates, decl).write());
+        } catch (Unsupported e) {
+          candidates.remove(decl.funName.lexeme());
+          changed = true;
+        }
+      }
+    }
+    Map<FunDeclStmt, Compiled> compiled = new HashMap<>();
+    if (methods.isEmpty())
+      return compiled;
+    try {
+      MethodHandles.Lookup lookup = MethodHandles.lookup()
+        .defineHiddenClass(writer.toBytes(new ArrayList<>(methods.values())), true);
+      Class<?> hidden = lookup.lookupClass();
+      MethodHandle origin = lookup.findStaticGetter(hidden, "origin", int.class);
+      for (FunDeclStmt decl : methods.keySet()) {
+        MethodHandle handle = lookup.findStatic(hidden, decl.funName.lexeme(), methodType(decl))
+          .asSpreader(Object[].class, decl.params.size())
+          .asType(MethodType.methodType(Object.class, Object[].class));
+        compiled.put(decl, new Compiled(handle, origin));
+      }
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+    return compiled;
+  }
+
+
+  // the descriptor of a function, or null if its types are not
+  // primitives
+  private static String signature(FunDeclStmt decl) {
+    StringBuilder desc = new StringBuilder("(");
+    for (FunParam param : decl.params) {
+      char type = primitive(param.paramType.lexeme());
+      if (type == 0)
+        return null;
+      desc.append(type);
+    }
+    char result = primitive(decl.returnType.lexeme());
+    if (result == 0)
+      return null;
+    return desc.append(')').append(result).toString();
+  }
+
+  // the JVM type of a MyPL type name, or 0 if it is not a primitive
+  private static char primitive(String type) {
+    switch (type) {
+    case "int": return 'I';
+    case "double": return 'D';
+    case "bool": return 'Z';
+    default: return 0;
+    }
+  }
+
+  private static MethodType methodType(FunDeclStmt decl) {
+    Class<?>[] params = new Class<?>[decl.params.size()];
+    for (int i = 0; i < params.length; ++i)
+      params[i] = javaClass(primitive(decl.params.get(i).paramType.lexeme()));
+    return MethodType.methodType(javaClass(primitive(decl.returnType.lexeme())), params);
+  }
+
+  private static Class<?> javaClass(char type) {
+    return type == 'I' ? int.class : type == 'D' ? double.class : boolean.class;
+  }
+
+
+  // a construct compiled functions do not support
+  private static class Unsupported extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    Unsupported() {
+      super(null, null, false, false);
+    }
+  }
+
+
+  // ------------------------------
+  // code generation
+  // ------------------------------
+
+  // a variable: its JVM type and local, and the local of its tag (-1
+  // for bools)
+  private static class Local {
+    final char type;
+    final int index;
+    final int tag;
+
+    Local(char type, int index, int tag) {
+      this.type = type;
+      this.index = index;
+      this.tag = tag;
+    }
+  }
+
+  // writes the method of one function
+  private static class FunctionWriter {
+    private ClassWriter writer;
+    private Map<String, FunDeclStmt> functions;
+    private FunDeclStmt decl;
+    private Code code = new Code();
+    private List<Map<String, Local>> scopes = new ArrayList<>();
+    private int nextLocal = 0;
+
+    FunctionWriter(ClassWriter writer, Map<String, FunDeclStmt> functions, FunDeclStmt decl) {
+      this.writer = writer;
+      this.functions = functions;
+      this.decl = decl;
+    }
+
+    byte[] write() throws Unsupported {
+      // the parameters come first, then their tags (param i has tag i)
+      scopes.add(new HashMap<>());
+      List<Local> params = new ArrayList<>();
+      for (FunParam param : decl.params) {
+        char type = primitive(param.paramType.lexeme());
+        params.add(new Local(type, nextLocal, -1));
+        nextLocal += type == 'D' ? 2 : 1;
+      }
+      for (int i = 0; i < params.size(); ++i) {
+        Local param = params.get(i);
+        int tag = -1;
+        if (param.type != 'Z') {
+          tag = nextLocal++;
+          pushInt(i);
+          code.op(Code.ISTORE, -1, tag);
+        }
+        scopes.get(0).put(decl.params.get(i).paramName.lexeme(),
+                          new Local(param.type, param.index, tag));
+      }
+      block(decl.stmtList);
+      deopt();                  // the end of the body returns nil
+      if (code.size > Short.MAX_VALUE)
+        throw new Unsupported();  // jumps are 16 bits
+      return writer.method(decl.funName.lexeme(), signature(decl), code, nextLocal);
+    }
+
+    // statements
+
+    private void block(StmtList stmtList) throws Unsupported {
+      scopes.add(new HashMap<>());
+      for (Stmt s : stmtList.stmts)
+        stmt(s);
+      scopes.remove(scopes.size() - 1);
+    }
+
+    private void stmt(Stmt s) throws Unsupported {
+      if (s instanceof VarDeclStmt) {
+        VarDeclStmt var = (VarDeclStmt)s;
+        char type = tagged(var.varExpr);
+        if (var.varType != null && primitive(var.varType.lexeme()) != type)
+          throw new Unsupported();
+        Local local = newLocal(type);
+        store(local);
+        scopes.get(scopes.size() - 1).put(var.varId.lexeme(), local);
+      }
+      else if (s instanceof AssignStmt) {
+        AssignStmt assign = (AssignStmt)s;
+        if (assign.lhs.path.size() != 1)
+          throw new Unsupported();
+        Local local = lookup(assign.lhs.path.get(0));
+        if (tagged(assign.rhs) != local.type)
+          throw new Unsupported();
+        store(local);
+      }
+      else if (s instanceof ReturnStmt) {
+        ReturnStmt ret = (ReturnStmt)s;
+        if (ret.returnExpr == null) {
+          deopt();
+          return;
+        }
+        char type = tagged(ret.returnExpr);
+        if (type != primitive(decl.returnType.lexeme()))
+          throw new Unsupported();
+        if (type == 'Z')
+          pushInt(-1);
+        code.op(Code.PUTSTATIC, -1, writer.field(CLASS, "origin", "I"));
+        code.op(type == 'D' ? Code.DRETURN : Code.IRETURN, type == 'D' ? -2 : -1);
+      }
+      else if (s instanceof IfStmt) {
+        IfStmt node = (IfStmt)s;
+        List<BasicIf> parts = new ArrayList<>();
+        parts.add(node.ifPart);
+        parts.addAll(node.elsifs);
+        List<Integer> ends = new ArrayList<>();
+        for (BasicIf part : parts) {
+          condition(part.boolExpr);
+          int next = code.jump(Code.IFEQ, -1);
+          block(part.stmtList);
+          ends.add(code.jump(Code.GOTO, 0));
+          code.bind(next);
+        }
+        if (node.hasElse)
+          block(node.elseStmtList);
+        for (int end : ends)
+          code.bind(end);
+      }
+      else if (s instanceof WhileStmt) {
+        WhileStmt node = (WhileStmt)s;
+        int top = code.size;
+        condition(node.boolExpr);
+        int exit = code.jump(Code.IFEQ, -1);
+        block(node.stmtList);
+        code.jumpTo(Code.GOTO, 0, top);
+        code.bind(exit);
+      }
+      else if (s instanceof ForStmt) {
+        // as the interpreter: the end first, then the start, which the
+        // variable holds (with its tag) until it is incremented
+        ForStmt node = (ForStmt)s;
+        int end = nextLocal++;
+        if (value(node.endExpr) != 'I')
+          throw new Unsupported();
+        code.op(Code.ISTORE, -1, end);
+        if (tagged(node.startExpr) != 'I')
+          throw new Unsupported();
+        Local var = newLocal('I');
+        store(var);
+        code.op(Code.ILOAD, 1, var.index);
+        code.op(Code.ILOAD, 1, end);
+        int exit = code.jump(Code.IF_ICMPGT, -2);
+        int body = code.size;
+        scopes.add(new HashMap<>());
+        scopes.get(scopes.size() - 1).put(node.var.lexeme(), var);
+        block(node.stmtList);
+        scopes.remove(scopes.size() - 1);
+        code.iinc(var.index, 1);
+        pushInt(-1);
+        code.op(Code.ISTORE, -1, var.tag);
+        code.op(Code.ILOAD, 1, var.index);
+        code.op(Code.ILOAD, 1, end);
+        code.jumpTo(Code.IF_ICMPLE, -2, body);
+        code.bind(exit);
+      }
+      else if (s instanceof Expr) {
+        char type = value((Expr)s);
+        code.op(type == 'D' ? Code.POP2 : Code.POP, type == 'D' ? -2 : -1);
+      }
+      else
+        throw new Unsupported();
+    }
+
+    // expressions
+
+    // pushes a bool for a condition
+    private void condition(Expr expr) throws Unsupported {
+      if (value(expr) != 'Z')
+        throw new Unsupported();
+    }
+
+    // pushes the value of an expression and, for ints and doubles, its
+    // tag, returning its type
+    private char tagged(Expr expr) throws Unsupported {
+      RValue rvalue = bare(expr);
+      if (rvalue instanceof IDRValue) {
+        IDRValue id = (IDRValue)rvalue;
+        if (id.path.size() != 1)
+          throw new Unsupported();
+        Local local = lookup(id.path.get(0));
+        load(local);
+        if (local.type != 'Z')
+          code.op(Code.ILOAD, 1, local.tag);
+        return local.type;
+      }
+      if (rvalue instanceof CallRValue)
+        return call((CallRValue)rvalue, true);
+      char type = value(expr);
+      if (type != 'Z')
+        pushInt(-1);
+      return type;
+    }
+
+    // the right value of an expression that is just one, or null
+    private RValue bare(Expr expr) {
+      while (true) {
+        if (expr.negated || expr.operator != null)
+          return null;
+        if (expr.first instanceof SimpleTerm)
+          return ((SimpleTerm)expr.first).rvalue;
+        expr = ((ComplexTerm)expr.first).expr;
+      }
+    }
+
+    // pushes the value of an expression, returning its type
+    private char value(Expr node) throws Unsupported {
+      // the chain of left operands, outermost first
+      List<Expr> chain = new ArrayList<>();
+      for (Expr e = node; e != null; e = e.leftChain())
+        chain.add(e);
+      ExprTerm first = chain.get(chain.size() - 1).first;
+      char type = term(first);
+      boolean computed = !shared(first instanceof SimpleTerm ?
+                                 ((SimpleTerm)first).rvalue :
+                                 bare(((ComplexTerm)first).expr));
+      for (int i = chain.size() - 1; i >= 0; --i) {
+        Expr e = chain.get(i);
+        if (e.operator == null)
+          continue;
+        char rest = value(e.rest);
+        if (rest != type)
+          throw new Unsupported();
+        computed |= !shared(bare(e.rest));
+        type = operator(Opcode.of(e.operator.type()), type, computed);
+        computed = true;
+      }
+      if (node.negated) {
+        if (type != 'Z')
+          throw new Unsupported();
+        pushInt(1);
+        code.op(Code.IXOR, -1);
+      }
+      return type;
+    }
+
+    private char term(ExprTerm term) throws Unsupported {
+      if (term instanceof ComplexTerm)
+        return value(((ComplexTerm)term).expr);
+      RValue rvalue = ((SimpleTerm)term).rvalue;
+      if (rvalue instanceof SimpleRValue) {
+        Token val = ((SimpleRValue)rvalue).val;
+        switch (val.type()) {
+        case INT_VAL:
+          try {
+            pushInt(Integer.parseInt(val.lexeme()));
+          } catch (NumberFormatException e) {
+            throw new Unsupported();
+          }
+          return 'I';
+        case DOUBLE_VAL:
+          code.op(Code.LDC2_W, 2, writer.constant(Double.parseDouble(val.lexeme())));
+          return 'D';
+        case BOOL_VAL:
+          pushInt(Boolean.parseBoolean(val.lexeme()) ? 1 : 0);
+          return 'Z';
+        default:
+          throw new Unsupported();
+        }
+      }
+      if (rvalue instanceof IDRValue) {
+        IDRValue id = (IDRValue)rvalue;
+        if (id.path.size() != 1)
+          throw new Unsupported();
+        Local local = lookup(id.path.get(0));
+        load(local);
+        return local.type;
+      }
+      if (rvalue instanceof NegatedRValue) {
+        char type = value(((NegatedRValue)rvalue).expr);
+        if (type == 'Z')
+          throw new Unsupported();
+        code.op(type == 'D' ? Code.DNEG : Code.INEG, 0);
+        return type;
+      }
+      if (rvalue instanceof CallRValue) {
+        char type = call((CallRValue)rvalue, false);
+        return type;
+      }
+      throw new Unsupported();
+    }
+
+    // whether an operand (a right value, or null if it is computed)
+    // may hold a value from elsewhere: it is a variable or a call
+    private boolean shared(RValue rvalue) {
+      return rvalue instanceof IDRValue || rvalue instanceof CallRValue;
+    }
+
+    // applies an operator to the two values on the stack (computed if
+    // one of them was just computed)
+    private char operator(int opcode, char type, boolean computed) throws Unsupported {
+      boolean isDouble = type == 'D';
+      int pop = isDouble ? -2 : -1;
+      switch (opcode) {
+      case Opcode.ADD:
+      case Opcode.SUB:
+      case Opcode.MUL:
+      case Opcode.DIV:
+      case Opcode.MOD:
+        if (type == 'Z')
+          throw new Unsupported();
+        int[] ints = {Code.IADD, Code.ISUB, Code.IMUL, Code.IDIV, Code.IREM};
+        int[] doubles = {Code.DADD, Code.DSUB, Code.DMUL, Code.DDIV, Code.DREM};
+        code.op(isDouble ? doubles[opcode - Opcode.ADD] : ints[opcode - Opcode.ADD], pop);
+        return type;
+      case Opcode.AND:
+      case Opcode.OR:
+        // both operands are evaluated, as in the interpreter
+        if (type != 'Z')
+          throw new Unsupported();
+        code.op(opcode == Opcode.AND ? Code.IAND : Code.IOR, -1);
+        return 'Z';
+      case Opcode.EQ:
+      case Opcode.NE:
+        if (type == 'Z')
+          return compare(opcode == Opcode.EQ ? Code.IF_ICMPEQ : Code.IF_ICMPNE, -2);
+        // ints and doubles are compared by reference in the interpreter
+        if (!computed)
+          throw new Unsupported();
+        int same = opcode == Opcode.EQ ? 1 : 0;
+        if (isDouble) {
+          code.op(Code.POP2, -2);
+          code.op(Code.POP2, -2);
+          pushInt(1 - same);
+          return 'Z';
+        }
+        // equal, and in -128 to 127
+        code.op(Code.DUP_X1, 1);
+        int differ = code.jump(Code.IF_ICMPNE, -2);
+        code.op2(Code.SIPUSH, 1, 128);
+        code.op(Code.IADD, -1);
+        code.op(Code.BIPUSH, 1, 8);
+        code.op(Code.IUSHR, -1);
+        int outside = code.jump(Code.IFNE, -1);
+        pushInt(same);
+        int end = code.jump(Code.GOTO, 0);
+        code.bind(differ);
+        code.op(Code.POP, 0);   // (the depth counts the one path)
+        code.bind(outside);
+        code.depth -= 1;
+        pushInt(1 - same);
+        code.bind(end);
+        return 'Z';
+      default:
+        // <, <=, >, >=, where comparisons with NaN are false
+        int index = opcode - Opcode.LT;
+        if (type == 'Z')
+          throw new Unsupported();
+        if (!isDouble) {
+          int[] jumps = {Code.IF_ICMPLT, Code.IF_ICMPLE, Code.IF_ICMPGT, Code.IF_ICMPGE};
+          return compare(jumps[index], -2);
+        }
+        code.op(index < 2 ? Code.DCMPG : Code.DCMPL, -3);
+        int[] jumps = {Code.IFLT, Code.IFLE, Code.IFGT, Code.IFGE};
+        return compare(jumps[index], -1);
+      }
+    }
+
+    // pushes 1 if the jump is taken, and 0 otherwise
+    private char compare(int jump, int effect) {
+      int taken = code.jump(jump, effect);
+      pushInt(0);
+      int end = code.jump(Code.GOTO, 0);
+      code.bind(taken);
+      code.depth -= 1;          // the 0 is not on this path
+      pushInt(1);
+      code.bind(end);
+      return 'Z';
+    }
+
+    // calls a compiled function, pushing its result and (if tagged)
+    // the result's tag, found from its origin and the argument tags
+    private char call(CallRValue node, boolean tagged) throws Unsupported {
+      FunDeclStmt callee = functions.get(node.funName.lexeme());
+      if (callee == null || callee != node.decl || node.argList.size() != callee.params.size())
+        throw new Unsupported();
+      int[] argTags = new int[node.argList.size()];
+      for (int i = 0; i < argTags.length; ++i) {
+        char param = primitive(callee.params.get(i).paramType.lexeme());
+        if (!tagged) {
+          if (value(node.argList.get(i)) != param)
+            throw new Unsupported();
+          continue;
+        }
+        if (tagged(node.argList.get(i)) != param)
+          throw new Unsupported();
+        argTags[i] = -1;
+        if (param != 'Z') {
+          argTags[i] = nextLocal++;
+          code.op(Code.ISTORE, -1, argTags[i]);
+        }
+      }
+      String desc = signature(callee);
+      char result = desc.charAt(desc.length() - 1);
+      int effect = (result == 'D' ? 2 : 1);
+      for (int i = 0; i < argTags.length; ++i)
+        effect -= primitive(callee.params.get(i).paramType.lexeme()) == 'D' ? 2 : 1;
+      code.op(Code.INVOKESTATIC, effect, writer.method(CLASS, callee.funName.lexeme(), desc));
+      if (!tagged || result == 'Z')
+        return result;
+      // the tag: that of the argument the result came from, if any
+      int origin = nextLocal++;
+      int tag = nextLocal++;
+      code.op(Code.GETSTATIC, 1, writer.field(CLASS, "origin", "I"));
+      code.op(Code.ISTORE, -1, origin);
+      pushInt(-1);
+      code.op(Code.ISTORE, -1, tag);
+      for (int i = 0; i < argTags.length; ++i) {
+        if (argTags[i] < 0)
+          continue;
+        code.op(Code.ILOAD, 1, origin);
+        pushInt(i);
+        int skip = code.jump(Code.IF_ICMPNE, -2);
+        code.op(Code.ILOAD, 1, argTags[i]);
+        code.op(Code.ISTORE, -1, tag);
+        code.bind(skip);
+      }
+      code.op(Code.ILOAD, 1, tag);
+      return result;
+    }
+
+    // helper functions
+
+    private Local newLocal(char type) {
+      int index = nextLocal;
+      nextLocal += type == 'D' ? 2 : 1;
+      int tag = type == 'Z' ? -1 : nextLocal++;
+      return new Local(type, index, tag);
+    }
+
+    // finds a variable of this function (globals are not supported)
+    private Local lookup(Token name) throws Unsupported {
+      for (int i = scopes.size() - 1; i >= 0; --i) {
+        Local local = scopes.get(i).get(name.lexeme());
+        if (local != null)
+          return local;
+      }
+      throw new Unsupported();
+    }
+
+    private void load(Local local) {
+      if (local.type == 'D')
+        code.op(Code.DLOAD, 2, local.index);
+      else
+        code.op(Code.ILOAD, 1, local.index);
+    }
+
+    // pops a value (and its tag, for ints and doubles) to a variable
+    private void store(Local local) {
+      if (local.type != 'Z')
+        code.op(Code.ISTORE, -1, local.tag);
+      if (local.type == 'D')
+        code.op(Code.DSTORE, -2, local.index);
+      else
+        code.op(Code.ISTORE, -1, local.index);
+    }
+
+    private void pushInt(int value) {
+      if (value >= -1 && value <= 5)
+        code.op(Code.ICONST_0 + value, 1);
+      else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+        code.op(Code.BIPUSH, 1, value & 0xff);
+      else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+        code.op2(Code.SIPUSH, 1, value);
+      else
+        code.op2(Code.LDC_W, 1, writer.constant(value));
+    }
+
+    private void deopt() {
+      code.op2(Code.GETSTATIC, 1, writer.field(DEOPT, "INSTANCE", "L" + DEOPT + ";"));
+      code.op(Code.ATHROW, -1);
+    }
+  }
+
+
+  // ------------------------------
+  // class files
+  // ------------------------------
+
+  // the code of a method being written
+  private static class Code {
+    static final int ICONST_0 = 3, BIPUSH = 16, SIPUSH = 17, LDC_W = 19, LDC2_W = 20;
+    static final int ILOAD = 21, DLOAD = 24, ISTORE = 54, DSTORE = 57, POP = 87, POP2 = 88;
+    static final int IADD = 96, DADD = 99, ISUB = 100, DSUB = 103, IMUL = 104, DMUL = 107;
+    static final int IDIV = 108, DDIV = 111, IREM = 112, DREM = 115, INEG = 116, DNEG = 119;
+    static final int DUP_X1 = 90, IUSHR = 124;
+    static final int IAND = 126, IOR = 128, IXOR = 130, IINC = 132, DCMPL = 151, DCMPG = 152;
+    static final int IFEQ = 153, IFNE = 154, IFLT = 155, IFGE = 156, IFGT = 157, IFLE = 158;
+    static final int IF_ICMPEQ = 159, IF_ICMPNE = 160, IF_ICMPLT = 161, IF_ICMPGE = 162;
+    static final int IF_ICMPGT = 163, IF_ICMPLE = 164, GOTO = 167, IRETURN = 172, DRETURN = 175;
+    static final int GETSTATIC = 178, PUTSTATIC = 179, INVOKESTATIC = 184, ATHROW = 191;
+    static final int WIDE = 196;
+
+    byte[] bytes = new byte[256];
+    int size = 0;
+    int depth = 0;              // of the operand stack (in slots)
+    int maxDepth = 0;
+
+    // an instruction with the given stack effect and one-byte operand
+    // (a local, widened if needed) or two-byte operand (a constant)
+    void op(int opcode, int effect, int... operands) {
+      boolean local = opcode == ILOAD || opcode == DLOAD || opcode == ISTORE || opcode == DSTORE;
+      if (local && operands[0] > 255) {
+        u1(WIDE);
+        u1(opcode);
+        u2(operands[0]);
+      }
+      else if (opcode == LDC2_W || opcode == GETSTATIC || opcode == PUTSTATIC ||
+               opcode == INVOKESTATIC) {
+        u1(opcode);
+        u2(operands[0]);
+      }
+      else {
+        u1(opcode);
+        for (int operand : operands)
+          u1(operand);
+      }
+      stack(effect);
+    }
+
+    // an instruction with a two-byte operand
+    void op2(int opcode, int effect, int operand) {
+      u1(opcode);
+      u2(operand);
+      stack(effect);
+    }
+
+    void iinc(int local, int amount) {
+      if (local > 255) {
+        u1(WIDE);
+        u1(IINC);
+        u2(local);
+        u2(amount);
+      }
+      else {
+        u1(IINC);
+        u1(local);
+        u1(amount);
+      }
+    }
+
+    // a forward jump, returning its address to bind later
+    int jump(int opcode, int effect) {
+      int at = size;
+      u1(opcode);
+      u2(0);
+      stack(effect);
+      return at;
+    }
+
+    // a jump to a known address
+    void jumpTo(int opcode, int effect, int target) {
+      int at = size;
+      u1(opcode);
+      u2(target - at);
+      stack(effect);
+    }
+
+    // points the jump at the given address here
+    void bind(int at) {
+      int offset = size - at;
+      bytes[at + 1] = (byte)(offset >> 8);
+      bytes[at + 2] = (byte)offset;
+    }
+
+    private void stack(int effect) {
+      depth += effect;
+      maxDepth = Math.max(maxDepth, depth);
+    }
+
+    private void u1(int b) {
+      if (size == bytes.length)
+        bytes = Arrays.copyOf(bytes, size * 2);
+      bytes[size++] = (byte)b;
+    }
+
+    private void u2(int v) {
+      u1(v >> 8);
+      u1(v);
+    }
+  }
+
+  // writes a class of static methods and the static origin field
+  private static class ClassWriter {
+    private ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private DataOutputStream pool = new DataOutputStream(poolBytes);
+    private Map<String, Integer> entries = new HashMap<>();
+    private int count = 1;      // the pool's next index
+
+    int utf8(String s) {
+      return entry("U" + s, 1, out -> out.writeUTF(s), 1);
+    }
+
+    int type(String name) {
+      int nameIndex = utf8(name);
+      return entry("C" + name, 7, out -> out.writeShort(nameIndex), 1);
+    }
+
+    int constant(int value) {
+      return entry("I" + value, 3, out -> out.writeInt(value), 1);
+    }
+
+    int constant(double value) {
+      return entry("D" + Double.doubleToRawLongBits(value), 6,
+                   out -> out.writeDouble(value), 2);
+    }
+
+    int field(String owner, String name, String desc) {
+      return member(9, owner, name, desc);
+    }
+
+    int method(String owner, String name, String desc) {
+      return member(10, owner, name, desc);
+    }
+
+    private int member(int tag, String owner, String name, String desc) {
+      int typeIndex = type(owner);
+      int nameIndex = utf8(name);
+      int descIndex = utf8(desc);
+      int nameType = entry("N" + name + " " + desc, 12, out -> {
+        out.writeShort(nameIndex);
+        out.writeShort(descIndex);
+      }, 1);
+      return entry(tag + owner + "." + name + desc, tag, out -> {
+        out.writeShort(typeIndex);
+        out.writeShort(nameType);
+      }, 1);
+    }
+
+    private interface Body {
+      void write(DataOutputStream out) throws IOException;
+    }
+
+    private int entry(String key, int tag, Body body, int slots) {
+      Integer index = entries.get(key);
+      if (index != null)
+        return index;
+      try {
+        pool.writeByte(tag);
+        body.write(pool);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      entries.put(key, count);
+      count += slots;
+      return count - slots;
+    }
+
+    // a public static method with the given code
+    byte[] method(String name, String desc, Code code, int maxLocals) {
+      int nameIndex = utf8(name);
+      int descIndex = utf8(desc);
+      int codeIndex = utf8("Code");
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      try {
+        out.writeShort(0x0009);           // public static
+        out.writeShort(nameIndex);
+        out.writeShort(descIndex);
+        out.writeShort(1);
+        out.writeShort(codeIndex);
+        out.writeInt(12 + code.size);
+        out.writeShort(code.maxDepth + 2);
+        out.writeShort(maxLocals);
+        out.writeInt(code.size);
+        out.write(code.bytes, 0, code.size);
+        out.writeShort(0);                // exception table
+        out.writeShort(0);                // attributes
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      return bytes.toByteArray();
+    }
+
+    byte[] toBytes(List<byte[]> methods) {
+      int thisClass = type(CLASS);
+      int superClass = type("java/lang/Object");
+      int originName = utf8("origin");
+      int originDesc = utf8("I");
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      try {
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(49);
+        out.writeShort(count);
+        poolBytes.writeTo(out);
+        out.writeShort(0x0031);           // public final super
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(0);                // interfaces
+        out.writeShort(1);
+        out.writeShort(0x0009);           // public static int origin
+        out.writeShort(originName);
+        out.writeShort(originDesc);
+        out.writeShort(0);
+        out.writeShort(methods.size());
+        for (byte[] method : methods)
+          out.write(method);
+        out.writeShort(0);                // attributes
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      return bytes.toByteArray();
+    }
+  }
+
+}
@@ -0,0 +1,103 @@
+/**
+ * Author: Ben Comer
+ * File: LazyBody.java
+ *
+ * A function body whose parsing and type checking were put off until
+ * the function is first called (see Parser.setLazyBodies). The parser
+ * only finds the end of the body and keeps its tokens (or their range
+ * in a packed token buffer). The type checker checks the signature
+ * and records how many global declarations the body can see. On the
+ * first call, FunDeclStmt.body() parses the body, checks (and, when
+ * running with frames, resolves) it in the global scope the function
+ * was declared in, and drops this object, so the work of uncalled
+ * functions is never done.
+ *
+ * Syntax and type errors in a deferred body are reported by the call
+ * that completes it.
+ */
+
+
+import java.io.InputStream;
+import java.util.List;
+
+
+public class LazyBody {
+
+  private List<Token> tokens = null;   // the body and its END token
+  private TokenBuffer buffer = null;   // or the body's packed tokens
+  private int start = 0;               // from this index
+  private boolean stackSafe;
+  private TypeChecker checker = null;  // set once the signature is checked
+  private int globals = 0;             // global declarations in scope
+  private Resolver resolver = null;    // set once the signature is resolved
+  private int resolverGlobals = 0;
+
+
+  // a body read from a lexer
+  public LazyBody(List<Token> tokens, boolean stackSafe) {
+    this.tokens = tokens;
+    this.stackSafe = stackSafe;
+  }
+
+  // a body starting at the given index of a token buffer
+  public LazyBody(TokenBuffer buffer, int start, boolean stackSafe) {
+    this.buffer = buffer;
+    this.start = start;
+    this.stackSafe = stackSafe;
+  }
+
+
+  // records the checker of the signature and the number of global
+  // declarations made up to (and including) the function
+  public void defer(TypeChecker checker, int globals) {
+    this.checker = checker;
+    this.globals = globals;
+  }
+
+
+  // records the resolver of the signature and the number of global
+  // declarations it had made up to (and including) the function
+  public void resolveLater(Resolver resolver, int globals) {
+    this.resolver = resolver;
+    this.resolverGlobals = globals;
+  }
+
+
+  // parses the body and (if the signature was checked) checks it, and
+  // resolves it if the signature was resolved
+  public StmtList complete(FunDeclStmt node) throws MyPLException {
+    Parser parser = null;
+    if (buffer != null)
+      parser = new Parser(buffer, start);
+    else
+      parser = new Parser(new Replay(tokens));
+    parser.setStackSafe(stackSafe);
+    StmtList stmtList = parser.parseBody();
+    if (checker != null)
+      checker.checkBody(node, stmtList, globals);
+    if (resolver != null)
+      resolver.resolveBody(node, stmtList, resolverGlobals);
+    return stmtList;
+  }
+
+
+  // hands out the saved tokens, then EOS
+  private static class Replay extends Lexer {
+    private List<Token> tokens;
+    private int index = 0;
+
+    Replay(List<Token> tokens) {
+      super(InputStream.nullInputStream());
+      this.tokens = tokens;
+    }
+
+    @Override
+    public Token nextToken() {
+      if (index < tokens.size())
+        return tokens.get(index++);
+      Token last = tokens.get(tokens.size() - 1);
+      return new Token(TokenType.EOS, "", last.row(), last.column());
+    }
+  }
+
+}
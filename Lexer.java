@@ -8,55 +8,278 @@
  * is returned by nextToken). The file has been completed read when
  * nextToken returns the EOS token. Lexical errors in the source file
  * result in the nextToken function throwing a MyPL Exception.
+ *
+ * Input is decoded in large blocks into a char buffer that is scanned
+ * with a direct index, so peeking at the next character is an array
+ * access rather than a mark/reset on the underlying reader. Files
+ * given by path are memory mapped and decoded straight from the
+ * mapping in the same (default) charset as streams, with ASCII bytes
+ * copied directly when the charset is ASCII compatible (e.g., UTF-8).
+ *
+ * For large inputs, tokenize() lexes the whole source into a packed
+ * TokenBuffer instead of creating a Token object per token.
  */
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 
 public class Lexer {
 
-  private BufferedReader buffer; // handle to input stream
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  // single-character symbols to their token types and lexemes
+  private static final TokenType[] SYMBOLS = new TokenType[128];
+  private static final String[] SYMBOL_LEXEMES = new String[128];
+  static {
+    String symbols = "+-*/%,.=(){}";
+    TokenType[] types = {TokenType.PLUS, TokenType.MINUS, TokenType.MULTIPLY,
+                         TokenType.DIVIDE, TokenType.MODULO, TokenType.COMMA,
+                         TokenType.DOT, TokenType.EQUAL, TokenType.LPAREN,
+                         TokenType.RPAREN, TokenType.LBRACKET, TokenType.RBRACKET};
+    for (int i = 0; i < types.length; ++i) {
+      char c = symbols.charAt(i);
+      SYMBOLS[c] = types[i];
+      SYMBOL_LEXEMES[c] = String.valueOf(c);
+    }
+  }
+
+  private Reader reader;        // handle to input stream
+  private ByteBuffer mapped;    // or to a memory-mapped file
+  private CharsetDecoder decoder;
+  private boolean asciiBytes;   // if ASCII bytes decode to themselves
+  private char[] buffer;       // allocated by the stream constructors
+  private int pos = 0;          // index of the next character in buffer
+  private int limit = 0;        // number of valid characters in buffer
+  private boolean eof = false;
+  private StringBuilder lexeme = new StringBuilder();
   private int line;
   private int column;
-  
-  /** 
+
+  // the most recently scanned token
+  private TokenType tokenType;
+  private String tokenText;     // fixed lexeme, or null if in lexeme
+  private int tokenStart;       // offset of the lexeme in buffer
+  private int tokenRow;
+  private int tokenColumn;
+  private int tokenSymbol;      // symbol id for names, else -1
+
+  /**
    */
   public Lexer(InputStream instream) {
-    buffer = new BufferedReader(new InputStreamReader(instream));
+    reader = new InputStreamReader(instream);
+    buffer = new char[BUFFER_SIZE];
     this.line = 1;
     this.column = 1;
   }
 
-  
+
   /**
-   * Returns next character in the stream. Returns -1 if end of file.
+   * Create a lexer over the given file, which is memory mapped
+   * rather than read through a stream.
    */
-  private int read() throws MyPLException {
+  public Lexer(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE)
+        reader = new InputStreamReader(Files.newInputStream(path));
+      else
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+    buffer = new char[BUFFER_SIZE];
+    Charset charset = Charset.defaultCharset();
+    asciiBytes = charset.contains(StandardCharsets.US_ASCII);
+    decoder = charset.newDecoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    this.line = 1;
+    this.column = 1;
+  }
+
+
+  /**
+   * Create a lexer over an in-memory source (which is scanned in
+   * place, so token offsets index into it).
+   */
+  public Lexer(char[] source) {
+    this(source, 0, source.length, 1);
+  }
+
+
+  /**
+   * Create a lexer over part of an in-memory source, from begin up to
+   * (but not including) end, starting at the given line number. The
+   * range should start at the beginning of a line.
+   */
+  public Lexer(char[] source, int begin, int end, int line) {
+    buffer = source;
+    pos = begin;
+    limit = end;
+    eof = true;
+    this.line = line;
+    this.column = 1;
+  }
+
+
+  /**
+   * Lexes the rest of the input into a packed token buffer. A lexical
+   * error ends the buffer and is thrown when a reader reaches it.
+   */
+  public TokenBuffer tokenize() throws MyPLException {
+    if (!eof || mapped != null)
+      loadAll();
+    long start = Stats.enabled ? System.nanoTime() : 0;
+    TokenBuffer tokens = scanAll();
+    Stats.tokens += tokens.size();
+    if (Stats.enabled)
+      Stats.lexTime += System.nanoTime() - start;
+    return tokens;
+  }
+
+
+  /**
+   * Lexes the rest of an in-memory source into a packed token buffer,
+   * without updating stats (so lexers over parts of a source can run
+   * on separate threads).
+   */
+  public TokenBuffer scanAll() {
+    // typical programs have a token per 3-4 characters
+    TokenBuffer tokens = new TokenBuffer(buffer, (limit - pos) / 3);
+    try {
+      do {
+        scan();
+        tokens.add(tokenType, tokenStart, tokenLength(), tokenRow,
+                   tokenColumn, tokenSymbol);
+      } while (tokenType != TokenType.EOS);
+    } catch (MyPLException e) {
+      tokens.setError(e);
+    }
+    return tokens;
+  }
+
+
+  /**
+   * Returns true if all input is known to have been consumed.
+   */
+  public boolean atEnd() {
+    return pos == limit && eof;
+  }
+
+
+  /**
+   * Reads all remaining input into the buffer so it can be scanned
+   * in place.
+   */
+  private void loadAll() throws MyPLException {
+    char[] all = new char[Math.max(limit - pos, BUFFER_SIZE)];
+    int n = limit - pos;
+    System.arraycopy(buffer, pos, all, 0, n);
+    pos = limit;
+    while (fill()) {
+      if (n + limit > all.length)
+        all = Arrays.copyOf(all, Math.max(n + limit, all.length * 2));
+      System.arraycopy(buffer, 0, all, n, limit);
+      n += limit;
+      pos = limit;
+    }
+    buffer = all;
+    pos = 0;
+    limit = n;
+    mapped = null;
+    eof = true;
+  }
+
+
+  /**
+   * Refills the buffer. Returns false if end of file.
+   */
+  private boolean fill() throws MyPLException {
+    if (eof)
+      return false;
+    if (mapped != null)
+      return fillMapped();
     try {
-      int ch = buffer.read();
-      return ch;
+      int n = 0;
+      while (n == 0)
+        n = reader.read(buffer, 0, buffer.length);
+      if (n < 0) {
+        eof = true;
+        return false;
+      }
+      pos = 0;
+      limit = n;
     } catch(IOException e) {
       error("read error read", line, column);
     }
-    return -1;
+    return true;
   }
 
-  
-  /** 
+
+  /**
+   * Refills the buffer from the mapped file. Returns false if end of
+   * file.
+   */
+  private boolean fillMapped() {
+    int remaining = mapped.remaining();
+    if (remaining == 0) {
+      eof = true;
+      return false;
+    }
+    // copy ASCII bytes directly
+    int n = 0;
+    int max = Math.min(buffer.length, remaining);
+    int p = mapped.position();
+    while (asciiBytes && n < max) {
+      byte b = mapped.get(p);
+      if (b < 0)
+        break;
+      buffer[n++] = (char) b;
+      ++p;
+    }
+    mapped.position(p);
+    // decode the rest of the block from the first non-ASCII byte
+    if (n < max) {
+      CharBuffer out = CharBuffer.wrap(buffer, n, buffer.length - n);
+      decoder.decode(mapped, out, true);
+      n = out.position();
+      if (n == 0) {
+        eof = true;
+        return false;
+      }
+    }
+    pos = 0;
+    limit = n;
+    return true;
+  }
+
+
+  /**
+   * Returns next character in the stream. Returns -1 if end of file.
+   */
+  private int read() throws MyPLException {
+    if (pos == limit && !fill())
+      return -1;
+    return buffer[pos++];
+  }
+
+
+  /**
    * Returns next character without removing it from the stream.
    */
   private int peek() throws MyPLException {
-    int ch = -1;
-    try {
-      buffer.mark(1);
-      ch = read();
-      buffer.reset();
-    } catch(IOException e) {
-		e.printStackTrace();
-      error("read error peek", line, column);
-    }
-    return ch;
+    if (pos == limit && !fill())
+      return -1;
+    return buffer[pos];
   }
 
 
@@ -72,291 +295,236 @@ public class Lexer {
    * Grabs the next token from the MyPL program.
    */
   public Token nextToken() throws MyPLException {
-	char symbol = ' ';
-	String lexeme = "";
-	Token new_token = new Token(TokenType.NIL, "BAD", line, column);
-	
-	if (peek() == -1) {
-		return new Token(TokenType.EOS, "", line, column);
-	}
-	
-	// Whitespace getter-ridder-of
-		do {
-			if (peek() == -1) {
-				return new Token(TokenType.EOS, "", line, column);
-			}
-
-			symbol = (char) peek();
-			if (symbol == ' ') {
-				read();
-				++column;
-			}
-			// WORKS ON ADA, BUT NOT GIT BASH.
-			// Coming to office hours to figure out a solution.
-			else if (symbol == '\r' || symbol == '\n') {
-				if (symbol == '\r')
-					read();
-				
-				read();
-				++line;
-				column = 1;
-			}
-			else if (symbol == '\t') {
-				read();
-				line += 4;
-			}
-			else if (symbol == '#') {
-				read();
-				while ((char) peek() != '\r' && (char) peek() != '\n') {
-					read();
-				}
-				if ((char) peek() == '\r')
-					read();
-				
-				read();
-				++line;
-				column = 1;
-			}
-			else break;
-		} while (true);
-	
-	int new_column = column;
-	
-	// Reads a string
-		// If the first char is a letter...
-		if (Character.isLetter((char) peek())) {
-			do {
-				lexeme += (char) read(); ++new_column;
-			} while (Character.isLetter((char) peek()));
-			
-			// If contains a digit or underscore, it is an ID token
-			if (Character.isDigit((char) peek()) ||
-				(char) peek() == '_') {
-				
-				while (Character.isLetter((char) peek()) ||
-					   Character.isDigit((char) peek()) ||
-					   (char) peek() == '_') {
-					
-					lexeme += (char) read(); ++new_column;
-				}
-				
-				new_token = new Token(TokenType.ID, lexeme, line, column);
-			}
-			// Otherwise, it could be a whole host of tokens.
-			else {
-				if (lexeme.equals("true") || lexeme.equals("false"))
-					new_token = new Token(TokenType.BOOL_VAL, lexeme, line, column);
-				else if (lexeme.equals("int"))
-					new_token = new Token(TokenType.INT_TYPE, lexeme, line, column);
-				else if (lexeme.equals("double"))
-					new_token = new Token(TokenType.DOUBLE_TYPE, lexeme, line, column);
-				else if (lexeme.equals("char"))
-					new_token = new Token(TokenType.CHAR_TYPE, lexeme, line, column);
-				else if (lexeme.equals("string"))
-					new_token = new Token(TokenType.STRING_TYPE, lexeme, line, column);
-				else if (lexeme.equals("bool"))
-					new_token = new Token(TokenType.BOOL_TYPE, lexeme, line, column);
-				else if (lexeme.equals("nil"))
-					new_token = new Token(TokenType.NIL, lexeme, line, column);
-				else if (lexeme.equals("and"))
-					new_token = new Token(TokenType.AND, lexeme, line, column);
-				else if (lexeme.equals("or"))
-					new_token = new Token(TokenType.OR, lexeme, line, column);
-				else if (lexeme.equals("not"))
-					new_token = new Token(TokenType.NOT, lexeme, line, column);
-				else if (lexeme.equals("neg"))
-					new_token = new Token(TokenType.NEG, lexeme, line, column);
-				else if (lexeme.equals("while"))
-					new_token = new Token(TokenType.WHILE, lexeme, line, column);
-				else if (lexeme.equals("for"))
-					new_token = new Token(TokenType.FOR, lexeme, line, column);
-				else if (lexeme.equals("to"))
-					new_token = new Token(TokenType.TO, lexeme, line, column);
-				else if (lexeme.equals("do"))
-					new_token = new Token(TokenType.DO, lexeme, line, column);
-				else if (lexeme.equals("if"))
-					new_token = new Token(TokenType.IF, lexeme, line, column);
-				else if (lexeme.equals("then"))
-					new_token = new Token(TokenType.THEN, lexeme, line, column);
-				else if (lexeme.equals("else"))
-					new_token = new Token(TokenType.ELSE, lexeme, line, column);
-				else if (lexeme.equals("elif"))
-					new_token = new Token(TokenType.ELIF, lexeme, line, column);
-				else if (lexeme.equals("end"))
-					new_token = new Token(TokenType.END, lexeme, line, column);
-				else if (lexeme.equals("array"))
-					new_token = new Token(TokenType.ARRAY, lexeme, line, column);
-				else if (lexeme.equals("fun"))
-					new_token = new Token(TokenType.FUN, lexeme, line, column);
-				else if (lexeme.equals("var"))
-					new_token = new Token(TokenType.VAR, lexeme, line, column);
-				else if (lexeme.equals("set"))
-					new_token = new Token(TokenType.SET, lexeme, line, column);
-				else if (lexeme.equals("return"))
-					new_token = new Token(TokenType.RETURN, lexeme, line, column);
-				else if (lexeme.equals("new"))
-					new_token = new Token(TokenType.NEW, lexeme, line, column);
-				else if (lexeme.equals("type"))
-					new_token = new Token(TokenType.TYPE, lexeme, line, column);
-				else {
-					// If it is not a keyword, it must be an id
-					new_token = new Token(TokenType.ID, lexeme, line, column);
-				}
-			}
-		}
-		
-		// If the first char is a digit...
-		else if (Character.isDigit((char) peek())) {
-			boolean decimal = false;
-			lexeme += (char) read(); ++new_column;
-			while (peek() != -1 && Character.isDigit((char) peek()) || (char) peek() == '.') {
-				if ((char) peek() == '.' && decimal) {
-					while (peek() != -1 && Character.isDigit((char) peek()) || (char) peek() == '.') {
-						lexeme += (char) read(); ++new_column;
-					}
-					error("extra dot in '" + lexeme + "'", line, column);
-				}
-				else if ((char) peek() == '.') {
-					decimal = true;
-				}
-				lexeme += (char) read(); ++new_column;
-			}
-			if (Character.isLetter((char) peek()) || (char) peek() == '_') {
-				error("unexpected symbol '" + (char) peek() + "'", line, new_column);
-			}
-			if (decimal && lexeme.endsWith(".")) {
-				error("missing digit in float '" + lexeme + "'", line, column);
-			}
-			if (lexeme.charAt(0) == '0' && lexeme.length() != 1 && lexeme.charAt(1) != '.') {
-				error("leading zero in '" + lexeme + "'", line, column);
-			}
-			
-			if (decimal)
-				new_token = new Token(TokenType.DOUBLE_VAL, lexeme, line, column);
-			else
-				new_token = new Token(TokenType.INT_VAL, lexeme, line, column);
-		}
-		
-		// If the first char is an apostrophe
-		else if ((char) peek() == '\'') {
-			read(); ++new_column;
-			lexeme += (char) read();
-			if ((char) read() == '\'') {
-				new_token = new Token(TokenType.CHAR_VAL, lexeme, line, column);
-				column += 3; ++new_column;
-				return new_token;
-			}
-			else {
-				error("missing apostrophe", line, column + 2);
-			}
-		}
-		
-		// If the first char is a quotation mark
-		else if ((char) peek() == '\"') {
-			read(); ++new_column;
-			while (!((char) peek() == '\"') && !((char) peek() == '\n')) {
-				lexeme += (char) read(); ++new_column;
-			}
-			if ((char) peek() == '\n') {
-				error("found newline within string", line, new_column);
-			}
-			read(); ++new_column;
-			new_token = new Token(TokenType.STRING_VAL, lexeme, line, column);
-		}
-		
-		// If the first char is an operator...
-		else if ((char) peek() == '+') {
-			lexeme += (char) read(); ++new_column;
-			new_token = new Token(TokenType.PLUS, lexeme, line, column);
-		}
-		else if ((char) peek() == '-') {
-			lexeme += (char) read(); ++new_column;
-			new_token = new Token(TokenType.MINUS, lexeme, line, column);
-		}
-		else if ((char) peek() == '*') {
-			lexeme += (char) read(); ++new_column;
-			new_token = new Token(TokenType.MULTIPLY, lexeme, line, column);
-		}
-		else if ((char) peek() == '/') {
-			lexeme += (char) read(); ++new_column;
-			new_token = new Token(TokenType.DIVIDE, lexeme, line, column);
-		}
-		else if ((char) peek() == '%') {
-			lexeme += (char) read(); ++new_column;
-			new_token = new Token(TokenType.MODULO, lexeme, line, column);
-		}
-		else if ((char) peek() == ',') {
-			lexeme += (char) read(); ++new_column;
-			new_token = new Token(TokenType.COMMA, lexeme, line, column);
-		}
-		else if ((char) peek() == '.') {
-			lexeme += (char) read(); ++new_column;
-			new_token = new Token(TokenType.DOT, lexeme, line, column);
-		}
-		else if ((char) peek() == '=') {
-			lexeme += (char) read(); ++new_column;
-			new_token = new Token(TokenType.EQUAL, lexeme, line, column);
-		}
-		else if ((char) peek() == '>') {
-			lexeme += (char) read(); ++new_column;
-			if ((char) peek() == '=') {
-				lexeme += (char) read(); ++new_column;
-				new_token = new Token(TokenType.GREATER_THAN_EQUAL,
-									  lexeme, line, column);
-			}
-			else new_token = new Token(TokenType.GREATER_THAN,
-									   lexeme, line, column);
-		}
-		else if ((char) peek() == '<') {
-			lexeme += (char) read(); ++new_column;
-			if ((char) peek() == '=') {
-				lexeme += (char) read(); ++new_column;
-				new_token = new Token(TokenType.LESS_THAN_EQUAL,
-									  lexeme, line, column);
-			}
-			else new_token = new Token(TokenType.LESS_THAN,
-									   lexeme, line, column);
-		}
-		else if ((char) peek() == '!') {
-			lexeme += (char) read(); ++new_column;
-			if ((char) peek() == '=') {
-				lexeme += (char) read(); ++new_column;
-				new_token = new Token(TokenType.NOT_EQUAL,
-									  lexeme, line, column);
-			}
-			else {
-				error("unexpected symbol '!'", line, column);
-			}
-		}
-		else if ((char) peek() == ':') {
-			lexeme += (char) read(); ++new_column;
-			if ((char) peek() == '=') {
-				lexeme += (char) read(); ++new_column;
-				new_token = new Token(TokenType.ASSIGN,
-									  lexeme, line, column);
-			}
-		}
-		else if ((char) peek() == '(') {
-			lexeme += (char) read(); ++new_column;
-			new_token = new Token(TokenType.LPAREN, lexeme, line, column);		  
-		}
-		else if ((char) peek() == ')') {
-			lexeme += (char) read(); ++new_column;
-			new_token = new Token(TokenType.RPAREN, lexeme, line, column);
-		}
-		else if ((char) peek() == '{') {
-			lexeme += (char) read(); ++new_column;
-			new_token = new Token(TokenType.LBRACKET, lexeme, line, column);
-		}
-		else if ((char) peek() == '}') {
-			lexeme += (char) read(); ++new_column;
-			new_token = new Token(TokenType.RBRACKET, lexeme, line, column);
-		}
-		else {
-			error("unexpected symbol '" + lexeme + "'", line, column);
-		}
-			
-	column = new_column;
-	return new_token;
+    ++Stats.tokens;
+    if (!Stats.enabled) {
+      scan();
+      return token();
+    }
+    long start = System.nanoTime();
+    scan();
+    Token token = token();
+    Stats.lexTime += System.nanoTime() - start;
+    return token;
+  }
+
+
+  /**
+   * Creates a Token for the most recently scanned token.
+   */
+  private Token token() {
+    String text = tokenText;
+    if (tokenSymbol >= 0)
+      text = Symbols.name(tokenSymbol);
+    else if (text == null)
+      text = lexeme.toString();
+    return new Token(tokenType, text, tokenRow, tokenColumn, tokenSymbol);
+  }
+
+
+  // the length of the most recently scanned lexeme
+  private int tokenLength() {
+    if (tokenText == null)
+      return lexeme.length();
+    if (tokenType == TokenType.NIL)   // the "BAD" token for a lone ':'
+      return 1;
+    return tokenText.length();
   }
+
+
+  // records the most recently scanned token (text null if in lexeme)
+  private void setToken(TokenType type, String text, int start, int symbol) {
+    tokenType = type;
+    tokenText = text;
+    tokenStart = start;
+    tokenRow = line;
+    tokenColumn = column;
+    tokenSymbol = symbol;
+  }
+
+
+  /**
+   * Scans the next token from the input, leaving it in the token
+   * fields.
+   */
+  private void scan() throws MyPLException {
+    // (a lone ':' is reported where the whitespace before it starts)
+    int startLine = line;
+    int startColumn = column;
+    // skip whitespace and comments
+    int ch;
+    while (true) {
+      ch = peek();
+      if (ch == -1) {
+        setToken(TokenType.EOS, "", pos, -1);
+        return;
+      }
+      if (ch == ' ') {
+        read();
+        ++column;
+      }
+      else if (ch == '\r' || ch == '\n') {
+        if (ch == '\r')
+          read();
+        read();
+        ++line;
+        column = 1;
+      }
+      else if (ch == '\t') {
+        read();
+        line += 4;
+      }
+      else if (ch == '#') {
+        read();
+        ch = peek();
+        while (ch != '\r' && ch != '\n' && ch != -1) {
+          read();
+          ch = peek();
+        }
+        if (ch == '\r')
+          read();
+        read();
+        ++line;
+        column = 1;
+      }
+      else
+        break;
+    }
+
+    // note that (char) -1 at end of file is neither a letter, digit
+    // nor any of the symbols checked below
+    char symbol = (char) ch;
+    int newColumn = column;
+    int start = pos;
+    lexeme.setLength(0);
+
+    // identifiers, reserved words, and boolean values
+    if (Character.isLetter(symbol)) {
+      do {
+        lexeme.append((char) read()); ++newColumn;
+      } while (Character.isLetter((char) peek()));
+      symbol = (char) peek();
+      // if it contains a digit or underscore, it is an ID token
+      if (Character.isDigit(symbol) || symbol == '_') {
+        while (Character.isLetter(symbol) || Character.isDigit(symbol) ||
+               symbol == '_') {
+          lexeme.append((char) read()); ++newColumn;
+          symbol = (char) peek();
+        }
+      }
+      // otherwise it may be a reserved word (which never has digits)
+      int id = Symbols.intern(lexeme);
+      setToken(Symbols.tokenType(id), null, start, id);
+    }
+
+    // int and double values
+    else if (Character.isDigit(symbol)) {
+      boolean decimal = false;
+      lexeme.append((char) read()); ++newColumn;
+      symbol = (char) peek();
+      while (Character.isDigit(symbol) || symbol == '.') {
+        if (symbol == '.' && decimal) {
+          while (Character.isDigit(symbol) || symbol == '.') {
+            lexeme.append((char) read()); ++newColumn;
+            symbol = (char) peek();
+          }
+          error("extra dot in '" + lexeme + "'", line, column);
+        }
+        else if (symbol == '.') {
+          decimal = true;
+        }
+        lexeme.append((char) read()); ++newColumn;
+        symbol = (char) peek();
+      }
+      if (Character.isLetter(symbol) || symbol == '_') {
+        error("unexpected symbol '" + symbol + "'", line, newColumn);
+      }
+      int length = lexeme.length();
+      if (decimal && lexeme.charAt(length - 1) == '.') {
+        error("missing digit in float '" + lexeme + "'", line, column);
+      }
+      if (lexeme.charAt(0) == '0' && length != 1 && lexeme.charAt(1) != '.') {
+        error("leading zero in '" + lexeme + "'", line, column);
+      }
+      if (decimal)
+        setToken(TokenType.DOUBLE_VAL, null, start, -1);
+      else
+        setToken(TokenType.INT_VAL, null, start, -1);
+    }
+
+    // char values
+    else if (symbol == '\'') {
+      read(); ++newColumn;
+      lexeme.append((char) read());
+      if ((char) read() == '\'') {
+        setToken(TokenType.CHAR_VAL, null, start + 1, -1);
+        column += 3;
+        return;
+      }
+      else {
+        error("missing apostrophe", line, column + 2);
+      }
+    }
+
+    // string values
+    else if (symbol == '\"') {
+      read(); ++newColumn;
+      ch = peek();
+      while (ch != '\"' && ch != '\n') {
+        if (ch == -1)
+          error("found end of file within string", line, newColumn);
+        lexeme.append((char) read()); ++newColumn;
+        ch = peek();
+      }
+      if (ch == '\n') {
+        error("found newline within string", line, newColumn);
+      }
+      read(); ++newColumn;
+      setToken(TokenType.STRING_VAL, null, start + 1, -1);
+    }
+
+    // single-character operators and punctuation
+    else if (symbol < SYMBOLS.length && SYMBOLS[symbol] != null) {
+      read(); ++newColumn;
+      setToken(SYMBOLS[symbol], SYMBOL_LEXEMES[symbol], start, -1);
+    }
+
+    // two-character operators (and their one-character prefixes)
+    else if (symbol == '>' || symbol == '<' || symbol == '!' || symbol == ':') {
+      read(); ++newColumn;
+      boolean equals = (char) peek() == '=';
+      if (equals) {
+        read(); ++newColumn;
+      }
+      if (symbol == '>') {
+        if (equals)
+          setToken(TokenType.GREATER_THAN_EQUAL, ">=", start, -1);
+        else
+          setToken(TokenType.GREATER_THAN, ">", start, -1);
+      }
+      else if (symbol == '<') {
+        if (equals)
+          setToken(TokenType.LESS_THAN_EQUAL, "<=", start, -1);
+        else
+          setToken(TokenType.LESS_THAN, "<", start, -1);
+      }
+      else if (symbol == '!') {
+        if (!equals)
+          error("unexpected symbol '!'", line, column);
+        setToken(TokenType.NOT_EQUAL, "!=", start, -1);
+      }
+      else if (equals)
+        setToken(TokenType.ASSIGN, ":=", start, -1);
+      else {
+        setToken(TokenType.NIL, "BAD", start, -1);
+        tokenRow = startLine;
+        tokenColumn = startColumn;
+      }
+    }
+    else {
+      error("unexpected symbol ''", line, column);
+    }
+
+    column = newColumn;
+  }
+
 }
@@ -0,0 +1,84 @@
+/**
+ * Author: Ben Comer
+ * File: LineProfiler.java
+ *
+ * Source-line profiler for MyPL programs. When attached to the
+ * interpreter, each statement execution is charged to the source
+ * line of the statement's first token. Per line the profiler keeps
+ * an execution count and self time, which excludes time spent in
+ * nested statements (e.g., a while line is charged for evaluating
+ * its condition but not for running its body). The results are
+ * printed as an annotated listing of the source.
+ */
+
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+
+
+public class LineProfiler {
+
+  // per-line totals, indexed by line number
+  private long[] counts = new long[64];
+  private long[] times = new long[64];
+
+  // stack of statements currently executing
+  private int[] lines = new int[16];
+  private long[] starts = new long[16];
+  private long[] childTimes = new long[16];
+  private int depth = 0;
+
+
+  // record the start of a statement on the given line
+  public void enter(int line) {
+    if (line >= counts.length) {
+      int size = Math.max(line + 1, counts.length * 2);
+      counts = Arrays.copyOf(counts, size);
+      times = Arrays.copyOf(times, size);
+    }
+    if (depth == lines.length) {
+      lines = Arrays.copyOf(lines, depth * 2);
+      starts = Arrays.copyOf(starts, depth * 2);
+      childTimes = Arrays.copyOf(childTimes, depth * 2);
+    }
+    ++counts[line];
+    lines[depth] = line;
+    childTimes[depth] = 0;
+    starts[depth] = System.nanoTime();
+    ++depth;
+  }
+
+
+  // record the end of the most recently started statement
+  public void exit() {
+    long elapsed = System.nanoTime() - starts[--depth];
+    times[lines[depth]] += elapsed - childTimes[depth];
+    if (depth > 0)
+      childTimes[depth - 1] += elapsed;
+  }
+
+
+  // print the source annotated with counts and self times; if no
+  // source is available only the lines that ran are printed
+  public void printListing(PrintStream out, List<String> source) {
+    long total = 0;
+    for (long t : times)
+      total += t;
+    out.println("--- line profile ---");
+    out.printf("%6s %12s %12s %7s  %s%n", "line", "count", "self ms",
+               "self %", "source");
+    int last = source != null ? source.size() : counts.length - 1;
+    for (int line = 1; line <= last; ++line) {
+      boolean ran = line < counts.length && counts[line] > 0;
+      String text = source != null ? source.get(line - 1) : "";
+      if (ran)
+        out.printf("%6d %12d %12.3f %6.1f%%  %s%n", line, counts[line],
+                   times[line] / 1e6,
+                   total == 0 ? 0.0 : 100.0 * times[line] / total, text);
+      else if (source != null)
+        out.printf("%6d %12s %12s %7s  %s%n", line, "", "", "", text);
+    }
+  }
+
+}
@@ -2,6 +2,7 @@
 public class NewRValue implements RValue {
 
   public Token typeId = null;
+  public TypeDeclStmt decl = null;   // set by Resolver
 
   public void accept(Visitor visitor) throws MyPLException {
     visitor.visit(this);
@@ -0,0 +1,1023 @@
+/**
+ * Author: Ben Comer
+ * File: NodeEngine.java
+ *
+ * An execution engine that compiles a type checked program once into
+ * a tree of executable nodes and runs that, instead of interpreting
+ * the AST through the Visitor (see Interpreter). Variables are frame
+ * slots, as in the interpreter's frames mode: the program is resolved
+ * first (see Resolver), and frames are windows of one stack array.
+ * Statements return whether a return is unwinding, and expressions
+ * return their value, so there is no double dispatch and no currVal.
+ *
+ * Each binary operator in an expression is a Link whose operation
+ * specializes itself: it starts uninitialized, and on its first run
+ * picks the int or double version if both operands are ints or
+ * doubles (or the generic one). A specialized operation checks its
+ * operands and, if one is of another type (nil, say), rewrites the
+ * link to the generic operation, which then stays. Left-deep chains
+ * of operators are one node run with a loop, so long chains do not
+ * nest.
+ *
+ * Values are boxed exactly where the interpreter boxes them, since =
+ * and != compare references, so programs give the same results and
+ * runtime errors as with the interpreter. Function bodies (and
+ * deferred ones, see LazyBody) are compiled on their first call.
+ *
+ * With setJit, functions on ints, doubles and bools are compiled to
+ * JVM bytecode (see JvmBackend), and calls to them run the compiled
+ * methods, falling back to the nodes when the compiled code cannot
+ * give the result. Calls made inside compiled code are not counted
+ * in Stats.userCalls.
+ */
+
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+public class NodeEngine {
+
+  private Object[] stack = null;      // the frames, the global one first
+  private int fp = 0;                 // base of the current call's frame
+  private int sp = 0;                 // top of the stack
+  private Object returnValue = null;  // of the return being unwound
+  private Map<Integer, Map<String, Object>> heap = new HashMap<>();
+  // compiled functions and types, by declaration
+  private Map<FunDeclStmt, Function> functions = new HashMap<>();
+  private Map<TypeDeclStmt, Struct> types = new HashMap<>();
+  private boolean jit = false;
+  private Map<FunDeclStmt, JvmBackend.Compiled> compiled = new HashMap<>();
+
+
+  // whether to compile functions to JVM bytecode where possible
+  public void setJit(boolean jit) {
+    this.jit = jit;
+  }
+
+
+  /**
+   * Compiles and runs the given (type checked) program, returning its
+   * exit code as Interpreter.run() does.
+   */
+  public Integer run(StmtList stmtList) throws MyPLException {
+    int globals = new Resolver(false).resolve(stmtList);
+    if (jit)
+      compiled = JvmBackend.compile(stmtList);
+    stack = new Object[globals + 64];
+    fp = 0;
+    sp = globals;
+    Statement program = new Compiler().block(stmtList);
+    if (!program.execute())
+      return 0;
+    Object value = returnValue;
+    returnValue = null;
+    if (value == null)
+      return 0;
+    return (Integer)value;
+  }
+
+
+  // ------------------------------
+  // executable nodes
+  // ------------------------------
+
+  // a statement, which returns true if a return is unwinding
+  private abstract class Statement {
+    abstract boolean execute() throws MyPLException;
+  }
+
+  // an expression, which returns its value
+  private abstract class Node {
+    abstract Object execute() throws MyPLException;
+  }
+
+
+  private final class BlockNode extends Statement {
+    final Statement[] stmts;
+    BlockNode(Statement[] stmts) {
+      this.stmts = stmts;
+    }
+    boolean execute() throws MyPLException {
+      for (Statement stmt : stmts)
+        if (stmt.execute())
+          return true;
+      return false;
+    }
+  }
+
+  private final class ExprStmtNode extends Statement {
+    final Node expr;
+    ExprStmtNode(Node expr) {
+      this.expr = expr;
+    }
+    boolean execute() throws MyPLException {
+      expr.execute();
+      return false;
+    }
+  }
+
+  private final class LocalWriteNode extends Statement {
+    final int slot;
+    final Node value;
+    LocalWriteNode(int slot, Node value) {
+      this.slot = slot;
+      this.value = value;
+    }
+    boolean execute() throws MyPLException {
+      stack[fp + slot] = value.execute();
+      return false;
+    }
+  }
+
+  private final class GlobalWriteNode extends Statement {
+    final int slot;
+    final Node value;
+    GlobalWriteNode(int slot, Node value) {
+      this.slot = slot;
+      this.value = value;
+    }
+    boolean execute() throws MyPLException {
+      stack[slot] = value.execute();
+      return false;
+    }
+  }
+
+  // sets a field at the end of a path of struct fields
+  private final class PathWriteNode extends Statement {
+    final boolean global;
+    final int slot;
+    final String[] path;
+    final Node value;
+    PathWriteNode(boolean global, int slot, String[] path, Node value) {
+      this.global = global;
+      this.slot = slot;
+      this.path = path;
+      this.value = value;
+    }
+    boolean execute() throws MyPLException {
+      Object val = value.execute();
+      Map<String, Object> obj = heap.get(stack[(global ? 0 : fp) + slot]);
+      for (int i = 1; i < path.length; ++i) {
+        if (i != path.length - 1)
+          obj = heap.get(obj.get(path[i]));
+        else
+          obj.replace(path[i], val);
+      }
+      return false;
+    }
+  }
+
+  private final class ReturnNode extends Statement {
+    final Node value;           // or null
+    ReturnNode(Node value) {
+      this.value = value;
+    }
+    boolean execute() throws MyPLException {
+      returnValue = value == null ? null : value.execute();
+      return true;
+    }
+  }
+
+  private final class IfNode extends Statement {
+    final Node[] conds;         // of the if and each elif
+    final Statement[] blocks;
+    final Statement elseBlock;  // or null
+    IfNode(Node[] conds, Statement[] blocks, Statement elseBlock) {
+      this.conds = conds;
+      this.blocks = blocks;
+      this.elseBlock = elseBlock;
+    }
+    boolean execute() throws MyPLException {
+      for (int i = 0; i < conds.length; ++i)
+        if ((Boolean)conds[i].execute())
+          return blocks[i].execute();
+      return elseBlock != null && elseBlock.execute();
+    }
+  }
+
+  private final class WhileNode extends Statement {
+    final Node cond;
+    final Statement body;
+    WhileNode(Node cond, Statement body) {
+      this.cond = cond;
+      this.body = body;
+    }
+    boolean execute() throws MyPLException {
+      while ((Boolean)cond.execute())
+        if (body.execute())
+          return true;
+      return false;
+    }
+  }
+
+  private final class ForNode extends Statement {
+    final boolean global;
+    final int slot;
+    final Node start;
+    final Node end;
+    final Statement body;
+    ForNode(boolean global, int slot, Node start, Node end, Statement body) {
+      this.global = global;
+      this.slot = slot;
+      this.start = start;
+      this.end = end;
+      this.body = body;
+    }
+    boolean execute() throws MyPLException {
+      Integer endVal = (Integer)end.execute();
+      Object startVal = start.execute();
+      if ((Integer)startVal > endVal)
+        return false;
+      int base = global ? 0 : fp;
+      stack[base + slot] = startVal;
+      do {
+        if (body.execute())
+          return true;
+        base = global ? 0 : fp;
+        stack[base + slot] = (Integer)stack[base + slot] + 1;
+      } while ((Integer)stack[base + slot] <= endVal);
+      return false;
+    }
+  }
+
+
+  private final class ConstNode extends Node {
+    final Object value;
+    ConstNode(Object value) {
+      this.value = value;
+    }
+    Object execute() {
+      return value;
+    }
+  }
+
+  // an int literal, boxed on each run as the interpreter does (so
+  // large values are new objects each time)
+  private final class IntNode extends Node {
+    final int value;
+    IntNode(int value) {
+      this.value = value;
+    }
+    Object execute() {
+      return value;
+    }
+  }
+
+  private final class DoubleNode extends Node {
+    final double value;
+    DoubleNode(double value) {
+      this.value = value;
+    }
+    Object execute() {
+      return value;
+    }
+  }
+
+  // a literal that only fails when it is run (an int out of range)
+  private final class ParseIntNode extends Node {
+    final String lexeme;
+    ParseIntNode(String lexeme) {
+      this.lexeme = lexeme;
+    }
+    Object execute() {
+      return Integer.parseInt(lexeme);
+    }
+  }
+
+  private final class LocalReadNode extends Node {
+    final int slot;
+    LocalReadNode(int slot) {
+      this.slot = slot;
+    }
+    Object execute() {
+      return stack[fp + slot];
+    }
+  }
+
+  private final class GlobalReadNode extends Node {
+    final int slot;
+    GlobalReadNode(int slot) {
+      this.slot = slot;
+    }
+    Object execute() {
+      return stack[slot];
+    }
+  }
+
+  // reads a field at the end of a path of struct fields
+  private final class PathReadNode extends Node {
+    final boolean global;
+    final int slot;
+    final String[] path;
+    PathReadNode(boolean global, int slot, String[] path) {
+      this.global = global;
+      this.slot = slot;
+      this.path = path;
+    }
+    Object execute() {
+      Map<String, Object> obj = heap.get(stack[(global ? 0 : fp) + slot]);
+      for (int i = 1; i < path.length - 1; ++i)
+        obj = heap.get(obj.get(path[i]));
+      return obj.get(path[path.length - 1]);
+    }
+  }
+
+  private final class NotNode extends Node {
+    final Node expr;
+    NotNode(Node expr) {
+      this.expr = expr;
+    }
+    Object execute() throws MyPLException {
+      return !(Boolean)expr.execute();
+    }
+  }
+
+  private final class NegateNode extends Node {
+    final Node expr;
+    NegateNode(Node expr) {
+      this.expr = expr;
+    }
+    Object execute() throws MyPLException {
+      Object val = expr.execute();
+      if (val instanceof Integer)
+        return -(Integer)val;
+      return -(Double)val;
+    }
+  }
+
+  // a left-deep chain of binary operators: the first operand, then
+  // each operator applied to the value so far and its right operand
+  private final class ChainNode extends Node {
+    final Node first;
+    final Link[] links;
+    ChainNode(Node first, Link[] links) {
+      this.first = first;
+      this.links = links;
+    }
+    Object execute() throws MyPLException {
+      Object val = first.execute();
+      for (Link link : links)
+        val = link.op.apply(link, val, link.rest.execute());
+      return val;
+    }
+  }
+
+  private final class CallNode extends Node {
+    final Function function;
+    final Node[] args;
+    CallNode(Function function, Node[] args) {
+      this.function = function;
+      this.args = args;
+    }
+    Object execute() throws MyPLException {
+      ++Stats.userCalls;
+      // the arguments are the first slots of the new frame
+      int base = sp;
+      for (Node arg : args) {
+        Object val = arg.execute();
+        ensureStack(sp + 1);
+        stack[sp++] = val;
+      }
+      return enter(function, base);
+    }
+  }
+
+  // a call of a function compiled to JVM bytecode
+  private final class CompiledCallNode extends Node {
+    final Function function;
+    final JvmBackend.Compiled code;
+    final Node[] args;
+    CompiledCallNode(Function function, JvmBackend.Compiled code, Node[] args) {
+      this.function = function;
+      this.code = code;
+      this.args = args;
+    }
+    Object execute() throws MyPLException {
+      ++Stats.userCalls;
+      Object[] vals = new Object[args.length];
+      for (int i = 0; i < args.length; ++i)
+        vals[i] = args[i].execute();
+      Object result = code.invoke(vals);
+      if (result != JvmBackend.FALLBACK)
+        return result;
+      // the nodes run the call instead
+      int base = sp;
+      ensureStack(sp + vals.length);
+      for (Object val : vals)
+        stack[sp++] = val;
+      return enter(function, base);
+    }
+  }
+
+  private final class BuiltInNode extends Node {
+    final Token funName;
+    final Node[] args;
+    final Token[] argTokens;    // first token of each argument
+    BuiltInNode(Token funName, Node[] args, Token[] argTokens) {
+      this.funName = funName;
+      this.args = args;
+      this.argTokens = argTokens;
+    }
+    Object execute() throws MyPLException {
+      ++Stats.builtInCalls;
+      Object[] vals = new Object[args.length];
+      for (int i = 0; i < args.length; ++i) {
+        vals[i] = args[i].execute();
+        // make sure no null values
+        if (vals[i] == null)
+          error("nil value", argTokens[i]);
+      }
+      return builtIn(funName, vals);
+    }
+  }
+
+  private final class NewNode extends Node {
+    final Struct type;
+    NewNode(Struct type) {
+      this.type = type;
+    }
+    Object execute() throws MyPLException {
+      // the field initializers run in a frame of their own
+      Map<String, Object> obj = new HashMap<>();
+      int base = sp;
+      int top = base + type.frameSize;
+      ensureStack(top);
+      sp = top;
+      int callerFp = fp;
+      fp = base;
+      for (int i = 0; i < type.names.length; ++i) {
+        Object val = type.inits[i].execute();
+        stack[fp + type.slots[i]] = val;
+        obj.put(type.names[i], val);
+      }
+      Arrays.fill(stack, base, top, null);
+      sp = base;
+      fp = callerFp;
+      int objectId = System.identityHashCode(obj);
+      heap.put(objectId, obj);
+      ++Stats.heapObjects;
+      return objectId;
+    }
+  }
+
+
+  // a user-defined function, its body compiled on the first call
+  private final class Function {
+    final FunDeclStmt decl;
+    Statement body = null;
+    int frameSize = 0;
+    Function(FunDeclStmt decl) {
+      this.decl = decl;
+    }
+    Statement body() throws MyPLException {
+      if (body == null) {
+        StmtList stmtList = decl.body();
+        frameSize = decl.frameSize;
+        body = new Compiler().block(stmtList);
+      }
+      return body;
+    }
+  }
+
+  // a struct type: its fields' names, initializers and slots
+  private final class Struct {
+    String[] names;
+    Node[] inits;
+    int[] slots;
+    int frameSize;
+  }
+
+
+  // ------------------------------
+  // operators
+  // ------------------------------
+
+  // an operator of a chain with its right operand, and the tokens its
+  // errors are reported at
+  private static final class Link {
+    final int opcode;           // generic
+    final Node rest;
+    final Token firstToken;
+    final Token restToken;
+    final Token operator;
+    Op op;
+
+    Link(int opcode, Node rest, Token firstToken, Token restToken, Token operator) {
+      this.opcode = opcode;
+      this.rest = rest;
+      this.firstToken = firstToken;
+      this.restToken = restToken;
+      this.operator = operator;
+      if (opcode == Opcode.AND || opcode == Opcode.OR ||
+          opcode == Opcode.EQ || opcode == Opcode.NE)
+        op = GENERIC;
+      else
+        op = UNINITIALIZED;
+    }
+
+    // rewrites the link to the generic operation, and applies it
+    Object generalize(Object a, Object b) throws MyPLException {
+      op = GENERIC;
+      return GENERIC.apply(this, a, b);
+    }
+  }
+
+  // an operation, given its link and operand values
+  private interface Op {
+    Object apply(Link link, Object a, Object b) throws MyPLException;
+  }
+
+  // the interpreter's operator semantics, finding the operand types
+  // at run time
+  private static final Op GENERIC = NodeEngine::generic;
+
+  // picks the operation for the operand types first seen
+  private static final Op UNINITIALIZED = (l, a, b) -> {
+    if (a instanceof Integer && b instanceof Integer)
+      l.op = intOp(l.opcode);
+    else if (a instanceof Double && b instanceof Double)
+      l.op = doubleOp(l.opcode);
+    else
+      l.op = GENERIC;
+    return l.op.apply(l, a, b);
+  };
+
+  private static final Op INT_ADD = (l, a, b) ->
+    a instanceof Integer && b instanceof Integer ?
+    (Object)((Integer)a + (Integer)b) : l.generalize(a, b);
+  private static final Op INT_SUB = (l, a, b) ->
+    a instanceof Integer && b instanceof Integer ?
+    (Object)((Integer)a - (Integer)b) : l.generalize(a, b);
+  private static final Op INT_MUL = (l, a, b) ->
+    a instanceof Integer && b instanceof Integer ?
+    (Object)((Integer)a * (Integer)b) : l.generalize(a, b);
+  private static final Op INT_DIV = (l, a, b) ->
+    a instanceof Integer && b instanceof Integer ?
+    (Object)((Integer)a / (Integer)b) : l.generalize(a, b);
+  private static final Op INT_MOD = (l, a, b) ->
+    a instanceof Integer && b instanceof Integer ?
+    (Object)((Integer)a % (Integer)b) : l.generalize(a, b);
+  private static final Op INT_LT = (l, a, b) ->
+    a instanceof Integer && b instanceof Integer ?
+    (Object)((Integer)a < (Integer)b) : l.generalize(a, b);
+  private static final Op INT_LE = (l, a, b) ->
+    a instanceof Integer && b instanceof Integer ?
+    (Object)((Integer)a <= (Integer)b) : l.generalize(a, b);
+  private static final Op INT_GT = (l, a, b) ->
+    a instanceof Integer && b instanceof Integer ?
+    (Object)((Integer)a > (Integer)b) : l.generalize(a, b);
+  private static final Op INT_GE = (l, a, b) ->
+    a instanceof Integer && b instanceof Integer ?
+    (Object)((Integer)a >= (Integer)b) : l.generalize(a, b);
+
+  private static final Op DOUBLE_ADD = (l, a, b) ->
+    a instanceof Double && b instanceof Double ?
+    (Object)((Double)a + (Double)b) : l.generalize(a, b);
+  private static final Op DOUBLE_SUB = (l, a, b) ->
+    a instanceof Double && b instanceof Double ?
+    (Object)((Double)a - (Double)b) : l.generalize(a, b);
+  private static final Op DOUBLE_MUL = (l, a, b) ->
+    a instanceof Double && b instanceof Double ?
+    (Object)((Double)a * (Double)b) : l.generalize(a, b);
+  private static final Op DOUBLE_DIV = (l, a, b) ->
+    a instanceof Double && b instanceof Double ?
+    (Object)((Double)a / (Double)b) : l.generalize(a, b);
+  private static final Op DOUBLE_MOD = (l, a, b) ->
+    a instanceof Double && b instanceof Double ?
+    (Object)((Double)a % (Double)b) : l.generalize(a, b);
+  private static final Op DOUBLE_LT = (l, a, b) ->
+    a instanceof Double && b instanceof Double ?
+    (Object)((Double)a < (Double)b) : l.generalize(a, b);
+  private static final Op DOUBLE_LE = (l, a, b) ->
+    a instanceof Double && b instanceof Double ?
+    (Object)((Double)a <= (Double)b) : l.generalize(a, b);
+  private static final Op DOUBLE_GT = (l, a, b) ->
+    a instanceof Double && b instanceof Double ?
+    (Object)((Double)a > (Double)b) : l.generalize(a, b);
+  private static final Op DOUBLE_GE = (l, a, b) ->
+    a instanceof Double && b instanceof Double ?
+    (Object)((Double)a >= (Double)b) : l.generalize(a, b);
+
+  private static Op intOp(int opcode) {
+    switch (opcode) {
+    case Opcode.ADD: return INT_ADD;
+    case Opcode.SUB: return INT_SUB;
+    case Opcode.MUL: return INT_MUL;
+    case Opcode.DIV: return INT_DIV;
+    case Opcode.MOD: return INT_MOD;
+    case Opcode.LT: return INT_LT;
+    case Opcode.LE: return INT_LE;
+    case Opcode.GT: return INT_GT;
+    case Opcode.GE: return INT_GE;
+    default: return GENERIC;
+    }
+  }
+
+  private static Op doubleOp(int opcode) {
+    switch (opcode) {
+    case Opcode.ADD: return DOUBLE_ADD;
+    case Opcode.SUB: return DOUBLE_SUB;
+    case Opcode.MUL: return DOUBLE_MUL;
+    case Opcode.DIV: return DOUBLE_DIV;
+    case Opcode.MOD: return DOUBLE_MOD;
+    case Opcode.LT: return DOUBLE_LT;
+    case Opcode.LE: return DOUBLE_LE;
+    case Opcode.GT: return DOUBLE_GT;
+    case Opcode.GE: return DOUBLE_GE;
+    default: return GENERIC;
+    }
+  }
+
+  private static Object generic(Link l, Object a, Object b) throws MyPLException {
+    switch (l.opcode) {
+    case Opcode.ADD:
+      operands(l, a, b, "cannot operate with nil");
+      if (a instanceof Integer)
+        return (Integer)a + (Integer)b;
+      return (Double)a + (Double)b;
+    case Opcode.SUB:
+      operands(l, a, b, "cannot operate with nil");
+      if (a instanceof Integer)
+        return (Integer)a - (Integer)b;
+      return (Double)a - (Double)b;
+    case Opcode.MUL:
+      operands(l, a, b, "cannot operate with nil");
+      if (a instanceof Integer)
+        return (Integer)a * (Integer)b;
+      return (Double)a * (Double)b;
+    case Opcode.DIV:
+      operands(l, a, b, "cannot operate with nil");
+      if (a instanceof Integer)
+        return (Integer)a / (Integer)b;
+      return (Double)a / (Double)b;
+    case Opcode.MOD:
+      operands(l, a, b, "cannot operate with nil");
+      if (a instanceof Integer)
+        return (Integer)a % (Integer)b;
+      return (Double)a % (Double)b;
+    case Opcode.AND:
+      operands(l, a, b, "cannot operate with nil");
+      return (Boolean)a && (Boolean)b;
+    case Opcode.OR:
+      operands(l, a, b, "cannot operate with nil");
+      return (Boolean)a || (Boolean)b;
+    case Opcode.EQ:
+      if (a == null ^ b == null)
+        return false;
+      return a == b;
+    case Opcode.NE:
+      if (a == null ^ b == null)
+        return true;
+      return a != b;
+    case Opcode.LT:
+      operands(l, a, b, "cannot compare with nil");
+      if (a instanceof Integer)
+        return (Integer)a < (Integer)b;
+      if (a instanceof Double)
+        return (Double)a < (Double)b;
+      return ((String)a).compareTo((String)b) < 0;
+    case Opcode.LE:
+      operands(l, a, b, "cannot compare with nil");
+      if (a instanceof Integer)
+        return (Integer)a <= (Integer)b;
+      if (a instanceof Double)
+        return (Double)a <= (Double)b;
+      return ((String)a).compareTo((String)b) <= 0;
+    case Opcode.GT:
+      operands(l, a, b, "cannot compare with nil");
+      if (a instanceof Integer)
+        return (Integer)a > (Integer)b;
+      if (a instanceof Double)
+        return (Double)a > (Double)b;
+      return ((String)a).compareTo((String)b) > 0;
+    case Opcode.GE:
+      operands(l, a, b, "cannot compare with nil");
+      if (a instanceof Integer)
+        return (Integer)a >= (Integer)b;
+      if (a instanceof Double)
+        return (Double)a >= (Double)b;
+      return ((String)a).compareTo((String)b) >= 0;
+    default:
+      throw new IllegalStateException("bad opcode " + l.opcode);
+    }
+  }
+
+  // reports a nil operand
+  private static void operands(Link l, Object a, Object b, String msg)
+    throws MyPLException
+  {
+    if (a == null)
+      error(msg, l.firstToken);
+    if (b == null)
+      error(msg, l.restToken);
+  }
+
+
+  // ------------------------------
+  // helper functions
+  // ------------------------------
+
+  // runs a function whose arguments are on the stack from base,
+  // returning its result
+  private Object enter(Function function, int base) throws MyPLException {
+    Statement body = function.body();
+    int top = base + function.frameSize;
+    ensureStack(top);
+    sp = top;
+    int callerFp = fp;
+    fp = base;
+    Object result = null;       // if no return is found
+    if (body.execute()) {
+      result = returnValue;
+      returnValue = null;
+    }
+    Arrays.fill(stack, base, top, null);
+    sp = base;
+    fp = callerFp;
+    return result;
+  }
+
+  // makes room for the stack to hold size slots
+  private void ensureStack(int size) {
+    if (size > stack.length)
+      stack = Arrays.copyOf(stack, Math.max(size, stack.length * 2));
+  }
+
+  // runs a built-in function on its evaluated arguments
+  private static Object builtIn(Token funName, Object[] args) throws MyPLException {
+    switch (funName.lexeme()) {
+    case "print":
+      // Fix '\' 'n' issue
+      String msg = (String)args[0];
+      msg = msg.replace("\\n", "\n");
+      msg = msg.replace("\\t", "\t");
+      System.out.print(msg);
+      return null;
+    case "read":
+      BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+      try {
+        return reader.readLine();
+      } catch (Exception e) {
+        return null;
+      }
+    case "get":
+      int index = (Integer)args[0];
+      String str = (String)args[1];
+      if (index >= str.length())
+        error("index selected out of range", funName);
+      return (Character)str.charAt(index);
+    case "concat":
+      return (String)args[0] + (String)args[1];
+    case "append":
+      if (args[1] instanceof Character)
+        return (String)args[0] + (Character)args[1];
+      return (String)args[0] + (String)args[1];
+    case "length":
+      return (Integer)((String)args[0]).length();
+    case "itos":
+    case "dtos":
+      return args[0].toString();
+    case "stoi":
+      return Integer.parseInt((String)args[0]);
+    case "stod":
+      return Double.parseDouble((String)args[0]);
+    default:
+      return null;
+    }
+  }
+
+  private static void error(String msg, Token token) throws MyPLException {
+    throw new MyPLException("\nRuntime", msg, token.row(), token.column());
+  }
+
+
+  // ------------------------------
+  // the compiler
+  // ------------------------------
+
+  // builds the nodes of a resolved AST, each visit leaving its node in
+  // currStmt or currNode
+  private class Compiler implements Visitor {
+    private Statement currStmt = null;
+    private Node currNode = null;
+
+    Statement block(StmtList stmtList) throws MyPLException {
+      List<Statement> stmts = new ArrayList<>();
+      for (Stmt s : stmtList.stmts) {
+        if (s instanceof FunDeclStmt || s instanceof TypeDeclStmt)
+          continue;             // bound by the resolver
+        if (s instanceof Expr)
+          stmts.add(new ExprStmtNode(expr((Expr)s)));
+        else {
+          s.accept(this);
+          stmts.add(currStmt);
+        }
+      }
+      if (stmts.size() == 1)
+        return stmts.get(0);
+      return new BlockNode(stmts.toArray(new Statement[0]));
+    }
+
+    Node expr(ASTNode node) throws MyPLException {
+      node.accept(this);
+      return currNode;
+    }
+
+    public void visit(StmtList node) throws MyPLException {
+      currStmt = block(node);
+    }
+
+    public void visit(VarDeclStmt node) throws MyPLException {
+      currStmt = write(node.depth, node.slot, expr(node.varExpr));
+    }
+
+    public void visit(ArrayDeclStmt node) throws MyPLException {
+      error("arrays are not supported", node.arrayId);
+    }
+
+    public void visit(AssignStmt node) throws MyPLException {
+      Node value = expr(node.rhs);
+      LValue lhs = node.lhs;
+      if (lhs.path.size() == 1)
+        currStmt = write(lhs.depth, lhs.slot, value);
+      else
+        currStmt = new PathWriteNode(lhs.depth == 0, lhs.slot, names(lhs.path), value);
+    }
+
+    public void visit(ReturnStmt node) throws MyPLException {
+      currStmt = new ReturnNode(node.returnExpr == null ? null : expr(node.returnExpr));
+    }
+
+    public void visit(IfStmt node) throws MyPLException {
+      int n = node.elsifs.size() + 1;
+      Node[] conds = new Node[n];
+      Statement[] blocks = new Statement[n];
+      conds[0] = expr(node.ifPart.boolExpr);
+      blocks[0] = block(node.ifPart.stmtList);
+      for (int i = 1; i < n; ++i) {
+        conds[i] = expr(node.elsifs.get(i - 1).boolExpr);
+        blocks[i] = block(node.elsifs.get(i - 1).stmtList);
+      }
+      Statement elseBlock = node.hasElse ? block(node.elseStmtList) : null;
+      currStmt = new IfNode(conds, blocks, elseBlock);
+    }
+
+    public void visit(WhileStmt node) throws MyPLException {
+      Node cond = expr(node.boolExpr);
+      currStmt = new WhileNode(cond, block(node.stmtList));
+    }
+
+    public void visit(ForStmt node) throws MyPLException {
+      Node start = expr(node.startExpr);
+      Node end = expr(node.endExpr);
+      currStmt = new ForNode(node.depth == 0, node.slot, start, end,
+                             block(node.stmtList));
+    }
+
+    public void visit(TypeDeclStmt node) throws MyPLException {
+    }
+
+    public void visit(FunDeclStmt node) throws MyPLException {
+    }
+
+    public void visit(Expr node) throws MyPLException {
+      // the chain of left operands, outermost first
+      List<Expr> chain = new ArrayList<>();
+      for (Expr e = node; e != null; e = e.leftChain())
+        chain.add(e);
+      Expr inner = chain.get(chain.size() - 1);
+      Node first = expr(inner.first);
+      List<Link> links = new ArrayList<>();
+      for (int i = chain.size() - 1; i >= 0; --i) {
+        Expr e = chain.get(i);
+        if (e.operator == null)
+          continue;
+        links.add(new Link(Opcode.of(e.operator.type()), expr(e.rest),
+                           Interpreter.getTermToken(e.first),
+                           Interpreter.getFirstToken(e.rest),
+                           e.operator));
+      }
+      Node result = first;
+      if (!links.isEmpty())
+        result = new ChainNode(first, links.toArray(new Link[0]));
+      if (node.negated)
+        result = new NotNode(result);
+      currNode = result;
+    }
+
+    public void visit(LValue node) throws MyPLException {
+      // compiled by visit(AssignStmt)
+    }
+
+    public void visit(SimpleTerm node) throws MyPLException {
+      node.rvalue.accept(this);
+    }
+
+    public void visit(ComplexTerm node) throws MyPLException {
+      node.expr.accept(this);
+    }
+
+    public void visit(SimpleRValue node) throws MyPLException {
+      String lexeme = node.val.lexeme();
+      TokenType type = node.val.type();
+      if (type == TokenType.INT_VAL) {
+        try {
+          currNode = new IntNode(Integer.parseInt(lexeme));
+        } catch (NumberFormatException e) {
+          currNode = new ParseIntNode(lexeme);
+        }
+      }
+      else if (type == TokenType.DOUBLE_VAL)
+        currNode = new DoubleNode(Double.parseDouble(lexeme));
+      else if (type == TokenType.BOOL_VAL)
+        currNode = new ConstNode(Boolean.parseBoolean(lexeme));
+      else if (type == TokenType.CHAR_VAL || type == TokenType.STRING_VAL)
+        currNode = new ConstNode(lexeme);
+      else
+        currNode = new ConstNode(null);
+    }
+
+    public void visit(NewRValue node) throws MyPLException {
+      currNode = new NewNode(struct(node.decl));
+    }
+
+    public void visit(CallRValue node) throws MyPLException {
+      Node[] args = new Node[node.argList.size()];
+      for (int i = 0; i < args.length; ++i)
+        args[i] = expr(node.argList.get(i));
+      if (node.decl == null) {
+        Token[] argTokens = new Token[args.length];
+        for (int i = 0; i < args.length; ++i)
+          argTokens[i] = Interpreter.getFirstToken(node.argList.get(i));
+        currNode = new BuiltInNode(node.funName, args, argTokens);
+        return;
+      }
+      Function function = functions.get(node.decl);
+      if (function == null) {
+        function = new Function(node.decl);
+        functions.put(node.decl, function);
+      }
+      JvmBackend.Compiled code = compiled.get(node.decl);
+      if (code != null)
+        currNode = new CompiledCallNode(function, code, args);
+      else
+        currNode = new CallNode(function, args);
+    }
+
+    public void visit(IDRValue node) throws MyPLException {
+      if (node.path.size() > 1)
+        currNode = new PathReadNode(node.depth == 0, node.slot, names(node.path));
+      else if (node.depth == 0)
+        currNode = new GlobalReadNode(node.slot);
+      else
+        currNode = new LocalReadNode(node.slot);
+    }
+
+    public void visit(NegatedRValue node) throws MyPLException {
+      currNode = new NegateNode(expr(node.expr));
+    }
+
+
+    // a write of the value to the variable at the address
+    private Statement write(int depth, int slot, Node value) {
+      if (depth == 0)
+        return new GlobalWriteNode(slot, value);
+      return new LocalWriteNode(slot, value);
+    }
+
+    // the compiled type, compiling it the first time
+    private Struct struct(TypeDeclStmt decl) throws MyPLException {
+      Struct type = types.get(decl);
+      if (type != null)
+        return type;
+      type = new Struct();
+      types.put(decl, type);
+      int n = decl.fields.size();
+      type.names = new String[n];
+      type.inits = new Node[n];
+      type.slots = new int[n];
+      for (int i = 0; i < n; ++i) {
+        VarDeclStmt field = decl.fields.get(i);
+        type.names[i] = field.varId.lexeme();
+        type.inits[i] = expr(field.varExpr);
+        type.slots[i] = field.slot;
+      }
+      type.frameSize = decl.frameSize;
+      return type;
+    }
+
+    private String[] names(List<Token> path) {
+      String[] names = new String[path.size()];
+      for (int i = 0; i < names.length; ++i)
+        names[i] = path.get(i).lexeme();
+      return names;
+    }
+  }
+
+}
@@ -0,0 +1,128 @@
+/**
+ * Author: Ben Comer
+ * File: Opcode.java
+ *
+ * Opcodes of the binary operators, stored in Expr.opcode so the
+ * interpreter dispatches on an int instead of comparing lexemes. The
+ * type checker lowers each operator to an opcode specialized to its
+ * operand type where that helps (int and double arithmetic and
+ * comparisons). The generic opcodes find the operand types at run
+ * time, and are used for the other operators and for expressions the
+ * checker did not see. A specialized opcode falls back to its generic
+ * one when an operand is not of the expected type (nil, say), so both
+ * give the same results and errors.
+ */
+
+
+public class Opcode {
+
+  public static final int NONE = 0;    // not lowered yet
+
+  // generic operators
+  public static final int ADD = 1;
+  public static final int SUB = 2;
+  public static final int MUL = 3;
+  public static final int DIV = 4;
+  public static final int MOD = 5;
+  public static final int AND = 6;
+  public static final int OR = 7;
+  public static final int EQ = 8;
+  public static final int NE = 9;
+  public static final int LT = 10;
+  public static final int LE = 11;
+  public static final int GT = 12;
+  public static final int GE = 13;
+
+  // on ints
+  public static final int ADD_INT = 14;
+  public static final int SUB_INT = 15;
+  public static final int MUL_INT = 16;
+  public static final int DIV_INT = 17;
+  public static final int MOD_INT = 18;
+  public static final int LT_INT = 19;
+  public static final int LE_INT = 20;
+  public static final int GT_INT = 21;
+  public static final int GE_INT = 22;
+
+  // on doubles
+  public static final int ADD_DOUBLE = 23;
+  public static final int SUB_DOUBLE = 24;
+  public static final int MUL_DOUBLE = 25;
+  public static final int DIV_DOUBLE = 26;
+  public static final int MOD_DOUBLE = 27;
+  public static final int LT_DOUBLE = 28;
+  public static final int LE_DOUBLE = 29;
+  public static final int GT_DOUBLE = 30;
+  public static final int GE_DOUBLE = 31;
+
+  public static final int COUNT = 32;
+
+  // the generic opcode of each opcode
+  private static final int[] GENERIC = {
+    NONE, ADD, SUB, MUL, DIV, MOD, AND, OR, EQ, NE, LT, LE, GT, GE,
+    ADD, SUB, MUL, DIV, MOD, LT, LE, GT, GE,
+    ADD, SUB, MUL, DIV, MOD, LT, LE, GT, GE
+  };
+
+  private static final String[] NAMES = {
+    "none", "add", "sub", "mul", "div", "mod", "and", "or", "eq", "ne",
+    "lt", "le", "gt", "ge", "add_int", "sub_int", "mul_int", "div_int",
+    "mod_int", "lt_int", "le_int", "gt_int", "ge_int", "add_double",
+    "sub_double", "mul_double", "div_double", "mod_double", "lt_double",
+    "le_double", "gt_double", "ge_double"
+  };
+
+
+  /**
+   * Returns the generic opcode of the given operator token type, or
+   * NONE if it is not a binary operator.
+   */
+  public static int of(TokenType operator) {
+    switch (operator) {
+    case PLUS: return ADD;
+    case MINUS: return SUB;
+    case MULTIPLY: return MUL;
+    case DIVIDE: return DIV;
+    case MODULO: return MOD;
+    case AND: return AND;
+    case OR: return OR;
+    case EQUAL: return EQ;
+    case NOT_EQUAL: return NE;
+    case LESS_THAN: return LT;
+    case LESS_THAN_EQUAL: return LE;
+    case GREATER_THAN: return GT;
+    case GREATER_THAN_EQUAL: return GE;
+    default: return NONE;
+    }
+  }
+
+
+  /**
+   * Returns the opcode of the given operator on left operands of the
+   * given type, specialized if the type is int or double.
+   */
+  public static int of(TokenType operator, Type operand) {
+    int opcode = of(operator);
+    if (opcode == NONE || opcode == AND || opcode == OR ||
+        opcode == EQ || opcode == NE)
+      return opcode;
+    int offset = opcode < LT ? opcode - ADD : opcode - LT + 5;
+    if (operand == Type.INT)
+      return ADD_INT + offset;
+    if (operand == Type.DOUBLE)
+      return ADD_DOUBLE + offset;
+    return opcode;
+  }
+
+
+  // the generic form of the given opcode
+  public static int generic(int opcode) {
+    return GENERIC[opcode];
+  }
+
+  // the name of the given opcode (for listings)
+  public static String name(int opcode) {
+    return NAMES[opcode];
+  }
+
+}
@@ -0,0 +1,145 @@
+/**
+ * Author: Ben Comer
+ * File: ParallelLexer.java
+ *
+ * Parallel lexing of large in-memory sources. The source is cut into
+ * chunks that end just after a newline, and each chunk is lexed into
+ * its own token buffer on a ForkJoin pool by a Lexer starting at line
+ * 1. The chunk buffers are then stitched together in order, shifting
+ * rows by the lines in the chunks before (taken from each chunk's EOS
+ * token, so tabs count just as in the sequential lexer). Columns need
+ * no fixing since every chunk starts a line.
+ *
+ * Comments and string literals end at a newline in MyPL, so a chunk
+ * can only start inside a token when a char literal holds a newline.
+ * Lexing the chunk before it then fails, and it is lexed again on the
+ * calling thread from its (now known) line, joined with the chunks
+ * after it until it lexes cleanly or the error is found before the
+ * joined end (and so is a real error). A lone ':' starting a chunk is
+ * joined the same way, since its token is placed where the whitespace
+ * before it starts. The result is the same token stream, and the same
+ * error, as from Lexer.tokenize().
+ */
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+
+public class ParallelLexer {
+
+  public static final int MIN_CHUNK = 1 << 16;    // in chars
+
+
+  /**
+   * Lexes the source on the common pool, with a few chunks per
+   * worker.
+   */
+  public static TokenBuffer tokenize(char[] source) {
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    int chunkSize = source.length / (4 * pool.getParallelism());
+    return tokenize(source, pool, Math.max(chunkSize, MIN_CHUNK));
+  }
+
+
+  /**
+   * Lexes the source on the given pool in chunks of about chunkSize
+   * chars.
+   */
+  public static TokenBuffer tokenize(char[] source, ForkJoinPool pool,
+                                     int chunkSize) {
+    long start = Stats.enabled ? System.nanoTime() : 0;
+    List<Integer> bounds = chunks(source, chunkSize);
+    int n = bounds.size() - 1;
+    List<ForkJoinTask<TokenBuffer>> tasks = new ArrayList<>();
+    for (int i = 0; i < n; ++i) {
+      int begin = bounds.get(i);
+      int end = bounds.get(i + 1);
+      tasks.add(pool.submit(() -> new Lexer(source, begin, end, 1).scanAll()));
+    }
+
+    TokenBuffer tokens = new TokenBuffer(source, source.length / 3);
+    int rowOffset = 0;            // lines before the current chunk
+    int i = 0;
+    while (i < n) {
+      TokenBuffer chunk = tasks.get(i).join();
+      int next = joinColons(tasks, i + 1, n);
+      int shift = rowOffset;
+      // a char literal cut by the chunk end, a lone ':' placed in this
+      // chunk, or a real error
+      if (chunk.error() != null || next > i + 1) {
+        shift = 0;
+        while (true) {
+          Lexer lexer = new Lexer(source, bounds.get(i), bounds.get(next),
+                                  rowOffset + 1);
+          chunk = lexer.scanAll();
+          if (chunk.error() != null && next < n && lexer.atEnd()) {
+            ++next;
+            continue;
+          }
+          // the chunks now joined may be followed by a lone ':'
+          int joined = chunk.error() == null ? joinColons(tasks, next, n) : next;
+          if (joined == next)
+            break;
+          next = joined;
+        }
+      }
+      if (chunk.error() != null) {
+        tokens.append(chunk, 0, chunk.size(), shift);
+        tokens.setError(chunk.error());
+        for (int j = next; j < n; ++j)
+          tasks.get(j).cancel(false);
+        break;
+      }
+      // drop the EOS token at the end of each chunk but the last
+      int count = chunk.size();
+      tokens.append(chunk, 0, next < n ? count - 1 : count, shift);
+      rowOffset = chunk.row(count - 1) + shift - 1;
+      i = next;
+    }
+
+    Stats.tokens += tokens.size();
+    if (Stats.enabled)
+      Stats.lexTime += System.nanoTime() - start;
+    return tokens;
+  }
+
+
+  // helper functions
+
+  // the end of the chunks to lex together with the ones before next:
+  // a lone ':' is placed where the whitespace before it starts, which
+  // is before next if it starts a later chunk with only whitespace
+  // (and comments) in between
+  private static int joinColons(List<ForkJoinTask<TokenBuffer>> tasks,
+                                int next, int n) {
+    int end = next;
+    for (int j = next; j < n; ++j) {
+      TokenBuffer after = tasks.get(j).join();
+      if (after.size() > 0 && after.type(0) == TokenType.NIL && after.symbol(0) < 0)
+        end = j + 1;
+      else if (after.size() != 1 || after.type(0) != TokenType.EOS)
+        break;
+    }
+    return end;
+  }
+
+  // chunk start offsets followed by the source length, with each
+  // chunk ending just after a newline (or at the end of the source)
+  private static List<Integer> chunks(char[] source, int chunkSize) {
+    List<Integer> bounds = new ArrayList<>();
+    int begin = 0;
+    bounds.add(begin);
+    do {
+      int end = Math.min(begin + chunkSize, source.length);
+      while (end < source.length && source[end - 1] != '\n')
+        ++end;
+      bounds.add(end);
+      begin = end;
+    } while (begin < source.length);
+    return bounds;
+  }
+
+}
@@ -14,8 +14,32 @@ import java.util.*;
 public class Parser {
     
   private Lexer lexer; 
-  private Token currToken = null;
+  private Token currToken = null;   // made on demand from tokens
+  private TokenType currType = null;
+  private TokenBuffer tokens = null; // packed tokens (instead of lexer)
+  private int index = -1;            // cursor into tokens
   private boolean debug_flag = false;  // set to false to remove debug comments
+
+  private boolean stackSafe = false;   // parse blocks with an explicit stack
+  private boolean lazyBodies = false;  // defer function bodies
+  private List<Integer> firsts = null; // first token of each statement
+
+  // precedence of the operators allowed in the operand of not
+  private static final int NOT_OPERAND = 3;
+
+  // an if, while or for statement whose blocks are being parsed by
+  // nestedBstmts()
+  private static class OpenBlock {
+	Stmt node;
+	StmtList outer;           // the block containing the statement
+	BasicIf elif = null;      // the elif part being parsed, if any
+	boolean inElse = false;   // if the else part is being parsed
+
+	OpenBlock(Stmt node, StmtList outer) {
+		this.node = node;
+		this.outer = outer;
+	}
+  }
   
   /** 
    * Create a new parser over the given lexer.
@@ -24,42 +48,141 @@ public class Parser {
     this.lexer = lexer;
   }
 
+  /**
+   * Create a new parser over the given packed token buffer.
+   */
+  public Parser(TokenBuffer tokens) {
+    this.tokens = tokens;
+  }
+
+  /**
+   * Create a parser over a packed token buffer, starting at the given
+   * token (for a deferred function body).
+   */
+  public Parser(TokenBuffer tokens, int start) {
+    this.tokens = tokens;
+    this.index = start - 1;
+  }
+
+  /**
+   * In stack-safe mode, nested if, while and for blocks are parsed
+   * with an explicit stack rather than by recursion.
+   */
+  public void setStackSafe(boolean stackSafe) {
+    this.stackSafe = stackSafe;
+  }
+
+  /**
+   * With lazy bodies, function bodies are only scanned for their end
+   * and are parsed (and type checked) on the first call, through
+   * FunDeclStmt.body(). Errors in a body are then reported by that
+   * call, and not at all if the function is never called.
+   */
+  public void setLazyBodies(boolean lazyBodies) {
+    this.lazyBodies = lazyBodies;
+  }
+
   /**
    * Ensures program is syntactically correct. On error, throws a
    * MyPLException.
    */
   public StmtList parse() throws MyPLException
   {
-	StmtList stmtListNode = new StmtList();
+	StmtList stmtListNode = built(new StmtList());
     advance();
     stmts(stmtListNode);
     eat(TokenType.EOS, "expecting end of file");
 	return stmtListNode;
   }
 
+  /**
+   * Parses a program from a token buffer into the given statement
+   * list, adding the index of the first token of each top-level
+   * statement to firsts (for IncrementalProgram). On a syntax error,
+   * the statements before the failing one are left in the list, and
+   * the last index in firsts is where the failing one starts.
+   */
+  public void parse(StmtList stmtListNode, List<Integer> firsts)
+    throws MyPLException
+  {
+    this.firsts = firsts;
+    advance();
+    stmts(stmtListNode);
+    eat(TokenType.EOS, "expecting end of file");
+  }
+
+  /**
+   * Returns true if the parser has reached the end of its tokens
+   * (e.g., a syntax error was found at the end of the input).
+   */
+  public boolean atEnd() {
+    return currType == TokenType.EOS;
+  }
+
+  /**
+   * The index of the current token in the token buffer.
+   */
+  public int position() {
+    return index;
+  }
+
+  /**
+   * Parses a deferred function body, up to and including its END.
+   */
+  public StmtList parseBody() throws MyPLException
+  {
+    advance();
+    StmtList stmtList = bstmts();
+    eat(TokenType.END, "expecting 'end'");
+    return stmtList;
+  }
+
 
   /* Helper Functions */
 
   // sets current token to next token in stream
   private void advance() throws MyPLException {
-    currToken = lexer.nextToken();
+    if (tokens == null) {
+      currToken = lexer.nextToken();
+      currType = currToken.type();
+      return;
+    }
+    // stays on the final EOS token once reached
+    tokens.check(index + 1);
+    if (index + 1 < tokens.size())
+      ++index;
+    currToken = null;
+    currType = tokens.type(index);
+  }
+
+  // the current token, created from the token buffer if needed
+  private Token currToken() {
+    if (currToken == null)
+      currToken = tokens.token(index);
+    return currToken;
   }
 
   // checks that current token matches given type and advances,
   // otherwise creates an error with the given error message
   private void eat(TokenType t, String errmsg) throws MyPLException {
-    if (currToken.type() == t)
+    if (currType == t)
       advance();
     else
       error(errmsg);
   }
 
+  // counts a newly built AST node (for --stats)
+  private <T> T built(T node) {
+    ++Stats.astNodes;
+    return node;
+  }
+
   // generates an error message from the given message and throws a
   // corresponding MyPLException
   private void error(String errmsg) throws MyPLException {
-    String s = errmsg + " found '" + currToken.lexeme() + "'";
-    int row = currToken.row();
-    int col = currToken.column();
+    String s = errmsg + " found '" + currToken().lexeme() + "'";
+    int row = currToken().row();
+    int col = currToken().column();
     throw new MyPLException("Parser", errmsg, row, col);
   }
 
@@ -76,38 +199,41 @@ public class Parser {
   // Note: {e} stands for empty, or epsilon
   
   // <stmts> ::= <stmt> <stmts> | epsilon
+  // (parsed with a loop, so long statement lists do not recurse)
   private void stmts(StmtList stmtListNode) throws MyPLException {
     debug("<stmts>");
-	if (currToken.type() == TokenType.TYPE)
-		stmtListNode.stmts.add(tdecl());
-	else if (currToken.type() == TokenType.FUN)
-		stmtListNode.stmts.add(fdecl());
-	else if (currToken.type() == TokenType.VAR)
-		stmtListNode.stmts.add(vdecl());
-	else if (currToken.type() == TokenType.SET)
-		stmtListNode.stmts.add(assign());
-	else if (currToken.type() == TokenType.IF)
-		stmtListNode.stmts.add(cond());
-	else if (currToken.type() == TokenType.WHILE)
-		stmtListNode.stmts.add(whilef());
-	else if (currToken.type() == TokenType.FOR)
-		stmtListNode.stmts.add(forf());
-	else if (currToken.type() == TokenType.RETURN)
-		stmtListNode.stmts.add(exit());
-	else if (isExpr())
-		stmtListNode.stmts.add(expr());
-	else return; // Empty
-	
-	stmts(stmtListNode);
+	while (true) {
+		if (firsts != null && currType != TokenType.EOS)
+			firsts.add(index);
+		if (currType == TokenType.TYPE)
+			stmtListNode.stmts.add(tdecl());
+		else if (currType == TokenType.FUN)
+			stmtListNode.stmts.add(fdecl());
+		else if (currType == TokenType.VAR)
+			stmtListNode.stmts.add(vdecl());
+		else if (currType == TokenType.SET)
+			stmtListNode.stmts.add(assign());
+		else if (currType == TokenType.IF)
+			stmtListNode.stmts.add(cond());
+		else if (currType == TokenType.WHILE)
+			stmtListNode.stmts.add(whilef());
+		else if (currType == TokenType.FOR)
+			stmtListNode.stmts.add(forf());
+		else if (currType == TokenType.RETURN)
+			stmtListNode.stmts.add(exit());
+		else if (isExpr())
+			stmtListNode.stmts.add(expr());
+		else return; // Empty
+	}
   }
   
   // <stmt> ::= <tdecl> | <fdecl> | <bstmt>
   private ASTNode stmt() throws MyPLException {
 	debug("<stmt>");
 	Stmt node = null;
-	if (currToken.type() == TokenType.TYPE)
+	if (currType == TokenType.TYPE)
 		node = tdecl();
-	else if (currToken.type() == TokenType.FUN)
+	else if (currType == TokenType.FUN)
 		node = fdecl();
 	else
 		node = bstmt();
@@ -116,34 +242,104 @@ public class Parser {
 
 
   // <bstmts> ::= <bstmt> <bstmts> | epsilon
+  // (parsed with a loop, so long blocks do not recurse)
   private StmtList bstmts() throws MyPLException {
     debug("<bstmts>");
-	StmtList stmtList = new StmtList();
-	if (currToken.type() == TokenType.VAR ||
-		currToken.type() == TokenType.SET ||
-		currToken.type() == TokenType.IF ||
-		currToken.type() == TokenType.WHILE ||
-		currToken.type() == TokenType.FOR ||
-		currToken.type() == TokenType.RETURN ||
-		isExpr())
-			return bstmts(stmtList);
-	else return stmtList;
-  }
-  
-  // Recursive version of above
-  private StmtList bstmts(StmtList stmtList) throws MyPLException {
-	debug("<bstmts_more>");
-	stmtList.stmts.add(bstmt());
-	if (currToken.type() == TokenType.VAR ||
-		currToken.type() == TokenType.SET ||
-		currToken.type() == TokenType.IF ||
-		currToken.type() == TokenType.WHILE ||
-		currToken.type() == TokenType.FOR ||
-		currToken.type() == TokenType.RETURN ||
-		currToken.type() == TokenType.ARRAY ||
-		isExpr())
-			return bstmts(stmtList);
-	else return stmtList;
+	if (stackSafe)
+		return nestedBstmts();
+	StmtList stmtList = built(new StmtList());
+	boolean more = false;
+	while (isBstmt(more)) {
+		debug("<bstmts_more>");
+		stmtList.stmts.add(bstmt());
+		more = true;
+	}
+	return stmtList;
+  }
+  
+  // HELPER: Does the current token start a <bstmt>? An array
+  // declaration only counts after the first statement of a block.
+  private boolean isBstmt(boolean more) throws MyPLException {
+	return currType == TokenType.VAR ||
+		currType == TokenType.SET ||
+		currType == TokenType.IF ||
+		currType == TokenType.WHILE ||
+		currType == TokenType.FOR ||
+		currType == TokenType.RETURN ||
+		(more && currType == TokenType.ARRAY) ||
+		isExpr();
+  }
+  
+  // <bstmts> parsed with an explicit stack of open if, while and for
+  // statements instead of recursion, so nesting depth is limited by
+  // the heap rather than the thread stack. Accepts the same grammar,
+  // builds the same AST, and reports the same errors as bstmts().
+  private StmtList nestedBstmts() throws MyPLException {
+	Deque<OpenBlock> open = new ArrayDeque<>();
+	StmtList stmtList = built(new StmtList());
+	boolean more = false;
+	while (true) {
+		if (isBstmt(more)) {
+			more = true;
+			Stmt node = null;
+			if (currType == TokenType.IF)
+				node = ifHead();
+			else if (currType == TokenType.WHILE)
+				node = whileHead();
+			else if (currType == TokenType.FOR)
+				node = forHead();
+			else {
+				stmtList.stmts.add(bstmt());
+				continue;
+			}
+			// start the body of the new block
+			open.push(new OpenBlock(node, stmtList));
+			stmtList = built(new StmtList());
+			more = false;
+			continue;
+		}
+		
+		// the current block's statements have ended
+		if (open.isEmpty())
+			return stmtList;
+		OpenBlock block = open.peek();
+		if (block.node instanceof IfStmt) {
+			IfStmt node = (IfStmt)block.node;
+			if (block.inElse)
+				node.elseStmtList = stmtList;
+			else if (block.elif != null) {
+				block.elif.stmtList = stmtList;
+				node.elsifs.add(block.elif);
+			}
+			else
+				node.ifPart.stmtList = stmtList;
+			block.elif = null;
+			if (!block.inElse && currType == TokenType.ELIF) {
+				block.elif = elifHead();
+				stmtList = built(new StmtList());
+				more = false;
+				continue;
+			}
+			if (!block.inElse && currType == TokenType.ELSE) {
+				node.hasElse = true;
+				advance();
+				node.elseStmtList = null; // Clears previous address
+				block.inElse = true;
+				stmtList = built(new StmtList());
+				more = false;
+				continue;
+			}
+		}
+		else if (block.node instanceof WhileStmt)
+			((WhileStmt)block.node).stmtList = stmtList;
+		else
+			((ForStmt)block.node).stmtList = stmtList;
+		eat(TokenType.END, "expecting 'end'");
+		open.pop();
+		stmtList = block.outer;
+		stmtList.stmts.add(block.node);
+		more = true;
+	}
   }
   
   // <bstmt> ::= <vdecl> | <assign> | <cond> | <while>
@@ -151,19 +347,19 @@ public class Parser {
   private Stmt bstmt() throws MyPLException {
 	debug("<bstmt>");
 	Stmt node = null;
-	if (currToken.type() == TokenType.VAR)
+	if (currType == TokenType.VAR)
 		node = vdecl();
-	else if (currToken.type() == TokenType.SET)
+	else if (currType == TokenType.SET)
 		node = assign();
-	else if (currToken.type() == TokenType.IF)
+	else if (currType == TokenType.IF)
 		node = cond();
-	else if (currToken.type() == TokenType.WHILE)
+	else if (currType == TokenType.WHILE)
 		node = whilef();
-	else if (currToken.type() == TokenType.FOR)
+	else if (currType == TokenType.FOR)
 		node = forf();
-	else if (currToken.type() == TokenType.RETURN)
+	else if (currType == TokenType.RETURN)
 		node = exit();
-	else if (currToken.type() == TokenType.ARRAY)
+	else if (currType == TokenType.ARRAY)
 		node = adecl();
 	else if (isExpr())
 		node = expr();
@@ -176,9 +372,9 @@ public class Parser {
   // <tdecl> ::= TYPE ID <vdecls> END
   private Stmt tdecl() throws MyPLException {
 	debug("<tdecl>");
-	TypeDeclStmt node = new TypeDeclStmt();
+	TypeDeclStmt node = built(new TypeDeclStmt());
 	advance();
-	node.typeId = currToken;
+	node.typeId = currToken();
 	eat(TokenType.ID, "expecting identifier");
 	vdecls(node.fields);
 	eat(TokenType.END, "expecting 'end'");
@@ -189,30 +385,61 @@ public class Parser {
   // 			 RPAREN <bstmts> END
   private Stmt fdecl() throws MyPLException {
 	debug("<fdecl>");
-	FunDeclStmt node = new FunDeclStmt();
+	FunDeclStmt node = built(new FunDeclStmt());
 	advance();
-	node.returnType = currToken;
+	node.returnType = currToken();
 	dtype();
-	node.funName = currToken;
+	node.funName = currToken();
 	eat(TokenType.ID, "expecting identifier");
 	eat(TokenType.LPAREN, "expecting '('");
 	params(node.params);
 	eat(TokenType.RPAREN, "expecting ')'");
-	node.stmtList = bstmts();
+	if (lazyBodies)
+		node.lazyBody = skipBody();
+	else
+		node.stmtList = bstmts();
 	eat(TokenType.END, "expecting 'end'");
 	return node;
   }
   
+  // HELPER: skips a function body, stopping at its END (the first
+  // END not closing an if, while or for inside the body), and keeps
+  // the body's tokens (or their place in the token buffer) for
+  // parsing later
+  private LazyBody skipBody() throws MyPLException {
+	LazyBody body = null;
+	List<Token> skipped = null;
+	if (tokens != null)
+		body = new LazyBody(tokens, index, stackSafe);
+	else
+		skipped = new ArrayList<>();
+	int depth = 0;
+	while (currType != TokenType.EOS) {
+		if (currType == TokenType.IF || currType == TokenType.WHILE ||
+			currType == TokenType.FOR)
+			++depth;
+		else if (currType == TokenType.END && depth-- == 0)
+			break;
+		if (skipped != null)
+			skipped.add(currToken);
+		advance();
+	}
+	if (skipped == null)
+		return body;
+	skipped.add(currToken);
+	return new LazyBody(skipped, stackSafe);
+  }
+  
   // <adecl> ::= ARRAY <dtype> ID (ASSIGN <adeclt> | {e})
   private Stmt adecl() throws MyPLException {
 	debug("<adecl>");
-	ArrayDeclStmt node = new ArrayDeclStmt();
+	ArrayDeclStmt node = built(new ArrayDeclStmt());
 	advance();
-	node.arrayType = currToken;
+	node.arrayType = currToken();
 	dtype(); // advances
-	node.arrayId = currToken;
+	node.arrayId = currToken();
 	eat(TokenType.ID, "expecting array identifier");
-	if (currToken.type() == TokenType.ASSIGN) {
+	if (currType == TokenType.ASSIGN) {
 		advance();
 		node.elements = adeclt();
 	}
@@ -224,12 +451,12 @@ public class Parser {
   private ArrayList<Token> adeclt() throws MyPLException {
 	debug("<adeclt>");
 	ArrayList<Token> elements = new ArrayList<>();
-	elements.add(currToken);
+	elements.add(currToken());
 	dtype();
 	
-	while (currToken.type() == TokenType.COMMA) {
+	while (currType == TokenType.COMMA) {
 		advance();
-		elements.add(currToken);
+		elements.add(currToken());
 		dtype();
 	}
 	
@@ -241,13 +468,13 @@ public class Parser {
   // Honestly a helper at this point
   private void dtype() throws MyPLException {
 	debug("<dtype>");
-	if (currToken.type() == TokenType.INT_TYPE ||
-		currToken.type() == TokenType.DOUBLE_TYPE ||
-		currToken.type() == TokenType.BOOL_TYPE ||
-		currToken.type() == TokenType.CHAR_TYPE ||
-		currToken.type() == TokenType.STRING_TYPE ||
-		currToken.type() == TokenType.ID ||
-		currToken.type() == TokenType.NIL)
+	if (currType == TokenType.INT_TYPE ||
+		currType == TokenType.DOUBLE_TYPE ||
+		currType == TokenType.BOOL_TYPE ||
+		currType == TokenType.CHAR_TYPE ||
+		currType == TokenType.STRING_TYPE ||
+		currType == TokenType.ID ||
+		currType == TokenType.NIL)
 			advance();
 	else
 		error("expected type or identifier");
@@ -255,31 +482,35 @@ public class Parser {
 
   // <cond> ::= IF <expr> THEN <bstmts><condt> END
   private IfStmt cond() throws MyPLException {
+	IfStmt node = ifHead();
+	node.ifPart.stmtList = bstmts();
+	condt(node);
+	eat(TokenType.END, "expecting 'end'");
+	return node;
+  }
+  
+  // HELPER: IF <expr> THEN
+  private IfStmt ifHead() throws MyPLException {
 	debug("<cond>");
-	IfStmt node = new IfStmt();
+	IfStmt node = built(new IfStmt());
 	advance();
 	node.ifPart.boolExpr = expr();
 	eat(TokenType.THEN, "expecting 'then'");
-	node.ifPart.stmtList = bstmts();
-	condt(node);
-	eat(TokenType.END, "expecting 'end'");
 	return node;
   }
   
   // <condt> ::= ELIF <expr> THEN <bstmts><condt> |
   //			 ELSE <bstmts> | {e}
+  // (elif chains are parsed with a loop)
   private void condt(IfStmt node) throws MyPLException {
 	debug("<condt>");
-	if (currToken.type() == TokenType.ELIF) {
-		BasicIf elseif = new BasicIf();
-		advance();
-		elseif.boolExpr = expr();
-		eat(TokenType.THEN, "expected 'then'");
+	while (currType == TokenType.ELIF) {
+		BasicIf elseif = elifHead();
 		elseif.stmtList = bstmts();
 		node.elsifs.add(elseif);
-		condt(node);
+		debug("<condt>");
 	}
-	else if (currToken.type() == TokenType.ELSE) {
+	if (currType == TokenType.ELSE) {
 		node.hasElse = true;
 		advance();
 		node.elseStmtList = null; // Clears previous address
@@ -287,11 +518,20 @@ public class Parser {
 	}
   }
   
+  // HELPER: ELIF <expr> THEN
+  private BasicIf elifHead() throws MyPLException {
+	BasicIf elseif = built(new BasicIf());
+	advance();
+	elseif.boolExpr = expr();
+	eat(TokenType.THEN, "expected 'then'");
+	return elseif;
+  }
+  
   // Simple things first...
   // <assign> ::= SET <lvalue> ASSIGN <expr>
   private Stmt assign() throws MyPLException {
 	debug("<assign>");
-	AssignStmt node = new AssignStmt();
+	AssignStmt node = built(new AssignStmt());
 	eat(TokenType.SET, "expecting 'set'");
 	node.lhs = lvalue();
 	eat(TokenType.ASSIGN, "expecting ':='");
@@ -299,85 +539,120 @@ public class Parser {
 	return node;
   }
   
-  // <expr> ::= (<rvalue> | NOT <expr> | LPAREN <expr> RPAREN)
-  //			(<operator><expr> | {e})
+  // <expr> ::= <expr> <operator> <expr> | NOT <expr> |
+  //            (<rvalue> | LPAREN <expr> RPAREN)
+  // parsed by precedence climbing (see precedence()), with all binary
+  // operators left associative. A chain a op b op c builds the
+  // left-deep tree ((a op b) op c), where each left operand is a
+  // ComplexTerm holding the expression so far.
   private Expr expr() throws MyPLException {
 	debug("<expr>");
-	Expr node = new Expr();
-	if (currToken.type() == TokenType.NOT) {
-		ComplexTerm term = new ComplexTerm();
+	return expr(1);
+  }
+
+  // parses an expression whose binary operators (outside parentheses)
+  // all have at least the given precedence; the loop handles each
+  // chain of operators, so recursion only goes one level per
+  // precedence level
+  private Expr expr(int minPrecedence) throws MyPLException {
+	Expr node = unary();
+	int precedence = precedence(currType);
+	while (precedence >= minPrecedence) {
+		if (node.operator != null || node.negated) {
+			ComplexTerm term = built(new ComplexTerm());
+			term.expr = node;
+			node = built(new Expr());
+			node.first = term;
+		}
+		node.operator = currToken();
 		advance();
-		term.expr = expr();
+		node.rest = expr(precedence + 1);
+		precedence = precedence(currType);
+	}
+	return node;
+  }
+
+  // <unary> ::= NOT <expr> | <rvalue> | LPAREN <expr> RPAREN
+  // where the operand of not may contain comparisons and arithmetic
+  // (but not and/or)
+  private Expr unary() throws MyPLException {
+	Expr node = built(new Expr());
+	if (currType == TokenType.NOT) {
+		ComplexTerm term = built(new ComplexTerm());
+		advance();
+		term.expr = expr(NOT_OPERAND);
 		node.negated = true;
 		node.first = term;
 	}
-	else if (currToken.type() == TokenType.LPAREN) {
-		ComplexTerm term = new ComplexTerm();
+	else if (currType == TokenType.LPAREN) {
+		ComplexTerm term = built(new ComplexTerm());
 		advance();
 		term.expr = expr();
 		node.first = term;
 		eat(TokenType.RPAREN, "expected ')'");
 	}
 	else {
-		SimpleTerm term = new SimpleTerm();
+		SimpleTerm term = built(new SimpleTerm());
 		term.rvalue = rvalue();
 		node.first = term;
-	}	
-	
-	if (currToken.type() == TokenType.PLUS ||
-		currToken.type() == TokenType.MINUS ||
-		currToken.type() == TokenType.DIVIDE ||
-		currToken.type() == TokenType.MULTIPLY ||
-		currToken.type() == TokenType.MODULO ||
-		currToken.type() == TokenType.AND ||
-		currToken.type() == TokenType.OR ||
-		currToken.type() == TokenType.EQUAL ||
-		currToken.type() == TokenType.LESS_THAN ||
-		currToken.type() == TokenType.GREATER_THAN ||
-		currToken.type() == TokenType.LESS_THAN_EQUAL ||
-		currToken.type() == TokenType.GREATER_THAN_EQUAL ||
-		currToken.type() == TokenType.NOT_EQUAL) {
-			node.operator = currToken;
-			advance();
-			node.rest = expr();
 	}
-	
 	return node;
   }
+
+  // binary operator precedence, from or (loosest) to the
+  // multiplicative operators (tightest), or 0 if not an operator
+  private static int precedence(TokenType type) {
+	switch (type) {
+	case OR:
+		return 1;
+	case AND:
+		return 2;
+	case EQUAL: case NOT_EQUAL: case LESS_THAN: case GREATER_THAN:
+	case LESS_THAN_EQUAL: case GREATER_THAN_EQUAL:
+		return 3;
+	case PLUS: case MINUS:
+		return 4;
+	case MULTIPLY: case DIVIDE: case MODULO:
+		return 5;
+	default:
+		return 0;
+	}
+  }
   
   
-  // <rvalue> ::= <pval> | NIL | NEW ID | <idrval> | NEG <expr>
+  // <rvalue> ::= <pval> | NIL | NEW ID | <idrval> | NEG <unary>
   private RValue rvalue() throws MyPLException {
 	debug("<rvalue>");	
-	if (currToken.type() == TokenType.INT_VAL ||
-		currToken.type() == TokenType.DOUBLE_VAL ||
-		currToken.type() == TokenType.BOOL_VAL ||
-		currToken.type() == TokenType.CHAR_VAL ||
-		currToken.type() == TokenType.STRING_VAL ||
-		currToken.type() == TokenType.NIL) {
-			SimpleRValue node = new SimpleRValue();
-			node.val = currToken;
+	if (currType == TokenType.INT_VAL ||
+		currType == TokenType.DOUBLE_VAL ||
+		currType == TokenType.BOOL_VAL ||
+		currType == TokenType.CHAR_VAL ||
+		currType == TokenType.STRING_VAL ||
+		currType == TokenType.NIL) {
+			SimpleRValue node = built(new SimpleRValue());
+			node.val = currToken();
 			advance(); // pval();
 			return node;
 	}
-	else if (currToken.type() == TokenType.NEW) {
-		NewRValue node = new NewRValue();
+	else if (currType == TokenType.NEW) {
+		NewRValue node = built(new NewRValue());
 		advance();
-		node.typeId = currToken;
+		node.typeId = currToken();
 		eat(TokenType.ID, "expected identifier");
 		return node;
 	}
-	else if (currToken.type() == TokenType.NEG) {
-		NegatedRValue node = new NegatedRValue();
+	else if (currType == TokenType.NEG) {
+		// neg binds tighter than any binary operator
+		NegatedRValue node = built(new NegatedRValue());
 		advance();
-		node.expr = expr();
+		node.expr = unary();
 		return node;
 	}
-	else if (currToken.type() == TokenType.ID) {
-		Token id = currToken;
+	else if (currType == TokenType.ID) {
+		Token id = currToken();
 		eat(TokenType.ID, "expected right side");
-		if (currToken.type() == TokenType.LPAREN) {
-			CallRValue node = new CallRValue();
+		if (currType == TokenType.LPAREN) {
+			CallRValue node = built(new CallRValue());
 			node.funName = id;
 			eat(TokenType.LPAREN, "expected '('");
 			node.argList = exprlist();
@@ -385,9 +660,9 @@ public class Parser {
 			return node;
 		}
 		else {
-			IDRValue node = new IDRValue();
+			IDRValue node = built(new IDRValue());
 			node.path.add(id);
-			if (currToken.type() == TokenType.DOT)
+			if (currType == TokenType.DOT)
 				dotid(node.path);
 			return node;
 		}
@@ -402,8 +677,8 @@ public class Parser {
   // <exit> ::= RETURN (<expr> | {e})
   private Stmt exit() throws MyPLException {
 	debug("<exit>");
-	ReturnStmt node = new ReturnStmt();
-	node.returnToken = currToken;
+	ReturnStmt node = built(new ReturnStmt());
+	node.returnToken = currToken();
 	eat(TokenType.RETURN, "expecting 'return'");
 	if (isExpr()) {
 		node.returnExpr = expr();
@@ -413,30 +688,42 @@ public class Parser {
   
   // <whilef> ::= WHILE <expr> DO <bstmts> END
   private Stmt whilef() throws MyPLException {
+	WhileStmt node = whileHead();
+	node.stmtList = bstmts();
+	eat(TokenType.END, "expecting 'end'");
+	return node;
+  }
+  
+  // HELPER: WHILE <expr> DO
+  private WhileStmt whileHead() throws MyPLException {
 	debug("<whilef>");
-	WhileStmt node = new WhileStmt();
+	WhileStmt node = built(new WhileStmt());
 	advance();
 	node.boolExpr = expr();
 	eat(TokenType.DO, "expecting 'do'");
-	node.stmtList = bstmts();
-	eat(TokenType.END, "expecting 'end'");
 	return node;
   }
   
   // <forf> ::= FOR ID ASSIGN <expr> TO <expr> DO <bstmts> END
   private Stmt forf() throws MyPLException {
+	ForStmt node = forHead();
+	node.stmtList = bstmts();
+	eat(TokenType.END, "expecting 'end'");
+	return node;
+  }
+  
+  // HELPER: FOR ID ASSIGN <expr> TO <expr> DO
+  private ForStmt forHead() throws MyPLException {
 	debug("<forf>");
-	ForStmt node = new ForStmt();
+	ForStmt node = built(new ForStmt());
 	advance();
-	node.var = currToken;
+	node.var = currToken();
 	eat(TokenType.ID, "expecting identifier");
 	eat(TokenType.ASSIGN, "expecting ':='");
 	node.startExpr = expr();
 	eat(TokenType.TO, "expecting 'to'");
 	node.endExpr = expr();
 	eat(TokenType.DO, "expecting 'do'");
-	node.stmtList = bstmts();
-	eat(TokenType.END, "expecting 'end'");
 	return node;
   }
   
@@ -446,19 +733,19 @@ public class Parser {
   // Honestly a helper at this point
   private void operator() throws MyPLException {
 	debug("<operator>");
-	if (currToken.type() == TokenType.PLUS ||
-		currToken.type() == TokenType.MINUS ||
-		currToken.type() == TokenType.DIVIDE ||
-		currToken.type() == TokenType.MULTIPLY ||
-		currToken.type() == TokenType.MODULO ||
-		currToken.type() == TokenType.AND ||
-		currToken.type() == TokenType.OR ||
-		currToken.type() == TokenType.EQUAL ||
-		currToken.type() == TokenType.LESS_THAN ||
-		currToken.type() == TokenType.GREATER_THAN ||
-		currToken.type() == TokenType.LESS_THAN_EQUAL ||
-		currToken.type() == TokenType.GREATER_THAN_EQUAL ||
-		currToken.type() == TokenType.NOT_EQUAL)
+	if (currType == TokenType.PLUS ||
+		currType == TokenType.MINUS ||
+		currType == TokenType.DIVIDE ||
+		currType == TokenType.MULTIPLY ||
+		currType == TokenType.MODULO ||
+		currType == TokenType.AND ||
+		currType == TokenType.OR ||
+		currType == TokenType.EQUAL ||
+		currType == TokenType.LESS_THAN ||
+		currType == TokenType.GREATER_THAN ||
+		currType == TokenType.LESS_THAN_EQUAL ||
+		currType == TokenType.GREATER_THAN_EQUAL ||
+		currType == TokenType.NOT_EQUAL)
 			advance();
 	else
 		error("expected operator");
@@ -473,10 +760,10 @@ public class Parser {
   // <lvalue> ::= ID (DOT ID)*
   private LValue lvalue() throws MyPLException {
 	debug("<lvalue>");
-	LValue node = new LValue();
-	node.path.add(currToken);
+	LValue node = built(new LValue());
+	node.path.add(currToken());
 	eat(TokenType.ID, "expected identifier");
-	if (currToken.type() == TokenType.DOT)
+	if (currType == TokenType.DOT)
 		dotid(node.path);
 	
 	return node;
@@ -485,7 +772,7 @@ public class Parser {
   // <vdecls> ::= <vdecl><vdecls> | {e}
   private void vdecls(ArrayList<VarDeclStmt> fields) throws MyPLException {
 	debug("<vdecls>");
-	if (currToken.type() == TokenType.VAR) {
+	if (currType == TokenType.VAR) {
 		fields.add(vdecl());
 		vdecls(fields);
 	}
@@ -495,22 +782,22 @@ public class Parser {
   // <vdecl> ::= VAR (<dtype> | {e}) ID ASSIGN <expr>
   private VarDeclStmt vdecl() throws MyPLException {
 	debug("<vdecl>");
-	VarDeclStmt node = new VarDeclStmt();
+	VarDeclStmt node = built(new VarDeclStmt());
 	advance();
-	if (currToken.type() == TokenType.INT_TYPE ||
-		currToken.type() == TokenType.DOUBLE_TYPE ||
-		currToken.type() == TokenType.BOOL_TYPE ||
-		currToken.type() == TokenType.CHAR_TYPE ||
-		currToken.type() == TokenType.STRING_TYPE) {
-			node.varType = currToken;
+	if (currType == TokenType.INT_TYPE ||
+		currType == TokenType.DOUBLE_TYPE ||
+		currType == TokenType.BOOL_TYPE ||
+		currType == TokenType.CHAR_TYPE ||
+		currType == TokenType.STRING_TYPE) {
+			node.varType = currToken();
 			advance();
 	}
 	
-	node.varId = currToken;
+	node.varId = currToken();
 	eat(TokenType.ID, "expected identifier");
-	if (currToken.type() == TokenType.ID) {
+	if (currType == TokenType.ID) {
 		node.varType = node.varId;
-		node.varId = currToken;
+		node.varId = currToken();
 		advance();
 	}
 	eat(TokenType.ASSIGN, "expected ':='");
@@ -522,22 +809,22 @@ public class Parser {
   private void params(ArrayList<FunParam> params) throws MyPLException {
 	debug("<params>");
 	FunParam node = new FunParam();
-	if (currToken.type() == TokenType.INT_TYPE ||
-		currToken.type() == TokenType.DOUBLE_TYPE ||
-		currToken.type() == TokenType.BOOL_TYPE ||
-		currToken.type() == TokenType.CHAR_TYPE ||
-		currToken.type() == TokenType.STRING_TYPE ||
-		currToken.type() == TokenType.ID) {
-			node.paramType = currToken;
+	if (currType == TokenType.INT_TYPE ||
+		currType == TokenType.DOUBLE_TYPE ||
+		currType == TokenType.BOOL_TYPE ||
+		currType == TokenType.CHAR_TYPE ||
+		currType == TokenType.STRING_TYPE ||
+		currType == TokenType.ID) {
+			node.paramType = currToken();
 			advance();
 	}
 	else
 		return;
 	
-	node.paramName = currToken;
+	node.paramName = currToken();
 	eat(TokenType.ID, "expected identifier");
-	params.add(node);
-	if (currToken.type() == TokenType.COMMA)
+	params.add(built(node));
+	if (currType == TokenType.COMMA)
 		commatypeid(params);
   }
   
@@ -556,9 +843,9 @@ public class Parser {
   private void dotid(ArrayList<Token> path) throws MyPLException {
 	debug("<dotid>");
 	advance();
-	path.add(currToken);
+	path.add(currToken());
 	eat(TokenType.ID, "expected identifier");
-	if (currToken.type() == TokenType.DOT)
+	if (currType == TokenType.DOT)
 		dotid(path);
   }
   
@@ -567,30 +854,30 @@ public class Parser {
 	debug("<commatypeid>");
 	FunParam node = new FunParam();
 	advance();
-	if (currToken.type() == TokenType.INT_TYPE ||
-		currToken.type() == TokenType.DOUBLE_TYPE ||
-		currToken.type() == TokenType.BOOL_TYPE ||
-		currToken.type() == TokenType.CHAR_TYPE ||
-		currToken.type() == TokenType.STRING_TYPE ||
-		currToken.type() == TokenType.ID) {
-			node.paramType = currToken;
+	if (currType == TokenType.INT_TYPE ||
+		currType == TokenType.DOUBLE_TYPE ||
+		currType == TokenType.BOOL_TYPE ||
+		currType == TokenType.CHAR_TYPE ||
+		currType == TokenType.STRING_TYPE ||
+		currType == TokenType.ID) {
+			node.paramType = currToken();
 			advance();
 	}
 	else
 		error("expected type or identifier");
 	
-	node.paramName = currToken;
+	node.paramName = currToken();
 	eat(TokenType.ID, "expecting identifier");
 	
-	params.add(node);
-	if (currToken.type() == TokenType.COMMA)
+	params.add(built(node));
+	if (currType == TokenType.COMMA)
 		commatypeid(params);
   }
   
   // HELPER: <exlr> ::= COMMA <expr> | {e}
   private void exlr(ArrayList<Expr> exprList) throws MyPLException {
 	debug("exlr");
-	if (currToken.type() == TokenType.COMMA) {
+	if (currType == TokenType.COMMA) {
 		advance();
 		exprList.add(expr());
 		exlr(exprList);
@@ -601,17 +888,17 @@ public class Parser {
   // HELPER: Is a valid <expr>? Rather, is the beginning char valid?
   private boolean isExpr() throws MyPLException {
 	debug("isExpr");
-	if (currToken.type() == TokenType.INT_VAL ||
-		currToken.type() == TokenType.DOUBLE_VAL ||
-		currToken.type() == TokenType.BOOL_VAL ||
-		currToken.type() == TokenType.CHAR_VAL ||
-		currToken.type() == TokenType.STRING_VAL ||
-		currToken.type() == TokenType.NIL ||
-		currToken.type() == TokenType.NEW ||
-		currToken.type() == TokenType.ID ||
-		currToken.type() == TokenType.NEG ||
-		currToken.type() == TokenType.NOT ||
-		currToken.type() == TokenType.LPAREN)
+	if (currType == TokenType.INT_VAL ||
+		currType == TokenType.DOUBLE_VAL ||
+		currType == TokenType.BOOL_VAL ||
+		currType == TokenType.CHAR_VAL ||
+		currType == TokenType.STRING_VAL ||
+		currType == TokenType.NIL ||
+		currType == TokenType.NEW ||
+		currType == TokenType.ID ||
+		currType == TokenType.NEG ||
+		currType == TokenType.NOT ||
+		currType == TokenType.LPAREN)
 			return true;
 	else return false;
   }
@@ -0,0 +1,157 @@
+/**
+ * Author: Ben Comer
+ * File: PipelinedLexer.java
+ *
+ * Lexer that runs another lexer ahead on its own thread, so reading,
+ * decoding and scanning the source overlap with parsing. The lexer
+ * thread fills batches of tokens and passes them to the parser
+ * through a bounded queue (so it runs at most QUEUE_BATCHES batches
+ * ahead). A lexical error ends the token stream and is rethrown by
+ * nextToken() once the tokens before it have been handed out, so
+ * errors are reported exactly as by the underlying lexer. Any other
+ * failure on the lexer thread (including an Error) is rethrown by
+ * nextToken() on the parser thread.
+ *
+ * The lexer thread is a daemon and is stopped by close(), so a parse
+ * that ends early (on a syntax error) does not leave it blocked.
+ */
+
+
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+
+public class PipelinedLexer extends Lexer implements AutoCloseable {
+
+  public static final int BATCH_SIZE = 1024;
+  public static final int QUEUE_BATCHES = 16;
+
+  // a run of tokens, possibly ended by an error
+  private static class Batch {
+    Token[] tokens;
+    int count;
+    MyPLException error;          // lexical error after the tokens
+    Throwable failure;            // or unexpected lexer failure
+
+    Batch(Token[] tokens, int count) {
+      this.tokens = tokens;
+      this.count = count;
+    }
+  }
+
+  private BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(QUEUE_BATCHES);
+  private Thread thread;
+  private Batch batch = null;   // batch being handed out
+  private int index = 0;        // next token in batch
+  private Token last = null;    // the EOS token, once reached
+
+
+  /**
+   * Create a pipelined lexer and start lexing the given lexer's input
+   * on a new thread.
+   */
+  public PipelinedLexer(Lexer source) {
+    super(InputStream.nullInputStream());
+    Stats.pipelined = true;
+    thread = new Thread(() -> produce(source), "lexer");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+
+  /**
+   * Returns the next token, waiting for the lexer thread if needed.
+   */
+  @Override
+  public Token nextToken() throws MyPLException {
+    // the parser may ask again after the final EOS token
+    if (last != null)
+      return last;
+    while (batch == null || index == batch.count) {
+      if (batch != null && batch.error != null)
+        throw batch.error;
+      if (batch != null && batch.failure != null)
+        rethrow(batch.failure);
+      batch = take();
+      index = 0;
+    }
+    Token token = batch.tokens[index++];
+    if (token.type() == TokenType.EOS)
+      last = token;
+    return token;
+  }
+
+
+  /**
+   * Stops the lexer thread (if still running).
+   */
+  @Override
+  public void close() {
+    thread.interrupt();
+  }
+
+
+  // helper functions
+
+  // lexes the source on the lexer thread until EOS or an error
+  private void produce(Lexer source) {
+    Token[] tokens = new Token[BATCH_SIZE];
+    int count = 0;
+    Batch end = null;
+    try {
+      while (true) {
+        Token token = source.nextToken();
+        tokens[count++] = token;
+        if (token.type() == TokenType.EOS)
+          break;
+        if (count == BATCH_SIZE) {
+          queue.put(new Batch(tokens, count));
+          tokens = new Token[BATCH_SIZE];
+          count = 0;
+        }
+      }
+      end = new Batch(tokens, count);
+    } catch (MyPLException e) {
+      end = new Batch(tokens, count);
+      end.error = e;
+    } catch (InterruptedException e) {
+      return;                     // closed by the parser
+    } catch (Throwable e) {
+      // including errors (e.g., out of memory), so the parser is not
+      // left waiting for a batch that never comes
+      end = new Batch(tokens, count);
+      end.failure = e;
+    }
+    try {
+      queue.put(end);
+    } catch (InterruptedException e) {
+      // closed by the parser
+    }
+  }
+
+  // rethrows a lexer thread failure on the parser thread
+  private static void rethrow(Throwable failure) {
+    if (failure instanceof RuntimeException)
+      throw (RuntimeException) failure;
+    if (failure instanceof Error)
+      throw (Error) failure;
+    throw new RuntimeException(failure);
+  }
+
+  // waits for the next batch from the lexer thread
+  private Batch take() throws MyPLException {
+    try {
+      if (!Stats.enabled)
+        return queue.take();
+      long start = System.nanoTime();
+      Batch next = queue.take();
+      Stats.lexWaitTime += System.nanoTime() - start;
+      return next;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MyPLException("Lexer", "interrupted", 0, 0);
+    }
+  }
+
+}
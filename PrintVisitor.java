@@ -9,11 +9,14 @@
 
 
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
 
 
 public class PrintVisitor implements Visitor {
   private PrintStream out;      // the output stream for printing
   private int indent = 0;       // the current indent level (num spaces)
+  private boolean stackSafe = false;
 
   // indent helper functions
 
@@ -38,11 +41,23 @@ public class PrintVisitor implements Visitor {
     this.out = printStream;
   }
 
+  /**
+   * In stack-safe mode, statements and parenthesized expressions are
+   * visited through StackSafe, so deep nesting cannot overflow the
+   * thread stack.
+   */
+  public void setStackSafe(boolean stackSafe) {
+    this.stackSafe = stackSafe;
+  }
+
   public void visit(StmtList node) throws MyPLException {
     // iterate through each statement list node and delegate
     for (Stmt s : node.stmts) {
       out.print(getIndent());
-      s.accept(this);
+      if (stackSafe)
+        StackSafe.accept(s, this);
+      else
+        s.accept(this);
       out.println();
     }
   }
@@ -186,7 +201,11 @@ public class PrintVisitor implements Visitor {
 	if (node.operator != null)
 		out.print("(");
 	
-	node.first.accept(this);
+	Expr left = node.leftChain();
+	if (left == null)
+		node.first.accept(this);
+	else
+		printChain(left);
 	if (node.operator != null) {
 		out.print(" " + node.operator.lexeme() + " ");
 		node.rest.accept(this);
@@ -194,6 +213,24 @@ public class PrintVisitor implements Visitor {
 	}
   }
   
+  // prints a chain of left-associative operators, which nests as a
+  // left-deep tree, walking its left operands with a loop instead of
+  // recursion
+  private void printChain(Expr node) throws MyPLException {
+	List<Expr> chain = new ArrayList<>();
+	for (Expr e = node; e != null; e = e.leftChain()) {
+		chain.add(e);
+		out.print("(");
+	}
+	chain.get(chain.size() - 1).first.accept(this);
+	for (int i = chain.size() - 1; i >= 0; --i) {
+		Expr e = chain.get(i);
+		out.print(" " + e.operator.lexeme() + " ");
+		e.rest.accept(this);
+		out.print(")");
+	}
+  }
+  
   public void visit(LValue node) throws MyPLException {
 	out.print(node.path.get(0).lexeme());
 	for (int i = 1; i < node.path.size(); ++i) {
@@ -206,7 +243,10 @@ public class PrintVisitor implements Visitor {
   }
   
   public void visit(ComplexTerm node) throws MyPLException {
-	node.expr.accept(this);
+	if (stackSafe)
+		StackSafe.accept(node.expr, this);
+	else
+		node.expr.accept(this);
   }
   
   public void visit(SimpleRValue node) throws MyPLException {
@@ -0,0 +1,182 @@
+/**
+ * Author: Ben Comer
+ * File: Profiler.java
+ *
+ * Function-level profiler for MyPL programs. The interpreter calls
+ * enter/exit around every user-defined and built-in function call
+ * when a profiler is attached. For each function the profiler keeps
+ * the call count, inclusive time (not double counted for recursive
+ * calls) and self time. It also keeps the self time of every call
+ * stack (kept as a tree of stacks), which can be written in the
+ * collapsed-stack format read by flame graph tools.
+ */
+
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.FileWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+public class Profiler {
+
+  // name used for the top-level program in call stacks
+  public static final String MAIN = "<main>";
+
+  // per-function totals
+  private static class FunStats {
+    String name;
+    long calls = 0;
+    long inclusive = 0;     // nanoseconds, outermost activations only
+    long self = 0;          // nanoseconds
+    int active = 0;         // current recursion depth
+  }
+
+  // a call stack, as a node in the tree of stacks seen so far (the
+  // collapsed names are only built when the stacks are written)
+  private static class StackNode {
+    String name;
+    StackNode parent;
+    Map<String, StackNode> children = new LinkedHashMap<>();
+    long self = 0;          // nanoseconds
+  }
+
+  // an active call
+  private static class Frame {
+    FunStats fun;
+    StackNode stack;        // call stack up to and including this call
+    long start;
+    long childTime = 0;
+  }
+
+  private Map<String, FunStats> funs = new HashMap<>();
+  private StackNode stacks = new StackNode();
+  private List<Frame> frames = new ArrayList<>();
+
+
+  // begins the top-level activation; call as the program starts
+  public void start() {
+    push(MAIN);
+  }
+
+
+  // record the start of a call to the given function
+  public void enter(String funName) {
+    push(funName);
+  }
+
+
+  // record the end of the most recent call
+  public void exit() {
+    if (frames.size() > 1)
+      pop();
+  }
+
+
+  // ends the top-level activation; call once the program finishes
+  public void finish() {
+    while (frames.size() > 0)
+      pop();
+  }
+
+
+  // print a table of functions sorted by self time
+  public void printTable(PrintStream out) {
+    List<FunStats> sorted = new ArrayList<>(funs.values());
+    sorted.sort((a, b) -> Long.compare(b.self, a.self));
+    long total = 0;
+    for (FunStats f : sorted)
+      total += f.self;
+    out.println("--- profile ---");
+    out.printf("%-20s %10s %14s %14s %7s%n", "function", "calls",
+               "incl ms", "self ms", "self %");
+    for (FunStats f : sorted)
+      out.printf("%-20s %10d %14.3f %14.3f %6.1f%%%n", f.name, f.calls,
+                 f.inclusive / 1e6, f.self / 1e6,
+                 total == 0 ? 0.0 : 100.0 * f.self / total);
+  }
+
+
+  // write collapsed stacks ("a;b;c <self microseconds>" per line)
+  public void writeCollapsed(String fileName) throws IOException {
+    try (PrintWriter out = new PrintWriter(new FileWriter(fileName))) {
+      // preorder walk, without recursion since stacks can be deep
+      Deque<StackNode> pending = new ArrayDeque<>();
+      pending.push(stacks);
+      while (!pending.isEmpty()) {
+        StackNode node = pending.pop();
+        if (node != stacks)
+          out.println(collapsed(node) + " " + node.self / 1000);
+        List<StackNode> children = new ArrayList<>(node.children.values());
+        for (int i = children.size() - 1; i >= 0; --i)
+          pending.push(children.get(i));
+      }
+    }
+  }
+
+
+  // helper functions
+
+  private void push(String funName) {
+    FunStats fun = funs.get(funName);
+    if (fun == null) {
+      fun = new FunStats();
+      fun.name = funName;
+      funs.put(funName, fun);
+    }
+    ++fun.calls;
+    ++fun.active;
+    Frame frame = new Frame();
+    frame.fun = fun;
+    StackNode parent = stacks;
+    if (frames.size() > 0)
+      parent = frames.get(frames.size() - 1).stack;
+    StackNode node = parent.children.get(funName);
+    if (node == null) {
+      node = new StackNode();
+      node.name = funName;
+      node.parent = parent;
+      parent.children.put(funName, node);
+    }
+    frame.stack = node;
+    frames.add(frame);
+    frame.start = System.nanoTime();
+  }
+
+  private void pop() {
+    long now = System.nanoTime();
+    Frame frame = frames.remove(frames.size() - 1);
+    long elapsed = now - frame.start;
+    long self = elapsed - frame.childTime;
+    FunStats fun = frame.fun;
+    --fun.active;
+    if (fun.active == 0)
+      fun.inclusive += elapsed;
+    fun.self += self;
+    frame.stack.self += self;
+    if (frames.size() > 0)
+      frames.get(frames.size() - 1).childTime += elapsed;
+  }
+
+  // the collapsed form ("a;b;c") of the given call stack
+  private String collapsed(StackNode node) {
+    List<String> names = new ArrayList<>();
+    for (StackNode n = node; n != stacks; n = n.parent)
+      names.add(n.name);
+    StringBuilder s = new StringBuilder();
+    for (int i = names.size() - 1; i >= 0; --i) {
+      if (s.length() > 0)
+        s.append(';');
+      s.append(names.get(i));
+    }
+    return s.toString();
+  }
+
+}
@@ -0,0 +1,232 @@
+/**
+ * Author: Ben Comer
+ * File: ProgramCache.java
+ *
+ * Cache of compiled (parsed and type checked) programs, so a script
+ * that has not changed since its last run skips the lexer, parser and
+ * type checker. A cache file holds a header (magic number, VERSION
+ * and a hash of the source bytes) followed by the AST in AstWriter's
+ * form. The hash is the source length with its CRC32C and CRC32
+ * checksums: both are intrinsics, where setting up a MessageDigest
+ * alone costs more than lexing and parsing a short script, and the
+ * cache only has to notice edits, not resist forgery.
+ *
+ * The file is kept next to the source (x.mypl gets x.myplc) or, given
+ * a cache directory, in that directory under the hash (so each
+ * version of a script has its own entry).
+ *
+ * The class files of the program's Java translation (see JavaBackend)
+ * are kept beside the entry, in a file of their own (x.myplj) whose
+ * header holds a hash of the Java source they were compiled from, so
+ * that --java runs of an unchanged script do not run javac again.
+ *
+ * A cache file is only used if its version and hash match; anything
+ * else (a missing, stale or damaged file) is a miss. Files are written
+ * to a temporary file and moved into place, so concurrent runs never
+ * read a partly written entry. Failing to write the cache is not an
+ * error.
+ */
+
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+
+
+public class ProgramCache {
+
+  // the interpreter version, to be bumped whenever the AST classes,
+  // the cache format, the parser or type checker, or JavaRuntime
+  // (which cached classes call) change
+  public static final int VERSION = 2;
+
+  private static final int MAGIC = 0x4d504c43;   // "MPLC"
+  private static final int CLASS_MAGIC = 0x4d504c4a;   // "MPLJ"
+  private static final String EXTENSION = ".myplc";
+  private static final String CLASS_EXTENSION = ".myplj";
+  private static final int HASH_SIZE = 16;
+  private static final int HEADER = 8 + HASH_SIZE;   // magic, version, hash
+
+  private Path file;            // the cache file
+  private Path classFile;       // and the file of its Java classes
+  private byte[] hash;          // of the source contents
+
+
+  /**
+   * Creates the cache entry for the given source file, kept in the
+   * given directory (or next to the source if null).
+   */
+  public ProgramCache(Path source, Path dir) throws IOException {
+    hash = hash(Files.readAllBytes(source));
+    if (dir == null) {
+      String name = source.getFileName().toString();
+      if (name.endsWith(".mypl"))
+        name = name.substring(0, name.length() - ".mypl".length());
+      file = source.resolveSibling(name + EXTENSION);
+      classFile = source.resolveSibling(name + CLASS_EXTENSION);
+    }
+    else {
+      file = dir.resolve(hex(hash) + EXTENSION);
+      classFile = dir.resolve(hex(hash) + CLASS_EXTENSION);
+    }
+  }
+
+
+  /**
+   * Returns the cached program, or null if there is no usable entry.
+   */
+  public StmtList load() {
+    if (!Files.isRegularFile(file))
+      return null;
+    try {
+      byte[] data = Files.readAllBytes(file);
+      if (data.length < HEADER)
+        return null;
+      ByteBuffer header = ByteBuffer.wrap(data);
+      if (header.getInt() != MAGIC || header.getInt() != VERSION)
+        return null;
+      if (!Arrays.equals(data, 8, HEADER, hash, 0, HASH_SIZE))
+        return null;
+      return new AstReader(data, HEADER).read();
+    } catch (IOException | RuntimeException e) {
+      return null;              // damaged, treated as a miss
+    }
+  }
+
+
+  /**
+   * Writes the (type checked) program to the cache, ignoring errors.
+   */
+  public void store(StmtList stmtList) {
+    write(file, out -> {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.write(hash);
+      new AstWriter(out).write(stmtList);
+    });
+  }
+
+
+  /**
+   * Returns the class files (by class name) cached for the given Java
+   * source of the program, or null if there is no usable entry.
+   */
+  public Map<String, byte[]> loadClasses(String javaSource) {
+    if (!Files.isRegularFile(classFile))
+      return null;
+    try {
+      ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(classFile));
+      if (data.remaining() < HEADER)
+        return null;
+      if (data.getInt() != CLASS_MAGIC || data.getInt() != VERSION)
+        return null;
+      byte[] sourceHash = new byte[HASH_SIZE];
+      data.get(sourceHash);
+      if (!Arrays.equals(sourceHash, hash(javaSource.getBytes(StandardCharsets.UTF_8))))
+        return null;
+      Map<String, byte[]> classFiles = new HashMap<>();
+      int count = data.getInt();
+      for (int i = 0; i < count; ++i) {
+        byte[] name = new byte[data.getInt()];
+        data.get(name);
+        byte[] bytes = new byte[data.getInt()];
+        data.get(bytes);
+        classFiles.put(new String(name, StandardCharsets.UTF_8), bytes);
+      }
+      return classFiles;
+    } catch (IOException | RuntimeException e) {
+      return null;              // damaged, treated as a miss
+    }
+  }
+
+
+  /**
+   * Writes the class files compiled from the given Java source of the
+   * program to the cache, ignoring errors.
+   */
+  public void storeClasses(String javaSource, Map<String, byte[]> classFiles) {
+    write(classFile, out -> {
+      out.writeInt(CLASS_MAGIC);
+      out.writeInt(VERSION);
+      out.write(hash(javaSource.getBytes(StandardCharsets.UTF_8)));
+      out.writeInt(classFiles.size());
+      for (Map.Entry<String, byte[]> entry : classFiles.entrySet()) {
+        byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(name.length);
+        out.write(name);
+        out.writeInt(entry.getValue().length);
+        out.write(entry.getValue());
+      }
+    });
+  }
+
+
+  // the cache file for this source
+  public Path file() {
+    return file;
+  }
+
+
+  // helper functions
+
+  // writes the contents of a cache file
+  private interface Contents {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  // writes a cache file through a temporary file, ignoring errors
+  private static void write(Path target, Contents contents) {
+    Path temp = null;
+    try {
+      Path dir = target.toAbsolutePath().getParent();
+      Files.createDirectories(dir);
+      temp = Files.createTempFile(dir, "mypl", ".tmp");
+      try (DataOutputStream out = new DataOutputStream(
+             new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+        contents.write(out);
+      }
+      Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+                 StandardCopyOption.ATOMIC_MOVE);
+      temp = null;
+    } catch (IOException | RuntimeException e) {
+      // the program still runs, just without a cache entry
+    } finally {
+      if (temp != null) {
+        try {
+          Files.deleteIfExists(temp);
+        } catch (IOException e) {
+          // left behind
+        }
+      }
+    }
+  }
+
+  // the length, CRC32C and CRC32 of the bytes
+  private static byte[] hash(byte[] bytes) {
+    CRC32C crc32c = new CRC32C();
+    crc32c.update(bytes, 0, bytes.length);
+    CRC32 crc32 = new CRC32();
+    crc32.update(bytes, 0, bytes.length);
+    return ByteBuffer.allocate(HASH_SIZE).putLong(bytes.length)
+      .putInt((int)crc32c.getValue()).putInt((int)crc32.getValue()).array();
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder s = new StringBuilder();
+    for (byte b : bytes)
+      s.append(Character.forDigit((b >> 4) & 0xf, 16))
+        .append(Character.forDigit(b & 0xf, 16));
+    return s.toString();
+  }
+
+}
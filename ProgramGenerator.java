@@ -0,0 +1,387 @@
+/**
+ * Author: Ben Comer
+ * File: ProgramGenerator.java
+ *
+ * Seeded generator of synthetic MyPL programs for stress and scaling
+ * benchmarks. Generated programs are syntactically valid, pass the
+ * type checker, and run to completion without runtime errors: loops
+ * have fixed trip counts, int equality is never used (the interpreter
+ * compares boxed values by reference), there is no division, and
+ * each function only calls earlier functions within its group of 8
+ * (so call chains stay short).
+ *
+ * The shape of a program is set by the number of struct types and
+ * functions, the statement nesting depth, the number of statements
+ * per block, the number of terms per expression, and the loop trip
+ * count. If a target size (in bytes) is given, top-level blocks are
+ * appended until the program reaches that size.
+ *
+ * Usage: java ProgramGenerator [--seed n] [--structs n]
+ *          [--functions n] [--depth n] [--stmts n] [--expr n]
+ *          [--loops n] [--size bytes]
+ */
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+
+public class ProgramGenerator {
+
+  // generation parameters
+  public long seed = 326;
+  public int structs = 2;       // number of struct types
+  public int functions = 8;     // number of functions
+  public int depth = 3;         // max nesting of if/while/for
+  public int stmts = 4;         // statements per block
+  public int exprLength = 4;    // terms per expression
+  public int loops = 3;         // loop trip count
+  public long size = 0;         // target size in bytes (0 = no target)
+
+  private Random random;
+  private StringBuilder out;
+  private int indent;
+  private int nextName;         // suffix for fresh names
+
+  // names in scope, one list per nested block
+  private List<List<String>> ints;
+  private List<List<String>> doubles;
+  private List<String> structVars;   // struct variables in main
+  private int currFun;               // index of function being generated
+
+
+  public static void main(String[] args) {
+    ProgramGenerator gen = new ProgramGenerator();
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      long v = Long.parseLong(args[i + 1]);
+      if (args[i].equals("--seed"))
+        gen.seed = v;
+      else if (args[i].equals("--structs"))
+        gen.structs = (int) v;
+      else if (args[i].equals("--functions"))
+        gen.functions = (int) v;
+      else if (args[i].equals("--depth"))
+        gen.depth = (int) v;
+      else if (args[i].equals("--stmts"))
+        gen.stmts = (int) v;
+      else if (args[i].equals("--expr"))
+        gen.exprLength = (int) v;
+      else if (args[i].equals("--loops"))
+        gen.loops = (int) v;
+      else if (args[i].equals("--size"))
+        gen.size = v;
+      else {
+        System.err.println("unknown option '" + args[i] + "'");
+        System.exit(1);
+      }
+    }
+    System.out.print(gen.generate());
+  }
+
+
+  /**
+   * Generates a program from the current parameters. The same
+   * parameters (including the seed) always give the same program.
+   */
+  public String generate() {
+    random = new Random(seed);
+    out = new StringBuilder();
+    indent = 0;
+    nextName = 0;
+    ints = new ArrayList<>();
+    doubles = new ArrayList<>();
+    structVars = new ArrayList<>();
+    currFun = -1;
+
+    line("# generated by ProgramGenerator (seed " + seed + ")");
+    line("");
+    for (int i = 0; i < structs; ++i)
+      structDecl(i);
+    for (int i = 0; i < functions; ++i)
+      funDecl(i);
+
+    // main
+    pushScope();
+    for (int i = 0; i < structs; ++i) {
+      String name = fresh("s");
+      line("var S" + i + " " + name + " := new S" + i);
+      structVars.add(name);
+    }
+    String total = fresh("total");
+    line("var int " + total + " := 0");
+    ints.get(0).add(total);
+    do {
+      block(0);
+      line("set " + total + " := " + total + " + " + intExpr(0));
+    } while (out.length() < size);
+    line("print(concat(itos(" + total + "), \"\\n\"))");
+    popScope();
+    return out.toString();
+  }
+
+
+  // declarations
+
+  private void structDecl(int i) {
+    line("type S" + i);
+    ++indent;
+    line("var int x := " + random.nextInt(100));
+    line("var int y := " + random.nextInt(100));
+    line("var double z := " + doubleLit());
+    line("var string name := \"S" + i + "\"");
+    --indent;
+    line("end");
+    line("");
+  }
+
+  private void funDecl(int i) {
+    currFun = i;
+    pushScope();
+    int params = paramCount(i);
+    StringBuilder sig = new StringBuilder("fun int f" + i + "(");
+    for (int p = 0; p < params; ++p) {
+      if (p > 0)
+        sig.append(", ");
+      sig.append("int p" + p);
+      ints.get(0).add("p" + p);
+    }
+    line(sig + ")");
+    ++indent;
+    block(1);
+    String ret = intExpr(0);
+    int callee = calleeFor(i);
+    if (callee >= 0)
+      ret = call(callee, 0) + " + " + ret;
+    line("return " + ret);
+    --indent;
+    line("end");
+    line("");
+    popScope();
+    currFun = -1;
+  }
+
+
+  // statements
+
+  // a sequence of statements at the given nesting level
+  private void block(int level) {
+    for (int i = 0; i < stmts; ++i)
+      stmt(level);
+  }
+
+  private void stmt(int level) {
+    int kind = random.nextInt(level < depth ? 9 : 5);
+    if (kind == 0 || kind == 1) {
+      String name = fresh("v");
+      line("var int " + name + " := " + intExpr(0));
+      ints.get(ints.size() - 1).add(name);
+    }
+    else if (kind == 2) {
+      String name = fresh("d");
+      line("var double " + name + " := " + doubleExpr(0));
+      doubles.get(doubles.size() - 1).add(name);
+    }
+    else if (kind == 3) {
+      String target = assignable();
+      if (target == null)
+        stmt(level);
+      else
+        line("set " + target + " := " + intExpr(0));
+    }
+    else if (kind == 4) {
+      String name = fresh("t");
+      line("var string " + name + " := concat(itos(" + intExpr(1) + "), \"" +
+           (char) ('a' + random.nextInt(26)) + "\")");
+    }
+    else if (kind == 5 || kind == 6)
+      ifStmt(level);
+    else if (kind == 7)
+      whileStmt(level);
+    else
+      forStmt(level);
+  }
+
+  private void ifStmt(int level) {
+    line("if " + boolExpr() + " then");
+    nested(level);
+    int elifs = random.nextInt(3);
+    for (int i = 0; i < elifs; ++i) {
+      line("elif " + boolExpr() + " then");
+      nested(level);
+    }
+    if (random.nextBoolean()) {
+      line("else");
+      nested(level);
+    }
+    line("end");
+  }
+
+  private void whileStmt(int level) {
+    String counter = fresh("w");
+    line("var int " + counter + " := 0");
+    line("while " + counter + " < " + loops + " do");
+    ++indent;
+    pushScope();
+    block(level + 1);
+    popScope();
+    line("set " + counter + " := " + counter + " + 1");
+    --indent;
+    line("end");
+  }
+
+  private void forStmt(int level) {
+    String var = fresh("i");
+    line("for " + var + " := 1 to " + loops + " do");
+    ++indent;
+    pushScope();
+    ints.get(ints.size() - 1).add(var);
+    block(level + 1);
+    popScope();
+    --indent;
+    line("end");
+  }
+
+  // a nested block in a new scope
+  private void nested(int level) {
+    ++indent;
+    pushScope();
+    block(level + 1);
+    popScope();
+    --indent;
+  }
+
+
+  // expressions
+
+  private String intExpr(int nesting) {
+    int terms = 1 + random.nextInt(exprLength);
+    StringBuilder e = new StringBuilder(intTerm(nesting));
+    for (int i = 1; i < terms; ++i) {
+      int op = random.nextInt(5);
+      e.append(op < 2 ? " + " : op < 4 ? " - " : " * ");
+      e.append(intTerm(nesting));
+    }
+    return e.toString();
+  }
+
+  private String intTerm(int nesting) {
+    int kind = random.nextInt(10);
+    List<String> vars = visible(ints);
+    if (kind < 4 && vars.size() > 0)
+      return vars.get(random.nextInt(vars.size()));
+    if (kind == 4 && nesting < 2)
+      return "(" + intExpr(nesting + 1) + ")";
+    if (kind == 5 && currFun < 0 && structVars.size() > 0)
+      return structVars.get(random.nextInt(structVars.size())) +
+        (random.nextBoolean() ? ".x" : ".y");
+    if (kind == 6 && currFun < 0 && functions > 0 && nesting < 2)
+      return call(random.nextInt(functions), nesting + 1);
+    return "" + random.nextInt(100);
+  }
+
+  private String doubleExpr(int nesting) {
+    int terms = 1 + random.nextInt(exprLength);
+    StringBuilder e = new StringBuilder(doubleTerm(nesting));
+    for (int i = 1; i < terms; ++i) {
+      e.append(random.nextBoolean() ? " + " : " - ");
+      e.append(doubleTerm(nesting));
+    }
+    return e.toString();
+  }
+
+  private String doubleTerm(int nesting) {
+    int kind = random.nextInt(6);
+    List<String> vars = visible(doubles);
+    if (kind < 3 && vars.size() > 0)
+      return vars.get(random.nextInt(vars.size()));
+    if (kind == 3 && nesting < 2)
+      return "(" + doubleExpr(nesting + 1) + ")";
+    if (kind == 4 && currFun < 0 && structVars.size() > 0)
+      return structVars.get(random.nextInt(structVars.size())) + ".z";
+    return doubleLit();
+  }
+
+  // comparisons joined by and/or, each parenthesized
+  private String boolExpr() {
+    int parts = 1 + random.nextInt(2);
+    StringBuilder e = new StringBuilder();
+    for (int i = 0; i < parts; ++i) {
+      if (i > 0)
+        e.append(random.nextBoolean() ? " and " : " or ");
+      e.append("(" + intTerm(2) + (random.nextBoolean() ? " < " : " > ") +
+               intTerm(2) + ")");
+    }
+    return e.toString();
+  }
+
+  private String call(int fun, int nesting) {
+    int params = paramCount(fun);
+    StringBuilder c = new StringBuilder("f" + fun + "(");
+    for (int p = 0; p < params; ++p) {
+      if (p > 0)
+        c.append(", ");
+      c.append(intExpr(Math.max(nesting, 1)));
+    }
+    return c + ")";
+  }
+
+
+  // helpers
+
+  // parameter count of a function, drawn from a generator seeded
+  // per function so calls can be generated before or after it
+  private int paramCount(int fun) {
+    return 1 + new Random(seed * 31 + fun).nextInt(3);
+  }
+
+  // the function called from the return of function i, or -1
+  private int calleeFor(int i) {
+    int group = i - i % 8;
+    if (i == group)
+      return -1;
+    return group + random.nextInt(i - group);
+  }
+
+  // an int variable or struct field that may be assigned, or null
+  private String assignable() {
+    if (currFun < 0 && structVars.size() > 0 && random.nextInt(3) == 0)
+      return structVars.get(random.nextInt(structVars.size())) +
+        (random.nextBoolean() ? ".x" : ".y");
+    List<String> vars = visible(ints);
+    vars.removeIf(v -> v.startsWith("i") || v.startsWith("w"));
+    if (vars.size() == 0)
+      return null;
+    return vars.get(random.nextInt(vars.size()));
+  }
+
+  private List<String> visible(List<List<String>> scopes) {
+    List<String> names = new ArrayList<>();
+    for (List<String> scope : scopes)
+      names.addAll(scope);
+    return names;
+  }
+
+  private void pushScope() {
+    ints.add(new ArrayList<>());
+    doubles.add(new ArrayList<>());
+  }
+
+  private void popScope() {
+    ints.remove(ints.size() - 1);
+    doubles.remove(doubles.size() - 1);
+  }
+
+  private String fresh(String prefix) {
+    return prefix + (nextName++);
+  }
+
+  private String doubleLit() {
+    return random.nextInt(100) + "." + random.nextInt(10);
+  }
+
+  private void line(String text) {
+    out.append("  ".repeat(indent)).append(text).append('\n');
+  }
+
+}
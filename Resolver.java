@@ -0,0 +1,290 @@
+/**
+ * Author: Ben Comer
+ * File: Resolver.java
+ *
+ * Static resolution pass, run on a type checked program before it is
+ * interpreted with array frames (see Interpreter.setFrames). Each
+ * variable declaration (VarDeclStmt, FunParam, a ForStmt's variable)
+ * and each variable use (IDRValue, LValue) is given the address of
+ * its variable: a frame depth and a slot in that frame. Depth 0 is
+ * the global frame, and each function (or type, whose field
+ * initializers run in a frame of their own) adds one. Calls and new
+ * are bound to their FunDeclStmt and TypeDeclStmt, and each function
+ * and type records how many slots its frame needs.
+ *
+ * Scopes follow the type checker's: blocks, for loops and function
+ * bodies nest, and a variable is in scope after its declaration.
+ * Sibling blocks share slots, so a frame is as large as the most
+ * variables in scope at once.
+ */
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+public class Resolver implements Visitor {
+
+  // what a name refers to: a variable's address, or a function or
+  // type declaration
+  private static class Binding {
+    final int depth;
+    final int slot;
+    final Stmt decl;
+
+    Binding(int depth, int slot, Stmt decl) {
+      this.depth = depth;
+      this.slot = slot;
+      this.decl = decl;
+    }
+  }
+
+  // the nested scopes, innermost last
+  private List<Map<String, Binding>> scopes = new ArrayList<>();
+  private int depth = 0;          // of the current frame
+  private int next = 0;           // next free slot in the current frame
+  private int size = 0;           // slots used by the current frame
+  private boolean stackSafe = false;
+  // global declarations in order (the scope of deferred bodies)
+  private List<String> globalNames = new ArrayList<>();
+  private List<Binding> globalBindings = new ArrayList<>();
+
+
+  public Resolver(boolean stackSafe) {
+    this.stackSafe = stackSafe;
+  }
+
+
+  /**
+   * Resolves the given (type checked) program, returning the number
+   * of slots in its global frame.
+   */
+  public int resolve(StmtList program) throws MyPLException {
+    scopes.add(new HashMap<>());
+    for (Stmt s : program.stmts)
+      stmt(s);
+    scopes.remove(scopes.size() - 1);
+    return size;
+  }
+
+
+  /**
+   * Resolves a deferred function body (see LazyBody) in a new
+   * resolver, whose global scope holds the given number of leading
+   * global declarations of this resolver's program.
+   */
+  public void resolveBody(FunDeclStmt node, StmtList body, int globals)
+    throws MyPLException
+  {
+    Resolver resolver = new Resolver(stackSafe);
+    Map<String, Binding> global = new HashMap<>();
+    for (int i = 0; i < globals; ++i)
+      global.put(globalNames.get(i), globalBindings.get(i));
+    resolver.scopes.add(global);
+    resolver.resolveFunBody(node, body);
+  }
+
+
+  // visitor functions
+
+  public void visit(StmtList node) throws MyPLException {
+    int saved = next;
+    scopes.add(new HashMap<>());
+    for (Stmt s : node.stmts)
+      stmt(s);
+    scopes.remove(scopes.size() - 1);
+    next = saved;
+  }
+
+  public void visit(VarDeclStmt node) throws MyPLException {
+    node.varExpr.accept(this);
+    node.depth = depth;
+    node.slot = declare(node.varId.lexeme(), null);
+  }
+
+  public void visit(ArrayDeclStmt node) {
+    // arrays are not interpreted
+  }
+
+  public void visit(AssignStmt node) throws MyPLException {
+    node.rhs.accept(this);
+    node.lhs.accept(this);
+  }
+
+  public void visit(ReturnStmt node) throws MyPLException {
+    if (node.returnExpr != null)
+      node.returnExpr.accept(this);
+  }
+
+  public void visit(IfStmt node) throws MyPLException {
+    node.ifPart.boolExpr.accept(this);
+    node.ifPart.stmtList.accept(this);
+    for (BasicIf elif : node.elsifs) {
+      elif.boolExpr.accept(this);
+      elif.stmtList.accept(this);
+    }
+    if (node.hasElse)
+      node.elseStmtList.accept(this);
+  }
+
+  public void visit(WhileStmt node) throws MyPLException {
+    node.boolExpr.accept(this);
+    node.stmtList.accept(this);
+  }
+
+  public void visit(ForStmt node) throws MyPLException {
+    node.startExpr.accept(this);
+    node.endExpr.accept(this);
+    int saved = next;
+    scopes.add(new HashMap<>());
+    node.depth = depth;
+    node.slot = declare(node.var.lexeme(), null);
+    node.stmtList.accept(this);
+    scopes.remove(scopes.size() - 1);
+    next = saved;
+  }
+
+  public void visit(TypeDeclStmt node) throws MyPLException {
+    declare(node.typeId.lexeme(), node);
+    int[] saved = enterFrame();
+    scopes.add(new HashMap<>());
+    for (VarDeclStmt field : node.fields)
+      field.accept(this);
+    scopes.remove(scopes.size() - 1);
+    node.frameSize = size;
+    exitFrame(saved);
+  }
+
+  public void visit(FunDeclStmt node) throws MyPLException {
+    declare(node.funName.lexeme(), node);
+    // a deferred body is resolved when it is completed
+    if (node.lazyBody != null) {
+      node.lazyBody.resolveLater(this, globalNames.size());
+      return;
+    }
+    resolveFunBody(node, node.stmtList);
+  }
+
+  public void visit(Expr node) throws MyPLException {
+    // the chain of left operands, walked with a loop
+    List<Expr> chain = new ArrayList<>();
+    for (Expr e = node; e != null; e = e.leftChain())
+      chain.add(e);
+    chain.get(chain.size() - 1).first.accept(this);
+    for (int i = chain.size() - 1; i >= 0; --i)
+      if (chain.get(i).rest != null)
+        chain.get(i).rest.accept(this);
+  }
+
+  public void visit(LValue node) throws MyPLException {
+    Binding binding = lookup(node.path.get(0));
+    node.depth = binding.depth;
+    node.slot = binding.slot;
+  }
+
+  public void visit(SimpleTerm node) throws MyPLException {
+    node.rvalue.accept(this);
+  }
+
+  public void visit(ComplexTerm node) throws MyPLException {
+    if (stackSafe)
+      StackSafe.accept(node.expr, this);
+    else
+      node.expr.accept(this);
+  }
+
+  public void visit(SimpleRValue node) throws MyPLException {
+  }
+
+  public void visit(NewRValue node) throws MyPLException {
+    node.decl = (TypeDeclStmt) lookup(node.typeId).decl;
+  }
+
+  public void visit(CallRValue node) throws MyPLException {
+    for (Expr arg : node.argList)
+      arg.accept(this);
+    if (!Symbols.isBuiltIn(node.funName.symbol()))
+      node.decl = (FunDeclStmt) lookup(node.funName).decl;
+  }
+
+  public void visit(IDRValue node) throws MyPLException {
+    Binding binding = lookup(node.path.get(0));
+    node.depth = binding.depth;
+    node.slot = binding.slot;
+  }
+
+  public void visit(NegatedRValue node) throws MyPLException {
+    node.expr.accept(this);
+  }
+
+
+  // helper functions
+
+  private void stmt(Stmt s) throws MyPLException {
+    if (stackSafe)
+      StackSafe.accept(s, this);
+    else
+      s.accept(this);
+  }
+
+  // resolves a function's parameters and body in a frame of its own
+  private void resolveFunBody(FunDeclStmt node, StmtList body) throws MyPLException {
+    int[] saved = enterFrame();
+    scopes.add(new HashMap<>());
+    for (FunParam param : node.params) {
+      param.depth = depth;
+      param.slot = declare(param.paramName.lexeme(), null);
+    }
+    body.accept(this);
+    scopes.remove(scopes.size() - 1);
+    node.frameSize = size;
+    exitFrame(saved);
+  }
+
+  // starts a new frame, returning the state of the current one
+  private int[] enterFrame() {
+    int[] saved = {depth, next, size};
+    ++depth;
+    next = 0;
+    size = 0;
+    return saved;
+  }
+
+  private void exitFrame(int[] saved) {
+    depth = saved[0];
+    next = saved[1];
+    size = saved[2];
+  }
+
+  // adds a name to the innermost scope, returning its slot if it is a
+  // variable (decl is null) and -1 otherwise
+  private int declare(String name, Stmt decl) {
+    int slot = -1;
+    if (decl == null) {
+      slot = next++;
+      size = Math.max(size, next);
+    }
+    Binding binding = new Binding(depth, slot, decl);
+    scopes.get(scopes.size() - 1).put(name, binding);
+    if (scopes.size() == 1 && depth == 0) {
+      globalNames.add(name);
+      globalBindings.add(binding);
+    }
+    return slot;
+  }
+
+  // finds the innermost binding of the token's name
+  private Binding lookup(Token token) throws MyPLException {
+    String name = token.lexeme();
+    for (int i = scopes.size() - 1; i >= 0; --i) {
+      Binding binding = scopes.get(i).get(name);
+      if (binding != null)
+        return binding;
+    }
+    throw new MyPLException("Resolver", "unresolved name '" + name + "'",
+                            token.row(), token.column());
+  }
+
+}
@@ -0,0 +1,82 @@
+/**
+ * Author: Ben Comer
+ * File: StackSafe.java
+ *
+ * Stack-safe traversal for Visitor implementations. A visitor calls
+ * StackSafe.accept(node, this) instead of node.accept(this) where the
+ * AST nests without bound (each statement of a block, parenthesized
+ * expressions). Up to FIRST_DEPTH such calls are nested on the
+ * calling thread as usual (its stack size is unknown, so the budget
+ * is small). Past that, the traversal continues on a new segment
+ * thread with a large stack (good for SEGMENT_DEPTH more calls, and
+ * so on) while the calling thread waits for it. Only one thread
+ * touches the visitor's state at a time (starting and joining the
+ * segment orders the accesses), so visitors need no other changes,
+ * and nesting depth is limited by memory rather than by the thread
+ * stack size (-Xss).
+ *
+ * Exceptions thrown in a segment, including MyPLExceptions used for
+ * function returns, are rethrown unchanged in the calling thread.
+ */
+
+
+public class StackSafe {
+
+  public static final int FIRST_DEPTH = 64;        // nested calls
+  public static final int SEGMENT_DEPTH = 8192;
+  public static final long SEGMENT_STACK = 64L << 20;   // bytes
+
+  // nested accept calls on the current thread and the thread's budget
+  private static final ThreadLocal<int[]> depth =
+    ThreadLocal.withInitial(() -> new int[] {0, FIRST_DEPTH});
+
+
+  /**
+   * Calls node.accept(visitor), on a new segment thread if this
+   * thread's segment is full.
+   */
+  public static void accept(ASTNode node, Visitor visitor)
+    throws MyPLException
+  {
+    int[] count = depth.get();
+    if (count[0] < count[1]) {
+      ++count[0];
+      try {
+        node.accept(visitor);
+      } finally {
+        --count[0];
+      }
+      return;
+    }
+
+    Throwable[] thrown = new Throwable[1];
+    Thread segment = new Thread(null, () -> {
+        try {
+          depth.get()[1] = SEGMENT_DEPTH;
+          accept(node, visitor);
+        } catch (Throwable t) {
+          thrown[0] = t;
+        }
+      }, "segment", SEGMENT_STACK);
+    segment.start();
+    boolean interrupted = false;
+    while (true) {
+      try {
+        segment.join();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;       // the segment can't be abandoned
+      }
+    }
+    if (interrupted)
+      Thread.currentThread().interrupt();
+
+    if (thrown[0] instanceof MyPLException)
+      throw (MyPLException)thrown[0];
+    if (thrown[0] instanceof RuntimeException)
+      throw (RuntimeException)thrown[0];
+    if (thrown[0] instanceof Error)
+      throw (Error)thrown[0];
+  }
+
+}
@@ -0,0 +1,76 @@
+/**
+ * Author: Ben Comer
+ * File: Stats.java
+ *
+ * Counters and phase timings for the --stats mode of the HW
+ * drivers. The counters are plain static fields bumped by the lexer,
+ * parser, symbol table and interpreter as they work; lexing time is
+ * only measured when stats are enabled since it is taken per token.
+ * With a pipelined lexer, lexing overlaps parsing, so parse time is
+ * reported less the time the parser spent waiting for tokens. A
+ * program loaded from the compiled program cache is neither lexed,
+ * parsed nor checked, and its load time is reported instead.
+ */
+
+
+import java.io.PrintStream;
+
+
+public class Stats {
+
+  public static boolean enabled = false;
+
+  // counters
+  public static long tokens = 0;        // tokens produced by the lexer
+  public static long astNodes = 0;      // AST nodes built by the parser
+  public static long environments = 0;  // SymbolTable.pushEnvironment calls
+  public static long heapObjects = 0;   // objects allocated on the interpreter heap
+  public static long userCalls = 0;     // user-defined function calls
+  public static long builtInCalls = 0;  // built-in function calls
+
+  // phase timings (in nanoseconds)
+  public static long lexTime = 0;
+  public static long parseTime = 0;     // includes lexing until reported
+  public static long checkTime = 0;
+  public static long runTime = 0;
+  public static long lexWaitTime = 0;   // parser waiting on a pipelined lexer
+  public static boolean pipelined = false;
+  public static long cacheTime = 0;     // loading a cached program
+  public static boolean cached = false;
+
+
+  // resets all counters and timings
+  public static void reset() {
+    tokens = astNodes = environments = heapObjects = 0;
+    userCalls = builtInCalls = 0;
+    lexTime = parseTime = checkTime = runTime = lexWaitTime = 0;
+    cacheTime = 0;
+    pipelined = cached = false;
+  }
+
+
+  // prints the report if stats are enabled
+  public static void print(PrintStream out) {
+    if (!enabled)
+      return;
+    out.println("--- stats ---");
+    if (cached)
+      out.printf("cache load time: %10.3f ms%n", cacheTime / 1e6);
+    out.printf("lex time:        %10.3f ms%n", lexTime / 1e6);
+    if (pipelined) {
+      out.printf("lex wait time:   %10.3f ms%n", lexWaitTime / 1e6);
+      out.printf("parse time:      %10.3f ms%n", (parseTime - lexWaitTime) / 1e6);
+    }
+    else
+      out.printf("parse time:      %10.3f ms%n", (parseTime - lexTime) / 1e6);
+    out.printf("check time:      %10.3f ms%n", checkTime / 1e6);
+    out.printf("run time:        %10.3f ms%n", runTime / 1e6);
+    out.printf("tokens:          %10d%n", tokens);
+    out.printf("ast nodes:       %10d%n", astNodes);
+    out.printf("environments:    %10d%n", environments);
+    out.printf("heap objects:    %10d%n", heapObjects);
+    out.printf("user calls:      %10d%n", userCalls);
+    out.printf("built-in calls:  %10d%n", builtInCalls);
+  }
+
+}
@@ -4,81 +4,121 @@
  * Assign: 5
  * File: SymbolTable.java
  *
- * Simple SymbolTable for MyPL.
+ * Simple SymbolTable for MyPL. Each environment points to the one it
+ * was pushed from, so lookups walk that chain and switching
+ * environments (for a call, say) takes constant time. Environments can
+ * be referred to by Environment handle or by integer id.
  */
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.LinkedList;
 import java.util.Map;
 import java.util.HashMap;
 
 
 public class SymbolTable {
-  // stack of environments with name -> Object mappings
-  private List<Map<String,Object>> environments = new LinkedList<>();
-  // current environment identifier
-  private Integer currEnvId = null;
+
+  /**
+   * An environment: its name -> Object mappings and the environment
+   * it was pushed from. A handle stays valid after it is popped (a
+   * function's declaring environment, say), so switching to it is
+   * just a field assignment.
+   */
+  public static class Environment {
+    private final Environment parent;
+    private final Map<String,Object> names = new HashMap<>();
+    private final int id;
+    private boolean registered = false;   // in ids (see getEnvironmentId)
+
+    private Environment(Environment parent, int id) {
+      this.parent = parent;
+      this.id = id;
+    }
+
+    public Environment parent() {
+      return parent;
+    }
+  }
+
+  // the current environment, whose parent chain is the scope
+  private Environment curr = null;
+  // source of environment ids, which are never reused
+  private int nextId = 0;
+  // environments whose ids were handed out and that are still pushed,
+  // for setEnvironmentId
+  private Map<Integer,Environment> ids = new HashMap<>();
 
 
   // add a new environment to environment stack
   public void pushEnvironment() {
-    Map<String,Object> new_environment = new HashMap<>();
-    if (environments.size() == 0)
-      environments.add(new_environment);
-    else {
-      int index = getCurrEnvIndex();
-      environments.add(index + 1, new_environment);
-    }
-    currEnvId = id(new_environment);
+    ++Stats.environments;
+    curr = new Environment(curr, nextId++);
   }
 
   // remove last added environment from environment stack
   public void popEnvironment() {
-    if (environments.size() == 0)
+    if (curr == null)
       return;
-    int index = getCurrEnvIndex();
-    environments.remove(index);
-    if (index > 0)
-      currEnvId = id(environments.get(index - 1));
-    else
-      currEnvId = null;
+    if (curr.registered)
+      ids.remove(curr.id);
+    curr = curr.parent;
   }
 
 
   // get the current environment
+  public Environment getEnvironment() {
+    return curr;
+  }
+
+
+  // set the current environment to the given environment
+  public void setEnvironment(Environment env) {
+    curr = env;
+  }
+
+
+  // get the current environment id
   public Integer getEnvironmentId() {
-    return currEnvId;
+    if (curr == null)
+      return null;
+    if (!curr.registered) {
+      curr.registered = true;
+      ids.put(curr.id, curr);
+    }
+    return curr.id;
   }
 
 
   // set the current environment to the given environment id
   public void setEnvironmentId(Integer envId) {
-    currEnvId = envId;
+    curr = envId == null ? null : ids.get(envId);
   }
 
 
   // add the given name to the current environment
   public void addName(String name) {
     // can't add if no environments exist
-    if (environments.size() == 0)
+    if (curr == null)
       return;
-    environments.get(getCurrEnvIndex()).put(name, null);
+    curr.names.put(name, null);
   }
 
 
   // set the given name to the given info object
   public void setInfo(String name, Object info) {
-    Map<String,Object> env = getEnvForName(name);
+    Environment env = getEnvForName(name);
     if (env != null)
-      env.put(name, info);
+      env.names.put(name, info);
   }
 
 
   // get the info associated with the given name
   public Object getInfo(String name) {
-    Map<String,Object> env = getEnvForName(name);
-    if (env != null)
-      return env.get(name);
+    for (Environment env = curr; env != null; env = env.parent) {
+      Object info = env.names.get(name);
+      if (info != null || env.names.containsKey(name))
+        return info;
+    }
     return null;
   }
 
@@ -92,27 +132,27 @@ public class SymbolTable {
   
   // check if the given name exists in the current environment
   public boolean nameExistsInCurrEnv(String name) {
-    return nameExistsInEnv(name, getEnvironmentId());
+    return curr != null && curr.names.containsKey(name);
   }
 
   
   // check if the given name exists in the given environment
   public boolean nameExistsInEnv(String name, Integer environmentId) {
-    for (Map<String,Object> env : environments)
-      if (id(env) == environmentId)
-        return env.containsKey(name);
-    return false;
+    Environment env = ids.get(environmentId);
+    return env != null && env.names.containsKey(name);
   }
 
   
-  // pretty print the symbol table for testing purposes
+  // pretty print the symbol table (the current environment and its
+  // ancestors) for testing purposes
   public String toString() {
+    List<Environment> chain = new ArrayList<>();
+    for (Environment env = curr; env != null; env = env.parent)
+      chain.add(0, env);
     String s = "";
     String r = "";
-    for (int i = 0; i < environments.size(); ++i) {
-      Map<String,Object> env = environments.get(i);
-      Integer eid = id(env);
-      s += r + eid + ":\n" + r + env + "\n";
+    for (Environment env : chain) {
+      s += r + env.id + ":\n" + r + env.names + "\n";
       r += " ";
     }
     return s;
@@ -125,32 +165,14 @@ public class SymbolTable {
 
   
   // get the environment containing the given name starting from the
-  // current environment and moving up the stack of environments
-  private Map<String,Object> getEnvForName(String name) {
-    int index = getCurrEnvIndex();
-    for (int i = index; i >= 0; --i) {
-      if (environments.get(i).containsKey(name))
-        return environments.get(i);
-    }
+  // current environment and moving up its chain of parents
+  private Environment getEnvForName(String name) {
+    for (Environment env = curr; env != null; env = env.parent)
+      if (env.names.containsKey(name))
+        return env;
     return null;
   }
 
-  
-  // get the index of the current environment
-  private int getCurrEnvIndex() {
-    for (int i = 0; i < environments.size(); ++i)
-      if (currEnvId == id(environments.get(i)))
-        return i;
-    return -1;
-  }
-
-
-  // get a unique identifier for a given object, which is used as the
-  // current environment identifier
-  private int id(Object obj) {
-    return System.identityHashCode(obj);
-  }
-
 
   // basic tests
   public static void main(String[] args) {
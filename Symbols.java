@@ -0,0 +1,118 @@
+/**
+ * Author: Ben Comer
+ * File: Symbols.java
+ *
+ * Global interner for identifier and reserved word lexemes. Each
+ * distinct name is given a dense int id and a single canonical String
+ * (so equal lexemes share one object with a cached hash code). The
+ * reserved words come first, with ids below RESERVED, followed by the
+ * built-in function names, with ids below BUILT_INS. Names are never
+ * removed, and looking up a known name or id takes no lock.
+ */
+
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+public class Symbols {
+
+  // reserved words in id order, with their token types
+  private static final String[] RESERVED_WORDS = {
+    "true", "false", "int", "double", "char", "string", "bool", "nil",
+    "and", "or", "not", "neg", "while", "for", "to", "do", "if", "then",
+    "else", "elif", "end", "array", "fun", "var", "set", "return", "new",
+    "type"
+  };
+  private static final TokenType[] RESERVED_TYPES = {
+    TokenType.BOOL_VAL, TokenType.BOOL_VAL, TokenType.INT_TYPE,
+    TokenType.DOUBLE_TYPE, TokenType.CHAR_TYPE, TokenType.STRING_TYPE,
+    TokenType.BOOL_TYPE, TokenType.NIL, TokenType.AND, TokenType.OR,
+    TokenType.NOT, TokenType.NEG, TokenType.WHILE, TokenType.FOR,
+    TokenType.TO, TokenType.DO, TokenType.IF, TokenType.THEN,
+    TokenType.ELSE, TokenType.ELIF, TokenType.END, TokenType.ARRAY,
+    TokenType.FUN, TokenType.VAR, TokenType.SET, TokenType.RETURN,
+    TokenType.NEW, TokenType.TYPE
+  };
+
+  // built-in function names, following the reserved words
+  private static final String[] BUILT_IN_NAMES = {
+    "print", "read", "length", "get", "concat", "append", "itos", "stoi",
+    "dtos", "stod"
+  };
+
+  public static final int RESERVED = RESERVED_WORDS.length;
+  public static final int BUILT_INS = RESERVED + BUILT_IN_NAMES.length;
+
+  // name to id; lookups of known names take no lock, so the lexers
+  // of a ParallelLexer do not queue on each other
+  private static final ConcurrentHashMap<String, Integer> ids =
+    new ConcurrentHashMap<>();
+  // names in id order, only appended to (under the class lock)
+  private static volatile String[] names = new String[1024];
+  private static int count = 0;
+
+  static {
+    for (String word : RESERVED_WORDS)
+      intern(word);
+    for (String name : BUILT_IN_NAMES)
+      intern(name);
+  }
+
+
+  /**
+   * Returns the id of the given name, adding it if needed.
+   */
+  public static int intern(CharSequence text) {
+    String name = text.toString();
+    Integer id = ids.get(name);
+    if (id != null)
+      return id;
+    return add(name);
+  }
+
+
+  /**
+   * Returns the canonical name for the given id.
+   */
+  public static String name(int id) {
+    return names[id];
+  }
+
+
+  /**
+   * Returns the token type of a reserved word id, or ID for any other
+   * name.
+   */
+  public static TokenType tokenType(int id) {
+    if (id < RESERVED)
+      return RESERVED_TYPES[id];
+    return TokenType.ID;
+  }
+
+
+  /**
+   * Returns true if the id names a built-in function.
+   */
+  public static boolean isBuiltIn(int id) {
+    return id >= RESERVED && id < BUILT_INS;
+  }
+
+
+  // helper functions
+
+  private static synchronized int add(String name) {
+    Integer id = ids.get(name);
+    if (id != null)
+      return id;
+    String[] all = names;
+    if (count == all.length)
+      all = Arrays.copyOf(all, count * 2);
+    all[count] = name;
+    // publish the name before its id can be found
+    names = all;
+    ids.put(name, count);
+    return count++;
+  }
+
+}
@@ -11,10 +11,16 @@
 public class Token {
 
   public Token(TokenType type, String lexeme, int row, int column) {
+    this(type, lexeme, row, column, -1);
+  }
+
+  // for identifiers and reserved words, with their interned symbol id
+  public Token(TokenType type, String lexeme, int row, int column, int symbol) {
     this.type = type;
     this.lexeme = lexeme;
     this.row = row;
     this.column = column;
+    this.symbol = symbol;
   }
 
   public TokenType type() {
@@ -33,6 +39,11 @@ public class Token {
     return column;
   }
 
+  // the Symbols id of the lexeme, or -1 if not a name
+  public int symbol() {
+    return symbol;
+  }
+
   @Override
   public String toString() {
     return type + " '" + lexeme + "' " + row + ":" + column;
@@ -42,4 +53,5 @@ public class Token {
   private String lexeme;        // the string value of the token
   private int row;              // row where token occurred
   private int column;           // column where token occured
+  private int symbol;           // interned id for names (else -1)
 }
@@ -0,0 +1,164 @@
+/**
+ * Author: Ben Comer
+ * File: TokenBuffer.java
+ *
+ * Packed (struct-of-arrays) token stream produced by
+ * Lexer.tokenize(). Rather than one Token object per token, the
+ * buffer keeps parallel int arrays of token type ordinal, lexeme
+ * start offset and length, row, column, and symbol id, along with the
+ * shared source characters. Token objects (and lexeme strings) are
+ * only created on demand by token(i).
+ *
+ * If lexing stopped on an error, the error is kept and thrown by
+ * check(i) once a reader moves past the last token, so errors surface
+ * in the same order as with the pull-based lexer.
+ */
+
+
+import java.util.Arrays;
+
+
+public class TokenBuffer {
+
+  private static final TokenType[] TYPES = TokenType.values();
+
+  private char[] source;
+  private int size = 0;
+  private int[] types;
+  private int[] starts;
+  private int[] lengths;
+  private int[] rows;
+  private int[] columns;
+  private int[] symbols;
+  private MyPLException error = null;
+
+
+  // capacity is the expected number of tokens (the buffer grows as
+  // needed)
+  public TokenBuffer(char[] source, int capacity) {
+    this.source = source;
+    capacity = Math.max(capacity, 16);
+    types = new int[capacity];
+    starts = new int[capacity];
+    lengths = new int[capacity];
+    rows = new int[capacity];
+    columns = new int[capacity];
+    symbols = new int[capacity];
+  }
+
+
+  // appends a token
+  public void add(TokenType type, int start, int length, int row,
+                  int column, int symbol) {
+    if (size == types.length)
+      grow(size + 1);
+    types[size] = type.ordinal();
+    starts[size] = start;
+    lengths[size] = length;
+    rows[size] = row;
+    columns[size] = column;
+    symbols[size] = symbol;
+    ++size;
+  }
+
+
+  // appends tokens from up to (but not including) to of another
+  // buffer over the same source, shifting their rows by rowOffset
+  public void append(TokenBuffer other, int from, int to, int rowOffset) {
+    int n = to - from;
+    if (size + n > types.length)
+      grow(size + n);
+    System.arraycopy(other.types, from, types, size, n);
+    System.arraycopy(other.starts, from, starts, size, n);
+    System.arraycopy(other.lengths, from, lengths, size, n);
+    System.arraycopy(other.columns, from, columns, size, n);
+    System.arraycopy(other.symbols, from, symbols, size, n);
+    for (int i = 0; i < n; ++i)
+      rows[size + i] = other.rows[from + i] + rowOffset;
+    size += n;
+  }
+
+
+  // records the lexical error that ended the buffer
+  public void setError(MyPLException error) {
+    this.error = error;
+  }
+
+
+  // the lexical error that ended the buffer, or null
+  public MyPLException error() {
+    return error;
+  }
+
+
+  // the number of tokens (including the final EOS, if reached)
+  public int size() {
+    return size;
+  }
+
+
+  // throws the lexical error if index is past the last token
+  public void check(int index) throws MyPLException {
+    if (index >= size && error != null)
+      throw error;
+  }
+
+
+  public TokenType type(int index) {
+    return TYPES[types[index]];
+  }
+
+  public int row(int index) {
+    return rows[index];
+  }
+
+  public int column(int index) {
+    return columns[index];
+  }
+
+  public int symbol(int index) {
+    return symbols[index];
+  }
+
+  public int start(int index) {
+    return starts[index];
+  }
+
+  public int length(int index) {
+    return lengths[index];
+  }
+
+  public char[] source() {
+    return source;
+  }
+
+
+  // the lexeme of the given token
+  public String lexeme(int index) {
+    if (symbols[index] >= 0)
+      return Symbols.name(symbols[index]);
+    if (types[index] == TokenType.NIL.ordinal())
+      return "BAD";             // a lone ':' (nil itself is a name)
+    return new String(source, starts[index], lengths[index]);
+  }
+
+
+  // creates a Token object for the given token
+  public Token token(int index) {
+    return new Token(type(index), lexeme(index), rows[index],
+                     columns[index], symbols[index]);
+  }
+
+
+  // grows the arrays to hold at least the needed number of tokens
+  private void grow(int needed) {
+    int capacity = Math.max(needed, types.length * 2);
+    types = Arrays.copyOf(types, capacity);
+    starts = Arrays.copyOf(starts, capacity);
+    lengths = Arrays.copyOf(lengths, capacity);
+    rows = Arrays.copyOf(rows, capacity);
+    columns = Arrays.copyOf(columns, capacity);
+    symbols = Arrays.copyOf(symbols, capacity);
+  }
+
+}
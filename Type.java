@@ -0,0 +1,169 @@
+/**
+ * Author: Ben Comer
+ * File: Type.java
+ *
+ * Canonical types for the type checker. A value type (a primitive,
+ * nil, or a struct type's name) is interned by name, so there is one
+ * Type object per name and types are compared with ==. Function
+ * signatures are interned too (see Function.of). A struct declaration
+ * is described by a Struct, which holds its field table.
+ *
+ * A struct type is only known by its name: the declaration a name
+ * refers to depends on the scope, so the checker finds a struct's
+ * fields by looking its name up in the symbol table.
+ */
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+public class Type {
+
+  private static final Map<String, Type> types = new ConcurrentHashMap<>();
+
+  public static final Type INT = named("int");
+  public static final Type DOUBLE = named("double");
+  public static final Type BOOL = named("bool");
+  public static final Type CHAR = named("char");
+  public static final Type STRING = named("string");
+  public static final Type NIL = named("nil");
+
+  private final String name;
+
+
+  private Type(String name) {
+    this.name = name;
+  }
+
+
+  /**
+   * Returns the value type with the given name.
+   */
+  public static Type named(String name) {
+    Type type = types.get(name);
+    if (type == null)
+      type = types.computeIfAbsent(name, Type::new);
+    return type;
+  }
+
+
+  public String name() {
+    return name;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+
+  /**
+   * A struct declaration: its type and the types of its fields.
+   */
+  public static class Struct {
+    private final Type type;
+    private final Map<String, Type> fields = new HashMap<>();
+
+    public Struct(Type type) {
+      this.type = type;
+    }
+
+    public Type type() {
+      return type;
+    }
+
+    // adds (or replaces) a field
+    public void addField(String name, Type fieldType) {
+      fields.put(name, fieldType);
+    }
+
+    // the type of the given field, or null if there is none
+    public Type field(String name) {
+      return fields.get(name);
+    }
+
+    // the names of the fields
+    public Set<String> fieldNames() {
+      return Collections.unmodifiableSet(fields.keySet());
+    }
+
+    // two declarations are equal if they declare the same fields
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Struct))
+        return false;
+      Struct s = (Struct) other;
+      return type == s.type && fields.equals(s.fields);
+    }
+
+    @Override
+    public int hashCode() {
+      return type.hashCode() * 31 + fields.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return type + fields.toString();
+    }
+  }
+
+
+  /**
+   * A function signature: its parameter types and return type.
+   * Signatures are interned, so equal signatures are the same object.
+   */
+  public static class Function {
+    private static final Map<List<Type>, Function> functions =
+      new ConcurrentHashMap<>();
+
+    private final List<Type> params;
+    private final Type returnType;
+
+    private Function(List<Type> params, Type returnType) {
+      this.params = params;
+      this.returnType = returnType;
+    }
+
+    /**
+     * Returns the signature with the given parameter and return types.
+     */
+    public static Function of(List<Type> params, Type returnType) {
+      List<Type> key = new ArrayList<>(params.size() + 1);
+      key.addAll(params);
+      key.add(returnType);
+      Function function = functions.get(key);
+      if (function == null)
+        function = functions.computeIfAbsent(key, k ->
+          new Function(List.copyOf(k.subList(0, k.size() - 1)), returnType));
+      return function;
+    }
+
+    public List<Type> params() {
+      return params;
+    }
+
+    public Type param(int i) {
+      return params.get(i);
+    }
+
+    public int arity() {
+      return params.size();
+    }
+
+    public Type returnType() {
+      return returnType;
+    }
+
+    @Override
+    public String toString() {
+      return params + " -> " + returnType;
+    }
+  }
+
+}
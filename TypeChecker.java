@@ -6,16 +6,15 @@
  *
  * Visitor implementation of Semantic Analysis Checking for the MyPL
  * AST. Note the following conventions for representing type
- * information:
+ * information (see Type), all of which is compared by identity:
  * 
- * A variable name's type is a string (varname to string)
+ * A variable name's type is an interned Type (varname to Type)
  *
- * A structured type name is a map of var mappings (typename to Map) where
- * each variable name is mapped to its type 
+ * A structured type name is a Type.Struct (typename to Struct) mapping
+ * each field name to its type
  *
- * A function type name is a list of parameter types (name to
- * List) where the list consists of each formal param type ending with
- * the return type of the function.
+ * A function name is an interned Type.Function (name to Function)
+ * holding each formal param type and the return type of the function.
  *
  * For more information on the general design see the lecture notes.
  */
@@ -23,57 +22,153 @@
 import java.io.InputStream; // DEBUG
 import java.util.List;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.Set;
 
 
 public class TypeChecker implements Visitor {
   // the symbol table
   private SymbolTable symbolTable = new SymbolTable();
   // holds last inferred type
-  private String currType = null;
-  private Integer globalEnvId = null;
+  private Type currType = null;
+  private SymbolTable.Environment globalEnv = null;
   private boolean gotGlobal = false;
   private boolean hasReturn = false;
+  private boolean stackSafe = false;
+  // global declarations in order, with their type info (the scope of
+  // deferred function bodies)
+  private List<String> globalNames = new ArrayList<>();
+  private List<Object> globalInfos = new ArrayList<>();
+
+  // operators allowed on numbers, on bools and on chars and strings,
+  // and those whose result is a bool
+  private static final Set<TokenType> NUMBER_OPS = EnumSet.of(
+    TokenType.PLUS, TokenType.MINUS, TokenType.MULTIPLY, TokenType.DIVIDE,
+    TokenType.MODULO, TokenType.EQUAL, TokenType.LESS_THAN,
+    TokenType.GREATER_THAN, TokenType.LESS_THAN_EQUAL,
+    TokenType.GREATER_THAN_EQUAL, TokenType.NOT_EQUAL);
+  private static final Set<TokenType> BOOL_OPS = EnumSet.of(
+    TokenType.AND, TokenType.OR, TokenType.EQUAL, TokenType.NOT_EQUAL);
+  private static final Set<TokenType> EQUALITY_OPS = EnumSet.of(
+    TokenType.EQUAL, TokenType.NOT_EQUAL);
+  private static final Set<TokenType> BOOL_RESULT_OPS = EnumSet.of(
+    TokenType.EQUAL, TokenType.LESS_THAN, TokenType.GREATER_THAN,
+    TokenType.LESS_THAN_EQUAL, TokenType.GREATER_THAN_EQUAL,
+    TokenType.NOT_EQUAL, TokenType.AND, TokenType.OR);
 
   // sets up the initial environment for type checking
   public TypeChecker() {
     symbolTable.pushEnvironment();
     // add return type for global scope
     symbolTable.addName("return");
-    symbolTable.setInfo("return", "int");
+    symbolTable.setInfo("return", Type.INT);
     // print function
     symbolTable.addName("print");
-    symbolTable.setInfo("print", List.of("string", "nil"));
+    symbolTable.setInfo("print", Type.Function.of(List.of(Type.STRING), Type.NIL));
     // read function
     symbolTable.addName("read");
-    symbolTable.setInfo("read", List.of("string"));
+    symbolTable.setInfo("read", Type.Function.of(List.of(), Type.STRING));
 	
 	// length function
 	symbolTable.addName("length");
-	symbolTable.setInfo("length", List.of("string", "int"));
+	symbolTable.setInfo("length", Type.Function.of(List.of(Type.STRING), Type.INT));
 	// get function
 	symbolTable.addName("get");
-	symbolTable.setInfo("get", List.of("int", "string", "char"));
+	symbolTable.setInfo("get", Type.Function.of(List.of(Type.INT, Type.STRING), Type.CHAR));
 	// concat function
 	symbolTable.addName("concat");
-	symbolTable.setInfo("concat", List.of("string", "string", "string"));
+	symbolTable.setInfo("concat", Type.Function.of(List.of(Type.STRING, Type.STRING), Type.STRING));
 	// append function
 	symbolTable.addName("append");
-	symbolTable.setInfo("append", List.of("string", "char", "string"));
+	symbolTable.setInfo("append", Type.Function.of(List.of(Type.STRING, Type.CHAR), Type.STRING));
 	
 	// itos function
 	symbolTable.addName("itos");
-	symbolTable.setInfo("itos", List.of("int", "string"));
+	symbolTable.setInfo("itos", Type.Function.of(List.of(Type.INT), Type.STRING));
 	// stoi function
 	symbolTable.addName("stoi");
-	symbolTable.setInfo("stoi", List.of("string", "int"));
+	symbolTable.setInfo("stoi", Type.Function.of(List.of(Type.STRING), Type.INT));
 	// dtos function
 	symbolTable.addName("dtos");
-	symbolTable.setInfo("dtos", List.of("double", "string"));
+	symbolTable.setInfo("dtos", Type.Function.of(List.of(Type.DOUBLE), Type.STRING));
 	// stod function
 	symbolTable.addName("stod");
-	symbolTable.setInfo("stod", List.of("string", "double"));
+	symbolTable.setInfo("stod", Type.Function.of(List.of(Type.STRING), Type.DOUBLE));
+  }
+
+
+  /**
+   * In stack-safe mode, statements and parenthesized expressions are
+   * visited through StackSafe, so deep nesting cannot overflow the
+   * thread stack.
+   */
+  public void setStackSafe(boolean stackSafe) {
+    this.stackSafe = stackSafe;
+  }
+
+  
+  /**
+   * Checks a deferred function body (see LazyBody) in a new checker,
+   * whose global scope holds the given number of leading global
+   * declarations of this checker's program, as when the function was
+   * declared.
+   */
+  public void checkBody(FunDeclStmt node, StmtList body, int globals)
+    throws MyPLException
+  {
+    TypeChecker checker = new TypeChecker();
+    checker.stackSafe = stackSafe;
+    checker.beginGlobal();
+    for (int i = 0; i < globals; ++i) {
+      checker.symbolTable.addName(globalNames.get(i));
+      checker.symbolTable.setInfo(globalNames.get(i), globalInfos.get(i));
+    }
+    checker.checkFunBody(node, body);
+  }
+
+
+  /**
+   * Opens the global scope, for checking a program one top-level
+   * statement at a time with check() (see IncrementalProgram).
+   * Declarations of statements that are not checked again are added
+   * with declare().
+   */
+  public void beginGlobal() {
+    symbolTable.pushEnvironment();
+    globalEnv = symbolTable.getEnvironment();
+    gotGlobal = true;
+  }
+
+  // checks a top-level statement in the global scope
+  public void check(Stmt stmt) throws MyPLException {
+    if (stackSafe)
+      StackSafe.accept(stmt, this);
+    else
+      stmt.accept(this);
+  }
+
+  // adds a global declaration with the given type info
+  public void declare(String name, Object info) {
+    symbolTable.addName(name);
+    symbolTable.setInfo(name, info);
+    globalNames.add(name);
+    globalInfos.add(info);
+  }
+
+  // the number of global declarations made so far, and each one's
+  // name and type info in order
+  public int globalCount() {
+    return globalNames.size();
+  }
+
+  public String globalName(int i) {
+    return globalNames.get(i);
+  }
+
+  public Object globalInfo(int i) {
+    return globalInfos.get(i);
   }
 
   
@@ -83,25 +178,33 @@ public class TypeChecker implements Visitor {
   public void visit(StmtList node) throws MyPLException {
     symbolTable.pushEnvironment();
 	if (!gotGlobal) {
-		globalEnvId = symbolTable.getEnvironmentId();
+		globalEnv = symbolTable.getEnvironment();
 		gotGlobal = true;
 	}
 	// Global env id for return checking
-    for (Stmt s : node.stmts)
-      s.accept(this);
+    for (Stmt s : node.stmts) {
+      if (stackSafe)
+        StackSafe.accept(s, this);
+      else
+        s.accept(this);
+    }
     symbolTable.popEnvironment();
   }
 
   
+  public void visit(ArrayDeclStmt node) throws MyPLException {
+    error("arrays are not supported", node.arrayId);
+  }
+
   public void visit(AssignStmt node) throws MyPLException {
     // check and infer rhs type
     node.rhs.accept(this);
-    String rhsType = currType;
+    Type rhsType = currType;
     // check and obtain lhs type
     node.lhs.accept(this);
-    String lhsType = currType;
+    Type lhsType = currType;
     // error if rhs and lhs types don't match
-    if (!rhsType.equals("nil") && !rhsType.equals(lhsType)) {
+    if (rhsType != Type.NIL && rhsType != lhsType) {
       String msg = "mismatched type in assignment";
       error(msg, node.lhs.path.get(0));
     }
@@ -115,81 +218,88 @@ public class TypeChecker implements Visitor {
 	node.varExpr.accept(this);
 	// check if a type is given
 	if (node.varType == null) {
-		if (currType.equals("nil"))
+		if (currType == Type.NIL)
 			error("type missing in nil assignment", node.varId);
 	}
 	else {
 		// Checks to see if types match
-		if (!currType.equals(node.varType.lexeme()) && !currType.equals("nil"))
+		Type varType = Type.named(node.varType.lexeme());
+		if (currType != varType && currType != Type.NIL)
 			error("primitive type mismatch", node.varType);
-		else if (currType.equals("nil"))
-			currType = node.varType.lexeme();
+		else if (currType == Type.NIL)
+			currType = varType;
 	}
 	
 	// adds the variable to the symbolTable if it checks out
 	symbolTable.addName(node.varId.lexeme());
 	symbolTable.setInfo(node.varId.lexeme(), currType);
+	declared(node.varId.lexeme());
   }
 
   public void visit(Expr node) throws MyPLException {
-	node.first.accept(this);
+	Expr left = node.leftChain();
+	if (left == null)
+		node.first.accept(this);
+	else
+		checkChain(left);
 	// No need to change currType further... if it works
-	String lhs = currType;
 	if (node.operator != null) {
+		Type lhs = currType;
 		node.rest.accept(this);
-		String rhs = currType;
-	
-		// They had better match up
-		if (!lhs.equals(rhs) &&
-			!(rhs.equals("nil") && (node.operator.type() == TokenType.EQUAL || node.operator.type() == TokenType.NOT_EQUAL)))
-			error("mismatched types in expression '" + lhs + "' and '" + rhs + "'", getFirstToken(node));
-	
-		// Cases with operators
-		if ((lhs.equals("int") || lhs.equals("double")) &&
-			!(node.operator.type() == TokenType.PLUS ||
-			  node.operator.type() == TokenType.MINUS ||
-			  node.operator.type() == TokenType.MULTIPLY ||
-			  node.operator.type() == TokenType.DIVIDE ||
-			  node.operator.type() == TokenType.MODULO ||
-			  node.operator.type() == TokenType.EQUAL ||
-			  node.operator.type() == TokenType.LESS_THAN ||
-			  node.operator.type() == TokenType.GREATER_THAN ||
-			  node.operator.type() == TokenType.LESS_THAN_EQUAL ||
-			  node.operator.type() == TokenType.GREATER_THAN_EQUAL ||
-			  node.operator.type() == TokenType.NOT_EQUAL))
-			error("invalid operator used on int or double '" + node.operator.lexeme() + "'", node.operator);
-			
-		else if (lhs.equals("bool") &&
-			!(node.operator.type() == TokenType.AND ||
-			  node.operator.type() == TokenType.OR ||
-			  node.operator.type() == TokenType.EQUAL ||
-			  node.operator.type() == TokenType.NOT_EQUAL))
-			error("invalid type in arithmetic expression", getFirstToken(node.first));
-			
-		else if ((lhs.equals("char") || lhs.equals("string")) &&
-			!(node.operator.type() == TokenType.EQUAL ||
-			  node.operator.type() == TokenType.NOT_EQUAL))
-			error("invalid type in arithmetic expression", getFirstToken(node.first));
-			
-		else if (lhs.equals("nil"))
-			error("cannot use operator with nil", node.operator);
-		
-		// Setting the boolean type for comparison
-		if (node.operator.type() == TokenType.EQUAL ||
-			node.operator.type() == TokenType.LESS_THAN ||
-			node.operator.type() == TokenType.GREATER_THAN ||
-			node.operator.type() == TokenType.LESS_THAN_EQUAL ||
-			node.operator.type() == TokenType.GREATER_THAN_EQUAL ||
-			node.operator.type() == TokenType.NOT_EQUAL ||
-			node.operator.type() == TokenType.AND ||
-			node.operator.type() == TokenType.OR)
-				currType = "bool";
+		checkOperator(node, lhs, currType);
 	}
 	
 	// if it's negated, it had better be a boolean expression
-	if (node.negated && !currType.equals("bool"))
+	if (node.negated && currType != Type.BOOL)
 		error("cannot negate non-boolean expression", getFirstToken(node));
   }
+
+  // checks a chain of left-associative operators, which nests as a
+  // left-deep tree, walking its left operands with a loop instead of
+  // recursion
+  private void checkChain(Expr node) throws MyPLException {
+	List<Expr> chain = new ArrayList<>();
+	for (Expr e = node; e != null; e = e.leftChain())
+		chain.add(e);
+	chain.get(chain.size() - 1).first.accept(this);
+	for (int i = chain.size() - 1; i >= 0; --i) {
+		Expr e = chain.get(i);
+		Type lhs = currType;
+		e.rest.accept(this);
+		checkOperator(e, lhs, currType);
+	}
+  }
+
+  // checks the node's operator against its operand types and sets
+  // currType to the result type
+  private void checkOperator(Expr node, Type lhs, Type rhs)
+	throws MyPLException
+  {
+	TokenType op = node.operator.type();
+	// They had better match up
+	if (lhs != rhs && !(rhs == Type.NIL && EQUALITY_OPS.contains(op)))
+		error("mismatched types in expression '" + lhs + "' and '" + rhs + "'", getFirstToken(node));
+	
+	// Cases with operators
+	if ((lhs == Type.INT || lhs == Type.DOUBLE) && !NUMBER_OPS.contains(op))
+		error("invalid operator used on int or double '" + node.operator.lexeme() + "'", node.operator);
+		
+	else if (lhs == Type.BOOL && !BOOL_OPS.contains(op))
+		error("invalid type in arithmetic expression", getFirstToken(node.first));
+		
+	else if ((lhs == Type.CHAR || lhs == Type.STRING) && !EQUALITY_OPS.contains(op))
+		error("invalid type in arithmetic expression", getFirstToken(node.first));
+		
+	else if (lhs == Type.NIL)
+		error("cannot use operator with nil", node.operator);
+	
+	// Lowering the operator for the interpreter
+	node.opcode = Opcode.of(op, lhs);
+	
+	// Setting the boolean type for comparison
+	if (BOOL_RESULT_OPS.contains(op))
+		currType = Type.BOOL;
+  }
   
   public void visit(SimpleTerm node) throws MyPLException {
     node.rvalue.accept(this);
@@ -197,23 +307,26 @@ public class TypeChecker implements Visitor {
 
   
   public void visit(ComplexTerm node) throws MyPLException {
-    node.expr.accept(this);
+    if (stackSafe)
+      StackSafe.accept(node.expr, this);
+    else
+      node.expr.accept(this);
   }
 
   
   public void visit(SimpleRValue node) throws MyPLException {
     if (node.val.type() == TokenType.INT_VAL)
-      currType = "int";
+      currType = Type.INT;
     else if (node.val.type() == TokenType.DOUBLE_VAL)
-      currType = "double";
+      currType = Type.DOUBLE;
     else if (node.val.type() == TokenType.BOOL_VAL)
-      currType = "bool";
+      currType = Type.BOOL;
     else if (node.val.type() == TokenType.CHAR_VAL)
-      currType = "char";
+      currType = Type.CHAR;
     else if (node.val.type() == TokenType.STRING_VAL)
-      currType = "string";
+      currType = Type.STRING;
     else if (node.val.type() == TokenType.NIL)
-      currType = "nil";
+      currType = Type.NIL;
   }
 
   public void visit(LValue node) throws MyPLException {
@@ -223,26 +336,29 @@ public class TypeChecker implements Visitor {
     if (!symbolTable.nameExists(varName))
       error("undefined variable '" + varName + "'", node.path.get(0));
     // make sure it isn't function or type name
-    if (symbolTable.getInfo(varName) instanceof List)
+    Object info = symbolTable.getInfo(varName);
+    if (info instanceof Type.Function)
       error("unexpected function name in rvalue", node.path.get(0));
-    if (symbolTable.getInfo(varName) instanceof Map)
+    if (info instanceof Type.Struct)
       error("unexpected type name in rvalue", node.path.get(0));
     // grab the type
-    currType = (String) symbolTable.getInfo(varName);
-    if (node.path.size() > 1 && !(symbolTable.getInfo(currType) instanceof Map))
+    currType = (Type) info;
+    if (node.path.size() > 1 && !(symbolTable.getInfo(currType.name()) instanceof Type.Struct))
 		error("invalid member access for non-structured type", node.path.get(0));
     	
     // path catching
-	HashMap<String, String> typeInfo = new HashMap<>();
 	for (int i = 1; i < node.path.size(); ++i) {
 		// checks that the type has the key
-		typeInfo = (HashMap<String, String>) symbolTable.getInfo(currType);
-		if (!typeInfo.containsKey(node.path.get(i).lexeme()))
-			error("unexpected path identifier '" + node.path.get(i).lexeme() + "' found", node.path.get(i));
+		Object typeInfo = symbolTable.getInfo(currType.name());
+		if (!(typeInfo instanceof Type.Struct))
+			error("invalid member access for non-structured type", node.path.get(i - 1));
 		// gets the name and type of the subvar
 		varName = node.path.get(i).lexeme();
+		Type fieldType = ((Type.Struct) typeInfo).field(varName);
+		if (fieldType == null)
+			error("unexpected path identifier '" + varName + "' found", node.path.get(i));
 		// gets currType
-		currType = (String) typeInfo.get(varName);
+		currType = fieldType;
 	}
   }
   
@@ -253,10 +369,10 @@ public class TypeChecker implements Visitor {
 	if (!symbolTable.nameExists(varName))
 		error("undefined variable '" + varName + "'", node.typeId);
 	// Check that it's a struct
-	if (!(symbolTable.getInfo(varName) instanceof Map))
+	if (!(symbolTable.getInfo(varName) instanceof Type.Struct))
 		error("undefined structure '" + varName + "'", node.typeId);
 	
-	currType = varName;
+	currType = Type.named(varName);
   }
   
   public void visit(IDRValue node) throws MyPLException {
@@ -266,26 +382,29 @@ public class TypeChecker implements Visitor {
     if (!symbolTable.nameExists(varName))
       error("undefined variable '" + varName + "'", node.path.get(0));
     // make sure it isn't function or type name
-    if (symbolTable.getInfo(varName) instanceof List)
+    Object info = symbolTable.getInfo(varName);
+    if (info instanceof Type.Function)
       error("unexpected function name in rvalue", node.path.get(0));
-    if (symbolTable.getInfo(varName) instanceof Map)
+    if (info instanceof Type.Struct)
       error("unexpected type name in rvalue", node.path.get(0));
     // grab the type
-    currType = (String) symbolTable.getInfo(varName);
-    if (node.path.size() > 1 && !(symbolTable.getInfo(currType) instanceof Map))
+    currType = (Type) info;
+    if (node.path.size() > 1 && !(symbolTable.getInfo(currType.name()) instanceof Type.Struct))
 		error("invalid member access for non-structured type", node.path.get(0));
     	
     // path catching
-	HashMap<String, String> typeInfo = new HashMap<>();
 	for (int i = 1; i < node.path.size(); ++i) {
 		// checks that the type has the key
-		typeInfo = (HashMap<String, String>) symbolTable.getInfo(currType);
-		if (!typeInfo.containsKey(node.path.get(i).lexeme()))
-			error("unexpected path identifier '" + node.path.get(i).lexeme() + "' found", node.path.get(i));
+		Object typeInfo = symbolTable.getInfo(currType.name());
+		if (!(typeInfo instanceof Type.Struct))
+			error("invalid member access for non-structured type", node.path.get(i - 1));
 		// gets the name and type of the subvar
 		varName = node.path.get(i).lexeme();
+		Type fieldType = ((Type.Struct) typeInfo).field(varName);
+		if (fieldType == null)
+			error("unexpected path identifier '" + varName + "' found", node.path.get(i));
 		// gets currType
-		currType = (String) typeInfo.get(varName);
+		currType = fieldType;
 	}
 	
   }
@@ -297,58 +416,57 @@ public class TypeChecker implements Visitor {
 	if (!symbolTable.nameExists(funName))
 		error("undefined function '" + funName + "'", node.funName);
 	// Check that it's a function
-	if (!(symbolTable.getInfo(funName) instanceof List))
+	if (!(symbolTable.getInfo(funName) instanceof Type.Function))
 		error("function '" + funName + "' not defined", node.funName);
 	
 	// Get the function info
-	List<String> funInfo = (List<String>)symbolTable.getInfo(funName);
+	Type.Function funInfo = (Type.Function)symbolTable.getInfo(funName);
 	// Checks for correct number of parameters
-	if (funInfo.size() - 1 != node.argList.size())
-		error("invalid number of parameters", getFirstToken(node.argList.get(0)));
+	if (funInfo.arity() != node.argList.size())
+		error("invalid number of parameters", node.argList.isEmpty() ?
+			  node.funName : getFirstToken(node.argList.get(0)));
 	
 	// Checks that types of parameters match
-	for (int i = 0; i < funInfo.size() - 1; ++i) {
+	for (int i = 0; i < funInfo.arity(); ++i) {
 		node.argList.get(i).accept(this);
-		if (!funInfo.get(i).equals(currType) && !currType.equals("nil")) {
+		if (funInfo.param(i) != currType && currType != Type.NIL) {
 			String msg = funName;
-			if (funInfo.size() == 1)
-				error(funName + " takes no arguments", node.funName);
-			else if (funInfo.size() == 2) {
-				error(funName + " takes " + funInfo.get(0), node.funName);
+			if (funInfo.arity() == 1) {
+				error(funName + " takes " + funInfo.param(0), node.funName);
 			}
 			else {
 				for (int j = 0; j < node.argList.size() - 1; ++j) {
 					msg += " takes ";
-					msg += funInfo.get(j);
+					msg += funInfo.param(j);
 				}
 				msg += " and ";
-				msg += funInfo.get(funInfo.size() - 2);
+				msg += funInfo.param(funInfo.arity() - 1);
 			}
 			error(msg, node.funName);
 		}
 	}
 	
 	// Set currType to return value
-	currType = funInfo.get(funInfo.size() - 1);
+	currType = funInfo.returnType();
   }
   
   public void visit(NegatedRValue node) throws MyPLException {
 	// Should be an int or double
 	node.expr.accept(this);
-	if (currType != "int" && currType != "double")
+	if (currType != Type.INT && currType != Type.DOUBLE)
 		error("negated non-int and non-double of type '" + currType + "'", getFirstToken(node));
   }
   
   public void visit(IfStmt node) throws MyPLException {
 	// Checks the if statement expression
 	node.ifPart.boolExpr.accept(this);
-	if (!currType.equals("bool"))
+	if (currType != Type.BOOL)
 		error("non-boolean type '" + currType + "' not allowed", getFirstToken(node.ifPart.boolExpr));
 	node.ifPart.stmtList.accept(this);
 	// Iterate through each else if
 	for (BasicIf e : node.elsifs) {
 		e.boolExpr.accept(this);
-		if (!currType.equals("bool"))
+		if (currType != Type.BOOL)
 			error("non-boolean type '" + currType + "' not allowed", getFirstToken(e.boolExpr));
 		e.stmtList.accept(this);
 	}
@@ -360,24 +478,24 @@ public class TypeChecker implements Visitor {
   public void visit(WhileStmt node) throws MyPLException {
 	// Checks the boolExpr
 	node.boolExpr.accept(this);
-	if (!currType.equals("bool"))
+	if (currType != Type.BOOL)
 		error("non-boolean type '" + currType + "' not allowed", getFirstToken(node.boolExpr));
 	node.stmtList.accept(this);
   }
   
   public void visit(ForStmt node) throws MyPLException {
 	node.startExpr.accept(this);
-	if (!currType.equals("int"))
+	if (currType != Type.INT)
 		error("start expr must be of type int", getFirstToken(node.startExpr));
 	node.endExpr.accept(this);
-	if (!currType.equals("int"))
+	if (currType != Type.INT)
 		error("end expr must be of type int", getFirstToken(node.endExpr));
 	
 	symbolTable.pushEnvironment();
 	
 	// Makes the var
 	symbolTable.addName(node.var.lexeme());
-	symbolTable.setInfo(node.var.lexeme(), "int");
+	symbolTable.setInfo(node.var.lexeme(), Type.INT);
 	// Passes the buck
 	node.stmtList.accept(this);
 	
@@ -393,15 +511,25 @@ public class TypeChecker implements Visitor {
 	
 	symbolTable.addName(funName);
 	// Creates an empty list for info
-	List<String> paramList = new ArrayList<>();
+	List<Type> paramList = new ArrayList<>();
 	// Adds all parameters to the List
 	for (FunParam fp : node.params) {
-		paramList.add(fp.paramType.lexeme());
+		paramList.add(Type.named(fp.paramType.lexeme()));
 	}
 	// Sets the info (essential for recursion)
-	symbolTable.setInfo(funName, paramList);
-	// Adds the return type to the end of the List
-	paramList.add(node.returnType.lexeme());
+	symbolTable.setInfo(funName, Type.Function.of(paramList, Type.named(node.returnType.lexeme())));
+	declared(funName);
+	// A deferred body is checked on the first call
+	if (node.lazyBody != null) {
+		node.lazyBody.defer(this, globalNames.size());
+		return;
+	}
+	checkFunBody(node, node.stmtList);
+  }
+  
+  // checks the body of a function whose signature is in the symbol
+  // table
+  private void checkFunBody(FunDeclStmt node, StmtList body) throws MyPLException {
 	// Shadow work
 	Map<String, Object> shadow = new HashMap<>();
 	List<String> shadowNames = new ArrayList<>();
@@ -409,28 +537,25 @@ public class TypeChecker implements Visitor {
 		if (symbolTable.nameExists(fp.paramName.lexeme())) {
 			shadow.put(fp.paramName.lexeme(), symbolTable.getInfo(fp.paramName.lexeme()));
 			shadowNames.add(fp.paramName.lexeme());
-			symbolTable.setInfo(fp.paramName.lexeme(), fp.paramType.lexeme());
+			symbolTable.setInfo(fp.paramName.lexeme(), Type.named(fp.paramType.lexeme()));
 		}
 	}
 	symbolTable.pushEnvironment();
 	
 	// Requires the correct return typeId
+	Type returnType = Type.named(node.returnType.lexeme());
 	symbolTable.addName("return");
-	if (node.returnType.lexeme() != "nil")
-		symbolTable.setInfo("return", node.returnType.lexeme());
-	else
-		symbolTable.setInfo("return", "nil");
+	symbolTable.setInfo("return", returnType);
 	
 	for (FunParam fp : node.params) {
 		symbolTable.addName(fp.paramName.lexeme());
-		symbolTable.setInfo(fp.paramName.lexeme(), fp.paramType.lexeme());
+		symbolTable.setInfo(fp.paramName.lexeme(), Type.named(fp.paramType.lexeme()));
 	}
-	String returnType = node.returnType.lexeme();
-	node.stmtList.accept(this);
+	body.accept(this);
 	if (!hasReturn)
-		currType = "nil";
+		currType = Type.NIL;
 	
-	if (!returnType.equals(currType))
+	if (returnType != currType)
 		error("return values not matching", node.returnType);
 	hasReturn = false;
 	
@@ -448,34 +573,43 @@ public class TypeChecker implements Visitor {
 	
 	// Adds the struct to the symbolTable
 	symbolTable.addName(node.typeId.lexeme());
-	Map<String, String> subVars = new HashMap<>();
+	Type.Struct subVars = new Type.Struct(Type.named(node.typeId.lexeme()));
 	symbolTable.pushEnvironment();
 	
 	for (VarDeclStmt v : node.fields) {
 		// Type-checks
 		v.accept(this);
 		// Adds a pair to the map
-		subVars.put(v.varId.lexeme(), currType);
+		subVars.addField(v.varId.lexeme(), currType);
 	}
 	
 	symbolTable.popEnvironment();
 	symbolTable.setInfo(node.typeId.lexeme(), subVars);
+	declared(node.typeId.lexeme());
   }
   
   public void visit(ReturnStmt node) throws MyPLException {
 	hasReturn = true;
 	if (node.returnExpr != null) {
 		node.returnExpr.accept(this);
-		if (symbolTable.getEnvironmentId().equals(globalEnvId) &&
-			!currType.equals("int") && !currType.equals("nil"))
+		if (symbolTable.getEnvironment() == globalEnv &&
+			currType != Type.INT && currType != Type.NIL)
 				error("global return must be int or nil", getFirstToken(node.returnExpr));
 	}
 	else
-		currType = "nil";
+		currType = Type.NIL;
   }
   
   // helper functions
 
+  // records a declaration made in the global scope
+  private void declared(String name) {
+    if (symbolTable.getEnvironment() == globalEnv) {
+      globalNames.add(name);
+      globalInfos.add(symbolTable.getInfo(name));
+    }
+  }
+
   private void error(String msg, Token token) throws MyPLException {
     int row = token.row();
     int col = token.column();
@@ -484,6 +618,9 @@ public class TypeChecker implements Visitor {
 
   // gets first token of an expression
   private Token getFirstToken(Expr node) {
+    // follows left operands with a loop, since chains nest to the left
+    while (node.first instanceof ComplexTerm)
+      node = ((ComplexTerm)node.first).expr;
     return getFirstToken(node.first);
   }
 
@@ -5,6 +5,7 @@ public class TypeDeclStmt implements Stmt {
 
   public Token typeId = null;
   public ArrayList<VarDeclStmt> fields = new ArrayList<>();
+  public int frameSize = 0;          // slots for the fields, set by Resolver
   
   public void accept(Visitor visitor) throws MyPLException {
     visitor.visit(this);
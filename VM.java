@@ -0,0 +1,565 @@
+/**
+ * Author: Ben Comer
+ * File: VM.java
+ *
+ * Runs a program compiled to bytecode (see Bytecode) with a dispatch
+ * loop over its code. Values, frames and expression temporaries share
+ * one stack: a call's arguments become the first slots of its frame,
+ * which starts at fp, and the caller's pc and fp are kept on a
+ * separate call stack. The top-level program's frame is the global
+ * one, at 0.
+ *
+ * Values are the interpreter's (boxed ints and doubles, structs as
+ * object ids in the heap), created where the interpreter creates
+ * them, since = and != compare references. So programs give the same
+ * output and runtime errors as with the interpreter.
+ */
+
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+
+public class VM {
+
+  private Bytecode program = null;
+  private BytecodeCompiler compiler = null;     // of the function bodies
+  private int[] calls = new int[64];            // pc and fp of each caller
+  private int callDepth = 0;
+  private Map<Integer, Map<String, Object>> heap = new HashMap<>();
+
+
+  /**
+   * Compiles and runs the given (type checked) program, returning its
+   * exit code as Interpreter.run() does.
+   */
+  public Integer run(StmtList stmtList, boolean stackSafe) throws MyPLException {
+    BytecodeCompiler compiler = new BytecodeCompiler(stackSafe);
+    return run(compiler.compile(stmtList), compiler);
+  }
+
+
+  /**
+   * Runs the given program, compiling function bodies with the given
+   * compiler (which compiled the program) as they are first called.
+   */
+  public Integer run(Bytecode program, BytecodeCompiler compiler) throws MyPLException {
+    this.program = program;
+    this.compiler = compiler;
+    Object result = execute();
+    if (result == null)
+      return 0;
+    return (Integer)result;
+  }
+
+
+  // the dispatch loop, returning the top-level program's return value
+  // (the registers are locals, and each frame is entered with room for
+  // its operand stack, so pushes need no checks)
+  private Object execute() throws MyPLException {
+    int[] code = program.code;
+    Object[] constants = program.constants;
+    Object[] stack = new Object[Math.max(256, 2 * (program.globals + program.maxStack))];
+    int sp = program.globals;
+    int fp = 0;
+    int pc = 0;
+    while (true) {
+      int opcode = code[pc++];
+      switch (opcode) {
+
+      // binary operators, specialized ones falling back to the generic
+      // operator for other operand types (such as nil)
+      case Opcode.ADD_INT: {
+        Object b = stack[--sp], a = stack[sp - 1];
+        if (a instanceof Integer && b instanceof Integer)
+          stack[sp - 1] = (Integer)a + (Integer)b;
+        else
+          stack[sp - 1] = generic(Opcode.ADD, a, b, constants[code[pc]]);
+        ++pc;
+        break;
+      }
+      case Opcode.SUB_INT: {
+        Object b = stack[--sp], a = stack[sp - 1];
+        if (a instanceof Integer && b instanceof Integer)
+          stack[sp - 1] = (Integer)a - (Integer)b;
+        else
+          stack[sp - 1] = generic(Opcode.SUB, a, b, constants[code[pc]]);
+        ++pc;
+        break;
+      }
+      case Opcode.MUL_INT: {
+        Object b = stack[--sp], a = stack[sp - 1];
+        if (a instanceof Integer && b instanceof Integer)
+          stack[sp - 1] = (Integer)a * (Integer)b;
+        else
+          stack[sp - 1] = generic(Opcode.MUL, a, b, constants[code[pc]]);
+        ++pc;
+        break;
+      }
+      case Opcode.DIV_INT: {
+        Object b = stack[--sp], a = stack[sp - 1];
+        if (a instanceof Integer && b instanceof Integer)
+          stack[sp - 1] = (Integer)a / (Integer)b;
+        else
+          stack[sp - 1] = generic(Opcode.DIV, a, b, constants[code[pc]]);
+        ++pc;
+        break;
+      }
+      case Opcode.MOD_INT: {
+        Object b = stack[--sp], a = stack[sp - 1];
+        if (a instanceof Integer && b instanceof Integer)
+          stack[sp - 1] = (Integer)a % (Integer)b;
+        else
+          stack[sp - 1] = generic(Opcode.MOD, a, b, constants[code[pc]]);
+        ++pc;
+        break;
+      }
+      case Opcode.LT_INT: {
+        Object b = stack[--sp], a = stack[sp - 1];
+        if (a instanceof Integer && b instanceof Integer)
+          stack[sp - 1] = (Integer)a < (Integer)b;
+        else
+          stack[sp - 1] = generic(Opcode.LT, a, b, constants[code[pc]]);
+        ++pc;
+        break;
+      }
+      case Opcode.LE_INT: {
+        Object b = stack[--sp], a = stack[sp - 1];
+        if (a instanceof Integer && b instanceof Integer)
+          stack[sp - 1] = (Integer)a <= (Integer)b;
+        else
+          stack[sp - 1] = generic(Opcode.LE, a, b, constants[code[pc]]);
+        ++pc;
+        break;
+      }
+      case Opcode.GT_INT: {
+        Object b = stack[--sp], a = stack[sp - 1];
+        if (a instanceof Integer && b instanceof Integer)
+          stack[sp - 1] = (Integer)a > (Integer)b;
+        else
+          stack[sp - 1] = generic(Opcode.GT, a, b, constants[code[pc]]);
+        ++pc;
+        break;
+      }
+      case Opcode.GE_INT: {
+        Object b = stack[--sp], a = stack[sp - 1];
+        if (a instanceof Integer && b instanceof Integer)
+          stack[sp - 1] = (Integer)a >= (Integer)b;
+        else
+          stack[sp - 1] = generic(Opcode.GE, a, b, constants[code[pc]]);
+        ++pc;
+        break;
+      }
+      case Opcode.ADD_DOUBLE: {
+        Object b = stack[--sp], a = stack[sp - 1];
+        if (a instanceof Double && b instanceof Double)
+          stack[sp - 1] = (Double)a + (Double)b;
+        else
+          stack[sp - 1] = generic(Opcode.ADD, a, b, constants[code[pc]]);
+        ++pc;
+        break;
+      }
+      case Opcode.SUB_DOUBLE: {
+        Object b = stack[--sp], a = stack[sp - 1];
+        if (a instanceof Double && b instanceof Double)
+          stack[sp - 1] = (Double)a - (Double)b;
+        else
+          stack[sp - 1] = generic(Opcode.SUB, a, b, constants[code[pc]]);
+        ++pc;
+        break;
+      }
+      case Opcode.MUL_DOUBLE: {
+        Object b = stack[--sp], a = stack[sp - 1];
+        if (a instanceof Double && b instanceof Double)
+          stack[sp - 1] = (Double)a * (Double)b;
+        else
+          stack[sp - 1] = generic(Opcode.MUL, a, b, constants[code[pc]]);
+        ++pc;
+        break;
+      }
+      case Opcode.DIV_DOUBLE: {
+        Object b = stack[--sp], a = stack[sp - 1];
+        if (a instanceof Double && b instanceof Double)
+          stack[sp - 1] = (Double)a / (Double)b;
+        else
+          stack[sp - 1] = generic(Opcode.DIV, a, b, constants[code[pc]]);
+        ++pc;
+        break;
+      }
+      case Opcode.MOD_DOUBLE: {
+        Object b = stack[--sp], a = stack[sp - 1];
+        if (a instanceof Double && b instanceof Double)
+          stack[sp - 1] = (Double)a % (Double)b;
+        else
+          stack[sp - 1] = generic(Opcode.MOD, a, b, constants[code[pc]]);
+        ++pc;
+        break;
+      }
+      case Opcode.LT_DOUBLE: {
+        Object b = stack[--sp], a = stack[sp - 1];
+        if (a instanceof Double && b instanceof Double)
+          stack[sp - 1] = (Double)a < (Double)b;
+        else
+          stack[sp - 1] = generic(Opcode.LT, a, b, constants[code[pc]]);
+        ++pc;
+        break;
+      }
+      case Opcode.LE_DOUBLE: {
+        Object b = stack[--sp], a = stack[sp - 1];
+        if (a instanceof Double && b instanceof Double)
+          stack[sp - 1] = (Double)a <= (Double)b;
+        else
+          stack[sp - 1] = generic(Opcode.LE, a, b, constants[code[pc]]);
+        ++pc;
+        break;
+      }
+      case Opcode.GT_DOUBLE: {
+        Object b = stack[--sp], a = stack[sp - 1];
+        if (a instanceof Double && b instanceof Double)
+          stack[sp - 1] = (Double)a > (Double)b;
+        else
+          stack[sp - 1] = generic(Opcode.GT, a, b, constants[code[pc]]);
+        ++pc;
+        break;
+      }
+      case Opcode.GE_DOUBLE: {
+        Object b = stack[--sp], a = stack[sp - 1];
+        if (a instanceof Double && b instanceof Double)
+          stack[sp - 1] = (Double)a >= (Double)b;
+        else
+          stack[sp - 1] = generic(Opcode.GE, a, b, constants[code[pc]]);
+        ++pc;
+        break;
+      }
+      case Opcode.ADD: case Opcode.SUB: case Opcode.MUL: case Opcode.DIV:
+      case Opcode.MOD: case Opcode.AND: case Opcode.OR: case Opcode.EQ:
+      case Opcode.NE: case Opcode.LT: case Opcode.LE: case Opcode.GT:
+      case Opcode.GE: {
+        Object b = stack[--sp];
+        stack[sp - 1] = generic(opcode, stack[sp - 1], b, constants[code[pc++]]);
+        break;
+      }
+
+      // values
+      case Bytecode.NIL:
+        stack[sp++] = null;
+        break;
+      case Bytecode.CONST:
+        stack[sp++] = constants[code[pc++]];
+        break;
+      case Bytecode.INT:
+        stack[sp++] = (Integer)code[pc++];
+        break;
+      case Bytecode.PARSE_INT:
+        stack[sp++] = Integer.parseInt((String)constants[code[pc++]]);
+        break;
+      case Bytecode.DOUBLE:
+        // a new object each time, as in the interpreter
+        stack[sp++] = Double.valueOf((Double)constants[code[pc++]]);
+        break;
+
+      // variables and fields
+      case Bytecode.LOAD:
+        stack[sp++] = stack[fp + code[pc++]];
+        break;
+      case Bytecode.STORE:
+        stack[fp + code[pc++]] = stack[--sp];
+        stack[sp] = null;
+        break;
+      case Bytecode.GLOAD:
+        stack[sp++] = stack[code[pc++]];
+        break;
+      case Bytecode.GSTORE:
+        stack[code[pc++]] = stack[--sp];
+        stack[sp] = null;
+        break;
+      case Bytecode.GET_FIELD: {
+        Map<String, Object> obj = heap.get(stack[sp - 1]);
+        stack[sp - 1] = obj.get((String)constants[code[pc++]]);
+        break;
+      }
+      case Bytecode.SET_FIELD: {
+        Map<String, Object> obj = heap.get(stack[--sp]);
+        Object val = stack[--sp];
+        stack[sp] = null;
+        stack[sp + 1] = null;
+        obj.replace((String)constants[code[pc++]], val);
+        break;
+      }
+
+      case Bytecode.NOT:
+        stack[sp - 1] = !(Boolean)stack[sp - 1];
+        break;
+      case Bytecode.NEG: {
+        Object val = stack[sp - 1];
+        if (val instanceof Integer)
+          stack[sp - 1] = -(Integer)val;
+        else
+          stack[sp - 1] = -(Double)val;
+        break;
+      }
+      case Bytecode.POP:
+        stack[--sp] = null;
+        break;
+
+      // control
+      case Bytecode.JUMP:
+        pc = code[pc];
+        break;
+      case Bytecode.JUMP_FALSE: {
+        Object cond = stack[--sp];
+        stack[sp] = null;
+        if ((Boolean)cond)
+          ++pc;
+        else
+          pc = code[pc];
+        break;
+      }
+      case Bytecode.FOR_INIT: {
+        Object start = stack[--sp];
+        stack[sp] = null;
+        if ((Integer)start > (Integer)stack[fp + code[pc + 1]])
+          pc = code[pc + 2];
+        else {
+          stack[fp + code[pc]] = start;
+          pc += 3;
+        }
+        break;
+      }
+      case Bytecode.FOR_NEXT: {
+        int var = fp + code[pc];
+        stack[var] = (Integer)stack[var] + 1;
+        if ((Integer)stack[var] <= (Integer)stack[fp + code[pc + 1]])
+          pc = code[pc + 2];
+        else
+          pc += 3;
+        break;
+      }
+
+      // calls
+      case Bytecode.CHECK_NIL:
+        if (stack[sp - 1] == null)
+          error("nil value", (Token)constants[code[pc]]);
+        ++pc;
+        break;
+      case Bytecode.BUILTIN: {
+        ++Stats.builtInCalls;
+        Token funName = (Token)constants[code[pc++]];
+        int argc = code[pc++];
+        Object[] args = Arrays.copyOfRange(stack, sp - argc, sp);
+        Arrays.fill(stack, sp - argc, sp, null);
+        sp -= argc;
+        stack[sp++] = builtIn(funName, args);
+        break;
+      }
+      case Bytecode.CALL: {
+        ++Stats.userCalls;
+        Bytecode.Function f = program.functions.get(code[pc++]);
+        int argc = code[pc++];
+        if (f.entry < 0) {
+          compiler.compileFunction(f);
+          code = program.code;
+          constants = program.constants;
+        }
+        saveCaller(pc, fp);
+        fp = sp - argc;
+        sp = fp + f.frameSize;
+        stack = room(stack, sp + f.maxStack);
+        pc = f.entry;
+        break;
+      }
+      case Bytecode.NEW: {
+        Bytecode.Struct type = program.types.get(code[pc++]);
+        saveCaller(pc, fp);
+        fp = sp;
+        sp = fp + type.frameSize;
+        stack = room(stack, sp + type.maxStack);
+        pc = type.entry;
+        break;
+      }
+      case Bytecode.MAKE: {
+        Bytecode.Struct type = program.types.get(code[pc++]);
+        Map<String, Object> obj = new HashMap<>();
+        for (int i = 0; i < type.names.length; ++i)
+          obj.put(type.names[i], stack[fp + type.slots[i]]);
+        int objectId = System.identityHashCode(obj);
+        heap.put(objectId, obj);
+        ++Stats.heapObjects;
+        stack[sp++] = objectId;
+        break;
+      }
+      case Bytecode.RETURN: {
+        Object result = stack[--sp];
+        if (callDepth == 0)
+          return result;
+        // drop the frame and go back to the caller
+        Arrays.fill(stack, fp, sp, null);
+        sp = fp;
+        fp = calls[--callDepth];
+        pc = calls[--callDepth];
+        stack[sp++] = result;
+        break;
+      }
+
+      default:
+        throw new IllegalStateException("bad instruction " + opcode + " at " + (pc - 1));
+      }
+    }
+  }
+
+
+  // pushes a caller's pc and fp on the call stack
+  private void saveCaller(int pc, int fp) {
+    if (callDepth + 2 > calls.length)
+      calls = Arrays.copyOf(calls, calls.length * 2);
+    calls[callDepth++] = pc;
+    calls[callDepth++] = fp;
+  }
+
+  // the stack, grown if it cannot hold size slots
+  private static Object[] room(Object[] stack, int size) {
+    if (size <= stack.length)
+      return stack;
+    return Arrays.copyOf(stack, Math.max(size, stack.length * 2));
+  }
+
+
+  // applies a generic operator, finding the operand types at run time
+  // (tokens holds the first tokens of the operands, for errors)
+  private static Object generic(int op, Object a, Object b, Object tokens)
+    throws MyPLException
+  {
+    switch (op) {
+    case Opcode.ADD:
+      operands(a, b, tokens, "cannot operate with nil");
+      if (a instanceof Integer)
+        return (Integer)a + (Integer)b;
+      return (Double)a + (Double)b;
+    case Opcode.SUB:
+      operands(a, b, tokens, "cannot operate with nil");
+      if (a instanceof Integer)
+        return (Integer)a - (Integer)b;
+      return (Double)a - (Double)b;
+    case Opcode.MUL:
+      operands(a, b, tokens, "cannot operate with nil");
+      if (a instanceof Integer)
+        return (Integer)a * (Integer)b;
+      return (Double)a * (Double)b;
+    case Opcode.DIV:
+      operands(a, b, tokens, "cannot operate with nil");
+      if (a instanceof Integer)
+        return (Integer)a / (Integer)b;
+      return (Double)a / (Double)b;
+    case Opcode.MOD:
+      operands(a, b, tokens, "cannot operate with nil");
+      if (a instanceof Integer)
+        return (Integer)a % (Integer)b;
+      return (Double)a % (Double)b;
+    case Opcode.AND:
+      operands(a, b, tokens, "cannot operate with nil");
+      return (Boolean)a && (Boolean)b;
+    case Opcode.OR:
+      operands(a, b, tokens, "cannot operate with nil");
+      return (Boolean)a || (Boolean)b;
+    case Opcode.EQ:
+      if (a == null ^ b == null)
+        return false;
+      return a == b;
+    case Opcode.NE:
+      if (a == null ^ b == null)
+        return true;
+      return a != b;
+    case Opcode.LT:
+      operands(a, b, tokens, "cannot compare with nil");
+      if (a instanceof Integer)
+        return (Integer)a < (Integer)b;
+      if (a instanceof Double)
+        return (Double)a < (Double)b;
+      return ((String)a).compareTo((String)b) < 0;
+    case Opcode.LE:
+      operands(a, b, tokens, "cannot compare with nil");
+      if (a instanceof Integer)
+        return (Integer)a <= (Integer)b;
+      if (a instanceof Double)
+        return (Double)a <= (Double)b;
+      return ((String)a).compareTo((String)b) <= 0;
+    case Opcode.GT:
+      operands(a, b, tokens, "cannot compare with nil");
+      if (a instanceof Integer)
+        return (Integer)a > (Integer)b;
+      if (a instanceof Double)
+        return (Double)a > (Double)b;
+      return ((String)a).compareTo((String)b) > 0;
+    case Opcode.GE:
+      operands(a, b, tokens, "cannot compare with nil");
+      if (a instanceof Integer)
+        return (Integer)a >= (Integer)b;
+      if (a instanceof Double)
+        return (Double)a >= (Double)b;
+      return ((String)a).compareTo((String)b) >= 0;
+    default:
+      throw new IllegalStateException("bad opcode " + op);
+    }
+  }
+
+  // reports a nil operand
+  private static void operands(Object a, Object b, Object tokens, String msg)
+    throws MyPLException
+  {
+    if (a == null)
+      error(msg, ((Token[])tokens)[0]);
+    if (b == null)
+      error(msg, ((Token[])tokens)[1]);
+  }
+
+  // runs a built-in function on its evaluated arguments
+  private static Object builtIn(Token funName, Object[] args) throws MyPLException {
+    switch (funName.lexeme()) {
+    case "print":
+      // Fix '\' 'n' issue
+      String msg = (String)args[0];
+      msg = msg.replace("\\n", "\n");
+      msg = msg.replace("\\t", "\t");
+      System.out.print(msg);
+      return null;
+    case "read":
+      BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+      try {
+        return reader.readLine();
+      } catch (Exception e) {
+        return null;
+      }
+    case "get":
+      int index = (Integer)args[0];
+      String str = (String)args[1];
+      if (index >= str.length())
+        error("index selected out of range", funName);
+      return (Character)str.charAt(index);
+    case "concat":
+      return (String)args[0] + (String)args[1];
+    case "append":
+      if (args[1] instanceof Character)
+        return (String)args[0] + (Character)args[1];
+      return (String)args[0] + (String)args[1];
+    case "length":
+      return (Integer)((String)args[0]).length();
+    case "itos":
+    case "dtos":
+      return args[0].toString();
+    case "stoi":
+      return Integer.parseInt((String)args[0]);
+    case "stod":
+      return Double.parseDouble((String)args[0]);
+    default:
+      return null;
+    }
+  }
+
+  private static void error(String msg, Token token) throws MyPLException {
+    throw new MyPLException("\nRuntime", msg, token.row(), token.column());
+  }
+
+}
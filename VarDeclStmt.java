@@ -5,6 +5,8 @@ public class VarDeclStmt implements Stmt {
   public Token varId = null;
   public Token varType = null;
   public Expr varExpr = null;
+  public int depth = -1;             // address of the variable,
+  public int slot = -1;              // set by Resolver
   
   public void accept(Visitor visitor) throws MyPLException {
     visitor.visit(this);